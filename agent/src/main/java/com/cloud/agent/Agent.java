@@ -142,6 +142,10 @@ public class Agent implements HandlerFactory, IAgentControl {
     long _startupWaitDefault = 180000;
     long _startupWait = _startupWaitDefault;
     boolean _reconnectAllowed = true;
+    // set from a retry-later StartupAnswer, reconnect() waits until then
+    volatile long _reconnectNotBefore = 0;
+    // Request version negotiated with the management server in the StartupAnswer, v1 until then
+    volatile Request.Version _requestVersion = Request.Version.v1;
     //For time sentitive task, e.g. PingTask
     ThreadPoolExecutor _ugentTaskPool;
     ExecutorService _executor;
@@ -437,6 +441,8 @@ public class Agent implements HandlerFactory, IAgentControl {
             }
             final Request request = new Request(_id != null ? _id : -1, -1, commands, false, false);
             request.setSequence(getNextSequence());
+            // the management server at the other end may predate v4, talk v1 until its answer says otherwise
+            _requestVersion = Request.Version.v1;
 
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending Startup: " + request.toString());
@@ -473,6 +479,8 @@ public class Agent implements HandlerFactory, IAgentControl {
         startup.setGuid(getResourceGuid());
         startup.setResourceName(getResourceName());
         startup.setVersion(getVersion());
+        startup.setRetryLaterSupported(true);
+        startup.setRequestVersion(Request.CURRENT_VERSION);
     }
 
     @Override
@@ -515,6 +523,16 @@ public class Agent implements HandlerFactory, IAgentControl {
             _shell.getBackoffAlgorithm().waitBeforeRetry();
         }
 
+        final long retryDelay = _reconnectNotBefore - System.currentTimeMillis();
+        if (retryDelay > 0) {
+            s_logger.info("Waiting " + retryDelay + " ms before reconnecting as asked by the management server");
+            try {
+                Thread.sleep(retryDelay);
+            } catch (final InterruptedException e) {
+                s_logger.debug("Interrupted while waiting to reconnect");
+            }
+        }
+
         do {
             final String host = _shell.getNextHost();
             _connection = new NioClient("Agent", host, _shell.getPort(), _shell.getWorkers(), this);
@@ -547,6 +565,11 @@ public class Agent implements HandlerFactory, IAgentControl {
             }
         }
         final StartupAnswer startup = (StartupAnswer)answer;
+        if (startup.isRetryLater()) {
+            s_logger.info("Management server is busy, it will close the connection and we will reconnect in " + startup.getRetryAfter() + " seconds: " + answer.getDetails());
+            _reconnectNotBefore = System.currentTimeMillis() + startup.getRetryAfter() * 1000L;
+            return;
+        }
         if (!startup.getResult()) {
             s_logger.error("Not allowed to connect to the server: " + answer.getDetails());
             System.exit(1);
@@ -559,6 +582,7 @@ public class Agent implements HandlerFactory, IAgentControl {
         s_logger.info("Proccess agent startup answer, agent id = " + startup.getHostId());
 
         setId(startup.getHostId());
+        _requestVersion = Request.negotiateVersion(startup.getRequestVersion());
         _pingInterval = (long)startup.getPingInterval() * 1000; // change to ms.
 
         setLastPingResponseTime();
@@ -837,6 +861,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            request.setVersion(_requestVersion);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
@@ -935,6 +960,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     private void postRequest(final Request request) throws AgentControlChannelException {
         if (_link != null) {
             try {
+                request.setVersion(_requestVersion);
                 _link.send(request.toBytes());
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to post agent control reques: " + request.toString());
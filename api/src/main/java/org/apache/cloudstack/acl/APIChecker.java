@@ -16,6 +16,9 @@
 // under the License.
 package org.apache.cloudstack.acl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.user.User;
 import com.cloud.utils.component.Adapter;
@@ -27,4 +30,19 @@ public interface APIChecker extends Adapter {
     // If false, apiChecker is unable to handle the operation or not implemented
     // On exception, checkAccess failed don't allow
     boolean checkAccess(User user, String apiCommandName) throws PermissionDeniedException;
+
+    // Returns the APIs of the list the user is allowed to call, checkers able to decide
+    // for many APIs at once should override it
+    default List<String> getApisAllowedToUser(User user, List<String> apiNames) throws PermissionDeniedException {
+        List<String> allowedApis = new ArrayList<String>();
+        for (String apiName : apiNames) {
+            try {
+                checkAccess(user, apiName);
+                allowedApis.add(apiName);
+            } catch (PermissionDeniedException e) {
+                continue;
+            }
+        }
+        return allowedApis;
+    }
 }
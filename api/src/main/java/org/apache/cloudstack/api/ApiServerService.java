@@ -41,6 +41,13 @@ public interface ApiServerService {
 
     public String handleRequest(Map<String, Object[]> params, String responseType, StringBuilder auditTrailSb) throws ServerApiException;
 
+    /**
+     * Same as handleRequest(params, responseType, auditTrailSb), but writes the response to out while it is
+     * serialized instead of returning it.
+     * @return false if the command is not handled here, e.g. login and logout, and nothing was written
+     */
+    public boolean handleRequest(Map<String, Object[]> params, String responseType, StringBuilder auditTrailSb, Appendable out) throws ServerApiException;
+
     public Class<?> getCmdClass(String cmdName);
 
     public boolean isValidApiName(String apiName);
@@ -40,6 +40,15 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
     @Parameter(name = ApiConstants.PAGE_SIZE, type = CommandType.INTEGER)
     private Integer pageSize;
 
+    @Parameter(name = ApiConstants.PAGE_TOKEN, type = CommandType.STRING, since = "4.15.0",
+            description = "Opaque token returned as nextpagetoken by the previous page; lists the entries following it. Only supported by some list APIs")
+    private String pageToken;
+
+    @Parameter(name = ApiConstants.USE_PAGE_TOKEN, type = CommandType.BOOLEAN, since = "4.15.0",
+            description = "If true, page with nextpagetoken instead of page. The total number of entries isn't counted, so the response has no count; "
+                    + "it has a nextpagetoken as long as more entries follow. Only supported by some list APIs")
+    private Boolean usePageToken;
+
     // ///////////////////////////////////////////////////
     // ///////////////// Accessors ///////////////////////
     // ///////////////////////////////////////////////////
@@ -70,6 +79,24 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
         return pageSize;
     }
 
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    /**
+     * @return true if the caller asked for token based (keyset) pagination, either explicitly or by passing a token
+     */
+    public boolean isPageTokenRequested() {
+        return isPageTokenSupported() && (pageToken != null || (usePageToken != null && usePageToken));
+    }
+
+    /**
+     * List commands whose query supports seeking from the last returned row override this to enable pagetoken.
+     */
+    protected boolean isPageTokenSupported() {
+        return false;
+    }
+
     @Override
     public void configure() {
         if (s_maxPageSize == null) {
@@ -132,6 +159,17 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
             pageSize = Long.valueOf((String)pageSizeObj);
         }
 
+        final boolean pageTokenRequested = params.get(ApiConstants.PAGE_TOKEN) != null || Boolean.parseBoolean(params.get(ApiConstants.USE_PAGE_TOKEN));
+        if (pageTokenRequested) {
+            if (!isPageTokenSupported()) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"pagetoken\" and \"usepagetoken\" are not supported by this API");
+            }
+            if (params.get(ApiConstants.PAGE) != null) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter can't be combined with \"pagetoken\" or \"usepagetoken\"");
+            }
+            return;
+        }
+
         if (params.get(ApiConstants.PAGE) == null &&
                 pageSize != null &&
                 !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
@@ -108,6 +108,11 @@ public class ListEventsCmd extends BaseListProjectAndAccountResourcesCmd {
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
 
+    @Override
+    protected boolean isPageTokenSupported() {
+        return true;
+    }
+
     @Override
     public String getCommandName() {
         return s_name;
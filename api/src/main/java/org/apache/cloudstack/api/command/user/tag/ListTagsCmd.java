@@ -74,6 +74,11 @@ public class ListTagsCmd extends BaseListProjectAndAccountResourcesCmd {
         return value;
     }
 
+    @Override
+    protected boolean isPageTokenSupported() {
+        return true;
+    }
+
     @Override
     public String getCommandName() {
         return s_name;
@@ -240,6 +240,11 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd implements UserCmd {
     /////////////////////////////////////////////////////
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
+    @Override
+    protected boolean isPageTokenSupported() {
+        return true;
+    }
+
     @Override
     public String getCommandName() {
         return s_name;
@@ -151,6 +151,11 @@ public class ListVolumesCmd extends BaseListTaggedResourcesCmd implements UserCm
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
 
+    @Override
+    protected boolean isPageTokenSupported() {
+        return true;
+    }
+
     @Override
     public String getCommandName() {
         return s_name;
@@ -24,6 +24,8 @@ import org.apache.cloudstack.api.ResponseObject;
 public class ListResponse<T extends ResponseObject> extends BaseResponse {
     List<T> responses;
     private transient Integer count;
+    private transient String nextPageToken;
+    private transient boolean pagedByToken;
 
     public List<T> getResponses() {
         return responses;
@@ -38,7 +40,23 @@ public class ListResponse<T extends ResponseObject> extends BaseResponse {
         this.count = count;
     }
 
+    /**
+     * Sets a page of a token paged list. The total number of entries isn't known, so no count is reported.
+     *
+     * @param nextPageToken token of the following page, null for the last page
+     */
+    public void setResponsePage(List<T> responses, String nextPageToken) {
+        this.responses = responses;
+        this.count = null;
+        this.nextPageToken = nextPageToken;
+        this.pagedByToken = true;
+    }
+
     public Integer getCount() {
+        if (pagedByToken) {
+            return null;
+        }
+
         if (count != null) {
             return count;
         }
@@ -49,4 +67,12 @@ public class ListResponse<T extends ResponseObject> extends BaseResponse {
 
         return null;
     }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean isPagedByToken() {
+        return pagedByToken;
+    }
 }
@@ -0,0 +1,49 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.api;
+
+import java.util.Map;
+
+public class CheckOnHostsAnswer extends Answer {
+    Map<String, Boolean> heartBeats;
+
+    protected CheckOnHostsAnswer() {
+    }
+
+    /**
+     * @param heartBeats whether each checked host, by guid, is heart beating. As for a single host check, true also means the
+     *                   status of the host could not be determined.
+     */
+    public CheckOnHostsAnswer(CheckOnHostsCommand cmd, Map<String, Boolean> heartBeats) {
+        super(cmd, true, null);
+        this.heartBeats = heartBeats;
+    }
+
+    public CheckOnHostsAnswer(CheckOnHostsCommand cmd, String details) {
+        super(cmd, false, details);
+    }
+
+    /**
+     * @return whether the host is heart beating, or null if it was not part of the check
+     */
+    public Boolean isHeartBeating(String hostGuid) {
+        return heartBeats == null ? null : heartBeats.get(hostGuid);
+    }
+}
@@ -1,3 +1,4 @@
+//
 // Licensed to the Apache Software Foundation (ASF) under one
 // or more contributor license agreements.  See the NOTICE file
 // distributed with this work for additional information
@@ -14,46 +15,40 @@
 // KIND, either express or implied.  See the License for the
 // specific language governing permissions and limitations
 // under the License.
-package org.apache.cloudstack.ratelimit;
-
-import java.util.concurrent.atomic.AtomicInteger;
+//
 
-/**
- * Implementation of limit store entry.
- *
- */
-public class StoreEntryImpl implements StoreEntry {
+package com.cloud.agent.api;
 
-    private final long expiry;
+import java.util.ArrayList;
+import java.util.List;
 
-    private final AtomicInteger counter;
+import com.cloud.agent.api.to.HostTO;
+import com.cloud.host.Host;
 
-    StoreEntryImpl(int timeToLive) {
-        this.expiry = System.currentTimeMillis() + timeToLive * 1000;
-        this.counter = new AtomicInteger(0);
-    }
+/**
+ * Asks a host whether the given hosts are still heart beating on the shared storage, so several suspect hosts of a cluster can be
+ * investigated in one round trip to each of their neighbours.
+ */
+public class CheckOnHostsCommand extends Command {
+    List<HostTO> hosts;
 
-    @Override
-    public boolean isExpired() {
-        return System.currentTimeMillis() > expiry;
+    protected CheckOnHostsCommand() {
     }
 
-    @Override
-    public long getExpireDuration() {
-        if (isExpired())
-            return 0; // already expired
-        else {
-            return expiry - System.currentTimeMillis();
+    public CheckOnHostsCommand(List<? extends Host> hosts) {
+        this.hosts = new ArrayList<HostTO>(hosts.size());
+        for (Host host : hosts) {
+            this.hosts.add(new HostTO(host));
         }
+        setWait(20);
     }
 
-    @Override
-    public int incrementAndGet() {
-        return this.counter.incrementAndGet();
+    public List<HostTO> getHosts() {
+        return hosts;
     }
 
     @Override
-    public int getCounter() {
-        return this.counter.get();
+    public boolean executeInSequence() {
+        return false;
     }
 }
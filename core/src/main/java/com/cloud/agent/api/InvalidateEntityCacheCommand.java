@@ -0,0 +1,51 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.agent.api;
+
+/*
+ * This is used to tell MS peers that rows of a table have changed so that they drop them
+ * from their entity caches. A null list of ids means every row of the table.
+ */
+public class InvalidateEntityCacheCommand extends Command {
+    private String table;
+    private long[] ids;
+
+    protected InvalidateEntityCacheCommand() {
+    }
+
+    public InvalidateEntityCacheCommand(String table, long[] ids) {
+        this.table = table;
+        this.ids = ids;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public long[] getIds() {
+        return ids;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false; // standalone command and can be executed independent of other commands
+    }
+}
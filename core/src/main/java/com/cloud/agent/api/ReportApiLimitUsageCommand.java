@@ -0,0 +1,60 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.agent.api;
+
+/*
+ * This is used to tell MS peers how many API requests of each account a management server
+ * accepted in the current rate limit window, so that the limit holds across the cluster.
+ * Peers hand it to the rate limiter through the message bus topic below.
+ */
+public class ReportApiLimitUsageCommand extends Command {
+    public static final String TOPIC = "api.limit.usage";
+
+    private long msId;
+    private long[] accountIds;
+    private int[] usage;
+
+    protected ReportApiLimitUsageCommand() {
+    }
+
+    public ReportApiLimitUsageCommand(long msId, long[] accountIds, int[] usage) {
+        this.msId = msId;
+        this.accountIds = accountIds;
+        this.usage = usage;
+    }
+
+    public long getMsId() {
+        return msId;
+    }
+
+    public long[] getAccountIds() {
+        return accountIds;
+    }
+
+    public int[] getUsage() {
+        return usage;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false; // standalone command and can be executed independent of other commands
+    }
+}
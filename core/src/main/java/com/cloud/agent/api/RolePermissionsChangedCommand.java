@@ -0,0 +1,48 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.agent.api;
+
+/*
+ * This is used to tell MS peers that the permissions of a role changed, so that the API
+ * access checkers drop what they compiled from them. Peers hand it over through the
+ * message bus topic below, with the role id, or null for all roles, as argument.
+ */
+public class RolePermissionsChangedCommand extends Command {
+    public static final String TOPIC = "role.permissions.changed";
+
+    private Long roleId;
+
+    protected RolePermissionsChangedCommand() {
+    }
+
+    public RolePermissionsChangedCommand(Long roleId) {
+        this.roleId = roleId;
+    }
+
+    public Long getRoleId() {
+        return roleId;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false; // standalone command and can be executed independent of other commands
+    }
+}
@@ -0,0 +1,45 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.agent.api;
+
+/*
+ * This is used to tell the MS peer that owns a sync queue that an item was queued into it
+ * or released from it, so that it dispatches the next item of the queue.
+ */
+public class SignalSyncQueueCommand extends Command {
+    private long queueId;
+
+    protected SignalSyncQueueCommand() {
+    }
+
+    public SignalSyncQueueCommand(long queueId) {
+        this.queueId = queueId;
+    }
+
+    public long getQueueId() {
+        return queueId;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false; // standalone command and can be executed independent of other commands
+    }
+}
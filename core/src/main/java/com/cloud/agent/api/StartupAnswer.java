@@ -19,9 +19,13 @@
 
 package com.cloud.agent.api;
 
+import com.cloud.agent.transport.Request;
+
 public class StartupAnswer extends Answer {
     long hostId;
     int pingInterval;
+    int retryAfter;
+    Request.Version requestVersion;
 
     protected StartupAnswer() {
     }
@@ -36,6 +40,17 @@ public class StartupAnswer extends Answer {
         super(cmd, false, details);
     }
 
+    /**
+     * Tells the agent that the management server is too busy to take the
+     * connection now and that it should reconnect after retryAfter seconds.
+     * Only sent to agents that report StartupCommand.isRetryLaterSupported(),
+     * older agents treat an unsuccessful startup answer as fatal.
+     */
+    public StartupAnswer(StartupCommand cmd, int retryAfter, String details) {
+        super(cmd, false, details);
+        this.retryAfter = retryAfter;
+    }
+
     public long getHostId() {
         return hostId;
     }
@@ -43,4 +58,24 @@ public class StartupAnswer extends Answer {
     public int getPingInterval() {
         return pingInterval;
     }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public boolean isRetryLater() {
+        return retryAfter > 0;
+    }
+
+    /**
+     * @return the Request version the management server sends its requests in and accepts from the agent, null from
+     *         management servers that predate the version handshake, which only parse v1
+     */
+    public Request.Version getRequestVersion() {
+        return requestVersion;
+    }
+
+    public void setRequestVersion(Request.Version requestVersion) {
+        this.requestVersion = requestVersion;
+    }
 }
@@ -19,6 +19,7 @@
 
 package com.cloud.agent.api;
 
+import com.cloud.agent.transport.Request;
 import com.cloud.host.Host;
 
 public class StartupCommand extends Command {
@@ -47,6 +48,8 @@ public class StartupCommand extends Command {
     String resourceName;
     String gatewayIpAddress;
     String msHostList;
+    boolean retryLaterSupported;
+    Request.Version requestVersion;
 
     public StartupCommand(Host.Type type) {
         this.type = type;
@@ -290,6 +293,28 @@ public class StartupCommand extends Command {
         this.msHostList = msHostList;
     }
 
+    /**
+     * @return true if the agent understands a retry-later StartupAnswer, agents that predate it leave this unset
+     */
+    public boolean isRetryLaterSupported() {
+        return retryLaterSupported;
+    }
+
+    public void setRetryLaterSupported(boolean retryLaterSupported) {
+        this.retryLaterSupported = retryLaterSupported;
+    }
+
+    /**
+     * @return the newest Request version the agent parses, null for agents that predate the version handshake and only parse v1
+     */
+    public Request.Version getRequestVersion() {
+        return requestVersion;
+    }
+
+    public void setRequestVersion(Request.Version requestVersion) {
+        this.requestVersion = requestVersion;
+    }
+
     @Override
     public boolean executeInSequence() {
         return false;
@@ -0,0 +1,219 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.Arrays;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Compresses and decompresses in the LZ4 block format: a sequence of literal runs and back references into the last 64 KB of
+ * output, without any framing. The uncompressed size is not part of the block and has to be carried separately, as the
+ * request header does. Compression is a single greedy pass over a small hash table of 4 byte prefixes, which trades ratio for
+ * being several times faster than deflate.
+ */
+public final class Lz4Codec {
+    private static final int MIN_MATCH = 4;
+    // the last match has to start 12 bytes before the end of the block, and the last 5 bytes are always literals
+    private static final int MF_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 15;
+
+    private Lz4Codec() {
+    }
+
+    /**
+     * @return the size of the largest block that compressing length bytes can produce
+     */
+    public static int maxCompressedLength(final int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses srcLen bytes of src into dest, which must have room for maxCompressedLength(srcLen) bytes.
+     *
+     * @return the size of the compressed block
+     */
+    public static int compress(final byte[] src, final int srcOff, final int srcLen, final byte[] dest, final int destOff) {
+        final int srcEnd = srcOff + srcLen;
+        final int mfLimit = srcEnd - MF_LIMIT;
+        final int matchLimit = srcEnd - LAST_LITERALS;
+
+        int dOff = destOff;
+        int anchor = srcOff;
+        if (srcLen > MF_LIMIT) {
+            final int[] hashTable = new int[1 << HASH_LOG];
+            Arrays.fill(hashTable, srcOff);
+
+            int sOff = srcOff + 1;
+            while (sOff <= mfLimit) {
+                final int sequence = readInt(src, sOff);
+                final int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = sOff;
+                if (ref >= sOff || sOff - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    sOff++;
+                    continue;
+                }
+
+                while (sOff > anchor && ref > srcOff && src[sOff - 1] == src[ref - 1]) {
+                    sOff--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (sOff + matchLen < matchLimit && src[sOff + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+
+                dOff = writeSequence(src, anchor, sOff - anchor, sOff - ref, matchLen, dest, dOff);
+                sOff += matchLen;
+                anchor = sOff;
+            }
+        }
+
+        final int literals = srcEnd - anchor;
+        final int token = dOff++;
+        dest[token] = (byte)(Math.min(literals, RUN_MASK) << 4);
+        if (literals >= RUN_MASK) {
+            dOff = writeLength(literals - RUN_MASK, dest, dOff);
+        }
+        System.arraycopy(src, anchor, dest, dOff, literals);
+        dOff += literals;
+        return dOff - destOff;
+    }
+
+    /**
+     * Decompresses the srcLen bytes block in src into exactly destLen bytes of dest.
+     *
+     * @throws CloudRuntimeException if the block is corrupt, truncated or does not decompress to destLen bytes
+     */
+    public static void decompress(final byte[] src, final int srcOff, final int srcLen, final byte[] dest, final int destOff, final int destLen) {
+        final int srcEnd = srcOff + srcLen;
+        final int destEnd = destOff + destLen;
+        int sOff = srcOff;
+        int dOff = destOff;
+
+        while (true) {
+            if (sOff >= srcEnd) {
+                throw new CloudRuntimeException("Truncated LZ4 block");
+            }
+            final int token = src[sOff++] & 0xFF;
+
+            int literals = token >>> 4;
+            if (literals == RUN_MASK) {
+                int b;
+                do {
+                    if (sOff >= srcEnd) {
+                        throw new CloudRuntimeException("Truncated LZ4 block");
+                    }
+                    b = src[sOff++] & 0xFF;
+                    literals += b;
+                } while (b == 255 && literals > 0);
+            }
+            if (literals < 0 || literals > srcEnd - sOff || literals > destEnd - dOff) {
+                throw new CloudRuntimeException("Corrupt LZ4 block, literals overflow the block or the output");
+            }
+            System.arraycopy(src, sOff, dest, dOff, literals);
+            sOff += literals;
+            dOff += literals;
+
+            if (sOff == srcEnd) {
+                // the last sequence has no match
+                break;
+            }
+
+            if (srcEnd - sOff < 2) {
+                throw new CloudRuntimeException("Truncated LZ4 block");
+            }
+            final int offset = (src[sOff++] & 0xFF) | ((src[sOff++] & 0xFF) << 8);
+            if (offset == 0 || offset > dOff - destOff) {
+                throw new CloudRuntimeException("Corrupt LZ4 block, match offset " + offset + " is out of the output");
+            }
+
+            int matchLen = token & RUN_MASK;
+            if (matchLen == RUN_MASK) {
+                int b;
+                do {
+                    if (sOff >= srcEnd) {
+                        throw new CloudRuntimeException("Truncated LZ4 block");
+                    }
+                    b = src[sOff++] & 0xFF;
+                    matchLen += b;
+                } while (b == 255 && matchLen > 0);
+            }
+            matchLen += MIN_MATCH;
+            if (matchLen < MIN_MATCH || matchLen > destEnd - dOff) {
+                throw new CloudRuntimeException("Corrupt LZ4 block, match overflows the output");
+            }
+
+            final int ref = dOff - offset;
+            if (offset >= matchLen) {
+                System.arraycopy(dest, ref, dest, dOff, matchLen);
+            } else {
+                // overlapping match, repeats the last offset bytes
+                for (int i = 0; i < matchLen; i++) {
+                    dest[dOff + i] = dest[ref + i];
+                }
+            }
+            dOff += matchLen;
+        }
+
+        if (dOff != destEnd) {
+            throw new CloudRuntimeException("LZ4 block decompressed to " + (dOff - destOff) + " bytes instead of " + destLen);
+        }
+    }
+
+    private static int writeSequence(final byte[] src, final int literalOff, final int literals, final int offset, final int matchLen,
+            final byte[] dest, int dOff) {
+        final int matchRun = matchLen - MIN_MATCH;
+        final int token = dOff++;
+        dest[token] = (byte)((Math.min(literals, RUN_MASK) << 4) | Math.min(matchRun, RUN_MASK));
+        if (literals >= RUN_MASK) {
+            dOff = writeLength(literals - RUN_MASK, dest, dOff);
+        }
+        System.arraycopy(src, literalOff, dest, dOff, literals);
+        dOff += literals;
+        dest[dOff++] = (byte)offset;
+        dest[dOff++] = (byte)(offset >>> 8);
+        if (matchRun >= RUN_MASK) {
+            dOff = writeLength(matchRun - RUN_MASK, dest, dOff);
+        }
+        return dOff;
+    }
+
+    private static int writeLength(int length, final byte[] dest, int dOff) {
+        while (length >= 255) {
+            dest[dOff++] = (byte)255;
+            length -= 255;
+        }
+        dest[dOff++] = (byte)length;
+        return dOff;
+    }
+
+    private static int readInt(final byte[] buf, final int off) {
+        return (buf[off] & 0xFF) | ((buf[off + 1] & 0xFF) << 8) | ((buf[off + 2] & 0xFF) << 16) | ((buf[off + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(final int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -85,7 +86,8 @@ public class Request {
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
-        v3; // Adding routing information into the Request data structure.
+        v3, // Adding routing information into the Request data structure.
+        v4; // v1 header, UTF-8 payload compressed with LZ4 instead of gzip. Only sent to peers that reported it at startup.
 
         public static Version get(final byte ver) throws UnsupportedVersionException {
             for (final Version version : Version.values()) {
@@ -105,6 +107,15 @@ public class Request {
     protected static final short FLAG_CONTROL = 0x40;
     protected static final short FLAG_COMPRESSED = 0x80;
 
+    protected static final int COMPRESSION_THRESHOLD = 8192;
+    protected static final int COMPRESSION_BUFFER_SIZE = 8192;
+    protected static final int HEADER_SIZE = 40;
+
+    /**
+     * The newest version this side parses, reported to the other side of an agent connection on startup.
+     */
+    public static final Version CURRENT_VERSION = Version.v4;
+
     protected Version _ver;
     protected long _session;
     protected long _seq;
@@ -115,6 +126,10 @@ public class Request {
     protected Command[] _cmds;
     protected String _content;
     protected String _agentName;
+    // payload as received when only the header was parsed, see parseHeader()
+    protected byte[] _raw;
+    // uncompressed size of _raw, or of the payload last serialized as v4
+    protected int _contentSize;
 
     protected Request() {
     }
@@ -158,6 +173,28 @@ public class Request {
         _seq = seq;
     }
 
+    /**
+     * @param peerVersion the newest version the other side of a connection reported, null if it did not report any
+     * @return the version to send requests in over that connection
+     */
+    public static Version negotiateVersion(Version peerVersion) {
+        if (peerVersion != null && peerVersion.ordinal() >= Version.v4.ordinal()) {
+            return Version.v4;
+        }
+        return Version.v1;
+    }
+
+    /**
+     * Sets the wire format of this request, v1 or v4. Responses are sent in the version of their request, and requests
+     * relayed as received keep theirs.
+     */
+    public void setVersion(Version ver) {
+        assert ver == Version.v1 || ver == Version.v4 : "Requests are only sent as v1 or v4, not " + ver;
+        if (_raw == null) {
+            _ver = ver;
+        }
+    }
+
     protected void setInSequence(Command[] cmds) {
         if (cmds == null) {
             return;
@@ -247,14 +284,14 @@ public class Request {
     public Command[] getCommands() {
         if (_cmds == null) {
             try {
-                StringReader reader = new StringReader(_content);
+                StringReader reader = new StringReader(getContent());
                 JsonReader jsonReader = new JsonReader(reader);
                 jsonReader.setLenient(true);
                 _cmds = s_gson.fromJson(jsonReader, (Type)Command[].class);
             } catch (JsonParseException e) {
                 _cmds = new Command[] { new BadCommand() };
             } catch (RuntimeException e) {
-                s_logger.error("Caught problem with " + _content, e);
+                s_logger.error("Caught problem with " + getContent(), e);
                 throw e;
             }
         }
@@ -282,7 +319,6 @@ public class Request {
     }
 
     public static ByteBuffer doDecompress(ByteBuffer buffer, int length) {
-        byte[] byteArrayIn = new byte[1024];
         ByteArrayInputStream byteIn;
         if (buffer.hasArray()) {
             byteIn = new ByteArrayInputStream(buffer.array(), buffer.position() + buffer.arrayOffset(), buffer.remaining());
@@ -291,33 +327,35 @@ public class Request {
             buffer.get(array);
             byteIn = new ByteArrayInputStream(array);
         }
-        ByteBuffer retBuff = ByteBuffer.allocate(length);
+        // The uncompressed length is carried in the header, so inflate straight into the result array.
+        byte[] result = new byte[length];
+        int offset = 0;
         int len = 0;
-        try {
-            GZIPInputStream in = new GZIPInputStream(byteIn);
-            while ((len = in.read(byteArrayIn)) > 0) {
-                retBuff.put(byteArrayIn, 0, len);
+        try (GZIPInputStream in = new GZIPInputStream(byteIn, COMPRESSION_BUFFER_SIZE)) {
+            while (offset < length && (len = in.read(result, offset, length - offset)) > 0) {
+                offset += len;
+            }
+            // a corrupt or truncated payload must not be parsed as a shorter valid one
+            if (offset < length || in.read() != -1) {
+                throw new CloudRuntimeException("Decompressed request does not match the size of " + length + " bytes in its header");
             }
-            in.close();
         } catch (IOException e) {
-            s_logger.error("Fail to decompress the request!", e);
+            throw new CloudRuntimeException("Fail to decompress the request", e);
         }
-        retBuff.flip();
-        return retBuff;
+        return ByteBuffer.wrap(result);
     }
 
     public static ByteBuffer doCompress(ByteBuffer buffer, int length) {
-        ByteArrayOutputStream byteOut = new ByteArrayOutputStream(length);
-        byte[] array;
-        if (buffer.hasArray()) {
-            array = buffer.array();
-        } else {
-            array = new byte[buffer.capacity()];
-            buffer.get(array);
-        }
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream(Math.max(length / 4, 512));
         try {
-            GZIPOutputStream out = new GZIPOutputStream(byteOut, length);
-            out.write(array);
+            GZIPOutputStream out = new GZIPOutputStream(byteOut, COMPRESSION_BUFFER_SIZE);
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                byte[] array = new byte[buffer.remaining()];
+                buffer.duplicate().get(array);
+                out.write(array);
+            }
             out.finish();
             out.close();
         } catch (IOException e) {
@@ -330,13 +368,26 @@ public class Request {
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
+        if (_raw != null) {
+            // relay the payload as it was received, only the header is rebuilt as it may have been changed
+            buffers[1] = ByteBuffer.wrap(_raw, HEADER_SIZE, _raw.length - HEADER_SIZE).slice();
+            buffers[0] = serializeHeader(_contentSize);
+            return buffers;
+        }
+
+        if (_ver == Version.v4) {
+            buffers[1] = serializeV4Payload();
+            buffers[0] = serializeHeader(_contentSize);
+            return buffers;
+        }
+
         if (_content == null) {
             _content = s_gson.toJson(_cmds, _cmds.getClass());
         }
         tmp = ByteBuffer.wrap(_content.getBytes());
         int capacity = tmp.capacity();
         /* Check if we need to compress the data */
-        if (capacity >= 8192) {
+        if (capacity >= COMPRESSION_THRESHOLD) {
             tmp = doCompress(tmp, capacity);
             _flags |= FLAG_COMPRESSED;
         }
@@ -346,6 +397,46 @@ public class Request {
         return buffers;
     }
 
+    /**
+     * Encodes the commands as UTF-8 JSON and compresses that with LZ4 when it is large enough. Sets _contentSize to the
+     * uncompressed size.
+     */
+    protected ByteBuffer serializeV4Payload() {
+        if (_content == null) {
+            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        }
+        final byte[] json = _content.getBytes(StandardCharsets.UTF_8);
+        _contentSize = json.length;
+        if (_contentSize < COMPRESSION_THRESHOLD) {
+            _flags &= ~FLAG_COMPRESSED;
+            return ByteBuffer.wrap(json);
+        }
+        final byte[] compressed = new byte[Lz4Codec.maxCompressedLength(_contentSize)];
+        final int compressedSize = Lz4Codec.compress(json, 0, _contentSize, compressed, 0);
+        _flags |= FLAG_COMPRESSED;
+        return ByteBuffer.wrap(compressed, 0, compressedSize);
+    }
+
+    protected static String deserializeV4Payload(final ByteBuffer buffer, final int size, final short flags) {
+        byte[] src;
+        int offset;
+        final int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            src = buffer.array();
+            offset = buffer.arrayOffset() + buffer.position();
+        } else {
+            src = new byte[length];
+            buffer.duplicate().get(src);
+            offset = 0;
+        }
+        if ((flags & FLAG_COMPRESSED) == 0) {
+            return new String(src, offset, length, StandardCharsets.UTF_8);
+        }
+        final byte[] content = new byte[size];
+        Lz4Codec.decompress(src, offset, length, content, 0, size);
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
     public byte[] getBytes() {
         final ByteBuffer[] buffers = toBytes();
         final int len1 = buffers[0].remaining();
@@ -401,9 +492,9 @@ public class Request {
         if (logContent) {
             if (_cmds == null) {
                 try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                    _cmds = s_gson.fromJson(getContent(), this instanceof Response ? Answer[].class : Command[].class);
                 } catch (RuntimeException e) {
-                    s_logger.error("Unable to deserialize from json: " + _content);
+                    s_logger.error("Unable to deserialize from json: " + getContent());
                     throw e;
                 }
             }
@@ -424,7 +515,7 @@ public class Request {
             }
         } else {
             if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
+                _cmds = s_gson.fromJson(getContent(), this instanceof Response ? Answer[].class : Command[].class);
             }
             content.append("{ ");
             for (Command cmd : _cmds) {
@@ -491,7 +582,7 @@ public class Request {
         ByteBuffer buff = ByteBuffer.wrap(bytes);
         final byte ver = buff.get();
         final Version version = Version.get(ver);
-        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
+        if (version != Version.v1 && version != Version.v3 && version != Version.v4) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
         buff.get();
@@ -505,28 +596,38 @@ public class Request {
         final long agentId = buff.getLong();
 
         long via;
-        if (version.ordinal() == Version.v1.ordinal()) {
+        if (version == Version.v1 || version == Version.v4) {
             via = buff.getLong();
         } else {
             via = agentId;
         }
 
+        if (version == Version.v4) {
+            final String content = deserializeV4Payload(buff, size, flags);
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, content);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, content);
+            }
+        }
+
         if ((flags & FLAG_COMPRESSED) != 0) {
             buff = doDecompress(buff, size);
         }
 
         byte[] command = null;
         int offset = 0;
+        final int length = buff.remaining();
         if (buff.hasArray()) {
             command = buff.array();
             offset = buff.arrayOffset() + buff.position();
         } else {
-            command = new byte[buff.remaining()];
+            command = new byte[length];
             buff.get(command);
             offset = 0;
         }
 
-        final String content = new String(command, offset, command.length - offset);
+        final String content = new String(command, offset, length);
 
         if (isRequest) {
             return new Request(version, seq, agentId, mgmtId, via, flags, content);
@@ -535,6 +636,63 @@ public class Request {
         }
     }
 
+    /**
+     * Parses only the fixed header of a v1 or v4 request or response, for relaying it to the agent or peer
+     * it is meant for. The payload is kept as received and is only decompressed and deserialized
+     * if the commands are asked for, toBytes() sends it back out untouched.
+     *
+     * @param bytes bytes to be converted.
+     * @return Request or Response depending on the data.
+     */
+    public static Request parseHeader(final byte[] bytes) throws ClassNotFoundException, UnsupportedVersionException {
+        final Version version = Version.get(bytes[0]);
+        if ((version != Version.v1 && version != Version.v4) || bytes.length < HEADER_SIZE) {
+            return parse(bytes);
+        }
+
+        final ByteBuffer buff = ByteBuffer.wrap(bytes);
+        buff.position(2);
+        final short flags = buff.getShort();
+        final long seq = buff.getLong();
+        // The size here is uncompressed size, if the data is compressed.
+        final int size = buff.getInt();
+        final long mgmtId = buff.getLong();
+        final long agentId = buff.getLong();
+        final long via = buff.getLong();
+
+        final Request request;
+        if ((flags & FLAG_REQUEST) > 0) {
+            request = new Request(version, seq, agentId, mgmtId, via, flags, (String)null);
+        } else {
+            request = new Response(version, seq, agentId, mgmtId, via, flags, (String)null);
+        }
+        request._raw = bytes;
+        request._contentSize = size;
+        return request;
+    }
+
+    /**
+     * @return true if only the header of this request was parsed and its commands were not deserialized yet
+     */
+    public boolean isHeaderOnly() {
+        return _raw != null && _cmds == null;
+    }
+
+    protected String getContent() {
+        if (_content == null && _raw != null) {
+            ByteBuffer buff = ByteBuffer.wrap(_raw, HEADER_SIZE, _raw.length - HEADER_SIZE);
+            if (_ver == Version.v4) {
+                _content = deserializeV4Payload(buff, _contentSize, _flags);
+                return _content;
+            }
+            if ((_flags & FLAG_COMPRESSED) != 0) {
+                buff = doDecompress(buff, _contentSize);
+            }
+            _content = new String(buff.array(), buff.arrayOffset() + buff.position(), buff.remaining());
+        }
+        return _content;
+    }
+
     public long getAgentId() {
         return _agentId;
     }
@@ -58,7 +58,7 @@ public class Response extends Request {
 
     public Answer[] getAnswers() {
         if (_cmds == null) {
-            _cmds = s_gson.fromJson(_content, Answer[].class);
+            _cmds = s_gson.fromJson(getContent(), Answer[].class);
         }
         return (Answer[])_cmds;
     }
@@ -49,6 +49,7 @@ import com.cloud.storage.Storage.ImageFormat;
 import com.cloud.storage.Storage.TemplateType;
 import com.cloud.storage.VMTemplateStorageResourceAssoc.Status;
 import com.cloud.template.VirtualMachineTemplate;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 /**
  *
@@ -212,6 +213,165 @@ public class RequestTest extends TestCase {
         }
     }
 
+    public void testCompressSlice() {
+        s_logger.info("testCompressSlice");
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 31);
+        }
+        ByteBuffer slice = ByteBuffer.wrap(data, 100, 10000).slice();
+        ByteBuffer compressedBuffer = Request.doCompress(slice, slice.remaining());
+        assertEquals("compress must not consume the source buffer", 10000, slice.remaining());
+        ByteBuffer decompressedBuffer = Request.doDecompress(compressedBuffer, 10000);
+        assertEquals(10000, decompressedBuffer.remaining());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("Fail at " + i, data[100 + i], decompressedBuffer.get(i));
+        }
+    }
+
+    public void testDecompressRejectsCorruptPayload() {
+        s_logger.info("Testing decompression of truncated and mis-sized payloads");
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 251);
+        }
+        ByteBuffer compressed = Request.doCompress(ByteBuffer.wrap(data), data.length);
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.get(bytes);
+
+        try {
+            Request.doDecompress(ByteBuffer.wrap(bytes, 0, bytes.length / 2), data.length);
+            fail("A truncated payload must not decompress");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+        try {
+            Request.doDecompress(ByteBuffer.wrap(bytes), data.length + 1);
+            fail("A payload shorter than its header says must not decompress");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+        try {
+            Request.doDecompress(ByteBuffer.wrap(bytes), data.length - 1);
+            fail("A payload longer than its header says must not decompress");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+        Assert.assertArrayEquals(data, Request.doDecompress(ByteBuffer.wrap(bytes), data.length).array());
+    }
+
+    public void testParseHeaderRelaysPayload() throws Exception {
+        s_logger.info("Testing relaying a request parsed by header only");
+        GetHostStatsCommand small = new GetHostStatsCommand("hostguid", "hostname", 101);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < Request.COMPRESSION_THRESHOLD; i++) {
+            name.append((char)('a' + i % 26));
+        }
+        GetHostStatsCommand large = new GetHostStatsCommand("hostguid", name.toString(), 102);
+
+        for (Command cmd : new Command[] {small, large}) {
+            Request sreq = new Request(2, 3, new Command[] {cmd}, true, true);
+            sreq.setSequence(892403718);
+            byte[] bytes = sreq.getBytes();
+
+            Request relayed = Request.parseHeader(bytes);
+            assertFalse(relayed instanceof Response);
+            assertNull(relayed._cmds);
+            assertEquals(892403718, relayed.getSequence());
+            assertEquals(sreq.executeInSequence(), relayed.executeInSequence());
+
+            // the payload goes back out untouched, without being deserialized
+            Assert.assertArrayEquals(bytes, relayed.getBytes());
+            assertNull(relayed._cmds);
+            assertTrue(relayed.isHeaderOnly());
+            assertFalse(Request.parse(bytes).isHeaderOnly());
+
+            relayed.setVia(7);
+            byte[] rerouted = relayed.getBytes();
+            assertEquals(7, Request.getViaAgentId(rerouted));
+            compareRequest(relayed, Request.parse(rerouted));
+            assertEquals(((GetHostStatsCommand)cmd).getHostName(), ((GetHostStatsCommand)relayed.getCommand()).getHostName());
+        }
+    }
+
+    public void testV4SerDeser() throws Exception {
+        s_logger.info("Testing serializing and parsing v4 requests and responses");
+        GetHostStatsCommand small = new GetHostStatsCommand("hostguid", "hostname", 101);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < Request.COMPRESSION_THRESHOLD; i++) {
+            name.append((char)('a' + i % 26));
+        }
+        GetHostStatsCommand large = new GetHostStatsCommand("hostguid", name.toString(), 102);
+
+        for (Command cmd : new Command[] {small, large}) {
+            Request sreq = new Request(2, 3, new Command[] {cmd}, true, true);
+            sreq.setSequence(892403719);
+            sreq.setVersion(Version.v4);
+            byte[] bytes = sreq.getBytes();
+            assertEquals(Version.v4, Request.getVersion(bytes));
+            assertEquals(cmd == large, (bytes[3] & Request.FLAG_COMPRESSED) != 0);
+
+            Request creq = Request.parse(bytes);
+            assertEquals(Version.v4, creq.getVersion());
+            compareRequest(creq, sreq);
+            assertEquals(((GetHostStatsCommand)cmd).getHostName(), ((GetHostStatsCommand)creq.getCommand()).getHostName());
+
+            // a response goes out in the version of its request
+            Response sresp = new Response(creq, new Answer(cmd, true, name.toString()));
+            Response cresp = (Response)Request.parse(sresp.getBytes());
+            assertEquals(Version.v4, cresp.getVersion());
+            assertEquals(name.toString(), cresp.getAnswer().getDetails());
+
+            // relaying by header only keeps the LZ4 payload as is
+            Request relayed = Request.parseHeader(bytes);
+            assertTrue(relayed.isHeaderOnly());
+            Assert.assertArrayEquals(bytes, relayed.getBytes());
+            relayed.setVersion(Version.v1);
+            Assert.assertArrayEquals(bytes, relayed.getBytes());
+            assertEquals(((GetHostStatsCommand)cmd).getHostName(), ((GetHostStatsCommand)relayed.getCommand()).getHostName());
+        }
+    }
+
+    public void testNegotiateVersion() {
+        assertEquals(Version.v1, Request.negotiateVersion(null));
+        assertEquals(Version.v1, Request.negotiateVersion(Version.v1));
+        assertEquals(Version.v4, Request.negotiateVersion(Version.v4));
+        assertEquals(Version.v4, Request.negotiateVersion(Request.CURRENT_VERSION));
+    }
+
+    public void testLz4RejectsCorruptPayload() {
+        s_logger.info("Testing LZ4 decompression of truncated and mis-sized payloads");
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 251);
+        }
+        byte[] compressed = new byte[Lz4Codec.maxCompressedLength(data.length)];
+        int length = Lz4Codec.compress(data, 0, data.length, compressed, 0);
+        assertTrue(length < data.length);
+
+        try {
+            Lz4Codec.decompress(compressed, 0, length / 2, new byte[data.length], 0, data.length);
+            fail("A truncated payload must not decompress");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+        try {
+            Lz4Codec.decompress(compressed, 0, length, new byte[data.length + 1], 0, data.length + 1);
+            fail("A payload shorter than its header says must not decompress");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+        try {
+            Lz4Codec.decompress(compressed, 0, length, new byte[data.length - 1], 0, data.length - 1);
+            fail("A payload longer than its header says must not decompress");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+        byte[] result = new byte[data.length];
+        Lz4Codec.decompress(compressed, 0, length, result, 0, data.length);
+        Assert.assertArrayEquals(data, result);
+    }
+
     public void testLogging() {
         s_logger.info("Testing Logging");
         GetHostStatsCommand cmd3 = new GetHostStatsCommand("hostguid", "hostname", 101);
@@ -0,0 +1,67 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.utils.Pair;
+
+/**
+ * In-memory copy of the CPU and memory capacities of the hosts in op_host_capacity, kept up to date
+ * by the capacity manager of this management server and reconciled against the database periodically.
+ * The queries answer the same questions as their CapacityDao counterparts without going to the
+ * database nor taking a lock, so they are hints: allocating the capacity still checks the database.
+ */
+public interface CapacityIndex {
+
+    /**
+     * @return null if the host is not indexed, otherwise the same answer as CapacityManager.checkIfHostHasCapacity()
+     */
+    Boolean checkIfHostHasCapacity(long hostId, int cpu, long ram, boolean checkFromReservedCapacity, float cpuOvercommitRatio, float memoryOvercommitRatio,
+        boolean considerReservedCapacity);
+
+    /**
+     * @see com.cloud.capacity.dao.CapacityDao#listClustersInZoneOrPodByHostCapacities(long, int, long, short, boolean)
+     */
+    List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, boolean isZone);
+
+    /**
+     * @see com.cloud.capacity.dao.CapacityDao#orderClustersByAggregateCapacity(long, short, boolean)
+     */
+    Pair<List<Long>, Map<Long, Double>> orderClustersByAggregateCapacity(long id, short capacityTypeForOrdering, boolean isZone);
+
+    /**
+     * @see com.cloud.capacity.dao.CapacityDao#listPodsByHostCapacities(long, int, long, short)
+     */
+    List<Long> listPodsByHostCapacities(long zoneId, int requiredCpu, long requiredRam);
+
+    /**
+     * @see com.cloud.capacity.dao.CapacityDao#orderPodsByAggregateCapacity(long, short)
+     */
+    Pair<List<Long>, Map<Long, Double>> orderPodsByAggregateCapacity(long zoneId, short capacityTypeForOrdering);
+
+    /**
+     * @see com.cloud.capacity.dao.CapacityDao#listHostsWithEnoughCapacity(int, long, Long, String)
+     */
+    List<Long> listHostsWithEnoughCapacity(int requiredCpu, long requiredRam, long clusterId);
+
+    /**
+     * @see com.cloud.capacity.dao.CapacityDao#orderHostsByFreeCapacity(Long, Long, short)
+     */
+    List<Long> orderHostsByFreeCapacity(Long zoneId, Long clusterId, short capacityTypeForOrdering);
+}
@@ -16,6 +16,10 @@
 // under the License.
 package com.cloud.capacity;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
@@ -84,6 +88,25 @@ public interface CapacityManager {
                     ConfigKey.Scope.ImageStore,
                     null);
 
+    static final ConfigKey<Boolean> CapacityIndexEnabled =
+            new ConfigKey<Boolean>(
+                    "Advanced",
+                    Boolean.class,
+                    "capacity.index.enabled",
+                    "false",
+                    "If true, deployment planners and host allocators rank and filter pods, clusters and hosts by CPU and memory capacity against an in-memory copy of "
+                    + "op_host_capacity instead of querying it; allocating the capacity of a VM still checks the database. Requires a restart",
+                    false);
+    static final ConfigKey<Integer> CapacityIndexReconcileInterval =
+            new ConfigKey<Integer>(
+                    "Advanced",
+                    Integer.class,
+                    "capacity.index.reconcile.interval",
+                    "30",
+                    "Interval in seconds at which the in-memory capacity index is reloaded from op_host_capacity, to pick up the capacity allocated by the other "
+                    + "management servers",
+                    false);
+
     public boolean releaseVmCapacity(VirtualMachine vm, boolean moveFromReserved, boolean moveToReservered, Long hostId);
 
     void allocateVmCapacity(VirtualMachine vm, boolean fromLastHost);
@@ -97,6 +120,18 @@ public interface CapacityManager {
     boolean checkIfHostHasCapacity(long hostId, Integer cpu, long ram, boolean checkFromReservedCapacity, float cpuOverprovisioningFactor, float memoryOvercommitRatio,
         boolean considerReservedCapacity);
 
+    /**
+     * Bulk variant of {@link #checkIfHostHasCapacity(long, Integer, long, boolean, float, float, boolean)}, reading the capacity of all the hosts the capacity
+     * index can't answer for in one query
+     * @param hosts the hosts to check capacity of
+     * @param cpu required CPU
+     * @param ram required RAM
+     * @param clusterOvercommitRatios cluster id to {cpu overcommit ratio, memory overcommit ratio}, covering the clusters of all the hosts
+     * @return ids of the given hosts that have enough capacity
+     */
+    Set<Long> listHostIdsWithCapacity(List<? extends Host> hosts, Integer cpu, long ram, boolean checkFromReservedCapacity, Map<Long, Float[]> clusterOvercommitRatios,
+        boolean considerReservedCapacity);
+
     void updateCapacityForHost(Host host);
 
     /**
@@ -113,6 +148,13 @@ public interface CapacityManager {
      */
     boolean checkIfHostReachMaxGuestLimit(Host host);
 
+    /**
+     * Bulk variant of {@link #checkIfHostReachMaxGuestLimit(Host)}, counting the running VMs of all the hosts in one query
+     * @param hosts the hosts to be checked
+     * @return ids of the given hosts whose running VM count >= hypervisor limit
+     */
+    Set<Long> listHostIdsReachingMaxGuestLimit(List<? extends Host> hosts);
+
     /**
      * Check if specified host has capability to support cpu cores and speed freq
      * @param hostId the host to be checked
@@ -122,6 +164,11 @@ public interface CapacityManager {
      */
     boolean checkIfHostHasCpuCapability(long hostId, Integer cpuNum, Integer cpuSpeed);
 
+    /**
+     * Same as {@link #checkIfHostHasCpuCapability(long, Integer, Integer)} for a host that is already loaded
+     */
+    boolean checkIfHostHasCpuCapability(Host host, Integer cpuNum, Integer cpuSpeed);
+
     /**
      * Check if cluster will cross threshold if the cpu/memory requested are accomodated
      * @param clusterId the clusterId to check
@@ -136,4 +183,9 @@ public interface CapacityManager {
     long getUsedBytes(StoragePoolVO pool);
 
     long getUsedIops(StoragePoolVO pool);
+
+    /**
+     * @return the in-memory capacity index, or null if capacity.index.enabled is false
+     */
+    CapacityIndex getCapacityIndex();
 }
@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.deploy;
 
+import java.util.List;
+
 import com.cloud.dc.DataCenter;
 import com.cloud.deploy.DeploymentPlanner.ExcludeList;
 import com.cloud.exception.AffinityConflictException;
@@ -47,6 +49,25 @@ public interface DeploymentPlanningManager extends Manager {
             VirtualMachineProfile vmProfile, DeploymentPlan plan, ExcludeList avoids, DeploymentPlanner planner)
             throws InsufficientServerCapacityException, AffinityConflictException;
 
+    /**
+     * Plans the deployment of several vms in one pass, as planDeployment does for each of them, while
+     * counting the capacity taken by the vms placed earlier in the batch and keeping the host affinity
+     * and host anti-affinity groups of the batch members consistent with each other.
+     *
+     * @return the destinations in the order of vmProfiles, null for the vms that could not be placed
+     */
+    List<DeployDestination> planDeployments(List<VirtualMachineProfile> vmProfiles, DeploymentPlan plan,
+            ExcludeList avoids, DeploymentPlanner planner) throws InsufficientServerCapacityException, AffinityConflictException;
+
+    /**
+     * Saves the reservations of a batch planned by planDeployments in a single transaction.
+     *
+     * @return the reservation ids in the order of vmProfiles, null for the vms without a destination or
+     * whose destination conflicts with their affinity groups
+     */
+    List<String> finalizeReservations(List<DeployDestination> plannedDestinations, List<VirtualMachineProfile> vmProfiles,
+            DeploymentPlanner planner) throws AffinityConflictException;
+
     void cleanupVMReservations();
 
     DeploymentPlanner getDeploymentPlannerByName(String plannerName);
@@ -20,6 +20,7 @@ package com.cloud.resource;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.api.StartupRoutingCommand;
@@ -163,6 +164,13 @@ public interface ResourceManager extends ResourceService, Configurable {
      */
     boolean isHostGpuEnabled(long hostId);
 
+    /**
+     * Bulk variant of {@link #isHostGpuEnabled(long)}
+     * @param hostIds the hosts to be checked
+     * @return ids of the given hosts that contain a GPU card
+     */
+    Set<Long> listGpuEnabledHostIds(List<Long> hostIds);
+
     /**
      * Check if host has GPU devices available
      * @param hostId the host to be checked
@@ -172,6 +180,15 @@ public interface ResourceManager extends ResourceService, Configurable {
      */
     boolean isGPUDeviceAvailable(long hostId, String groupName, String vgpuType);
 
+    /**
+     * Bulk variant of {@link #isGPUDeviceAvailable(long, String, String)}
+     * @param hostIds the hosts to be checked
+     * @param groupName: gpuCard name
+     * @param vgpuType the VGPU type
+     * @return ids of the given hosts that have the capacity with given VGPU type
+     */
+    Set<Long> listHostIdsWithAvailableGPUDevice(List<Long> hostIds, String groupName, String vgpuType);
+
     /**
      * Get available GPU device
      * @param hostId the host to be checked
@@ -43,6 +43,7 @@ import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.CheckHealthCommand;
 import com.cloud.agent.api.CheckNetworkCommand;
 import com.cloud.agent.api.CheckOnHostCommand;
+import com.cloud.agent.api.CheckOnHostsCommand;
 import com.cloud.agent.api.CheckVirtualMachineCommand;
 import com.cloud.agent.api.CleanupNetworkRulesCmd;
 import com.cloud.agent.api.Command;
@@ -111,6 +112,8 @@ public abstract class AgentAttache {
     protected Status _status = Status.Connecting;
     protected boolean _maintenance;
     protected long _nextSequence;
+    // Request version negotiated with the agent when it connected, attaches that send over a link serialize requests in it
+    protected volatile Request.Version _requestVersion = Request.Version.v1;
 
     protected AgentManagerImpl _agentMgr;
 
@@ -118,7 +121,7 @@ public abstract class AgentAttache {
         StopCommand.class.toString(), CheckVirtualMachineCommand.class.toString(), PingTestCommand.class.toString(), CheckHealthCommand.class.toString(),
         ReadyCommand.class.toString(), ShutdownCommand.class.toString(), SetupCommand.class.toString(),
         CleanupNetworkRulesCmd.class.toString(), CheckNetworkCommand.class.toString(), PvlanSetupCommand.class.toString(), CheckOnHostCommand.class.toString(),
-        ModifyTargetsCommand.class.toString(), ModifySshKeysCommand.class.toString(), ModifyStoragePoolCommand.class.toString(), SetupMSListCommand.class.toString(), RollingMaintenanceCommand.class.toString()};
+        CheckOnHostsCommand.class.toString(), ModifyTargetsCommand.class.toString(), ModifySshKeysCommand.class.toString(), ModifyStoragePoolCommand.class.toString(), SetupMSListCommand.class.toString(), RollingMaintenanceCommand.class.toString()};
     protected final static String[] s_commandsNotAllowedInConnectingMode = new String[] { StartCommand.class.toString(), CreateCommand.class.toString() };
     static {
         Arrays.sort(s_commandsAllowedInMaintenanceMode);
@@ -182,6 +185,13 @@ public abstract class AgentAttache {
         }
     }
 
+    /**
+     * @return true if checkAvailability() may refuse some commands in the current state of the attache
+     */
+    protected boolean mayRefuseCommands() {
+        return _maintenance || _status == Status.Connecting;
+    }
+
     protected synchronized void addRequest(final Request req) {
         int index = findRequest(req);
         assert (index < 0) : "How can we get index again? " + index + ":" + req.toString();
@@ -248,6 +258,14 @@ public abstract class AgentAttache {
         return _name;
     }
 
+    public Request.Version getRequestVersion() {
+        return _requestVersion;
+    }
+
+    public void setRequestVersion(final Request.Version requestVersion) {
+        _requestVersion = requestVersion;
+    }
+
     public int getQueueSize() {
         return _requests.size();
     }
@@ -349,7 +367,10 @@ public abstract class AgentAttache {
     }
 
     public void send(final Request req, final Listener listener) throws AgentUnavailableException {
-        checkAvailability(req.getCommands());
+        // requests relayed from peers with only their header parsed are deserialized only when they may be refused
+        if (!req.isHeaderOnly() || mayRefuseCommands()) {
+            checkAvailability(req.getCommands());
+        }
 
         long seq = req.getSequence();
         if (listener != null) {
@@ -25,13 +25,15 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -102,7 +104,13 @@ import com.cloud.resource.ResourceState;
 import com.cloud.resource.ServerResource;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.AdaptiveConcurrencyLimit;
+import com.cloud.utils.concurrency.HashedTimingWheel;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.concurrency.Prioritized;
+import com.cloud.utils.concurrency.PriorityTaskQueue;
+import com.cloud.utils.concurrency.PrioritizedThreadPoolExecutor;
+import com.cloud.utils.concurrency.StripedLongMap;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.EntityManager;
 import com.cloud.utils.db.QueryBuilder;
@@ -114,11 +122,11 @@ import com.cloud.utils.exception.NioConnectionException;
 import com.cloud.utils.exception.TaskExecutionException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.nio.ByteBufferPool;
 import com.cloud.utils.nio.HandlerFactory;
 import com.cloud.utils.nio.Link;
 import com.cloud.utils.nio.NioServer;
 import com.cloud.utils.nio.Task;
-import com.cloud.utils.time.InaccurateClock;
 import com.google.common.base.Strings;
 
 /**
@@ -128,10 +136,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected static final Logger s_logger = Logger.getLogger(AgentManagerImpl.class);
 
     /**
-     * _agents is a ConcurrentHashMap, but it is used from within a synchronized block. This will be reported by findbugs as JLM_JSR166_UTILCONCURRENT_MONITORENTER. Maybe a
-     * ConcurrentHashMap is not the right thing to use here, but i'm not sure so i leave it alone.
+     * _agents is keyed by host id and lock striped.  Compound operations on one host synchronize on _agents.lockFor(hostId)
+     * instead of the whole map, so agents connecting or disconnecting at the same time do not queue up behind each other.
      */
-    protected ConcurrentHashMap<Long, AgentAttache> _agents = new ConcurrentHashMap<Long, AgentAttache>(10007);
+    protected StripedLongMap<AgentAttache> _agents = new StripedLongMap<AgentAttache>(64, 10007);
     protected List<Pair<Integer, Listener>> _hostMonitors = new ArrayList<Pair<Integer, Listener>>(17);
     protected List<Pair<Integer, Listener>> _cmdMonitors = new ArrayList<Pair<Integer, Listener>>(17);
     protected List<Pair<Integer, StartupCommandProcessor>> _creationMonitors = new ArrayList<Pair<Integer, StartupCommandProcessor>>(17);
@@ -175,14 +183,35 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     protected ExecutorService _executor;
     protected ThreadPoolExecutor _connectExecutor;
+    protected AdaptiveConcurrencyLimit _connectLimit;
     protected ScheduledExecutorService _directAgentExecutor;
     protected ScheduledExecutorService _cronJobExecutor;
     protected ScheduledExecutorService _monitorExecutor;
 
     private int _directAgentThreadCap;
 
+    private static final int MIN_CONNECT_CONCURRENCY = 10;
+    private static final double CONNECT_LATENCY_TOLERANCE = 2.0;
+    private static final long RETRY_LATER_CLOSE_DELAY = 5;
+
     protected StateMachine2<Status, Status.Event, Host> _statusStateMachine = Status.getStateMachine();
-    private final ConcurrentHashMap<Long, Long> _pingMap = new ConcurrentHashMap<Long, Long>(10007);
+    // drives ping timeouts and direct agent ping/cron tasks without a thread per schedule
+    private final HashedTimingWheel _timingWheel = new HashedTimingWheel("AgentTimer", 1000, 512);
+    private final AgentPingTracker _pingTracker = new AgentPingTracker(_timingWheel, new AgentPingTracker.Listener() {
+        @Override
+        public void behindOnPing(final long hostId) {
+            _monitorExecutor.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    try {
+                        handleAgentBehindOnPing(hostId);
+                    } catch (final Throwable th) {
+                        s_logger.error("Caught the following exception while handling ping timeout of agent " + hostId, th);
+                    }
+                }
+            });
+        }
+    });
 
     @Inject
     ResourceManager _resourceMgr;
@@ -202,6 +231,17 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             "Percentage (as a value between 0 and 1) of direct.agent.pool.size to be used as upper thread cap for a single direct agent to process requests", false);
     protected final ConfigKey<Boolean> CheckTxnBeforeSending = new ConfigKey<Boolean>("Developer", Boolean.class, "check.txn.before.sending.agent.commands", "false",
             "This parameter allows developers to enable a check to see if a transaction wraps commands that are sent to the resource.  This is not to be enabled on production systems.", true);
+    protected final ConfigKey<Boolean> NioBufferPoolEnabled = new ConfigKey<Boolean>("Advanced", Boolean.class, "agent.nio.buffer.pool.enabled", "false",
+            "Use pooled direct buffers for framing agent connection reads and writes instead of allocating a heap buffer per packet.", false);
+    protected final ConfigKey<Integer> AgentHandlerQueueSize = new ConfigKey<Integer>("Advanced", Integer.class, "agent.handler.queue.size", "10000",
+            "Maximum number of agent packets waiting for a handler thread. Answers go first, then requests of connected agents; packets of new connections may use only half of the queue "
+            + "and are asked to reconnect later when it is full. Other packets that do not fit wait in an overflow queue of the same size, beyond which the selector thread handles them itself.", false);
+    protected final ConfigKey<Integer> AgentTaskQueueSize = new ConfigKey<Integer>("Advanced", Integer.class, "agent.task.queue.size", "10000",
+            "Maximum number of disconnect and simulated start tasks waiting in AgentTaskPool. When it is full the submitting thread runs the task itself.", false);
+    protected final ConfigKey<Integer> AgentConnectMaxConcurrency = new ConfigKey<Integer>("Advanced", Integer.class, "agent.connect.max.concurrency", "500",
+            "Upper bound of the adaptive limit on agent connections being handled or waiting to be handled. The limit shrinks when connection handling slows down.", false);
+    protected final ConfigKey<Integer> AgentConnectRetryAfter = new ConfigKey<Integer>("Advanced", Integer.class, "agent.connect.retry.after", "30",
+            "Seconds (plus up to the same amount of random jitter) after which an agent turned away by agent connection admission control reconnects.", false);
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -220,13 +260,23 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         registerForHostEvents(new SetHostParamsListener(), true, true, false);
 
-        _executor = new ThreadPoolExecutor(threads, threads, 60l, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("AgentTaskPool"));
+        _executor = new PrioritizedThreadPoolExecutor(threads, threads, 60l, TimeUnit.SECONDS, new PriorityTaskQueue(AgentTaskQueueSize.value()), new NamedThreadFactory("AgentTaskPool"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
 
-        _connectExecutor = new ThreadPoolExecutor(100, 500, 60l, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("AgentConnectTaskPool"));
+        // the adaptive limit counts queued and running connects, so the queue never needs to hold more than its upper bound
+        final int maxConnects = Math.max(AgentConnectMaxConcurrency.value(), MIN_CONNECT_CONCURRENCY);
+        _connectLimit = new AdaptiveConcurrencyLimit(Math.min(100, maxConnects), MIN_CONNECT_CONCURRENCY, maxConnects, CONNECT_LATENCY_TOLERANCE);
+        _connectExecutor = new ThreadPoolExecutor(100, 500, 60l, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(maxConnects), new NamedThreadFactory("AgentConnectTaskPool"));
         // allow core threads to time out even when there are no items in the queue
         _connectExecutor.allowCoreThreadTimeOut(true);
 
         _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this, caService);
+        _connection.setHandlerQueueCapacity(AgentHandlerQueueSize.value(), Math.max(1, AgentHandlerQueueSize.value() / 2));
+        if (NioBufferPoolEnabled.value()) {
+            final ByteBufferPool bufferPool = new ByteBufferPool();
+            bufferPool.registerMBean("AgentManager");
+            _connection.setBufferPool(bufferPool);
+        }
         s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
 
         // executes all agent commands other than cron and ping
@@ -237,6 +287,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         _directAgentThreadCap = Math.round(DirectAgentPoolSize.value() * DirectAgentThreadCap.value()) + 1; // add 1 to always make the value > 0
 
         _monitorExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("AgentMonitor"));
+        _timingWheel.registerMBean();
 
         return true;
     }
@@ -321,11 +372,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     }
 
     public AgentAttache findAttache(final long hostId) {
-        AgentAttache attache = null;
-        synchronized (_agents) {
-            attache = _agents.get(hostId);
-        }
-        return attache;
+        return _agents.get(hostId);
     }
 
     @Override
@@ -517,7 +564,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
         AgentAttache removed = null;
         boolean conflict = false;
-        synchronized (_agents) {
+        synchronized (_agents.lockFor(hostId)) {
             removed = _agents.remove(hostId);
             if (removed != null && removed != attache) {
                 conflict = true;
@@ -612,6 +659,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             }
         }
 
+        _timingWheel.start();
         _monitorExecutor.scheduleWithFixedDelay(new MonitorTask(), mgmtServiceConf.getPingInterval(), mgmtServiceConf.getPingInterval(), TimeUnit.SECONDS);
 
         return true;
@@ -737,10 +785,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         s_logger.debug("create DirectAgentAttache for " + host.getId());
         final DirectAgentAttache attache = new DirectAgentAttache(this, host.getId(), host.getName(), resource, host.isInMaintenanceStates());
 
-        AgentAttache old = null;
-        synchronized (_agents) {
-            old = _agents.put(host.getId(), attache);
-        }
+        final AgentAttache old = _agents.put(host.getId(), attache);
         if (old != null) {
             old.disconnect(Status.Removed);
         }
@@ -756,22 +801,21 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
 
         s_logger.info("Disconnecting agents: " + _agents.size());
-        synchronized (_agents) {
-            for (final AgentAttache agent : _agents.values()) {
-                final HostVO host = _hostDao.findById(agent.getId());
-                if (host == null) {
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug("Cant not find host " + agent.getId());
-                    }
-                } else {
-                    if (!agent.forForward()) {
-                        agentStatusTransitTo(host, Event.ManagementServerDown, _nodeId);
-                    }
+        for (final AgentAttache agent : _agents.values()) {
+            final HostVO host = _hostDao.findById(agent.getId());
+            if (host == null) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Cant not find host " + agent.getId());
+                }
+            } else {
+                if (!agent.forForward()) {
+                    agentStatusTransitTo(host, Event.ManagementServerDown, _nodeId);
                 }
             }
         }
 
         _connectExecutor.shutdownNow();
+        _timingWheel.stop();
         _monitorExecutor.shutdownNow();
         return true;
     }
@@ -909,7 +953,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return true;
     }
 
-    protected class DisconnectTask extends ManagedContextRunnable {
+    protected class DisconnectTask extends ManagedContextRunnable implements Prioritized {
         AgentAttache _attache;
         Status.Event _event;
         boolean _investigate;
@@ -932,6 +976,11 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 s_logger.error("Exception caught while handling disconnect: ", e);
             }
         }
+
+        @Override
+        public int getPriority() {
+            return HIGH;
+        }
     }
 
     @Override
@@ -1066,10 +1115,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         final AgentAttache attache = new ConnectedAgentAttache(this, host.getId(), host.getName(), link, host.isInMaintenanceStates());
         link.attach(attache);
 
-        AgentAttache old = null;
-        synchronized (_agents) {
-            old = _agents.put(host.getId(), attache);
-        }
+        final AgentAttache old = _agents.put(host.getId(), attache);
         if (old != null) {
             old.disconnect(Status.Removed);
         }
@@ -1102,6 +1148,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 }
 
                 attache = createAttacheForConnect(host, link);
+                attache.setRequestVersion(Request.negotiateVersion(startup[0].getRequestVersion()));
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (final Exception e) {
@@ -1127,7 +1174,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return attache;
     }
 
-    protected class SimulateStartTask extends ManagedContextRunnable {
+    protected class SimulateStartTask extends ManagedContextRunnable implements Prioritized {
         ServerResource resource;
         Map<String, String> details;
         long id;
@@ -1165,6 +1212,11 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 s_logger.warn("Unable to simulate start on resource " + id + " name " + resource.getName(), e);
             }
         }
+
+        @Override
+        public int getPriority() {
+            return LOW;
+        }
     }
 
     protected class HandleAgentConnectTask extends ManagedContextRunnable {
@@ -1180,20 +1232,31 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         @Override
         protected void runInContext() {
-            _request.logD("Processing the first command ");
-            final StartupCommand[] startups = new StartupCommand[_cmds.length];
-            for (int i = 0; i < _cmds.length; i++) {
-                startups[i] = (StartupCommand)_cmds[i];
-            }
+            final long start = System.currentTimeMillis();
+            try {
+                _request.logD("Processing the first command ");
+                final StartupCommand[] startups = new StartupCommand[_cmds.length];
+                for (int i = 0; i < _cmds.length; i++) {
+                    startups[i] = (StartupCommand)_cmds[i];
+                }
 
-            final AgentAttache attache = handleConnectedAgent(_link, startups, _request);
-            if (attache == null) {
-                s_logger.warn("Unable to create attache for agent: " + _request);
+                final AgentAttache attache = handleConnectedAgent(_link, startups, _request);
+                if (attache == null) {
+                    s_logger.warn("Unable to create attache for agent: " + _request);
+                }
+            } finally {
+                // connect handling is dominated by DB work, so its duration is what the connect limit adapts to
+                _connectLimit.release(System.currentTimeMillis() - start);
             }
         }
     }
 
     protected void connectAgent(final Link link, final Command[] cmds, final Request request) {
+        if (!_connectLimit.tryAcquire()) {
+            sendRetryLater(link, (StartupCommand)cmds[0], request,
+                    "Agent connect limit reached (" + _connectLimit.getInFlight() + "/" + _connectLimit.getLimit() + ")");
+            return;
+        }
         // send startupanswer to agent in the very beginning, so agent can move on without waiting for the answer for an undetermined time, if we put this logic into another
         // thread pool.
         final StartupAnswer[] answers = new StartupAnswer[cmds.length];
@@ -1203,6 +1266,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             if (cmd instanceof StartupRoutingCommand || cmd instanceof StartupProxyCommand || cmd instanceof StartupSecondaryStorageCommand ||
                     cmd instanceof StartupStorageCommand) {
                 answers[i] = new StartupAnswer((StartupCommand) cmds[i], 0, mgmtServiceConf.getPingInterval());
+                // the agent switches to this version once it reads the answer, which itself goes out in the version of the startup request
+                answers[i].setRequestVersion(Request.negotiateVersion(((StartupCommand) cmds[i]).getRequestVersion()));
                 break;
             }
         }
@@ -1213,7 +1278,43 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         } catch (final ClosedChannelException e) {
             s_logger.debug("Failed to send startupanswer: " + e.toString());
         }
-        _connectExecutor.execute(new HandleAgentConnectTask(link, cmds, request));
+        try {
+            _connectExecutor.execute(new HandleAgentConnectTask(link, cmds, request));
+        } catch (final RejectedExecutionException e) {
+            _connectLimit.cancel();
+            s_logger.warn("Unable to queue the connection of agent " + link.getIpAddress() + ", closing it");
+            link.close();
+        }
+    }
+
+    /**
+     * Turns a new agent connection away, e.g. while too many connects are in progress.  Agents that support it are
+     * told when to come back, with jitter so that a rejected cluster does not reconnect in lock step, and the
+     * link is closed shortly after.  Older agents get no answer, their link is closed right away and they
+     * reconnect through their usual backoff.
+     */
+    protected void sendRetryLater(final Link link, final StartupCommand cmd, final Request request, final String reason) {
+        if (!cmd.isRetryLaterSupported()) {
+            s_logger.info(reason + ", closing the connection from " + link.getIpAddress() + " so that it reconnects later");
+            link.close();
+            return;
+        }
+        final int base = Math.max(AgentConnectRetryAfter.value(), 1);
+        final int retryAfter = base + ThreadLocalRandom.current().nextInt(base + 1);
+        s_logger.info(reason + ", asking " + link.getIpAddress() + " to reconnect in " + retryAfter + " seconds");
+        final StartupAnswer answer = new StartupAnswer(cmd, retryAfter, "Management server is busy, retry later");
+        try {
+            link.send(new Response(request, answer, _nodeId, -1).toBytes());
+        } catch (final ClosedChannelException e) {
+            s_logger.debug("Failed to send retry later startupanswer: " + e.toString());
+            return;
+        }
+        _timingWheel.schedule(new HashedTimingWheel.Task() {
+            @Override
+            public void expired(final HashedTimingWheel.Timeout timeout) {
+                link.close();
+            }
+        }, RETRY_LATER_CLOSE_DELAY, TimeUnit.SECONDS);
     }
 
     public class AgentHandler extends Task {
@@ -1221,6 +1322,48 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             super(type, link, data);
         }
 
+        /**
+         * Answers are handled first, then disconnects and requests of connected agents (pings among them),
+         * and only then the first packet of a new connection.
+         */
+        @Override
+        public int getPriority() {
+            if (getType() == Task.Type.DISCONNECT) {
+                return HIGH;
+            }
+            if (getType() != Task.Type.DATA) {
+                return NORMAL;
+            }
+            if (getLink() == null || getLink().attachment() == null) {
+                return LOW;
+            }
+            final byte[] data = getData();
+            return data != null && data.length > 3 && !Request.isRequest(data) ? HIGH : NORMAL;
+        }
+
+        /**
+         * The first packet of a new connection is its StartupCommand, the agent is told to come back later
+         * rather than left waiting for a StartupAnswer.
+         */
+        @Override
+        public void rejected() {
+            final Link link = getLink();
+            final byte[] data = getData();
+            if (getType() == Task.Type.DATA && link != null && link.attachment() == null && data != null) {
+                try {
+                    final Request request = Request.parse(data);
+                    final Command[] cmds = request.getCommands();
+                    if (cmds != null && cmds.length > 0 && cmds[0] instanceof StartupCommand) {
+                        sendRetryLater(link, (StartupCommand)cmds[0], request, "Agent handler queue is full");
+                        return;
+                    }
+                } catch (final Exception e) {
+                    s_logger.debug("Unable to parse the first packet from " + link.getIpAddress() + ": " + e.toString());
+                }
+            }
+            super.rejected();
+        }
+
         protected void processRequest(final Link link, final Request request) {
             final AgentAttache attache = (AgentAttache)link.attachment();
             final Command[] cmds = request.getCommands();
@@ -1557,18 +1700,90 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return _cronJobExecutor;
     }
 
+    /**
+     * Schedules a recurring direct agent task on the agent timing wheel; each run is handed off to the cron job pool.
+     * A tick is skipped while the previous run of the task is still outstanding, so a hung host holds at most one
+     * cron job thread, as it did with the fixed-delay scheduling this replaces.
+     */
+    public HashedTimingWheel.Handle scheduleDirectAgentCronTask(final Runnable task, final long intervalSeconds) {
+        final AtomicBoolean inFlight = new AtomicBoolean(false);
+        final Runnable run = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.set(false);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return task.toString();
+            }
+        };
+        return _timingWheel.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (!inFlight.compareAndSet(false, true)) {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Skipping direct agent cron task " + task + ", its previous run is still in progress");
+                    }
+                    return;
+                }
+                try {
+                    _cronJobExecutor.execute(run);
+                } catch (final RejectedExecutionException e) {
+                    inFlight.set(false);
+                    s_logger.warn("Unable to run direct agent cron task " + task + ", cron job pool rejected it");
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
     public int getDirectAgentThreadCap() {
         return _directAgentThreadCap;
     }
 
+    /**
+     * @return the last ping of the agent in seconds of HashedTimingWheel.currentTimeMillis(), not wall clock seconds
+     */
     public Long getAgentPingTime(final long agentId) {
-        return _pingMap.get(agentId);
+        return _pingTracker.getLastPing(agentId);
     }
 
     public void pingBy(final long agentId) {
-        // Update PingMap with the latest time if agent entry exists in the PingMap
-        if (_pingMap.replace(agentId, InaccurateClock.getTimeInSeconds()) == null) {
-            s_logger.info("PingMap for agent: " + agentId + " will not be updated because agent is no longer in the PingMap");
+        // Update the ping tracker with the latest time if the agent is still tracked
+        if (!_pingTracker.ping(agentId, TimeUnit.MILLISECONDS.toSeconds(HashedTimingWheel.currentTimeMillis()))) {
+            s_logger.info("Ping time for agent: " + agentId + " will not be updated because agent is no longer tracked");
+        }
+    }
+
+    protected void handleAgentBehindOnPing(final long agentId) {
+        s_logger.info("Found agent behind on ping: " + agentId);
+        final QueryBuilder<HostVO> sc = QueryBuilder.create(HostVO.class);
+        sc.and(sc.entity().getId(), Op.EQ, agentId);
+        final HostVO h = sc.find();
+        if (h != null) {
+            final ResourceState resourceState = h.getResourceState();
+            if (resourceState == ResourceState.Disabled || resourceState == ResourceState.Maintenance) {
+                /*
+                 * Host is in non-operation state, so no investigation and direct put agent to Disconnected
+                 */
+                s_logger.debug("Ping timeout but agent " + agentId + " is in resource state of " + resourceState + ", so no investigation");
+                disconnectWithoutInvestigation(agentId, Event.ShutdownRequested);
+            } else {
+                final HostVO host = _hostDao.findById(agentId);
+                if (host != null
+                        && (host.getType() == Host.Type.ConsoleProxy || host.getType() == Host.Type.SecondaryStorageVM || host.getType() == Host.Type.SecondaryStorageCmdExecutor)) {
+
+                    s_logger.warn("Disconnect agent for CPVM/SSVM due to physical connection close. host: " + host.getId());
+                    disconnectWithoutInvestigation(agentId, Event.ShutdownRequested);
+                } else {
+                    s_logger.debug("Ping timeout for agent " + agentId + ", do invstigation");
+                    disconnectWithInvestigation(agentId, Event.PingTimeout);
+                }
+            }
         }
     }
 
@@ -1578,34 +1793,6 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             s_logger.trace("Agent Monitor is started.");
 
             try {
-                final List<Long> behindAgents = findAgentsBehindOnPing();
-                for (final Long agentId : behindAgents) {
-                    final QueryBuilder<HostVO> sc = QueryBuilder.create(HostVO.class);
-                    sc.and(sc.entity().getId(), Op.EQ, agentId);
-                    final HostVO h = sc.find();
-                    if (h != null) {
-                        final ResourceState resourceState = h.getResourceState();
-                        if (resourceState == ResourceState.Disabled || resourceState == ResourceState.Maintenance) {
-                            /*
-                             * Host is in non-operation state, so no investigation and direct put agent to Disconnected
-                             */
-                            s_logger.debug("Ping timeout but agent " + agentId + " is in resource state of " + resourceState + ", so no investigation");
-                            disconnectWithoutInvestigation(agentId, Event.ShutdownRequested);
-                        } else {
-                            final HostVO host = _hostDao.findById(agentId);
-                            if (host != null
-                                    && (host.getType() == Host.Type.ConsoleProxy || host.getType() == Host.Type.SecondaryStorageVM || host.getType() == Host.Type.SecondaryStorageCmdExecutor)) {
-
-                                s_logger.warn("Disconnect agent for CPVM/SSVM due to physical connection close. host: " + host.getId());
-                                disconnectWithoutInvestigation(agentId, Event.ShutdownRequested);
-                            } else {
-                                s_logger.debug("Ping timeout for agent " + agentId + ", do invstigation");
-                                disconnectWithInvestigation(agentId, Event.PingTimeout);
-                            }
-                        }
-                    }
-                }
-
                 final QueryBuilder<HostVO> sc = QueryBuilder.create(HostVO.class);
                 sc.and(sc.entity().getResourceState(), Op.IN,
                         ResourceState.PrepareForMaintenance,
@@ -1627,22 +1814,6 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
             s_logger.trace("Agent Monitor is leaving the building!");
         }
-
-        protected List<Long> findAgentsBehindOnPing() {
-            final List<Long> agentsBehind = new ArrayList<Long>();
-            final long cutoffTime = InaccurateClock.getTimeInSeconds() - mgmtServiceConf.getTimeout();
-            for (final Map.Entry<Long, Long> entry : _pingMap.entrySet()) {
-                if (entry.getValue() < cutoffTime) {
-                    agentsBehind.add(entry.getKey());
-                }
-            }
-
-            if (agentsBehind.size() > 0) {
-                s_logger.info("Found the following agents behind on ping: " + agentsBehind);
-            }
-
-            return agentsBehind;
-        }
     }
 
     protected class BehindOnPingListener implements Listener {
@@ -1683,12 +1854,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             }
 
             // NOTE: We don't use pingBy here because we're initiating.
-            _pingMap.put(host.getId(), InaccurateClock.getTimeInSeconds());
+            _pingTracker.register(host.getId(), TimeUnit.MILLISECONDS.toSeconds(HashedTimingWheel.currentTimeMillis()), mgmtServiceConf.getTimeout());
         }
 
         @Override
         public boolean processDisconnect(final long agentId, final Status state) {
-            _pingMap.remove(agentId);
+            _pingTracker.unregister(agentId);
             return true;
         }
 
@@ -1720,7 +1891,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
-            DirectAgentThreadCap };
+            DirectAgentThreadCap, NioBufferPoolEnabled, AgentHandlerQueueSize, AgentTaskQueueSize, AgentConnectMaxConcurrency, AgentConnectRetryAfter };
     }
 
     protected class SetHostParamsListener implements Listener {
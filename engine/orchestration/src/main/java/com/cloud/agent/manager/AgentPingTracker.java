@@ -0,0 +1,125 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import com.cloud.utils.concurrency.HashedTimingWheel;
+import com.cloud.utils.concurrency.StripedLongMap;
+
+/**
+ * Tracks the last ping time of every directly connected agent.
+ *
+ * A ping only looks the host up in a primitive keyed map and writes a volatile
+ * field, so it neither locks a shared monitor nor allocates.  Each host has one
+ * pending timeout on a timing wheel for its ping deadline.  When it fires the
+ * host is either reported behind on ping, or, if it pinged in the meantime, the
+ * timeout is moved to the new deadline.  Hosts are therefore only looked at
+ * when their deadline passes, and a missed ping is noticed within one wheel
+ * tick instead of one monitor interval.
+ */
+public class AgentPingTracker {
+
+    public interface Listener {
+        /**
+         * Called from the timing wheel thread, must not block.  A host that keeps
+         * missing pings is reported again after every further timeout period.
+         */
+        void behindOnPing(long hostId);
+    }
+
+    final class PingEntry implements HashedTimingWheel.Task {
+        final long hostId;
+        final long timeout;
+        volatile long lastPing;
+
+        PingEntry(final long hostId, final long lastPing, final long timeout) {
+            this.hostId = hostId;
+            this.lastPing = lastPing;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void expired(final HashedTimingWheel.Timeout t) {
+            check(this, t.getDeadline() / 1000);
+        }
+    }
+
+    private final StripedLongMap<PingEntry> _entries = new StripedLongMap<PingEntry>(64, 10007);
+    private final HashedTimingWheel _wheel;
+    private final Listener _listener;
+
+    public AgentPingTracker(final HashedTimingWheel wheel, final Listener listener) {
+        _wheel = wheel;
+        _listener = listener;
+    }
+
+    /**
+     * Starts tracking hostId, replacing any previous registration.
+     * @param now current time in seconds of the wheel's clock, see HashedTimingWheel.currentTimeMillis().
+     * @param timeout seconds without a ping after which the host is behind.
+     */
+    public void register(final long hostId, final long now, final long timeout) {
+        final PingEntry entry = new PingEntry(hostId, now, timeout);
+        _entries.put(hostId, entry);
+        schedule(entry, now + timeout);
+    }
+
+    public void unregister(final long hostId) {
+        _entries.remove(hostId);
+    }
+
+    /**
+     * Records a ping from hostId.
+     * @param now current time in seconds of the wheel's clock.
+     * @return false if the host is not tracked.
+     */
+    public boolean ping(final long hostId, final long now) {
+        final PingEntry entry = _entries.get(hostId);
+        if (entry == null) {
+            return false;
+        }
+        entry.lastPing = now;
+        return true;
+    }
+
+    public Long getLastPing(final long hostId) {
+        final PingEntry entry = _entries.get(hostId);
+        return entry != null ? entry.lastPing : null;
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    private void check(final PingEntry entry, final long now) {
+        if (_entries.get(entry.hostId) != entry) {
+            // unregistered or replaced by a newer registration
+            return;
+        }
+        final long deadline = entry.lastPing + entry.timeout;
+        if (deadline < now) {
+            schedule(entry, now + entry.timeout);
+            _listener.behindOnPing(entry.hostId);
+        } else {
+            schedule(entry, deadline);
+        }
+    }
+
+    private void schedule(final PingEntry entry, final long deadline) {
+        // a host is behind once its deadline has strictly passed
+        _wheel.scheduleAt(entry, (deadline + 1) * 1000);
+    }
+}
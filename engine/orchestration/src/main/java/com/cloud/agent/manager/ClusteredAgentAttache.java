@@ -83,6 +83,11 @@ public class ClusteredAgentAttache extends ConnectedAgentAttache implements Rout
         }
     }
 
+    @Override
+    protected boolean mayRefuseCommands() {
+        return _transferMode || super.mayRefuseCommands();
+    }
+
     @Override
     public void cancel(final long seq) {
         if (forForward()) {
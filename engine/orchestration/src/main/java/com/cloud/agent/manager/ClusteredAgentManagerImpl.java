@@ -46,6 +46,10 @@ import org.apache.cloudstack.ca.CAManager;
 import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.jobs.AsyncJob;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.ha.dao.HAConfigDao;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
@@ -59,8 +63,12 @@ import com.cloud.agent.api.CancelCommand;
 import com.cloud.agent.api.ChangeAgentAnswer;
 import com.cloud.agent.api.ChangeAgentCommand;
 import com.cloud.agent.api.Command;
+import com.cloud.agent.api.InvalidateEntityCacheCommand;
 import com.cloud.agent.api.PropagateResourceEventCommand;
+import com.cloud.agent.api.ReportApiLimitUsageCommand;
+import com.cloud.agent.api.RolePermissionsChangedCommand;
 import com.cloud.agent.api.ScheduleHostScanTaskCommand;
+import com.cloud.agent.api.SignalSyncQueueCommand;
 import com.cloud.agent.api.TransferAgentCommand;
 import com.cloud.agent.transport.Request;
 import com.cloud.agent.transport.Request.Version;
@@ -86,7 +94,9 @@ import com.cloud.host.Status.Event;
 import com.cloud.resource.ServerResource;
 import com.cloud.serializer.GsonHelper;
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.EntityCacheManager;
 import com.cloud.utils.db.QueryBuilder;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.TransactionLegacy;
@@ -99,6 +109,8 @@ import com.google.gson.Gson;
 public class ClusteredAgentManagerImpl extends AgentManagerImpl implements ClusterManagerListener, ClusteredAgentRebalanceService {
     final static Logger s_logger = Logger.getLogger(ClusteredAgentManagerImpl.class);
     private static final ScheduledExecutorService s_transferExecutor = Executors.newScheduledThreadPool(2, new NamedThreadFactory("Cluster-AgentRebalancingExecutor"));
+    private static final ScheduledExecutorService s_cacheInvalidationExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Cluster-EntityCacheInvalidator"));
+    private static final long CACHE_INVALIDATION_DELAY = 100; // ms to coalesce entity cache invalidations before they go to the peers
     private final long rebalanceTimeOut = 300000; // 5 mins - after this time remove the agent from the transfer list
 
     public final static long STARTUP_DELAY = 5000;
@@ -110,6 +122,8 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     protected HashMap<String, SSLEngine> _sslEngines;
     private final Timer _timer = new Timer("ClusteredAgentManager Timer");
     boolean _agentLbHappened = false;
+    // table -> ids waiting to be broadcast, a null set means the whole table
+    private final Map<String, Set<Long>> _pendingCacheInvalidations = new HashMap<String, Set<Long>>();
 
     @Inject
     protected ClusterManager _clusterMgr = null;
@@ -129,6 +143,8 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     private HAConfigDao haConfigDao;
     @Inject
     private CAManager caService;
+    @Inject
+    private MessageBus _messageBus;
 
     protected ClusteredAgentManagerImpl() {
         super();
@@ -140,6 +156,8 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     protected final ConfigKey<Integer> LoadSize = new ConfigKey<Integer>(Integer.class, "direct.agent.load.size", "Advanced", "16", "How many agents to connect to in each round", true);
     protected final ConfigKey<Integer> ScanInterval = new ConfigKey<Integer>(Integer.class, "direct.agent.scan.interval", "Advanced", "90", "Interval between scans to load agents", false,
             ConfigKey.Scope.Global, 1000);
+    protected final ConfigKey<Boolean> CutThroughForwarding = new ConfigKey<Boolean>(Boolean.class, "agent.forward.cut.through", "Advanced", "false",
+            "Relay requests received from peer management servers to the agents connected here as received, parsing only their header", true);
 
     @Override
     public boolean configure(final String name, final Map<String, Object> xmlParams) throws ConfigurationException {
@@ -156,6 +174,22 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
         _gson = GsonHelper.getGson();
 
+        EntityCacheManager.setBroadcaster(new EntityCacheManager.Broadcaster() {
+            @Override
+            public void broadcast(final String table, final long[] ids) {
+                queueCacheInvalidation(table, ids);
+            }
+        });
+
+        _messageBus.subscribe(AsyncJob.Topics.SYNC_QUEUE_REMOTE_ITEM, new MessageSubscriber() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+                final Pair<Long, Long> ownerAndQueue = (Pair<Long, Long>)args;
+                signalSyncQueue(ownerAndQueue.first(), ownerAndQueue.second());
+            }
+        });
+
         return super.configure(name, xmlParams);
     }
 
@@ -179,6 +213,109 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         return true;
     }
 
+    /**
+     * Entity caches call this after every committed write, so the ids are collected per table and
+     * sent to the peers in one command a little later instead of one cluster PDU per row.
+     */
+    private void queueCacheInvalidation(final String table, final long[] ids) {
+        synchronized (_pendingCacheInvalidations) {
+            final boolean schedule = _pendingCacheInvalidations.isEmpty();
+            if (ids == null) {
+                _pendingCacheInvalidations.put(table, null);
+            } else if (!_pendingCacheInvalidations.containsKey(table) || _pendingCacheInvalidations.get(table) != null) {
+                Set<Long> pending = _pendingCacheInvalidations.get(table);
+                if (pending == null) {
+                    pending = new HashSet<Long>();
+                    _pendingCacheInvalidations.put(table, pending);
+                }
+                for (final long id : ids) {
+                    pending.add(id);
+                }
+            }
+            if (schedule) {
+                try {
+                    s_cacheInvalidationExecutor.schedule(new CacheInvalidationTask(), CACHE_INVALIDATION_DELAY, TimeUnit.MILLISECONDS);
+                } catch (final RejectedExecutionException e) {
+                    _pendingCacheInvalidations.clear();
+                }
+            }
+        }
+    }
+
+    private class CacheInvalidationTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            final Map<String, Set<Long>> pending;
+            synchronized (_pendingCacheInvalidations) {
+                pending = new HashMap<String, Set<Long>>(_pendingCacheInvalidations);
+                _pendingCacheInvalidations.clear();
+            }
+            for (final Map.Entry<String, Set<Long>> entry : pending.entrySet()) {
+                long[] ids = null;
+                if (entry.getValue() != null) {
+                    ids = new long[entry.getValue().size()];
+                    int i = 0;
+                    for (final Long id : entry.getValue()) {
+                        ids[i++] = id;
+                    }
+                }
+                try {
+                    final Command[] cmds = new Command[] {new InvalidateEntityCacheCommand(entry.getKey(), ids)};
+                    _clusterMgr.broadcast(0, _gson.toJson(cmds));
+                } catch (final Exception e) {
+                    s_logger.warn("Unable to broadcast entity cache invalidation for " + entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sync queues are sharded over the management servers, tell the owner of the queue to dispatch from it.
+     */
+    private void signalSyncQueue(final long ownerMsid, final long queueId) {
+        try {
+            final Command[] cmds = new Command[] {new SignalSyncQueueCommand(queueId)};
+            _clusterMgr.executeAsync(String.valueOf(ownerMsid), 0, _gson.toJson(cmds), false);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to signal sync queue " + queueId + " to its owner " + ownerMsid + ", it is left to the queue scan", e);
+        }
+    }
+
+    private String handleSignalSyncQueueCommand(final SignalSyncQueueCommand cmd) {
+        _messageBus.publish(null, AsyncJob.Topics.SYNC_QUEUE_ITEM, PublishScope.LOCAL, cmd.getQueueId());
+
+        final Answer[] answers = new Answer[1];
+        answers[0] = new Answer(cmd, true, null);
+        return _gson.toJson(answers);
+    }
+
+    private String handleReportApiLimitUsageCommand(final ReportApiLimitUsageCommand cmd) {
+        _messageBus.publish(null, ReportApiLimitUsageCommand.TOPIC, PublishScope.LOCAL, cmd);
+
+        final Answer[] answers = new Answer[1];
+        answers[0] = new Answer(cmd, true, null);
+        return _gson.toJson(answers);
+    }
+
+    private String handleRolePermissionsChangedCommand(final RolePermissionsChangedCommand cmd) {
+        _messageBus.publish(null, RolePermissionsChangedCommand.TOPIC, PublishScope.LOCAL, cmd.getRoleId());
+
+        final Answer[] answers = new Answer[1];
+        answers[0] = new Answer(cmd, true, null);
+        return _gson.toJson(answers);
+    }
+
+    private String handleInvalidateEntityCacheCommand(final InvalidateEntityCacheCommand cmd) {
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Intercepting entity cache invalidation: " + _gson.toJson(cmd));
+        }
+        EntityCacheManager.onRemoteInvalidation(cmd.getTable(), cmd.getIds());
+
+        final Answer[] answers = new Answer[1];
+        answers[0] = new Answer(cmd, true, null);
+        return _gson.toJson(answers);
+    }
+
     public void scheduleHostScanTask() {
         _timer.schedule(new DirectAgentScanTimerTask(), 0);
         if (s_logger.isDebugEnabled()) {
@@ -254,11 +391,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         s_logger.debug("create forwarding ClusteredAgentAttache for " + id);
         final HostVO host = _hostDao.findById(id);
         final AgentAttache attache = new ClusteredAgentAttache(this, id, host.getName());
-        AgentAttache old = null;
-        synchronized (_agents) {
-            old = _agents.get(id);
-            _agents.put(id, attache);
-        }
+        final AgentAttache old = _agents.put(id, attache);
         if (old != null) {
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Remove stale agent attache from current management server");
@@ -273,11 +406,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         s_logger.debug("create ClusteredAgentAttache for " + host.getId());
         final AgentAttache attache = new ClusteredAgentAttache(this, host.getId(), host.getName(), link, host.isInMaintenanceStates());
         link.attach(attache);
-        AgentAttache old = null;
-        synchronized (_agents) {
-            old = _agents.get(host.getId());
-            _agents.put(host.getId(), attache);
-        }
+        final AgentAttache old = _agents.put(host.getId(), attache);
         if (old != null) {
             old.disconnect(Status.Removed);
         }
@@ -288,11 +417,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     protected AgentAttache createAttacheForDirectConnect(final Host host, final ServerResource resource) {
         s_logger.debug("create ClusteredDirectAgentAttache for " + host.getId());
         final DirectAgentAttache attache = new ClusteredDirectAgentAttache(this, host.getId(), host.getName(), _nodeId, resource, host.isInMaintenanceStates());
-        AgentAttache old = null;
-        synchronized (_agents) {
-            old = _agents.get(host.getId());
-            _agents.put(host.getId(), attache);
-        }
+        final AgentAttache old = _agents.put(host.getId(), attache);
         if (old != null) {
             old.disconnect(Status.Removed);
         }
@@ -595,6 +720,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
         // cancel all transfer tasks
         s_transferExecutor.shutdownNow();
+        s_cacheInvalidationExecutor.shutdownNow();
         cleanupTransferMap(_nodeId);
 
         return super.stop();
@@ -606,6 +732,17 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         // We may also pickup agents that have been left over from other crashed management server
     }
 
+    /**
+     * In cut-through mode only the header of a request relayed to an agent is parsed, the payload
+     * is written to the agent link as it was read from the peer.
+     */
+    protected Request parseForForwarding(final byte[] data) throws ClassNotFoundException, UnsupportedVersionException {
+        if (CutThroughForwarding.value()) {
+            return Request.parseHeader(data);
+        }
+        return Request.parse(data);
+    }
+
     public class ClusteredAgentHandler extends AgentHandler {
 
         public ClusteredAgentHandler(final Task.Type type, final Link link, final byte[] data) {
@@ -623,7 +760,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
                 final byte[] data = task.getData();
                 final Version ver = Request.getVersion(data);
-                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal()) {
+                if (ver != Version.v1 && ver != Version.v3 && ver != Version.v4) {
                     s_logger.warn("Wrong version for clustered agent request");
                     super.doTask(task);
                     return;
@@ -667,7 +804,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                             // route it to the agent.
                             // But we have the serialize the control commands here so we have
                             // to deserialize this and send it through the agent attache.
-                            final Request req = Request.parse(data);
+                            final Request req = parseForForwarding(data);
                             agent.send(req, null);
                             return;
                         } else {
@@ -675,7 +812,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                                 final Routable cluster = (Routable)agent;
                                 cluster.routeToAgent(data);
                             } else {
-                                agent.send(Request.parse(data));
+                                agent.send(parseForForwarding(data));
                             }
                             return;
                         }
@@ -1165,7 +1302,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
             return false;
         }
 
-        synchronized (_agents) {
+        synchronized (_agents.lockFor(hostId)) {
             final ClusteredDirectAgentAttache attache = (ClusteredDirectAgentAttache)_agents.get(hostId);
             if (attache != null && attache.getQueueSize() == 0 && attache.getNonRecurringListenersSize() == 0) {
                 handleDisconnectWithoutInvestigation(attache, Event.StartAgentRebalance, true, true);
@@ -1343,6 +1480,14 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                 final ScheduleHostScanTaskCommand cmd = (ScheduleHostScanTaskCommand)cmds[0];
                 final String response = handleScheduleHostScanTaskCommand(cmd);
                 return response;
+            } else if (cmds.length == 1 && cmds[0] instanceof InvalidateEntityCacheCommand) {
+                return handleInvalidateEntityCacheCommand((InvalidateEntityCacheCommand)cmds[0]);
+            } else if (cmds.length == 1 && cmds[0] instanceof SignalSyncQueueCommand) {
+                return handleSignalSyncQueueCommand((SignalSyncQueueCommand)cmds[0]);
+            } else if (cmds.length == 1 && cmds[0] instanceof ReportApiLimitUsageCommand) {
+                return handleReportApiLimitUsageCommand((ReportApiLimitUsageCommand)cmds[0]);
+            } else if (cmds.length == 1 && cmds[0] instanceof RolePermissionsChangedCommand) {
+                return handleRolePermissionsChangedCommand((RolePermissionsChangedCommand)cmds[0]);
             }
 
             try {
@@ -1452,6 +1597,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         keysLst.add(ConnectedAgentThreshold);
         keysLst.add(LoadSize);
         keysLst.add(ScanInterval);
+        keysLst.add(CutThroughForwarding);
         return keysLst.toArray(new ConfigKey<?>[keysLst.size()]);
     }
 }
@@ -19,8 +19,6 @@ package com.cloud.agent.manager;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -38,6 +36,7 @@ import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.host.Status;
 import com.cloud.resource.ServerResource;
+import com.cloud.utils.concurrency.HashedTimingWheel;
 
 public class DirectAgentAttache extends AgentAttache {
     private final static Logger s_logger = Logger.getLogger(DirectAgentAttache.class);
@@ -47,7 +46,7 @@ public class DirectAgentAttache extends AgentAttache {
     protected final ConfigKey<Integer> _HostPingRetryTimer = new ConfigKey<Integer>("Advanced", Integer.class, "host.ping.retry.timer", "5",
             "Interval to wait before retrying a host ping while waiting for check results", true);
     ServerResource _resource;
-    List<ScheduledFuture<?>> _futures = new ArrayList<ScheduledFuture<?>>();
+    List<HashedTimingWheel.Handle> _futures = new ArrayList<HashedTimingWheel.Handle>();
     long _seq = 0;
     LinkedList<Task> tasks = new LinkedList<Task>();
     AtomicInteger _outstandingTaskCount;
@@ -66,8 +65,8 @@ public class DirectAgentAttache extends AgentAttache {
             s_logger.debug("Processing disconnect " + _id + "(" + _name + ")");
         }
 
-        for (ScheduledFuture<?> future : _futures) {
-            future.cancel(false);
+        for (HashedTimingWheel.Handle future : _futures) {
+            future.cancel();
         }
 
         synchronized (this) {
@@ -100,7 +99,7 @@ public class DirectAgentAttache extends AgentAttache {
             if (answers != null && answers[0] instanceof StartupAnswer) {
                 StartupAnswer startup = (StartupAnswer)answers[0];
                 int interval = startup.getPingInterval();
-                _futures.add(_agentMgr.getCronJobPool().scheduleAtFixedRate(new PingTask(), interval, interval, TimeUnit.SECONDS));
+                _futures.add(_agentMgr.scheduleDirectAgentCronTask(new PingTask(), interval));
             }
         } else {
             Command[] cmds = req.getCommands();
@@ -109,7 +108,7 @@ public class DirectAgentAttache extends AgentAttache {
                 scheduleFromQueue();
             } else {
                 CronCommand cmd = (CronCommand)cmds[0];
-                _futures.add(_agentMgr.getCronJobPool().scheduleAtFixedRate(new CronTask(req), cmd.getInterval(), cmd.getInterval(), TimeUnit.SECONDS));
+                _futures.add(_agentMgr.scheduleDirectAgentCronTask(new CronTask(req), cmd.getInterval()));
             }
         }
     }
@@ -120,7 +119,7 @@ public class DirectAgentAttache extends AgentAttache {
             StartupAnswer startup = (StartupAnswer)answers[0];
             int interval = startup.getPingInterval();
             s_logger.info("StartupAnswer received " + startup.getHostId() + " Interval = " + interval);
-            _futures.add(_agentMgr.getCronJobPool().scheduleAtFixedRate(new PingTask(), interval, interval, TimeUnit.SECONDS));
+            _futures.add(_agentMgr.scheduleDirectAgentCronTask(new PingTask(), interval));
         }
     }
 
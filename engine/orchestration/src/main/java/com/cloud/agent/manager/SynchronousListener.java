@@ -27,6 +27,8 @@ import com.cloud.agent.api.StartupCommand;
 import com.cloud.host.Host;
 import com.cloud.host.Status;
 import com.cloud.utils.Profiler;
+import com.cloud.utils.concurrency.SemaphoreBoundedExecutor;
+import com.cloud.utils.db.TransactionLegacy;
 
 public class SynchronousListener implements Listener {
     private static final Logger s_logger = Logger.getLogger(SynchronousListener.class);
@@ -108,7 +110,18 @@ public class SynchronousListener implements Listener {
         return waitFor(-1);
     }
 
-    public synchronized Answer[] waitFor(int s) throws InterruptedException {
+    public Answer[] waitFor(int s) throws InterruptedException {
+        // a job parked on the agent does not count against the limit of an elastic job executor,
+        // unless it holds a database connection
+        final SemaphoreBoundedExecutor executor = TransactionLegacy.inDbTxn() ? null : SemaphoreBoundedExecutor.beginBlocking();
+        try {
+            return doWaitFor(s);
+        } finally {
+            SemaphoreBoundedExecutor.endBlocking(executor);
+        }
+    }
+
+    protected synchronized Answer[] doWaitFor(int s) throws InterruptedException {
         if (_disconnected) {
             return null;
         }
@@ -26,12 +26,17 @@ import com.cloud.host.HostVO;
 import com.cloud.host.Status;
 import com.cloud.host.dao.HostDao;
 import com.cloud.utils.Pair;
+import com.cloud.utils.concurrency.HashedTimingWheel;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AgentManagerImplTest {
 
@@ -83,4 +88,30 @@ public class AgentManagerImplTest {
         }
         Mockito.verify(mgr, Mockito.times(1)).handleDisconnectWithoutInvestigation(Mockito.any(attache.getClass()), Mockito.eq(Status.Event.AgentDisconnected), Mockito.eq(true), Mockito.eq(true));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDirectAgentCronTaskSkipsTicksWhileRunning() throws Exception {
+        final List<Runnable> submitted = new ArrayList<>();
+        final ScheduledExecutorService cronJobExecutor = Mockito.mock(ScheduledExecutorService.class);
+        Mockito.doAnswer(invocation -> submitted.add(invocation.getArgument(0))).when(cronJobExecutor).execute(Mockito.any(Runnable.class));
+        mgr._cronJobExecutor = cronJobExecutor;
+
+        final AtomicInteger runs = new AtomicInteger();
+        mgr.scheduleDirectAgentCronTask(runs::incrementAndGet, 1);
+
+        final Field wheelField = AgentManagerImpl.class.getDeclaredField("_timingWheel");
+        wheelField.setAccessible(true);
+        final HashedTimingWheel wheel = (HashedTimingWheel)wheelField.get(mgr);
+        final long now = HashedTimingWheel.currentTimeMillis();
+
+        wheel.advanceTo(now + 2500);
+        wheel.advanceTo(now + 4500);
+        Assert.assertEquals("ticks must be skipped while the previous run is outstanding", 1, submitted.size());
+
+        submitted.get(0).run();
+        Assert.assertEquals(1, runs.get());
+
+        wheel.advanceTo(now + 6500);
+        Assert.assertEquals(2, submitted.size());
+    }
+}
@@ -0,0 +1,115 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.concurrency.HashedTimingWheel;
+
+public class AgentPingTrackerTest {
+    private HashedTimingWheel wheel;
+    private AgentPingTracker tracker;
+    private List<Long> behind;
+
+    @Before
+    public void setup() {
+        wheel = new HashedTimingWheel("AgentPingTrackerTest", 1000, 64, 0);
+        behind = new ArrayList<Long>();
+        tracker = new AgentPingTracker(wheel, new AgentPingTracker.Listener() {
+            @Override
+            public void behindOnPing(long hostId) {
+                behind.add(hostId);
+            }
+        });
+    }
+
+    private void advanceTo(long seconds) {
+        wheel.advanceTo(seconds * 1000);
+    }
+
+    @Test
+    public void hostWithinTimeoutIsNotBehind() {
+        tracker.register(1L, 1000L, 60L);
+        advanceTo(1060L);
+        Assert.assertTrue(behind.isEmpty());
+        advanceTo(1061L);
+        Assert.assertEquals(Arrays.asList(1L), behind);
+    }
+
+    @Test
+    public void pingMovesTheDeadline() {
+        tracker.register(1L, 1000L, 60L);
+        Assert.assertTrue(tracker.ping(1L, 1050L));
+        Assert.assertEquals(Long.valueOf(1050L), tracker.getLastPing(1L));
+        advanceTo(1110L);
+        Assert.assertTrue(behind.isEmpty());
+        advanceTo(1111L);
+        Assert.assertEquals(Arrays.asList(1L), behind);
+    }
+
+    @Test
+    public void hostIsReportedAgainAfterEachTimeoutUntilItPings() {
+        tracker.register(1L, 1000L, 10L);
+        advanceTo(1011L);
+        advanceTo(1022L);
+        Assert.assertEquals(Arrays.asList(1L, 1L), behind);
+        tracker.ping(1L, 1022L);
+        advanceTo(1032L);
+        Assert.assertEquals(2, behind.size());
+    }
+
+    @Test
+    public void unregisteredHostIsNotReported() {
+        tracker.register(1L, 1000L, 10L);
+        tracker.unregister(1L);
+        advanceTo(2000L);
+        Assert.assertTrue(behind.isEmpty());
+        Assert.assertFalse(tracker.ping(1L, 2000L));
+        Assert.assertNull(tracker.getLastPing(1L));
+    }
+
+    @Test
+    public void reRegistrationReplacesOldEntry() {
+        tracker.register(1L, 1000L, 10L);
+        tracker.register(1L, 1015L, 10L);
+        advanceTo(1025L);
+        Assert.assertTrue(behind.isEmpty());
+        advanceTo(1026L);
+        Assert.assertEquals(Arrays.asList(1L), behind);
+        Assert.assertEquals(1, tracker.size());
+    }
+
+    @Test
+    public void onlyExpiredHostsAreReported() {
+        for (long id = 0; id < 1000; id++) {
+            tracker.register(id, 1000L, 60L);
+        }
+        for (long id = 0; id < 1000; id++) {
+            if (id % 10 != 0) {
+                tracker.ping(id, 1050L);
+            }
+        }
+        advanceTo(1070L);
+        Assert.assertEquals(100, behind.size());
+    }
+}
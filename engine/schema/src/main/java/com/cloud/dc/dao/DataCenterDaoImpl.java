@@ -236,6 +236,8 @@ public class DataCenterDaoImpl extends GenericDaoBase<DataCenterVO, Long> implem
         SequenceFetcher fetch = SequenceFetcher.getInstance();
 
         long seq = fetch.getNextSequence(Long.class, _tgMacAddress, id);
+        // the sequence lives in the data_center row, which the fetcher updates behind the entity cache
+        invalidateCachedEntity(id);
         seq = seq | _prefix | ((id & 0x7f) << 32);
         seq |= mask;
         seq |= ((_rand.nextInt(Short.MAX_VALUE) << 16) & 0x00000000ffff0000l);
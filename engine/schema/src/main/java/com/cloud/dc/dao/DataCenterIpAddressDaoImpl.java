@@ -29,6 +29,7 @@ import org.springframework.stereotype.Component;
 
 import com.cloud.dc.DataCenterIpAddressVO;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.EntityCacheManager;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.SearchBuilder;
@@ -162,6 +163,8 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
                     updatePstmt.executeUpdate();
                 }
             }
+            // mac_address was bumped with raw SQL, so the zone cached by DataCenterDao is stale
+            EntityCacheManager.invalidateAfterCompletion("data_center", dcId);
             txn.commit();
         } catch (SQLException ex) {
             throw new CloudRuntimeException("Unable to persist ip address range ", ex);
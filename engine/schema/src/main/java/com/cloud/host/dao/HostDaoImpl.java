@@ -991,7 +991,7 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
         if (event.equals(Event.ManagementServerDown)) {
             ub.set(host, _pingTimeAttr, ((System.currentTimeMillis() >> 10) - mgmtServiceConf.getTimeout()));
         }
-        int result = update(ub, sc, null);
+        int result = updateRow(host.getId(), ub, sc);
         assert result <= 1 : "How can this update " + result + " rows? ";
 
         if (result == 0) {
@@ -1045,7 +1045,7 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
 
         UpdateBuilder ub = getUpdateBuilder(host);
         ub.set(host, _resourceStateAttr, newState);
-        int result = update(ub, sc, null);
+        int result = updateRow(host.getId(), ub, sc);
         assert result <= 1 : "How can this update " + result + " rows? ";
 
         if (state_logger.isDebugEnabled() && result == 0) {
@@ -37,6 +37,7 @@ import com.cloud.utils.exception.CloudRuntimeException;
 public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implements HostDetailsDao {
     protected final SearchBuilder<DetailVO> HostSearch;
     protected final SearchBuilder<DetailVO> DetailSearch;
+    protected final SearchBuilder<DetailVO> HostsDetailSearch;
 
     public HostDetailsDaoImpl() {
         HostSearch = createSearchBuilder();
@@ -47,6 +48,11 @@ public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implement
         DetailSearch.and("hostId", DetailSearch.entity().getHostId(), SearchCriteria.Op.EQ);
         DetailSearch.and("name", DetailSearch.entity().getName(), SearchCriteria.Op.EQ);
         DetailSearch.done();
+
+        HostsDetailSearch = createSearchBuilder();
+        HostsDetailSearch.and("hostId", HostsDetailSearch.entity().getHostId(), SearchCriteria.Op.IN);
+        HostsDetailSearch.and("name", HostsDetailSearch.entity().getName(), SearchCriteria.Op.EQ);
+        HostsDetailSearch.done();
     }
 
     @Override
@@ -62,6 +68,26 @@ public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implement
         return detail;
     }
 
+    @Override
+    public Map<Long, String> findDetailValues(List<Long> hostIds, String name) {
+        Map<Long, String> values = new HashMap<Long, String>();
+        if (hostIds == null || hostIds.isEmpty()) {
+            return values;
+        }
+        SearchCriteria<DetailVO> sc = HostsDetailSearch.create();
+        sc.setParameters("hostId", hostIds.toArray());
+        sc.setParameters("name", name);
+
+        for (DetailVO detail : listIncludingRemovedBy(sc)) {
+            if ("password".equals(name)) {
+                values.put(detail.getHostId(), DBEncryptionUtil.decrypt(detail.getValue()));
+            } else {
+                values.put(detail.getHostId(), detail.getValue());
+            }
+        }
+        return values;
+    }
+
     @Override
     public Map<String, String> findDetails(long hostId) {
         SearchCriteria<DetailVO> sc = HostSearch.create();
@@ -120,6 +120,12 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     public Long countActiveByHostId(long hostId);
 
+    /**
+     * Counts the active VMs on each of the given hosts in a single query.
+     * @return host id to active VM count; hosts without active VMs are left out
+     */
+    Map<Long, Long> countActiveByHostIds(List<Long> hostIds);
+
     Pair<List<Long>, Map<Long, Double>> listClusterIdsInZoneByVmCount(long zoneId, long accountId);
 
     Pair<List<Long>, Map<Long, Double>> listClusterIdsInPodByVmCount(long podId, long accountId);
@@ -119,6 +119,9 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
 
     private static final String ORDER_HOSTS_NUMBER_OF_VMS_FOR_ACCOUNT_PART2 = " GROUP BY host.id ORDER BY 2 ASC ";
 
+    private static final String COUNT_ACTIVE_VMS_BY_HOSTS = "SELECT host_id, COUNT(*) FROM `cloud`.`vm_instance` WHERE removed IS NULL " +
+        "AND state IN ('Running', 'Starting', 'Stopping', 'Migrating') AND host_id IN (";
+
     private static final String COUNT_VMS_BASED_ON_VGPU_TYPES1 =
             "SELECT pci, type, SUM(vmcount) FROM (SELECT MAX(IF(offering.name = 'pciDevice',value,'')) AS pci, MAX(IF(offering.name = 'vgpuType', value,'')) " +
             "AS type, COUNT(DISTINCT vm.id) AS vmcount FROM service_offering_details offering INNER JOIN vm_instance vm ON offering.service_offering_id = vm.service_offering_id " +
@@ -623,6 +626,34 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return customSearch(sc, null).get(0);
     }
 
+    @Override
+    public Map<Long, Long> countActiveByHostIds(List<Long> hostIds) {
+        Map<Long, Long> vmCounts = new HashMap<Long, Long>();
+        if (hostIds == null || hostIds.isEmpty()) {
+            return vmCounts;
+        }
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        StringBuilder sql = new StringBuilder(COUNT_ACTIVE_VMS_BY_HOSTS);
+        for (int i = 0; i < hostIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") GROUP BY host_id");
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            for (int i = 0; i < hostIds.size(); i++) {
+                pstmt.setLong(i + 1, hostIds.get(i));
+            }
+
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                vmCounts.put(rs.getLong(1), rs.getLong(2));
+            }
+            return vmCounts;
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+    }
+
     @Override
     public Pair<List<Long>, Map<Long, Double>> listClusterIdsInZoneByVmCount(long zoneId, long accountId) {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
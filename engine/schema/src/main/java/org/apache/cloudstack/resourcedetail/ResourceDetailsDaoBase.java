@@ -143,9 +143,7 @@ public abstract class ResourceDetailsDaoBase<R extends ResourceDetail> extends G
         sc.setParameters("resourceId", details.get(0).getResourceId());
         expunge(sc);
 
-        for (R detail : details) {
-            persist(detail);
-        }
+        persistBatch(details);
 
         txn.commit();
     }
@@ -0,0 +1,60 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.host.dao;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.host.DetailVO;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.SearchCriteria;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HostDetailsDaoImplTest {
+
+    @Spy
+    private HostDetailsDaoImpl hostDetailsDao = new HostDetailsDaoImpl();
+
+    @Test
+    public void testFindDetailValuesMapsHostsToValues() {
+        Mockito.doReturn(Arrays.asList(new DetailVO(1L, "guest.os.category.id", "5"), new DetailVO(3L, "guest.os.category.id", "7")))
+                .when(hostDetailsDao).searchIncludingRemoved(Mockito.any(SearchCriteria.class), Mockito.isNull(Filter.class), Mockito.isNull(Boolean.class), Mockito.eq(false));
+
+        Map<Long, String> values = hostDetailsDao.findDetailValues(Arrays.asList(1L, 2L, 3L), "guest.os.category.id");
+
+        Assert.assertEquals(2, values.size());
+        Assert.assertEquals("5", values.get(1L));
+        Assert.assertEquals("7", values.get(3L));
+        Assert.assertFalse(values.containsKey(2L));
+        Mockito.verify(hostDetailsDao).searchIncludingRemoved(Mockito.any(SearchCriteria.class), Mockito.isNull(Filter.class), Mockito.isNull(Boolean.class), Mockito.eq(false));
+    }
+
+    @Test
+    public void testFindDetailValuesWithoutHostsDoesNotQuery() {
+        Assert.assertTrue(hostDetailsDao.findDetailValues(Collections.<Long>emptyList(), "guest.os.category.id").isEmpty());
+        Assert.assertTrue(hostDetailsDao.findDetailValues(null, "guest.os.category.id").isEmpty());
+        Mockito.verify(hostDetailsDao, Mockito.never()).searchIncludingRemoved(Mockito.any(SearchCriteria.class), Mockito.any(), Mockito.any(), Mockito.anyBoolean());
+    }
+}
@@ -28,7 +28,10 @@ public interface ClusterManager extends Manager {
     final ConfigKey<Integer> HeartbeatThreshold = new ConfigKey<Integer>(Integer.class, "cluster.heartbeat.threshold", "management-server", "150000",
         "Threshold before self-fence the management server", true);
 
-    void OnReceiveClusterServicePdu(ClusterServicePdu pdu);
+    /**
+     * @return false if the PDU could not be queued for processing, the sender should retry it
+     */
+    boolean OnReceiveClusterServicePdu(ClusterServicePdu pdu);
 
     /**
      * This executes
@@ -47,6 +50,15 @@ public interface ClusterManager extends Manager {
      */
     void broadcast(long agentId, String cmds);
 
+    /**
+     * Send the commands to one management server node without waiting for them to be executed.
+     * @param strPeer peer to send the commands to
+     * @param agentId agent id the commands are regarding
+     * @param cmds commands to send
+     * @param stopOnError
+     */
+    void executeAsync(String strPeer, long agentId, String cmds, boolean stopOnError);
+
     void registerListener(ClusterManagerListener listener);
 
     void unregisterListener(ClusterManagerListener listener);
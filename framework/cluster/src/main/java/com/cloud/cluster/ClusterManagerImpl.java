@@ -32,8 +32,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -73,6 +75,12 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private static final int EXECUTOR_SHUTDOWN_TIMEOUT = 1000; // 1 second
     private static final int DEFAULT_OUTGOING_WORKERS = 5;
+    // local callers can wait for the sending workers, a receiving thread must not hold up the PDUs behind it
+    private static final long OUTGOING_PDU_QUEUE_TIMEOUT = 5000; // 5 seconds
+    private static final long INCOMING_PDU_QUEUE_TIMEOUT = 100; // 100 milliseconds
+
+    private static final ConfigKey<Integer> PduQueueCapacity = new ConfigKey<Integer>("Advanced", Integer.class, "cluster.pdu.queue.capacity", "10000",
+            "Maximum number of inter-management server PDUs queued for sending, and queued for processing once received", false);
 
     private final List<ClusterManagerListener> _listeners = new ArrayList<ClusterManagerListener>();
     private final Map<Long, ManagementServerHostVO> _activePeers = new HashMap<Long, ManagementServerHostVO>();
@@ -114,8 +122,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private String _clusterNodeIP = "127.0.0.1";
 
-    private final List<ClusterServicePdu> _clusterPduOutgoingQueue = new ArrayList<ClusterServicePdu>();
-    private final List<ClusterServicePdu> _clusterPduIncomingQueue = new ArrayList<ClusterServicePdu>();
+    private BlockingQueue<ClusterServicePdu> _clusterPduOutgoingQueue;
+    private BlockingQueue<ClusterServicePdu> _clusterPduIncomingQueue;
     private final Map<Long, ClusterServiceRequestPdu> _outgoingPdusWaitingForAck = new HashMap<Long, ClusterServiceRequestPdu>();
 
     public ClusterManagerImpl() {
@@ -173,50 +181,47 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
-    private void addOutgoingClusterPdu(final ClusterServicePdu pdu) {
-        synchronized (_clusterPduOutgoingQueue) {
-            _clusterPduOutgoingQueue.add(pdu);
-            _clusterPduOutgoingQueue.notifyAll();
+    // the queues are bounded, a full queue holds its producers for a while and then fails the PDU
+    private boolean addOutgoingClusterPdu(final ClusterServicePdu pdu) {
+        try {
+            if (_clusterPduOutgoingQueue.offer(pdu, OUTGOING_PDU_QUEUE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            s_logger.warn("Outgoing cluster PDU queue is full, dropping cluster PDU to " + pdu.getDestPeer() + ", pdu seq: " + pdu.getSequenceId());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            s_logger.warn("Interrupted while queueing cluster PDU to " + pdu.getDestPeer() + ", pdu seq: " + pdu.getSequenceId());
         }
+        return false;
     }
 
     private ClusterServicePdu popOutgoingClusterPdu(final long timeoutMs) {
-        synchronized (_clusterPduOutgoingQueue) {
-            try {
-                _clusterPduOutgoingQueue.wait(timeoutMs);
-            } catch (final InterruptedException e) {
-            }
-
-            if (_clusterPduOutgoingQueue.size() > 0) {
-                final ClusterServicePdu pdu = _clusterPduOutgoingQueue.get(0);
-                _clusterPduOutgoingQueue.remove(0);
-                return pdu;
-            }
+        try {
+            return _clusterPduOutgoingQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            return null;
         }
-        return null;
     }
 
-    private void addIncomingClusterPdu(final ClusterServicePdu pdu) {
-        synchronized (_clusterPduIncomingQueue) {
-            _clusterPduIncomingQueue.add(pdu);
-            _clusterPduIncomingQueue.notifyAll();
+    private boolean addIncomingClusterPdu(final ClusterServicePdu pdu) {
+        try {
+            if (_clusterPduIncomingQueue.offer(pdu, INCOMING_PDU_QUEUE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            s_logger.warn("Incoming cluster PDU queue is full, refusing cluster PDU from " + pdu.getSourcePeer() + ", pdu seq: " + pdu.getSequenceId());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            s_logger.warn("Interrupted while queueing cluster PDU from " + pdu.getSourcePeer() + ", pdu seq: " + pdu.getSequenceId());
         }
+        return false;
     }
 
     private ClusterServicePdu popIncomingClusterPdu(final long timeoutMs) {
-        synchronized (_clusterPduIncomingQueue) {
-            try {
-                _clusterPduIncomingQueue.wait(timeoutMs);
-            } catch (final InterruptedException e) {
-            }
-
-            if (_clusterPduIncomingQueue.size() > 0) {
-                final ClusterServicePdu pdu = _clusterPduIncomingQueue.get(0);
-                _clusterPduIncomingQueue.remove(0);
-                return pdu;
-            }
+        try {
+            return _clusterPduIncomingQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            return null;
         }
-        return null;
     }
 
     private Runnable getClusterPduSendingTask() {
@@ -253,6 +258,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                         s_logger.error("Unable to get cluster service on peer : " + pdu.getDestPeer());
                     }
 
+                    if (peerService instanceof ClusterServiceChannel) {
+                        submitClusterPdu((ClusterServiceChannel)peerService, pdu);
+                        break;
+                    }
+
                     if (peerService != null) {
                         try {
                             if (s_logger.isDebugEnabled()) {
@@ -277,7 +287,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                             }
 
                         } catch (final RemoteException e) {
-                            invalidatePeerService(pdu.getDestPeer());
+                            invalidatePeerService(pdu.getDestPeer(), peerService);
                             if (s_logger.isInfoEnabled()) {
                                 s_logger.info("Exception on remote execution, peer: " + pdu.getDestPeer() + ", iteration: " + i + ", exception message :" +
                                         e.getMessage());
@@ -291,6 +301,46 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    /**
+     * Pipelines the PDU on the peer's channel instead of holding a sending worker until it is delivered.
+     * If delivery fails, it is retried once, like the HTTP path does, over a new connection or HTTP.
+     */
+    private void submitClusterPdu(final ClusterServiceChannel channel, final ClusterServicePdu pdu) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Cluster PDU " + getSelfPeerName() + " -> " + pdu.getDestPeer() + " over channel. agent: " + pdu.getAgentId() + ", pdu seq: " +
+                    pdu.getSequenceId() + ", pdu ack seq: " + pdu.getAckSequenceId() + ", json: " + pdu.getJsonPackage());
+        }
+
+        channel.submit(pdu).whenComplete((result, e) -> {
+            if (e == null && "true".equals(result)) {
+                return;
+            }
+
+            _executor.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    invalidatePeerService(pdu.getDestPeer(), channel);
+                    if (s_logger.isInfoEnabled()) {
+                        s_logger.info("Failed to deliver over channel to peer: " + pdu.getDestPeer() + ", retrying pdu seq: " + pdu.getSequenceId() + ", reason: " +
+                                (e != null ? e.getMessage() : "result " + result));
+                    }
+
+                    ClusterService peerService = null;
+                    try {
+                        peerService = getPeerService(pdu.getDestPeer());
+                        if (peerService == null || !"true".equals(peerService.execute(pdu))) {
+                            s_logger.warn("Unable to deliver cluster PDU to peer: " + pdu.getDestPeer() + ", pdu seq: " + pdu.getSequenceId());
+                        }
+                    } catch (final RemoteException re) {
+                        invalidatePeerService(pdu.getDestPeer(), peerService);
+                        s_logger.warn("Unable to deliver cluster PDU to peer: " + pdu.getDestPeer() + ", pdu seq: " + pdu.getSequenceId() + ", exception message :" +
+                                re.getMessage());
+                    }
+                }
+            });
+        });
+    }
+
     private void onNotifyingClusterPdu() {
         while (true) {
             try {
@@ -326,7 +376,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                                 responsePdu.setAckSequenceId(pdu.getSequenceId());
                                 responsePdu.setJsonPackage(result);
 
-                                addOutgoingClusterPdu(responsePdu);
+                                if (!addOutgoingClusterPdu(responsePdu)) {
+                                    s_logger.warn("Unable to send the response to cluster PDU " + pdu.getSequenceId() + " from " + pdu.getSourcePeer());
+                                }
                             }
                         }
                     }
@@ -338,8 +390,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     @Override
-    public void OnReceiveClusterServicePdu(final ClusterServicePdu pdu) {
-        addIncomingClusterPdu(pdu);
+    public boolean OnReceiveClusterServicePdu(final ClusterServicePdu pdu) {
+        return addIncomingClusterPdu(pdu);
     }
 
     /**
@@ -375,6 +427,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    @Override
     public void executeAsync(final String strPeer, final long agentId, final String cmds, final boolean stopOnError) {
         final ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(getSelfPeerName());
@@ -382,7 +435,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         pdu.setAgentId(agentId);
         pdu.setJsonPackage(cmds);
         pdu.setStopOnError(true);
-        addOutgoingClusterPdu(pdu);
+        if (!addOutgoingClusterPdu(pdu)) {
+            throw new CloudRuntimeException("Unable to queue cluster PDU to " + strPeer);
+        }
     }
 
     @Override
@@ -398,12 +453,16 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         pdu.setJsonPackage(cmds);
         pdu.setStopOnError(stopOnError);
         registerRequestPdu(pdu);
-        addOutgoingClusterPdu(pdu);
+        if (!addOutgoingClusterPdu(pdu)) {
+            popRequestPdu(pdu.getSequenceId());
+            return null;
+        }
 
         synchronized (pdu) {
             try {
                 pdu.wait();
             } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
 
@@ -480,6 +539,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                 s_logger.debug("Leaving node, IP: " + mshost.getServiceIP() + ", msid: " + mshost.getMsid());
             }
             cancelClusterRequestToPeer(String.valueOf(mshost.getMsid()));
+            invalidatePeerService(String.valueOf(mshost.getMsid()));
         }
 
         synchronized (_listeners) {
@@ -526,10 +586,34 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     public void invalidatePeerService(final String strPeer) {
+        final ClusterService service;
         synchronized (_clusterPeers) {
-            if (_clusterPeers.containsKey(strPeer)) {
-                _clusterPeers.remove(strPeer);
-            }
+            service = _clusterPeers.remove(strPeer);
+        }
+        closePeerService(service);
+    }
+
+    /**
+     * Invalidates the peer service only if it is still the given one, so a failure seen on an old
+     * connection does not tear down the connection that replaced it.
+     */
+    private void invalidatePeerService(final String strPeer, final ClusterService service) {
+        if (service == null) {
+            return;
+        }
+
+        final boolean removed;
+        synchronized (_clusterPeers) {
+            removed = _clusterPeers.remove(strPeer, service);
+        }
+        if (removed) {
+            closePeerService(service);
+        }
+    }
+
+    private void closePeerService(final ClusterService service) {
+        if (service instanceof ClusterServiceChannel) {
+            ((ClusterServiceChannel)service).close();
         }
     }
 
@@ -1012,6 +1096,15 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         _heartbeatScheduler.shutdownNow();
         _executor.shutdownNow();
 
+        final List<ClusterService> peerServices;
+        synchronized (_clusterPeers) {
+            peerServices = new ArrayList<ClusterService>(_clusterPeers.values());
+            _clusterPeers.clear();
+        }
+        for (final ClusterService peerService : peerServices) {
+            closePeerService(peerService);
+        }
+
         try {
             _heartbeatScheduler.awaitTermination(EXECUTOR_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
             _executor.awaitTermination(EXECUTOR_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
@@ -1046,6 +1139,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             throw new ConfigurationException("cluster node IP should be valid local address where the server is running, please check your configuration");
         }
 
+        _clusterPduOutgoingQueue = new LinkedBlockingQueue<ClusterServicePdu>(PduQueueCapacity.value());
+        _clusterPduIncomingQueue = new LinkedBlockingQueue<ClusterServicePdu>(PduQueueCapacity.value());
+
         for (int i = 0; i < DEFAULT_OUTGOING_WORKERS; i++) {
             _executor.execute(getClusterPduSendingTask());
         }
@@ -1116,7 +1212,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold};
+        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold, PduQueueCapacity, ClusterServiceAdapter.ClusterChannelEnabled,
+                ClusterServiceAdapter.ClusterChannelPort, ClusterServiceAdapter.ClusterChannelBatchSize, ClusterServiceAdapter.ClusterChannelQueueCapacity};
     }
 
     private boolean pingManagementNode(final ManagementServerHostVO mshost) {
@@ -25,6 +25,15 @@ import com.cloud.utils.component.Adapter;
 public interface ClusterServiceAdapter extends Adapter {
     final ConfigKey<Integer> ClusterMessageTimeOut = new ConfigKey<Integer>(Integer.class, "cluster.message.timeout.seconds", "Advance", "300",
         "Time (in seconds) to wait before a inter-management server message post times out.", true);
+    final ConfigKey<Boolean> ClusterChannelEnabled = new ConfigKey<Boolean>("Advanced", Boolean.class, "cluster.channel.enabled", "false",
+        "If set to true, inter-management server PDUs are sent over persistent, multiplexed connections instead of one HTTP request each. " +
+        "All management servers must be running a version that supports it.", false);
+    final ConfigKey<Integer> ClusterChannelPort = new ConfigKey<Integer>("Advanced", Integer.class, "cluster.channel.port", "9091",
+        "Port the management servers listen on for cluster channel connections when cluster.channel.enabled is true.", false);
+    final ConfigKey<Integer> ClusterChannelBatchSize = new ConfigKey<Integer>("Advanced", Integer.class, "cluster.channel.batch.size", "64",
+        "Maximum number of queued PDUs written to a cluster channel connection in one batch.", true);
+    final ConfigKey<Integer> ClusterChannelQueueCapacity = new ConfigKey<Integer>("Advanced", Integer.class, "cluster.channel.queue.capacity", "10000",
+        "Maximum number of PDUs queued for one peer on its cluster channel connection.", false);
 
     public ClusterService getPeerService(String strPeer) throws RemoteException;
 
@@ -0,0 +1,433 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * Persistent, multiplexed connection to the cluster service channel of one peer.
+ *
+ * Any number of threads can submit PDUs; they are put on a bounded queue that is drained by a
+ * single writer thread, which packs whatever is queued (up to cluster.channel.batch.size entries)
+ * into one batch. Each entry carries a request id, so PDUs are pipelined and the acks read back by
+ * the reader thread complete the matching futures in any order.
+ *
+ * When the peer can't be connected, requests go through the HTTP cluster service instead and the
+ * connection is retried after a back off.
+ */
+public class ClusterServiceChannel implements ClusterService {
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceChannel.class);
+
+    private static final int CONNECT_TIMEOUT = 5000;                    // 5 seconds
+    private static final long RECONNECT_BACKOFF = 10000;                // 10 seconds
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final String _peer;
+    private final String _host;
+    private final int _port;
+    private final ClusterService _fallback;
+
+    private final BlockingQueue<Request> _outgoing;
+    private final Map<Long, Request> _pending = new ConcurrentHashMap<Long, Request>();
+    private final AtomicLong _nextRequestId = new AtomicLong(1);
+    private final ExecutorService _ioExecutor;
+
+    private volatile Socket _socket;
+    private volatile boolean _closed;
+    private long _lastConnectFailure;
+
+    private final AtomicLong _sentPdus = new AtomicLong();
+    private final AtomicLong _sentBatches = new AtomicLong();
+    private final AtomicLong _failedRequests = new AtomicLong();
+    private final AtomicLong _fallbackRequests = new AtomicLong();
+    private final AtomicLong _ackedRequests = new AtomicLong();
+    private final AtomicLong _totalLatencyNanos = new AtomicLong();
+    private volatile long _lastLatencyNanos;
+    private volatile long _maxLatencyNanos;
+
+    private static class Request {
+        final long requestId;
+        final byte kind;
+        final ClusterServicePdu pdu;
+        final String callingPeer;
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+        final long queuedAt = System.nanoTime();
+
+        Request(final long requestId, final byte kind, final ClusterServicePdu pdu, final String callingPeer) {
+            this.requestId = requestId;
+            this.kind = kind;
+            this.pdu = pdu;
+            this.callingPeer = callingPeer;
+        }
+
+        int estimatedSize() {
+            return ENTRY_OVERHEAD + (pdu != null && pdu.getJsonPackage() != null ? pdu.getJsonPackage().length() : 0);
+        }
+    }
+
+    public ClusterServiceChannel(final String peer, final String host, final int port, final ClusterService fallback) {
+        _peer = peer;
+        _host = host;
+        _port = port;
+        _fallback = fallback;
+        _outgoing = new LinkedBlockingQueue<Request>(ClusterServiceAdapter.ClusterChannelQueueCapacity.value());
+        _ioExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("Cluster-Channel-" + peer));
+    }
+
+    /**
+     * Creates the channel and registers its statistics over JMX.
+     */
+    public static ClusterServiceChannel create(final String peer, final String host, final int port, final ClusterService fallback) {
+        final ClusterServiceChannel channel = new ClusterServiceChannel(peer, host, port, fallback);
+        try {
+            JmxUtil.registerMBean("ClusterManager", "Channel " + peer, new ClusterServiceChannelMBeanImpl(channel));
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register cluster channel MBean for peer " + peer, e);
+        }
+        return channel;
+    }
+
+    /**
+     * Sends the PDU without waiting for it to be delivered. The returned future completes with the
+     * peer's answer once the PDU is acked, or exceptionally if the connection fails or times out.
+     */
+    public CompletableFuture<String> submit(final ClusterServicePdu pdu) {
+        if (!connect()) {
+            _fallbackRequests.incrementAndGet();
+            try {
+                return CompletableFuture.completedFuture(_fallback.execute(pdu));
+            } catch (final RemoteException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        return enqueue(new Request(_nextRequestId.getAndIncrement(), ClusterServicePduCodec.KIND_PDU, pdu, null));
+    }
+
+    @Override
+    public String execute(final ClusterServicePdu pdu) throws RemoteException {
+        return waitFor(submit(pdu));
+    }
+
+    @Override
+    public boolean ping(final String callingPeer) throws RemoteException {
+        if (!connect()) {
+            _fallbackRequests.incrementAndGet();
+            return _fallback.ping(callingPeer);
+        }
+
+        return "true".equalsIgnoreCase(waitFor(enqueue(new Request(_nextRequestId.getAndIncrement(), ClusterServicePduCodec.KIND_PING, null, callingPeer))));
+    }
+
+    private String waitFor(final CompletableFuture<String> future) throws RemoteException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            throw new RemoteException("Interrupted while waiting for peer " + _peer);
+        } catch (final ExecutionException e) {
+            throw new RemoteException("Cluster channel request to peer " + _peer + " failed", e.getCause());
+        }
+    }
+
+    private CompletableFuture<String> enqueue(final Request request) {
+        _pending.put(request.requestId, request);
+        request.future.orTimeout(ClusterServiceAdapter.ClusterMessageTimeOut.value(), TimeUnit.SECONDS).whenComplete((result, e) -> {
+            _pending.remove(request.requestId);
+            if (e != null) {
+                _failedRequests.incrementAndGet();
+            }
+        });
+
+        try {
+            if (!_outgoing.offer(request, ClusterServiceAdapter.ClusterMessageTimeOut.value(), TimeUnit.SECONDS)) {
+                request.future.completeExceptionally(new RemoteException("Outgoing queue to peer " + _peer + " is full"));
+            }
+        } catch (final InterruptedException e) {
+            request.future.completeExceptionally(new RemoteException("Interrupted while queueing for peer " + _peer));
+        }
+
+        // the connection may have been lost after the request was queued, the writer won't see it anymore
+        if (!isConnected() && _outgoing.remove(request)) {
+            request.future.completeExceptionally(new RemoteException("Connection to peer " + _peer + " is lost"));
+        }
+        return request.future;
+    }
+
+    private synchronized boolean connect() {
+        if (_closed) {
+            return false;
+        }
+        if (_socket != null) {
+            return true;
+        }
+        if (System.currentTimeMillis() - _lastConnectFailure < RECONNECT_BACKOFF) {
+            return false;
+        }
+
+        final Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(_host, _port), CONNECT_TIMEOUT);
+
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(ClusterServicePduCodec.MAGIC);
+            out.writeInt(ClusterServicePduCodec.VERSION);
+            out.flush();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            _socket = socket;
+            _ioExecutor.execute(getWriterTask(socket, out));
+            _ioExecutor.execute(getReaderTask(socket, in));
+        } catch (final IOException e) {
+            _lastConnectFailure = System.currentTimeMillis();
+            closeSocket(socket);
+            s_logger.warn("Unable to connect cluster channel to peer " + _peer + " at " + getEndpoint() + ", using HTTP until it can be connected. " + e.getMessage());
+            return false;
+        }
+
+        if (s_logger.isInfoEnabled()) {
+            s_logger.info("Cluster channel to peer " + _peer + " is connected at " + getEndpoint());
+        }
+        return true;
+    }
+
+    private Runnable getWriterTask(final Socket socket, final DataOutputStream out) {
+        return new ManagedContextRunnable() {
+            @Override
+            protected void runInContext() {
+                writeRequests(socket, out);
+            }
+        };
+    }
+
+    private Runnable getReaderTask(final Socket socket, final DataInputStream in) {
+        return new ManagedContextRunnable() {
+            @Override
+            protected void runInContext() {
+                readAcks(socket, in);
+            }
+        };
+    }
+
+    private void writeRequests(final Socket socket, final DataOutputStream out) {
+        final List<Request> batch = new ArrayList<Request>();
+        try {
+            while (_socket == socket) {
+                final Request first = _outgoing.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                int batchBytes = first.estimatedSize();
+                final int batchSize = ClusterServiceAdapter.ClusterChannelBatchSize.value();
+                Request next;
+                while (batch.size() < batchSize && batchBytes < MAX_BATCH_BYTES && (next = _outgoing.poll()) != null) {
+                    batch.add(next);
+                    batchBytes += next.estimatedSize();
+                }
+
+                // requests that timed out while queued are not sent anymore
+                batch.removeIf(request -> request.future.isDone());
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                out.writeInt(batch.size());
+                for (final Request request : batch) {
+                    out.writeByte(request.kind);
+                    out.writeLong(request.requestId);
+                    if (request.kind == ClusterServicePduCodec.KIND_PDU) {
+                        ClusterServicePduCodec.writePdu(out, request.pdu);
+                    } else {
+                        ClusterServicePduCodec.writeString(out, request.callingPeer);
+                    }
+                }
+                out.flush();
+
+                _sentPdus.addAndGet(batch.size());
+                _sentBatches.incrementAndGet();
+                batch.clear();
+            }
+        } catch (final IOException | InterruptedException e) {
+            final RemoteException failure = new RemoteException("Unable to send to peer " + _peer, e);
+            for (final Request request : batch) {
+                request.future.completeExceptionally(failure);
+            }
+            disconnect(socket, e);
+        }
+    }
+
+    private void readAcks(final Socket socket, final DataInputStream in) {
+        try {
+            while (_socket == socket) {
+                final int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    final byte kind = in.readByte();
+                    final long requestId = in.readLong();
+                    final String result = ClusterServicePduCodec.readString(in);
+                    if (kind != ClusterServicePduCodec.KIND_ACK) {
+                        throw new IOException("Unexpected entry kind " + kind + " from peer " + _peer);
+                    }
+
+                    final Request request = _pending.remove(requestId);
+                    if (request != null) {
+                        recordLatency(System.nanoTime() - request.queuedAt);
+                        request.future.complete(result);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            disconnect(socket, e);
+        }
+    }
+
+    private void recordLatency(final long latencyNanos) {
+        _ackedRequests.incrementAndGet();
+        _totalLatencyNanos.addAndGet(latencyNanos);
+        _lastLatencyNanos = latencyNanos;
+        if (latencyNanos > _maxLatencyNanos) {
+            _maxLatencyNanos = latencyNanos;
+        }
+    }
+
+    private void disconnect(final Socket socket, final Exception cause) {
+        synchronized (this) {
+            if (_socket != socket) {
+                return;
+            }
+            _socket = null;
+        }
+        closeSocket(socket);
+
+        if (!_closed) {
+            s_logger.warn("Cluster channel to peer " + _peer + " is disconnected: " + (cause != null ? cause.getMessage() : "unknown reason"));
+        }
+
+        final RemoteException failure = new RemoteException("Connection to peer " + _peer + " is lost", cause);
+        final List<Request> queued = new ArrayList<Request>();
+        _outgoing.drainTo(queued);
+        for (final Request request : queued) {
+            request.future.completeExceptionally(failure);
+        }
+        for (final Request request : _pending.values()) {
+            request.future.completeExceptionally(failure);
+        }
+    }
+
+    private static void closeSocket(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            s_logger.debug("[ignored] error on closing cluster channel socket", e);
+        }
+    }
+
+    /**
+     * Fails all outstanding requests and releases the connection and its threads.
+     */
+    public void close() {
+        _closed = true;
+        final Socket socket = _socket;
+        if (socket != null) {
+            disconnect(socket, null);
+        }
+        _ioExecutor.shutdownNow();
+
+        try {
+            JmxUtil.unregisterMBean("ClusterManager", "Channel " + _peer);
+        } catch (final Exception e) {
+            s_logger.debug("[ignored] unable to unregister cluster channel MBean for peer " + _peer, e);
+        }
+    }
+
+    public String getPeer() {
+        return _peer;
+    }
+
+    public String getEndpoint() {
+        return _host + ":" + _port;
+    }
+
+    public boolean isConnected() {
+        return _socket != null;
+    }
+
+    public int getQueueDepth() {
+        return _outgoing.size();
+    }
+
+    public int getPendingRequests() {
+        return _pending.size();
+    }
+
+    public long getSentPdus() {
+        return _sentPdus.get();
+    }
+
+    public long getSentBatches() {
+        return _sentBatches.get();
+    }
+
+    public long getFailedRequests() {
+        return _failedRequests.get();
+    }
+
+    public long getFallbackRequests() {
+        return _fallbackRequests.get();
+    }
+
+    public double getAverageLatencyMillis() {
+        final long acked = _ackedRequests.get();
+        return acked == 0 ? 0 : _totalLatencyNanos.get() / (acked * 1000000.0);
+    }
+
+    public double getLastLatencyMillis() {
+        return _lastLatencyNanos / 1000000.0;
+    }
+
+    public double getMaxLatencyMillis() {
+        return _maxLatencyNanos / 1000000.0;
+    }
+}
@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import javax.management.StandardMBean;
+
+public class ClusterServiceChannelMBeanImpl extends StandardMBean implements ClusterServiceChannelMBean {
+    private final ClusterServiceChannel _channel;
+
+    public ClusterServiceChannelMBeanImpl(ClusterServiceChannel channel) {
+        super(ClusterServiceChannelMBean.class, false);
+
+        _channel = channel;
+    }
+
+    @Override
+    public String getPeer() {
+        return _channel.getPeer();
+    }
+
+    @Override
+    public String getEndpoint() {
+        return _channel.getEndpoint();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return _channel.isConnected();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return _channel.getQueueDepth();
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return _channel.getPendingRequests();
+    }
+
+    @Override
+    public long getSentPdus() {
+        return _channel.getSentPdus();
+    }
+
+    @Override
+    public long getSentBatches() {
+        return _channel.getSentBatches();
+    }
+
+    @Override
+    public long getFailedRequests() {
+        return _channel.getFailedRequests();
+    }
+
+    @Override
+    public long getFallbackRequests() {
+        return _channel.getFallbackRequests();
+    }
+
+    @Override
+    public double getAverageLatencyMillis() {
+        return _channel.getAverageLatencyMillis();
+    }
+
+    @Override
+    public double getLastLatencyMillis() {
+        return _channel.getLastLatencyMillis();
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return _channel.getMaxLatencyMillis();
+    }
+}
@@ -0,0 +1,187 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * Accepts cluster service channel connections from peers, see {@link ClusterServiceChannel}.
+ * Every connection is served by one thread that hands the received PDUs to the cluster manager
+ * and acks each batch with a single batch.
+ */
+public class ClusterServiceChannelServer {
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceChannelServer.class);
+
+    private final ClusterManager _manager;
+    private final ExecutorService _executor = Executors.newCachedThreadPool(new NamedThreadFactory("Cluster-Channel-Listener"));
+    private final Set<Socket> _connections = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocket _serverSocket;
+
+    public ClusterServiceChannelServer(final ClusterManager manager) {
+        _manager = manager;
+    }
+
+    public boolean start(final int port) {
+        try {
+            _serverSocket = new ServerSocket(port);
+        } catch (final IOException e) {
+            s_logger.error("Unable to listen for cluster channel connections on port " + port, e);
+            return false;
+        }
+
+        _executor.execute(new ManagedContextRunnable() {
+            @Override
+            protected void runInContext() {
+                acceptConnections();
+            }
+        });
+        return true;
+    }
+
+    public void stop() {
+        final ServerSocket serverSocket = _serverSocket;
+        _serverSocket = null;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (final IOException e) {
+                s_logger.info("[ignored] error on closing cluster channel server socket", e);
+            }
+        }
+
+        for (final Socket socket : _connections) {
+            closeSocket(socket);
+        }
+        _executor.shutdownNow();
+    }
+
+    public int getPort() {
+        final ServerSocket serverSocket = _serverSocket;
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    private void acceptConnections() {
+        if (s_logger.isInfoEnabled()) {
+            s_logger.info("Cluster channel listening on port " + getPort());
+        }
+
+        while (_serverSocket != null) {
+            try {
+                final Socket socket = _serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                _connections.add(socket);
+
+                _executor.execute(new ManagedContextRunnable() {
+                    @Override
+                    protected void runInContext() {
+                        try {
+                            serve(socket);
+                        } finally {
+                            _connections.remove(socket);
+                            closeSocket(socket);
+                        }
+                    }
+                });
+            } catch (final Throwable e) {
+                if (_serverSocket == null) {
+                    break;
+                }
+                s_logger.error("Unexpected exception ", e);
+
+                // back off to avoid spinning if the exception condition keeps coming back
+                try {
+                    Thread.sleep(1000);
+                } catch (final InterruptedException e1) {
+                    s_logger.debug("[ignored] interrupted while waiting to accept cluster channel connections.");
+                }
+            }
+        }
+
+        if (s_logger.isInfoEnabled()) {
+            s_logger.info("Cluster channel listener shutdown");
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            if (in.readInt() != ClusterServicePduCodec.MAGIC || in.readInt() != ClusterServicePduCodec.VERSION) {
+                s_logger.warn("Rejecting cluster channel connection with unknown protocol from " + socket.getRemoteSocketAddress());
+                return;
+            }
+
+            while (!Thread.currentThread().isInterrupted()) {
+                final int count = in.readInt();
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    final byte kind = in.readByte();
+                    final long requestId = in.readLong();
+                    String result = "true";
+                    if (kind == ClusterServicePduCodec.KIND_PDU) {
+                        // a refused PDU fails alone, the peer retries it while the rest of the batch goes through
+                        if (!_manager.OnReceiveClusterServicePdu(ClusterServicePduCodec.readPdu(in))) {
+                            result = "false";
+                        }
+                    } else if (kind == ClusterServicePduCodec.KIND_PING) {
+                        final String callingPeer = ClusterServicePduCodec.readString(in);
+                        if (s_logger.isDebugEnabled()) {
+                            s_logger.debug("Handle channel ping request from " + callingPeer);
+                        }
+                    } else {
+                        throw new IOException("Unexpected entry kind " + kind + " from " + socket.getRemoteSocketAddress());
+                    }
+
+                    out.writeByte(ClusterServicePduCodec.KIND_ACK);
+                    out.writeLong(requestId);
+                    ClusterServicePduCodec.writeString(out, result);
+                }
+                out.flush();
+            }
+        } catch (final EOFException e) {
+            s_logger.trace("Peer closed cluster channel connection", e);
+        } catch (final IOException e) {
+            s_logger.trace("I/O error on cluster channel connection", e);
+        }
+    }
+
+    private static void closeSocket(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            s_logger.debug("[ignored] error on closing cluster channel socket", e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing of the persistent cluster service channel.
+ *
+ * A connection starts with the MAGIC and VERSION ints written by the client. After that both
+ * sides exchange batches: an int entry count followed by the entries. Every entry starts with
+ * its kind and the request id chosen by the client, the server answers each PDU or ping entry
+ * with an ACK entry carrying the same request id, so requests can be pipelined.
+ */
+public final class ClusterServicePduCodec {
+    public static final int MAGIC = 0x43534348;      // "CSCH"
+    public static final int VERSION = 1;
+
+    public static final byte KIND_PDU = 1;
+    public static final byte KIND_PING = 2;
+    public static final byte KIND_ACK = 3;
+
+    private static final int MAX_STRING_LENGTH = 64 * 1024 * 1024;
+
+    private ClusterServicePduCodec() {
+    }
+
+    public static void writePdu(final DataOutput out, final ClusterServicePdu pdu) throws IOException {
+        out.writeInt(pdu.getPduType());
+        out.writeLong(pdu.getSequenceId());
+        out.writeLong(pdu.getAckSequenceId());
+        out.writeLong(pdu.getAgentId());
+        out.writeBoolean(pdu.isStopOnError());
+        writeString(out, pdu.getSourcePeer());
+        writeString(out, pdu.getDestPeer());
+        writeString(out, pdu.getJsonPackage());
+    }
+
+    public static ClusterServicePdu readPdu(final DataInput in) throws IOException {
+        final ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setPduType(in.readInt());
+        pdu.setSequenceId(in.readLong());
+        pdu.setAckSequenceId(in.readLong());
+        pdu.setAgentId(in.readLong());
+        pdu.setStopOnError(in.readBoolean());
+        pdu.setSourcePeer(readString(in));
+        pdu.setDestPeer(readString(in));
+        pdu.setJsonPackage(readString(in));
+        return pdu;
+    }
+
+    /**
+     * Unlike DataOutput.writeUTF() this is not limited to 64K, JSON packages can be larger.
+     */
+    public static void writeString(final DataOutput out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length " + length + " in cluster channel stream");
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -47,6 +47,7 @@ public class ClusterServiceServletAdapter extends AdapterBase implements Cluster
     protected ConfigDepot _configDepot;
 
     private ClusterServiceServletContainer _servletContainer;
+    private ClusterServiceChannelServer _channelServer;
 
     private int _clusterServicePort = DEFAULT_SERVICE_PORT;
 
@@ -67,7 +68,15 @@ public class ClusterServiceServletAdapter extends AdapterBase implements Cluster
         if (serviceUrl == null)
             return null;
 
-        return new ClusterServiceServletImpl(serviceUrl);
+        ClusterService httpService = new ClusterServiceServletImpl(serviceUrl);
+        if (!ClusterChannelEnabled.value())
+            return httpService;
+
+        ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+        if (mshost == null)
+            return httpService;
+
+        return ClusterServiceChannel.create(strPeer, mshost.getServiceIP(), ClusterChannelPort.value(), httpService);
     }
 
     @Override
@@ -109,6 +118,11 @@ public class ClusterServiceServletAdapter extends AdapterBase implements Cluster
     public boolean start() {
         _servletContainer = new ClusterServiceServletContainer();
         _servletContainer.start(new ClusterServiceServletHttpHandler(_manager), _clusterServicePort);
+
+        if (ClusterChannelEnabled.value()) {
+            _channelServer = new ClusterServiceChannelServer(_manager);
+            _channelServer.start(ClusterChannelPort.value());
+        }
         return true;
     }
 
@@ -116,6 +130,8 @@ public class ClusterServiceServletAdapter extends AdapterBase implements Cluster
     public boolean stop() {
         if (_servletContainer != null)
             _servletContainer.stop();
+        if (_channelServer != null)
+            _channelServer.stop();
         return true;
     }
 
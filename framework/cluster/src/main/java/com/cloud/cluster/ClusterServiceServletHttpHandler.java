@@ -177,8 +177,7 @@ public class ClusterServiceServletHttpHandler implements HttpRequestHandler {
         pdu.setStopOnError("1".equals(stopOnError));
         pdu.setPduType(Integer.parseInt(pduType));
 
-        manager.OnReceiveClusterServicePdu(pdu);
-        return "true";
+        return manager.OnReceiveClusterServicePdu(pdu) ? "true" : "false";
     }
 
     private String handlePingMethodCall(HttpRequest req) {
@@ -0,0 +1,150 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ClusterServiceChannelTest {
+
+    @Mock
+    private ClusterManager _manager;
+    @Mock
+    private ClusterService _fallback;
+
+    private ClusterServiceChannelServer _server;
+    private ClusterServiceChannel _channel;
+
+    @Before
+    public void setup() {
+        Mockito.when(_manager.OnReceiveClusterServicePdu(Mockito.any(ClusterServicePdu.class))).thenReturn(true);
+        _server = new ClusterServiceChannelServer(_manager);
+        assertTrue(_server.start(0));
+        _channel = new ClusterServiceChannel("2", "127.0.0.1", _server.getPort(), _fallback);
+    }
+
+    @After
+    public void tearDown() {
+        _channel.close();
+        _server.stop();
+    }
+
+    private ClusterServicePdu createPdu(long agentId, String json) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer("1");
+        pdu.setDestPeer("2");
+        pdu.setAgentId(agentId);
+        pdu.setJsonPackage(json);
+        pdu.setStopOnError(true);
+        return pdu;
+    }
+
+    @Test
+    public void testPipelinedPdusAreDeliveredInOrder() throws Exception {
+        final int count = 200;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+        for (int i = 0; i < count; i++) {
+            futures[i] = _channel.submit(createPdu(i, "[{\"agent\":" + i + "}]"));
+        }
+        CompletableFuture.allOf(futures).get(30, TimeUnit.SECONDS);
+
+        ArgumentCaptor<ClusterServicePdu> captor = ArgumentCaptor.forClass(ClusterServicePdu.class);
+        Mockito.verify(_manager, Mockito.times(count)).OnReceiveClusterServicePdu(captor.capture());
+        List<ClusterServicePdu> received = captor.getAllValues();
+        for (int i = 0; i < count; i++) {
+            ClusterServicePdu pdu = received.get(i);
+            assertEquals(i, pdu.getAgentId());
+            assertEquals("[{\"agent\":" + i + "}]", pdu.getJsonPackage());
+            assertEquals("1", pdu.getSourcePeer());
+            assertEquals("2", pdu.getDestPeer());
+            assertTrue(pdu.isStopOnError());
+        }
+
+        assertTrue(_channel.isConnected());
+        assertEquals(count, _channel.getSentPdus());
+        assertTrue(_channel.getSentBatches() <= count);
+        assertEquals(0, _channel.getPendingRequests());
+        Mockito.verifyZeroInteractions(_fallback);
+    }
+
+    @Test
+    public void testRefusedPduFailsOnlyItsRequest() throws Exception {
+        Mockito.when(_manager.OnReceiveClusterServicePdu(Mockito.argThat(pdu -> pdu != null && pdu.getAgentId() == 1))).thenReturn(false);
+
+        CompletableFuture<String> first = _channel.submit(createPdu(0, "[]"));
+        CompletableFuture<String> refused = _channel.submit(createPdu(1, "[]"));
+        CompletableFuture<String> last = _channel.submit(createPdu(2, "[]"));
+
+        assertEquals("true", first.get(30, TimeUnit.SECONDS));
+        assertEquals("false", refused.get(30, TimeUnit.SECONDS));
+        assertEquals("true", last.get(30, TimeUnit.SECONDS));
+        assertTrue(_channel.isConnected());
+        assertEquals(0, _channel.getPendingRequests());
+        Mockito.verifyZeroInteractions(_fallback);
+    }
+
+    @Test
+    public void testExecuteAndPing() throws Exception {
+        ClusterServicePdu pdu = createPdu(5, null);
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+        pdu.setAckSequenceId(42);
+
+        assertEquals("true", _channel.execute(pdu));
+        assertTrue(_channel.ping("1"));
+
+        ArgumentCaptor<ClusterServicePdu> captor = ArgumentCaptor.forClass(ClusterServicePdu.class);
+        Mockito.verify(_manager).OnReceiveClusterServicePdu(captor.capture());
+        assertEquals(ClusterServicePdu.PDU_TYPE_REQUEST, captor.getValue().getPduType());
+        assertEquals(pdu.getSequenceId(), captor.getValue().getSequenceId());
+        assertEquals(42, captor.getValue().getAckSequenceId());
+        assertEquals(null, captor.getValue().getJsonPackage());
+    }
+
+    @Test
+    public void testFallbackWhenPeerIsNotListening() throws Exception {
+        int port = _server.getPort();
+        _server.stop();
+
+        ClusterServiceChannel channel = new ClusterServiceChannel("2", "127.0.0.1", port, _fallback);
+        try {
+            ClusterServicePdu pdu = createPdu(1, "[]");
+            Mockito.when(_fallback.execute(pdu)).thenReturn("true");
+
+            assertEquals("true", channel.execute(pdu));
+            assertFalse(channel.isConnected());
+            assertEquals(1, channel.getFallbackRequests());
+            Mockito.verify(_fallback).execute(pdu);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded, time limited cache of the entities of one DAO, keyed by id.
+ * Entries are evicted by size and expire a fixed time after they were loaded,
+ * which bounds how long a row changed behind the DAO's back (raw SQL, another
+ * node whose invalidation got lost) can be served.  The cache only holds
+ * private snapshots; GenericDaoBase copies entities in and out of it.
+ *
+ * Invalidation goes through EntityCacheManager so that every cache on the
+ * same table, on this node and on its peers, drops the row.
+ *
+ * A reader takes getVersion() before it queries the row and passes it to
+ * put().  Every invalidation stamps the ids it covers with a new version, so a
+ * row loaded before an invalidation is not put back afterwards.
+ */
+public class EntityCache<T> extends StandardMBean implements EntityCacheMBean {
+    private static final Logger s_logger = Logger.getLogger(EntityCache.class);
+    private static final int STRIPES = 64;
+
+    private final String _name;
+    private final String _table;
+    private final long _maxSize;
+    private final long _ttlSeconds;
+    private final Cache<Long, T> _cache;
+    private final AtomicLong _invalidations = new AtomicLong();
+    private final AtomicLong _version = new AtomicLong();
+    // version of the last invalidation of the ids in each stripe
+    private final AtomicLongArray _invalidatedAt = new AtomicLongArray(STRIPES);
+
+    public EntityCache(final String name, final String table, final long maxSize, final long ttlSeconds) {
+        super(EntityCacheMBean.class, false);
+        _name = name;
+        _table = table;
+        _maxSize = maxSize;
+        _ttlSeconds = ttlSeconds;
+        _cache = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).recordStats().build();
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public T get(final long id) {
+        return _cache.getIfPresent(id);
+    }
+
+    /**
+     * @return the version to pass to put() for a row about to be read from the database
+     */
+    public long getVersion() {
+        return _version.get();
+    }
+
+    public void put(final long id, final T entity) {
+        put(id, entity, getVersion());
+    }
+
+    /**
+     * Caches the entity unless the row was invalidated after version was taken.
+     * @return true if the entity was cached
+     */
+    public boolean put(final long id, final T entity, final long version) {
+        if (invalidatedSince(id, version)) {
+            return false;
+        }
+        _cache.put(id, entity);
+        if (invalidatedSince(id, version)) {
+            // invalidated while it was being put, it may be stale
+            _cache.invalidate(id);
+            return false;
+        }
+        return true;
+    }
+
+    public void invalidate(final long id) {
+        _invalidations.incrementAndGet();
+        stamp(stripe(id), _version.incrementAndGet());
+        _cache.invalidate(id);
+    }
+
+    public void clear() {
+        _invalidations.incrementAndGet();
+        final long version = _version.incrementAndGet();
+        for (int i = 0; i < STRIPES; i++) {
+            stamp(i, version);
+        }
+        _cache.invalidateAll();
+    }
+
+    private static int stripe(final long id) {
+        return (int)(id ^ (id >>> 32)) & (STRIPES - 1);
+    }
+
+    private boolean invalidatedSince(final long id, final long version) {
+        return _invalidatedAt.get(stripe(id)) > version;
+    }
+
+    private void stamp(final int stripe, final long version) {
+        long current;
+        do {
+            current = _invalidatedAt.get(stripe);
+        } while (current < version && !_invalidatedAt.compareAndSet(stripe, current, version));
+    }
+
+    public void registerMBean() {
+        try {
+            JmxUtil.registerMBean("EntityCache", _name, this);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register MBean for entity cache " + _name, e);
+        }
+    }
+
+    @Override
+    public String getTable() {
+        return _table;
+    }
+
+    @Override
+    public long getSize() {
+        return _cache.size();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return _maxSize;
+    }
+
+    @Override
+    public long getTimeToLiveSeconds() {
+        return _ttlSeconds;
+    }
+
+    @Override
+    public long getHitCount() {
+        return _cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return _cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        final CacheStats stats = _cache.stats();
+        return stats.hitRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return _cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return _invalidations.get();
+    }
+
+    @Override
+    public String invalidateAll() {
+        EntityCacheManager.invalidateAll(_table);
+        return "Invalidated all cached " + _table + " rows";
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache[" + _name + ", table=" + _table + ", size=" + _maxSize + ", ttl=" + _ttlSeconds + "s]";
+    }
+}
@@ -0,0 +1,171 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps track of the entity caches of all DAOs, grouped by table, so that a
+ * write through any DAO on a table invalidates every cache of that table.
+ *
+ * Invalidations that follow a committed write are also handed to the
+ * registered Broadcaster, which tells the other management servers; they
+ * apply them through onRemoteInvalidation().  Without a broadcaster (single
+ * node, or before the cluster layer is up) invalidation is local only.
+ */
+public final class EntityCacheManager {
+    private static final Logger s_logger = Logger.getLogger(EntityCacheManager.class);
+
+    public interface Broadcaster {
+        /**
+         * @param ids ids of the rows that changed, or null if any row of the table may have changed
+         */
+        void broadcast(String table, long[] ids);
+    }
+
+    private static final Map<String, List<EntityCache<?>>> s_caches = new ConcurrentHashMap<String, List<EntityCache<?>>>();
+    private static volatile Broadcaster s_broadcaster;
+
+    private EntityCacheManager() {
+    }
+
+    public static void register(final EntityCache<?> cache) {
+        List<EntityCache<?>> caches = s_caches.get(cache.getTable());
+        if (caches == null) {
+            s_caches.putIfAbsent(cache.getTable(), new CopyOnWriteArrayList<EntityCache<?>>());
+            caches = s_caches.get(cache.getTable());
+        }
+        caches.add(cache);
+        s_logger.info("Registered " + cache);
+    }
+
+    public static void setBroadcaster(final Broadcaster broadcaster) {
+        s_broadcaster = broadcaster;
+    }
+
+    public static boolean isCached(final String table) {
+        return s_caches.containsKey(table);
+    }
+
+    public static List<EntityCache<?>> getCaches(final String table) {
+        return s_caches.get(table);
+    }
+
+    /**
+     * Drops the row from the caches of this node only.
+     */
+    public static void invalidateLocal(final String table, final long id) {
+        final List<EntityCache<?>> caches = s_caches.get(table);
+        if (caches != null) {
+            for (final EntityCache<?> cache : caches) {
+                cache.invalidate(id);
+            }
+        }
+    }
+
+    /**
+     * Drops every row of the table from the caches of this node only.
+     */
+    public static void invalidateAllLocal(final String table) {
+        final List<EntityCache<?>> caches = s_caches.get(table);
+        if (caches != null) {
+            for (final EntityCache<?> cache : caches) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Drops the row from the caches of this node right away, and again on every node once the current
+     * transaction completes, so that a concurrent reader cannot keep the old row cached.  For writes
+     * that bypass GenericDaoBase, such as raw SQL updates of a cached table.
+     */
+    public static void invalidateAfterCompletion(final String table, final long id) {
+        if (!isCached(table)) {
+            return;
+        }
+        invalidateLocal(table, id);
+        TransactionLegacy.currentTxn().runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                invalidate(table, id);
+            }
+        });
+    }
+
+    /**
+     * Same as invalidateAfterCompletion() for writes whose rows are not known.
+     */
+    public static void invalidateAllAfterCompletion(final String table) {
+        if (!isCached(table)) {
+            return;
+        }
+        invalidateAllLocal(table);
+        TransactionLegacy.currentTxn().runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                invalidateAll(table);
+            }
+        });
+    }
+
+    public static void invalidate(final String table, final long id) {
+        if (!isCached(table)) {
+            return;
+        }
+        invalidateLocal(table, id);
+        broadcast(table, new long[] {id});
+    }
+
+    public static void invalidateAll(final String table) {
+        if (!isCached(table)) {
+            return;
+        }
+        invalidateAllLocal(table);
+        broadcast(table, null);
+    }
+
+    /**
+     * Applies an invalidation received from another management server.
+     */
+    public static void onRemoteInvalidation(final String table, final long[] ids) {
+        if (ids == null) {
+            invalidateAllLocal(table);
+        } else {
+            for (final long id : ids) {
+                invalidateLocal(table, id);
+            }
+        }
+    }
+
+    private static void broadcast(final String table, final long[] ids) {
+        final Broadcaster broadcaster = s_broadcaster;
+        if (broadcaster == null) {
+            return;
+        }
+        try {
+            broadcaster.broadcast(table, ids);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to broadcast invalidation of " + table + " entities, peers will expire them by TTL", e);
+        }
+    }
+}
@@ -199,6 +199,23 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist the entity beans with as few round trips as possible by sending
+     * the inserts in JDBC batches.  The id field of each entity is updated with
+     * its new id but, unlike persist(), the entities are not read back.
+     * @param entities the beans to persist.
+     * @return the ids of the new rows, in the same order as the entities.
+     **/
+    List<ID> persistBatch(List<T> entities);
+
+    /**
+     * Update the entity beans in JDBC batches.  The beans must have been
+     * created by createForUpdate() or returned by a search of this dao.
+     * @param entities the beans to update.
+     * @return number of rows updated.
+     */
+    int updateBatch(List<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
@@ -20,6 +20,7 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.math.BigInteger;
@@ -40,8 +41,11 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -78,9 +82,6 @@ import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.NoOp;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
 
 /**
  *  GenericDaoBase is a simple way to implement DAOs.  It DOES NOT
@@ -130,6 +131,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     protected Field[] _embeddedFields;
 
+    /**
+     * Number of rows sent to the database in one JDBC batch by persistBatch() and updateBatch().
+     */
+    protected static final int BATCH_SIZE = 500;
+
     // This is private on purpose.  Everyone should use createPartialSelectSql()
     private final Pair<StringBuilder, Attribute[]> _partialSelectSql;
     private final Pair<StringBuilder, Attribute[]> _partialQueryCacheSelectSql;
@@ -371,25 +377,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override
     public List<T> searchIncludingRemoved(SearchCriteria<T> sc, final Filter filter, final Boolean lock, final boolean cache, final boolean enableQueryCache) {
-        String clause = sc != null ? sc.getWhereClause() : null;
-        if (clause != null && clause.length() == 0) {
-            clause = null;
-        }
-
-        final StringBuilder str = createPartialSelectSql(sc, clause != null, enableQueryCache);
-        if (clause != null) {
-            str.append(clause);
-        }
-
-        Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
-        if (sc != null) {
-            joins = sc.getJoins();
-            if (joins != null) {
-                addJoins(str, joins);
-            }
-        }
-
-        List<Object> groupByValues = addGroupBy(str, sc);
+        final StringBuilder str = new StringBuilder(createSearchSql(sc, enableQueryCache));
+        final Collection<JoinBuilder<SearchCriteria<?>>> joins = sc != null ? sc.getJoins() : null;
+        final List<Object> groupByValues = getGroupByValues(sc);
         addFilter(str, filter);
 
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -405,7 +395,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 1;
-            if (clause != null) {
+            if (sc != null) {
                 for (final Pair<Attribute, Object> value : sc.getValues()) {
                     prepareAttribute(i++, pstmt, value.first(), value.second());
                 }
@@ -424,9 +414,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             if (s_logger.isDebugEnabled() && lock != null) {
                 txn.registerLock(pstmt.toString());
             }
+            final long cacheVersion = getCacheVersion();
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
+                result.add(toEntityBean(rs, cache, cacheVersion));
             }
             return result;
         } catch (final SQLException e) {
@@ -445,23 +436,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         if (sc.isSelectAll()) {
             return (List<M>)searchIncludingRemoved((SearchCriteria<T>)sc, filter, null, false);
         }
-        String clause = sc.getWhereClause();
-        if (clause != null && clause.length() == 0) {
-            clause = null;
-        }
-
-        final StringBuilder str = createPartialSelectSql(sc, clause != null);
-        if (clause != null) {
-            str.append(clause);
-        }
-
-        Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
-        joins = sc.getJoins();
-        if (joins != null) {
-            addJoins(str, joins);
-        }
-
-        List<Object> groupByValues = addGroupBy(str, sc);
+        final StringBuilder str = new StringBuilder(createSearchSql(sc, false));
+        final Collection<JoinBuilder<SearchCriteria<?>>> joins = sc.getJoins();
+        final List<Object> groupByValues = getGroupByValues(sc);
         addFilter(str, filter);
 
         final String sql = str.toString();
@@ -471,10 +448,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 1;
-            if (clause != null) {
-                for (final Pair<Attribute, Object> value : sc.getValues()) {
-                    prepareAttribute(i++, pstmt, value.first(), value.second());
-                }
+            for (final Pair<Attribute, Object> value : sc.getValues()) {
+                prepareAttribute(i++, pstmt, value.first(), value.second());
             }
 
             if (joins != null) {
@@ -793,9 +768,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
-        if (_cache != null) {
-            _cache.remove(id);
-        }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -809,7 +781,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Unable to persist element collection", e);
         }
 
-        int rowsUpdated = update(ub, sc, null);
+        int rowsUpdated = executeUpdate(ub, sc, null);
+        invalidateCachedEntity(id);
 
         txn.commit();
 
@@ -817,6 +790,26 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     public int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
+        final int result = executeUpdate(ub, sc, rows);
+        if (result > 0) {
+            invalidateCachedEntities();
+        }
+        return result;
+    }
+
+    /**
+     * Same as update(ub, sc, null) for criteria that can only match the row with the given id,
+     * so that only that row is dropped from the entity cache.
+     */
+    protected int updateRow(final ID id, final UpdateBuilder ub, final SearchCriteria<?> sc) {
+        final int result = executeUpdate(ub, sc, null);
+        if (result > 0) {
+            invalidateCachedEntity(id);
+        }
+        return result;
+    }
+
+    private int executeUpdate(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
         StringBuilder sql = null;
         PreparedStatement pstmt = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -956,20 +949,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override
     @DB()
-    @SuppressWarnings("unchecked")
     public T findById(final ID id) {
-        T result = null;
-        if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
-                result = lockRow(id, null);
-            } else {
-                result = (T)element.getObjectValue();
-            }
-        } else {
-            result = lockRow(id, null);
+        final T cached = getCachedEntity(id);
+        if (cached != null) {
+            return cached;
         }
-        return result;
+        return lockRow(id, null);
     }
 
     @Override
@@ -991,18 +976,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @Override
     @DB()
     public T findByIdIncludingRemoved(final ID id) {
-        T result = null;
-        if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
-                result = findById(id, true, null);
-            } else {
-                result = (T)element.getObjectValue();
-            }
-        } else {
-            result = findById(id, true, null);
+        // only rows that are not removed are cached, so a hit is valid here too
+        final T cached = getCachedEntity(id);
+        if (cached != null) {
+            return cached;
         }
-        return result;
+        return findById(id, true, null);
     }
 
     @Override
@@ -1012,8 +991,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             return findById(id);
         }
 
-        if (_cache != null) {
-            _cache.remove(id);
+        if (_entityCache != null && id instanceof Long) {
+            _entityCache.invalidate((Long)id);
         }
         return lockRow(id, null);
     }
@@ -1041,8 +1020,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 prepareAttribute(1, pstmt, _idAttributes.get(_table)[0], id);
             }
 
+            final long cacheVersion = getCacheVersion();
             ResultSet rs = pstmt.executeQuery();
-            return rs.next() ? toEntityBean(rs, true) : null;
+            return rs.next() ? toEntityBean(rs, lock == null, cacheVersion) : null;
         } catch (SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         }
@@ -1117,6 +1097,51 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    protected List<Object> getGroupByValues(final SearchCriteria<?> sc) {
+        if (sc == null) {
+            return null;
+        }
+        final Pair<GroupBy<?, ?, ?>, List<Object>> groupBys = sc.getGroupBy();
+        return groupBys != null ? groupBys.second() : null;
+    }
+
+    /**
+     * Builds the select, where, join and group by parts of a search. The text only depends on the
+     * shape of the criteria, so it is kept by the SearchBuilder that created them and repeated
+     * searches neither build nor re-parse it.
+     */
+    protected String createSearchSql(final SearchCriteria<?> sc, final boolean enableQueryCache) {
+        final String shape = sc != null ? sc.getShape() : null;
+        final String key = shape == null ? null : (enableQueryCache ? "Q" : "S") + shape;
+        if (key != null) {
+            final String sql = sc.getCachedSql(key);
+            if (sql != null) {
+                return sql;
+            }
+        }
+
+        String clause = sc != null ? sc.getWhereClause() : null;
+        if (clause != null && clause.length() == 0) {
+            clause = null;
+        }
+
+        final StringBuilder str = createPartialSelectSql(sc, clause != null, enableQueryCache);
+        if (clause != null) {
+            str.append(clause);
+        }
+
+        if (sc != null && sc.getJoins() != null) {
+            addJoins(str, sc.getJoins());
+        }
+        addGroupBy(str, sc);
+
+        final String sql = str.toString();
+        if (key != null) {
+            sc.cacheSql(key, sql);
+        }
+        return sql;
+    }
+
     @DB()
     protected void addFilter(final StringBuilder sql, final Filter filter) {
         if (filter != null) {
@@ -1153,9 +1178,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 pstmt.setObject(++i, param);
             }
 
+            final long cacheVersion = getCacheVersion();
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, true));
+                result.add(toEntityBean(rs, true, cacheVersion));
             }
             return result;
         } catch (final SQLException e) {
@@ -1204,10 +1230,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 pstmt.executeUpdate();
             }
 
+            invalidateCachedEntity(id);
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
             return true;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1239,7 +1263,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            final int result = pstmt.executeUpdate();
+            if (result > 0) {
+                invalidateCachedEntities();
+            }
+            return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1474,6 +1502,151 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    @DB()
+    @SuppressWarnings("unchecked")
+    public List<ID> persistBatch(final List<T> entities) {
+        final List<ID> ids = new ArrayList<ID>(entities.size());
+        final List<T> inserts = new ArrayList<T>(entities.size());
+        for (final T entity : entities) {
+            if (Enhancer.isEnhanced(entity.getClass())) {
+                persist(entity);
+            } else {
+                inserts.add(entity);
+            }
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            if (!inserts.isEmpty()) {
+                boolean first = true;
+                for (final Pair<String, Attribute[]> pair : _insertSqls) {
+                    final Attribute[] attrs = pair.second();
+                    pstmt = first ? txn.prepareAutoCloseStatement(pair.first(), Statement.RETURN_GENERATED_KEYS) : txn.prepareAutoCloseStatement(pair.first());
+                    for (int from = 0; from < inserts.size(); from += BATCH_SIZE) {
+                        final List<T> batch = inserts.subList(from, Math.min(from + BATCH_SIZE, inserts.size()));
+                        for (final T entity : batch) {
+                            prepareAttributes(pstmt, entity, attrs, 1);
+                            pstmt.addBatch();
+                        }
+                        pstmt.executeBatch();
+
+                        // the secondary tables need the generated ids, so they are set before inserting into those
+                        if (first && _idField != null) {
+                            final ResultSet rs = pstmt.getGeneratedKeys();
+                            for (final T entity : batch) {
+                                if (rs == null || !rs.next()) {
+                                    break;
+                                }
+                                final Object key = rs.getObject(1);
+                                if (key != null) {
+                                    _idField.set(entity, key instanceof BigInteger ? ((BigInteger)key).longValue() : key);
+                                }
+                            }
+                        }
+                    }
+                    first = false;
+                }
+            }
+
+            for (final T entity : entities) {
+                ids.add(_idField != null ? (ID)_idField.get(entity) : null);
+            }
+
+            if (_ecAttributes != null && _ecAttributes.size() > 0) {
+                for (final T entity : inserts) {
+                    HashMap<Attribute, Object> ecAttributes = new HashMap<Attribute, Object>();
+                    for (Attribute attr : _ecAttributes) {
+                        Object ec = attr.field.get(entity);
+                        if (ec != null) {
+                            ecAttributes.put(attr, ec);
+                        }
+                    }
+                    insertElementCollection(entity, _idAttributes.get(_table)[0], (ID)_idField.get(entity), ecAttributes);
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            handleEntityExistsException(e);
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (IllegalArgumentException e) {
+            throw new CloudRuntimeException("Problem with getting the ec attribute ", e);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Problem with setting the id ", e);
+        }
+
+        return ids;
+    }
+
+    @Override
+    @DB()
+    @SuppressWarnings("unchecked")
+    public int updateBatch(final List<T> entities) {
+        final Attribute idAttribute = _idAttributes.get(_table)[0];
+
+        // entities that changed the same fields share the same statement
+        final Map<String, List<Pair<ID, UpdateBuilder>>> batches = new LinkedHashMap<String, List<Pair<ID, UpdateBuilder>>>();
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        int rowsUpdated = 0;
+        try {
+            txn.start();
+            for (final T entity : entities) {
+                assert Enhancer.isEnhanced(entity.getClass()) : "Entity is not generated by this dao";
+
+                final UpdateBuilder ub = getUpdateBuilder(entity);
+                final ID id = (ID)_idField.get(entity);
+                if (ub.getCollectionChanges() != null) {
+                    insertElementCollection(entity, idAttribute, id, ub.getCollectionChanges());
+                }
+                final StringBuilder sql = ub.toSql(_tables);
+                if (sql == null) {
+                    continue;
+                }
+                sql.append(idAttribute.table).append(".").append(idAttribute.columnName).append(" = ?");
+
+                List<Pair<ID, UpdateBuilder>> batch = batches.get(sql.toString());
+                if (batch == null) {
+                    batch = new ArrayList<Pair<ID, UpdateBuilder>>();
+                    batches.put(sql.toString(), batch);
+                }
+                batch.add(new Pair<ID, UpdateBuilder>(id, ub));
+            }
+
+            for (final Map.Entry<String, List<Pair<ID, UpdateBuilder>>> entry : batches.entrySet()) {
+                pstmt = txn.prepareAutoCloseStatement(entry.getKey());
+                final List<Pair<ID, UpdateBuilder>> updates = entry.getValue();
+                for (int from = 0; from < updates.size(); from += BATCH_SIZE) {
+                    final List<Pair<ID, UpdateBuilder>> batch = updates.subList(from, Math.min(from + BATCH_SIZE, updates.size()));
+                    for (final Pair<ID, UpdateBuilder> update : batch) {
+                        int i = 1;
+                        for (final Ternary<Attribute, Boolean, Object> value : update.second().getChanges()) {
+                            prepareAttribute(i++, pstmt, value.first(), value.third());
+                        }
+                        prepareAttribute(i, pstmt, idAttribute, update.first());
+                        pstmt.addBatch();
+                    }
+                    for (final int count : pstmt.executeBatch()) {
+                        rowsUpdated += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                    }
+                    for (final Pair<ID, UpdateBuilder> update : batch) {
+                        update.second().clear();
+                        invalidateCachedEntity(update.first());
+                    }
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            handleEntityExistsException(e);
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Problem with getting the id ", e);
+        }
+        return rowsUpdated;
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1652,19 +1825,23 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return j;
     }
 
-    @SuppressWarnings("unchecked")
     @DB()
     protected T toEntityBean(final ResultSet result, final boolean cache) throws SQLException {
+        return toEntityBean(result, cache, getCacheVersion());
+    }
+
+    /**
+     * @param cacheVersion the entity cache version taken before the query was run, see getCacheVersion()
+     */
+    @SuppressWarnings("unchecked")
+    @DB()
+    protected T toEntityBean(final ResultSet result, final boolean cache, final long cacheVersion) throws SQLException {
         final T entity = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
 
         toEntityBean(result, entity);
 
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            cacheEntity(entity, cacheVersion);
         }
 
         return entity;
@@ -1681,12 +1858,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Illegal Access", e1);
         }
         toEntityBean(result, entity);
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            cacheEntity(entity);
         }
 
         return entity;
@@ -1813,10 +1986,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             final int result = pstmt.executeUpdate();
+            invalidateCachedEntity(id);
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1856,10 +2027,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             final int result = pstmt.executeUpdate();
+            invalidateCachedEntity(id);
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1879,23 +2048,135 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return update(ub, sc, null);
     }
 
-    protected Cache _cache;
+    protected EntityCache<T> _entityCache;
+    private Field[] _entityCopyFields;
 
+    /**
+     * Sets up the entity cache when the DAO is configured with "cache.size"
+     * (entries) and optionally "cache.time.to.live" (seconds, default 300).
+     * Only DAOs with a single long id can be cached.
+     */
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
         final String value = (String)params.get("cache.size");
+        final int maxElements = NumbersUtil.parseInt(value, 0);
 
-        if (value != null) {
-            final CacheManager cm = CacheManager.create();
-            final int maxElements = NumbersUtil.parseInt(value, 0);
+        if (maxElements > 0 && _idField != null && (_idField.getType() == Long.class || _idField.getType() == long.class)) {
             final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
-            final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
-            cm.addCache(_cache);
-            s_logger.info("Cache created: " + _cache.toString());
+            _entityCache = new EntityCache<T>(getName(), _table, maxElements, live > 0 ? live : 300);
+            _entityCache.registerMBean();
+            EntityCacheManager.register(_entityCache);
         } else {
-            _cache = null;
+            if (value != null) {
+                s_logger.warn("Not caching " + _entityBeanType.getSimpleName() + ": needs a positive cache.size and a long id");
+            }
+            _entityCache = null;
+        }
+    }
+
+    private static boolean inDbTransaction() {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        return txn != null && txn.dbTxnStarted();
+    }
+
+    /**
+     * Returns a private copy of the cached entity, or null if it is not cached.
+     * Reads inside a database transaction always go to the database so that they see the transaction's own writes.
+     */
+    protected T getCachedEntity(final ID id) {
+        if (_entityCache == null || !(id instanceof Long) || inDbTransaction()) {
+            return null;
+        }
+        final T cached = _entityCache.get((Long)id);
+        return cached == null ? null : copyEntity(cached);
+    }
+
+    /**
+     * @return the entity cache version to take before querying rows that may be cached
+     */
+    protected long getCacheVersion() {
+        return _entityCache == null ? 0 : _entityCache.getVersion();
+    }
+
+    protected void cacheEntity(final T entity) {
+        cacheEntity(entity, getCacheVersion());
+    }
+
+    protected void cacheEntity(final T entity, final long cacheVersion) {
+        if (_entityCache == null || inDbTransaction()) {
+            return;
+        }
+        try {
+            if (_removed != null && _removed.second().field.get(entity) != null) {
+                return;
+            }
+            final Object id = _idField.get(entity);
+            if (id instanceof Long) {
+                _entityCache.put((Long)id, copyEntity(entity), cacheVersion);
+            }
+        } catch (final Exception e) {
+            s_logger.debug("Can't put it in the cache", e);
+        }
+    }
+
+    /**
+     * Drops the row from the caches of this table right away, and again on every node once the
+     * current transaction completes, so that a concurrent reader cannot keep the old row cached.
+     */
+    protected void invalidateCachedEntity(final ID id) {
+        if (id instanceof Long) {
+            EntityCacheManager.invalidateAfterCompletion(_table, (Long)id);
+        }
+    }
+
+    /**
+     * Same as invalidateCachedEntity() for writes whose rows are not known, e.g. updates by search criteria.
+     */
+    protected void invalidateCachedEntities() {
+        EntityCacheManager.invalidateAllAfterCompletion(_table);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T copyEntity(final T source) {
+        final T copy = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+        try {
+            for (final Field field : getEntityCopyFields()) {
+                field.set(copy, copyValue(field.get(source)));
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to copy " + _entityBeanType.getSimpleName(), e);
+        }
+        return copy;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object copyValue(final Object value) {
+        if (value instanceof List) {
+            return new ArrayList((List)value);
+        } else if (value instanceof Set) {
+            return new LinkedHashSet((Set)value);
+        } else if (value instanceof Map) {
+            return new LinkedHashMap((Map)value);
+        } else if (value instanceof Date) {
+            return new Date(((Date)value).getTime());
+        }
+        return value;
+    }
+
+    private Field[] getEntityCopyFields() {
+        if (_entityCopyFields == null) {
+            final List<Field> fields = new ArrayList<Field>();
+            for (Class<?> clazz = _entityBeanType; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                for (final Field field : clazz.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            _entityCopyFields = fields.toArray(new Field[fields.size()]);
         }
+        return _entityCopyFields;
     }
 
     @Override
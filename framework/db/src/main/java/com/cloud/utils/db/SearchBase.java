@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.Column;
 import javax.persistence.Transient;
@@ -59,6 +61,9 @@ public abstract class SearchBase<J extends SearchBase<?, T, K>, T, K> {
 
     ArrayList<Condition> _conditions;
     ArrayList<Attribute> _specifiedAttrs;
+    // SQL generated for the searches created by this builder, keyed by the shape of their criteria
+    final ConcurrentMap<String, String> _sqlCache = new ConcurrentHashMap<String, String>();
+    static final int MAX_CACHED_SQL = 64;
 
     protected HashMap<String, JoinBuilder<SearchBase<?, ?, ?>>> _joins;
     protected ArrayList<Select> _selects;
@@ -422,7 +427,7 @@ public abstract class SearchBase<J extends SearchBase<?, T, K>, T, K> {
                 sql.delete(sql.length() - op.toString().length(), sql.length());
                 sql.append("!=?");
             } else if (op.getParams() == -1) {
-                for (int i = 0; i < params.length; i++) {
+                for (int i = 0; i < arity(params.length); i++) {
                     sql.insert(sql.length() - 2, "?,");
                 }
                 sql.delete(sql.length() - 3, sql.length() - 2); // remove the last ,
@@ -439,6 +444,21 @@ public abstract class SearchBase<J extends SearchBase<?, T, K>, T, K> {
             }
         }
 
+        /**
+         * Number of placeholders used for an IN list of the given size. Lists are rounded up to a power
+         * of two, or to a multiple of 256 for large lists, so that the SQL text and the prepared
+         * statements can be reused across lists of similar sizes.
+         */
+        static int arity(final int count) {
+            if (count <= 2) {
+                return count;
+            }
+            if (count > 256) {
+                return (count + 255) & ~255;
+            }
+            return Integer.highestOneBit(count - 1) << 1;
+        }
+
         @Override
         public int hashCode() {
             return name.hashCode();
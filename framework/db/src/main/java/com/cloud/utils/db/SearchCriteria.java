@@ -22,6 +22,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import com.cloud.utils.Pair;
 import com.cloud.utils.db.SearchBase.Condition;
@@ -92,6 +93,7 @@ public class SearchCriteria<K> {
     private final List<Object> _groupByValues;
     private final Class<K> _resultType;
     private final SelectType _selectType;
+    private final ConcurrentMap<String, String> _sqlCache;
 
     protected SearchCriteria(SearchBase<?, ?, K> sb) {
         this._attrs = sb._attrs;
@@ -116,6 +118,7 @@ public class SearchCriteria<K> {
         }
         _resultType = sb._resultType;
         _selectType = sb._selectType;
+        _sqlCache = sb._sqlCache;
     }
 
     protected void setParameters(HashMap<String, Object[]> parameters) {
@@ -268,6 +271,72 @@ public class SearchCriteria<K> {
         return sql.toString();
     }
 
+    /**
+     * Describes everything that changes the SQL text of this search: which conditions are set, the
+     * arity of IN lists, nulls compared with EQ/NEQ, the conditions added with addAnd/addOr and the joins.
+     * Like getWhereClause() it applies the preset values, so it can be used in its place before getValues().
+     *
+     * @return the shape, or null if the SQL can't be reused because it embeds a nested SearchCriteria.
+     */
+    public String getShape() {
+        StringBuilder shape = new StringBuilder(_conditions.size() + _additionals.size() * 16 + 8);
+        for (Condition condition : _conditions) {
+            if (!appendShape(shape, condition)) {
+                return null;
+            }
+        }
+
+        for (Condition condition : _additionals) {
+            shape.append('|').append(condition.cond).append(condition.attr.table).append('.').append(condition.attr.columnName).append(condition.op.name());
+            if (!appendShape(shape, condition)) {
+                return null;
+            }
+        }
+
+        if (_joins != null) {
+            for (JoinBuilder<SearchCriteria<?>> join : _joins.values()) {
+                String joinShape = join.getT().getShape();
+                if (joinShape == null) {
+                    return null;
+                }
+                shape.append('{').append(joinShape).append('}');
+            }
+        }
+        return shape.toString();
+    }
+
+    private boolean appendShape(StringBuilder shape, Condition condition) {
+        if (condition.isPreset()) {
+            _params.put(condition.name, condition.presets);
+        }
+        Object[] params = _params.get(condition.name);
+        if (!((condition.op == null || condition.op.params == 0) || (params != null))) {
+            shape.append('-');
+        } else if (condition.op == Op.SC) {
+            return false;
+        } else if (condition.op != null && condition.op.params == -1) {
+            shape.append('i').append(Condition.arity(params.length)).append(',');
+        } else if ((condition.op == Op.EQ || condition.op == Op.NEQ) && (params == null || params.length == 0 || params[0] == null)) {
+            shape.append('n');
+        } else {
+            shape.append('+');
+        }
+        return true;
+    }
+
+    /**
+     * @return the SQL cached by the SearchBuilder of these criteria for the given shape key, or null.
+     */
+    public String getCachedSql(String key) {
+        return _sqlCache != null ? _sqlCache.get(key) : null;
+    }
+
+    public void cacheSql(String key, String sql) {
+        if (_sqlCache != null && _sqlCache.size() < SearchBase.MAX_CACHED_SQL) {
+            _sqlCache.putIfAbsent(key, sql);
+        }
+    }
+
     public List<Pair<Attribute, Object>> getValues() {
         ArrayList<Pair<Attribute, Object>> params = new ArrayList<Pair<Attribute, Object>>(_params.size());
         for (Condition condition : _conditions) {
@@ -304,6 +373,12 @@ public class SearchCriteria<K> {
                     params.add(new Pair<Attribute, Object>(condition.attr, obj));
                 }
             }
+            if (condition.op.params == -1) {
+                // IN lists are padded with their last value up to the arity used in the SQL
+                for (int i = objs.length; i < Condition.arity(objs.length); i++) {
+                    params.add(new Pair<Attribute, Object>(condition.attr, objs[objs.length - 1]));
+                }
+            }
         }
     }
 
@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -43,6 +44,7 @@ import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.apache.log4j.Logger;
 
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.PropertiesUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
@@ -102,6 +104,7 @@ public class TransactionLegacy implements Closeable {
     private boolean _txn;
     private short _dbId;
     private long _txnTime;
+    private List<Runnable> _completionTasks;
     private Statement _stmt;
     private String _creator;
 
@@ -207,6 +210,44 @@ public class TransactionLegacy implements Closeable {
         return _txn;
     }
 
+    /**
+     * @return true if the calling thread is inside a database transaction, and so holds a connection
+     */
+    public static boolean inDbTxn() {
+        final TransactionLegacy txn = tls.get();
+        return txn != null && txn._txn;
+    }
+
+    /**
+     * Runs the task once the current database transaction has committed or
+     * rolled back, or right away if no transaction is in progress.
+     */
+    public void runAfterCompletion(final Runnable task) {
+        if (!_txn) {
+            task.run();
+            return;
+        }
+        if (_completionTasks == null) {
+            _completionTasks = new ArrayList<Runnable>();
+        }
+        _completionTasks.add(task);
+    }
+
+    protected void runCompletionTasks() {
+        if (_completionTasks == null) {
+            return;
+        }
+        final List<Runnable> tasks = _completionTasks;
+        _completionTasks = null;
+        for (final Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (final Throwable e) {
+                s_logger.warn("Unable to run transaction completion task " + task, e);
+            }
+        }
+    }
+
     public static Connection getStandaloneConnectionWithException() throws SQLException {
         Connection conn = s_ds.getConnection();
         if (s_connLogger.isTraceEnabled()) {
@@ -640,6 +681,7 @@ public class TransactionLegacy implements Closeable {
         }
         _txn = false;
         _name = null;
+        runCompletionTasks();
 
         closeConnection();
 
@@ -737,6 +779,8 @@ public class TransactionLegacy implements Closeable {
         } catch (final SQLException e) {
             rollbackTransaction();
             throw new CloudRuntimeException("Unable to commit or close the connection. ", e);
+        } finally {
+            runCompletionTasks();
         }
     }
 
@@ -853,6 +897,8 @@ public class TransactionLegacy implements Closeable {
             closeConnection();
         } catch (final SQLException e) {
             s_logger.warn("Unable to rollback", e);
+        } finally {
+            runCompletionTasks();
         }
     }
 
@@ -868,6 +914,7 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            runCompletionTasks();
         }
     }
 
@@ -919,6 +966,7 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            runCompletionTasks();
         }
     }
 
@@ -1060,6 +1108,7 @@ public class TransactionLegacy implements Closeable {
             final long cloudTimeBtwEvictionRunsMillis = Long.parseLong(dbProps.getProperty("db.cloud.timeBetweenEvictionRunsMillis"));
             final long cloudMinEvcitableIdleTimeMillis = Long.parseLong(dbProps.getProperty("db.cloud.minEvictableIdleTimeMillis"));
             final boolean cloudPoolPreparedStatements = Boolean.parseBoolean(dbProps.getProperty("db.cloud.poolPreparedStatements"));
+            final int cloudMaxOpenPreparedStatements = NumbersUtil.parseInt(dbProps.getProperty("db.cloud.maxOpenPreparedStatements"), 64);
             final String url = dbProps.getProperty("db.cloud.url.params");
 
             String cloudDbHAParams = null;
@@ -1086,7 +1135,7 @@ public class TransactionLegacy implements Closeable {
             // Default Data Source for CloudStack
             s_ds = createDataSource(cloudConnectionUri, cloudUsername, cloudPassword, cloudMaxActive, cloudMaxIdle, cloudMaxWait,
                     cloudTimeBtwEvictionRunsMillis, cloudMinEvcitableIdleTimeMillis, cloudTestWhileIdle, cloudTestOnBorrow,
-                    cloudValidationQuery, isolationLevel);
+                    cloudValidationQuery, isolationLevel, cloudPoolPreparedStatements ? cloudMaxOpenPreparedStatements : null);
 
             // Configure the usage db
             final int usageMaxActive = Integer.parseInt(dbProps.getProperty("db.usage.maxActive"));
@@ -1109,7 +1158,7 @@ public class TransactionLegacy implements Closeable {
             // Data Source for usage server
             s_usageDS = createDataSource(usageConnectionUri, usageUsername, usagePassword,
                     usageMaxActive, usageMaxIdle, usageMaxWait, null, null, null, null,
-                    null, isolationLevel);
+                    null, isolationLevel, null);
 
             try {
                 // Configure the simulator db
@@ -1129,7 +1178,7 @@ public class TransactionLegacy implements Closeable {
                 DriverLoader.loadDriver(simulatorDriver);
 
                 s_simulatorDS = createDataSource(simulatorConnectionUri, simulatorUsername, simulatorPassword,
-                        simulatorMaxActive, simulatorMaxIdle, simulatorMaxWait, null, null, null, null, cloudValidationQuery, isolationLevel);
+                        simulatorMaxActive, simulatorMaxIdle, simulatorMaxWait, null, null, null, null, cloudValidationQuery, isolationLevel, null);
             } catch (Exception e) {
                 s_logger.debug("Simulator DB properties are not available. Not initializing simulator DS");
             }
@@ -1144,13 +1193,15 @@ public class TransactionLegacy implements Closeable {
     }
 
     /**
-     * Creates a data source
+     * Creates a data source. When maxOpenPreparedStatements is set, every pooled connection keeps up to that
+     * many prepared statements open and hands them out again for the same SQL instead of preparing it anew.
      */
     private static DataSource createDataSource(String uri, String username, String password,
                                                Integer maxActive, Integer maxIdle, Long maxWait,
                                                Long timeBtwnEvictionRuns, Long minEvictableIdleTime,
                                                Boolean testWhileIdle, Boolean testOnBorrow,
-                                               String validationQuery, Integer isolationLevel) {
+                                               String validationQuery, Integer isolationLevel,
+                                               Integer maxOpenPreparedStatements) {
         ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(uri, username, password);
         PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, null);
         GenericObjectPoolConfig config = createPoolConfig(maxActive, maxIdle, maxWait, timeBtwnEvictionRuns, minEvictableIdleTime, testWhileIdle, testOnBorrow);
@@ -1162,6 +1213,10 @@ public class TransactionLegacy implements Closeable {
         if (isolationLevel != null) {
             poolableConnectionFactory.setDefaultTransactionIsolation(isolationLevel);
         }
+        if (maxOpenPreparedStatements != null) {
+            poolableConnectionFactory.setPoolStatements(true);
+            poolableConnectionFactory.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
+        }
         return new PoolingDataSource<>(connectionPool);
     }
 
@@ -0,0 +1,72 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+    private EntityCache<String> createCache() {
+        return new EntityCache<String>("test", "test_table", 100, 300);
+    }
+
+    @Test
+    public void testPutWithCurrentVersionIsCached() {
+        EntityCache<String> cache = createCache();
+        long version = cache.getVersion();
+        assertTrue(cache.put(1L, "row", version));
+        assertEquals("row", cache.get(1L));
+    }
+
+    @Test
+    public void testRowLoadedBeforeInvalidationIsNotCached() {
+        EntityCache<String> cache = createCache();
+        long version = cache.getVersion();
+        // the row is updated and invalidated while the reader is still loading the old one
+        cache.invalidate(1L);
+        assertFalse(cache.put(1L, "stale", version));
+        assertNull(cache.get(1L));
+
+        assertTrue(cache.put(1L, "fresh", cache.getVersion()));
+        assertEquals("fresh", cache.get(1L));
+    }
+
+    @Test
+    public void testInvalidationOnlyAffectsItsStripe() {
+        EntityCache<String> cache = createCache();
+        long version = cache.getVersion();
+        cache.invalidate(1L);
+        assertTrue(cache.put(2L, "other", version));
+        assertEquals("other", cache.get(2L));
+    }
+
+    @Test
+    public void testClearRejectsEveryRowLoadedBefore() {
+        EntityCache<String> cache = createCache();
+        long version = cache.getVersion();
+        cache.clear();
+        for (long id = 1; id <= 100; id++) {
+            assertFalse(cache.put(id, "stale", version));
+        }
+        assertEquals(0, cache.getSize());
+    }
+}
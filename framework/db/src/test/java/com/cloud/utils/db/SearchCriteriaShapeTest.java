@@ -0,0 +1,99 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.SearchCriteria.Op;
+
+public class SearchCriteriaShapeTest {
+
+    protected static final DbTestDao dao = new DbTestDao();
+
+    private SearchBuilder<DbTestVO> createSearch() {
+        SearchBuilder<DbTestVO> sb = dao.createSearchBuilder();
+        sb.and("str", sb.entity().getFieldString(), Op.EQ);
+        sb.and("ints", sb.entity().getFieldInt(), Op.IN);
+        sb.done();
+        return sb;
+    }
+
+    @Test
+    public void testSameShapeReusesSql() {
+        SearchBuilder<DbTestVO> sb = createSearch();
+
+        SearchCriteria<DbTestVO> sc1 = sb.create();
+        sc1.setParameters("str", "a");
+        sc1.setParameters("ints", 1, 2, 3);
+        SearchCriteria<DbTestVO> sc2 = sb.create();
+        sc2.setParameters("str", "b");
+        sc2.setParameters("ints", 4, 5, 6, 7);
+
+        assertEquals(sc1.getShape(), sc2.getShape());
+        String sql = dao.createSearchSql(sc1, false);
+        assertSame(sql, dao.createSearchSql(sc2, false));
+        assertEquals(sc2.getWhereClause(), sc1.getWhereClause());
+    }
+
+    @Test
+    public void testDifferentShapes() {
+        SearchBuilder<DbTestVO> sb = createSearch();
+
+        SearchCriteria<DbTestVO> sc1 = sb.create();
+        sc1.setParameters("str", "a");
+        SearchCriteria<DbTestVO> sc2 = sb.create();
+        sc2.setParameters("str", (Object)null);
+        SearchCriteria<DbTestVO> sc3 = sb.create();
+        sc3.setParameters("ints", 1, 2, 3);
+
+        assertNotEquals(sc1.getShape(), sc2.getShape());
+        assertNotEquals(sc1.getShape(), sc3.getShape());
+        assertNotEquals(dao.createSearchSql(sc1, false), dao.createSearchSql(sc2, false));
+    }
+
+    @Test
+    public void testInListIsPaddedToItsArity() {
+        SearchBuilder<DbTestVO> sb = createSearch();
+        SearchCriteria<DbTestVO> sc = sb.create();
+        sc.setParameters("ints", 1, 2, 3);
+
+        String clause = sc.getWhereClause();
+        List<Pair<Attribute, Object>> values = sc.getValues();
+
+        assertEquals(4, clause.length() - clause.replace("?", "").length());
+        assertEquals(4, values.size());
+        assertEquals(3, values.get(3).second());
+    }
+
+    @Test
+    public void testArity() {
+        assertEquals(0, SearchBase.Condition.arity(0));
+        assertEquals(1, SearchBase.Condition.arity(1));
+        assertEquals(2, SearchBase.Condition.arity(2));
+        assertEquals(4, SearchBase.Condition.arity(3));
+        assertEquals(256, SearchBase.Condition.arity(200));
+        assertEquals(512, SearchBase.Condition.arity(300));
+    }
+}
@@ -25,29 +25,63 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.framework.serializer.MessageSerializer;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
+/**
+ * Subscriptions are kept in a trie of immutable nodes keyed by the dot separated subject tokens.
+ * Subscribe and unsubscribe copy the path they change and swap the root atomically, so publishers
+ * walk a consistent snapshot without taking any lock, and subscribers may subscribe, unsubscribe or
+ * publish from within onPublishMessage().
+ *
+ * By default messages are delivered on the publisher's thread. With asyncDelivery set, each
+ * subscriber gets a bounded mailbox drained by a shared pool of delivery threads, in publish order;
+ * a full mailbox either drops the message or makes the publisher wait, see OverflowPolicy.
+ */
 public class MessageBusBase implements MessageBus {
 
-    private final Gate _gate;
-    private final List<ActionRecord> _pendingActions;
+    public static enum OverflowPolicy {
+        Drop, BackPressure
+    }
 
-    private final SubscriptionNode _subscriberRoot;
+    private static final int MAX_TRACKED_TOPICS = 256;
+    private static final String OTHER_TOPICS = "(other)";
+    private static final int MAX_MESSAGES_PER_DRAIN = 64;
+
+    private final AtomicReference<SubscriptionNode> _subscriberRoot;
     private MessageSerializer _messageSerializer;
 
+    private boolean _asyncDelivery = false;
+    private int _mailboxCapacity = 1000;
+    private OverflowPolicy _overflowPolicy = OverflowPolicy.BackPressure;
+    private long _backPressureTimeoutMillis = 10000;
+    private int _deliveryThreads = 4;
+    private volatile ExecutorService _deliveryExecutor;
+    private final Map<MessageSubscriber, Mailbox> _mailboxes = new ConcurrentHashMap<MessageSubscriber, Mailbox>();
+
+    private final Map<String, MessageBusTopicStatsMBeanImpl> _topicStats = new ConcurrentHashMap<String, MessageBusTopicStatsMBeanImpl>();
+
     private static final Logger s_logger = Logger.getLogger(MessageBusBase.class);
 
     public MessageBusBase() {
-        _gate = new Gate();
-        _pendingActions = new ArrayList<ActionRecord>();
-
-        _subscriberRoot = new SubscriptionNode(null, "/", null);
+        _subscriberRoot = new AtomicReference<SubscriptionNode>(SubscriptionNode.EMPTY);
     }
 
     @Override
@@ -60,101 +94,71 @@ public class MessageBusBase implements MessageBus {
         return _messageSerializer;
     }
 
+    public void setAsyncDelivery(boolean asyncDelivery) {
+        _asyncDelivery = asyncDelivery;
+    }
+
+    public boolean isAsyncDelivery() {
+        return _asyncDelivery;
+    }
+
+    public void setMailboxCapacity(int mailboxCapacity) {
+        _mailboxCapacity = mailboxCapacity;
+    }
+
+    public void setOverflowPolicy(String overflowPolicy) {
+        _overflowPolicy = OverflowPolicy.valueOf(overflowPolicy);
+    }
+
+    public void setBackPressureTimeoutMillis(long backPressureTimeoutMillis) {
+        _backPressureTimeoutMillis = backPressureTimeoutMillis;
+    }
+
+    public void setDeliveryThreads(int deliveryThreads) {
+        _deliveryThreads = deliveryThreads;
+    }
+
     @Override
     public void subscribe(String subject, MessageSubscriber subscriber) {
         assert (subject != null);
         assert (subscriber != null);
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus subscribe");
-            }
-            try {
-                SubscriptionNode current = locate(subject, null, true);
-                assert (current != null);
-                current.addSubscriber(subscriber);
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Subscribe, subject, subscriber));
-            }
-        }
+
+        final String[] path = tokenize(subject);
+        update(root -> root.withSubscriber(path, 0, subscriber));
     }
 
     @Override
     public void unsubscribe(String subject, MessageSubscriber subscriber) {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus unsubscribe");
-            }
-            try {
-                if (subject != null) {
-                    SubscriptionNode current = locate(subject, null, false);
-                    if (current != null)
-                        current.removeSubscriber(subscriber, false);
-                } else {
-                    _subscriberRoot.removeSubscriber(subscriber, true);
-                }
-            } finally {
-                _gate.leave();
-            }
+        final SubscriptionNode root;
+        if (subject != null) {
+            final String[] path = tokenize(subject);
+            root = update(current -> current.withoutSubscriber(path, 0, subscriber));
         } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Unsubscribe, subject, subscriber));
-            }
+            root = update(current -> current.withoutSubscriberRecursively(subscriber));
+        }
+
+        if (!root.contains(subscriber)) {
+            _mailboxes.remove(subscriber);
         }
     }
 
     @Override
     public void clearAll() {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus clearAll");
-            }
-            try {
-                _subscriberRoot.clearAll();
-                doPrune();
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.ClearAll, null, null));
-            }
-        }
+        update(root -> SubscriptionNode.EMPTY);
+        _mailboxes.clear();
     }
 
     @Override
     public void prune() {
-        if (_gate.enter()) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus prune");
-            }
-            try {
-                doPrune();
-            } finally {
-                _gate.leave();
-            }
-        } else {
-            synchronized (_pendingActions) {
-                _pendingActions.add(new ActionRecord(ActionType.Prune, null, null));
-            }
-        }
+        update(root -> root.pruned());
     }
 
-    private void doPrune() {
-        List<SubscriptionNode> trimNodes = new ArrayList<SubscriptionNode>();
-        _subscriberRoot.prune(trimNodes);
-
-        while (trimNodes.size() > 0) {
-            SubscriptionNode node = trimNodes.remove(0);
-            SubscriptionNode parent = node.getParent();
-            if (parent != null) {
-                parent.removeChild(node.getNodeKey());
-                if (parent.isTrimmable()) {
-                    trimNodes.add(parent);
-                }
+    private SubscriptionNode update(UnaryOperator<SubscriptionNode> change) {
+        while (true) {
+            SubscriptionNode current = _subscriberRoot.get();
+            SubscriptionNode updated = change.apply(current);
+            if (updated == current || _subscriberRoot.compareAndSet(current, updated)) {
+                return updated;
             }
         }
     }
@@ -166,101 +170,53 @@ public class MessageBusBase implements MessageBus {
             String errMsg = "NO EVENT PUBLISH CAN BE WRAPPED WITHIN DB TRANSACTION!";
             s_logger.error(errMsg, new CloudRuntimeException(errMsg));
         }
-        if (_gate.enter(true)) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Enter gate in message bus publish");
-            }
-            try {
-                List<SubscriptionNode> chainFromTop = new ArrayList<SubscriptionNode>();
-                SubscriptionNode current = locate(subject, chainFromTop, false);
-
-                if (current != null)
-                    current.notifySubscribers(senderAddress, subject, args);
-
-                Collections.reverse(chainFromTop);
-                for (SubscriptionNode node : chainFromTop)
-                    node.notifySubscribers(senderAddress, subject, args);
-            } finally {
-                _gate.leave();
-            }
-        }
-    }
 
-    private void onGateOpen() {
-        synchronized (_pendingActions) {
-            ActionRecord record = null;
-            while (_pendingActions.size() > 0) {
-                record = _pendingActions.remove(0);
-                switch (record.getType()) {
-                    case Subscribe: {
-                        SubscriptionNode current = locate(record.getSubject(), null, true);
-                        assert (current != null);
-                        current.addSubscriber(record.getSubscriber());
+        final long publishedAt = System.nanoTime();
+        final MessageBusTopicStatsMBeanImpl stats = getTopicStats(subject);
+        try {
+            // subscribers of the subject first, then those of its parent subjects up to the root
+            List<SubscriptionNode> chainFromTop = locate(_subscriberRoot.get(), subject);
+            Collections.reverse(chainFromTop);
+            for (SubscriptionNode node : chainFromTop) {
+                for (MessageSubscriber subscriber : node.getSubscribers()) {
+                    if (_asyncDelivery) {
+                        getMailbox(subscriber).post(new Delivery(senderAddress, subject, args, publishedAt, stats));
+                    } else {
+                        subscriber.onPublishMessage(senderAddress, subject, args);
+                        stats.recordDelivery(System.nanoTime() - publishedAt);
                     }
-                        break;
-
-                    case Unsubscribe:
-                        if (record.getSubject() != null) {
-                            SubscriptionNode current = locate(record.getSubject(), null, false);
-                            if (current != null)
-                                current.removeSubscriber(record.getSubscriber(), false);
-                        } else {
-                            _subscriberRoot.removeSubscriber(record.getSubscriber(), true);
-                        }
-                        break;
-
-                    case ClearAll:
-                        _subscriberRoot.clearAll();
-                        break;
-
-                    case Prune:
-                        doPrune();
-                        break;
-
-                    default:
-                        assert (false);
-                        break;
-
                 }
             }
+        } finally {
+            stats.recordPublish(System.nanoTime() - publishedAt);
         }
     }
 
-    private SubscriptionNode locate(String subject, List<SubscriptionNode> chainFromTop, boolean createPath) {
-
+    /**
+     * @return the nodes on the path of the subject as deep as it exists in the trie, root first
+     */
+    private static List<SubscriptionNode> locate(SubscriptionNode root, String subject) {
         assert (subject != null);
-        // "/" is special name for root node
-        if (subject.equals("/"))
-            return _subscriberRoot;
-
-        String[] subjectPathTokens = subject.split("\\.");
-        return locate(subjectPathTokens, _subscriberRoot, chainFromTop, createPath);
-    }
-
-    private static SubscriptionNode locate(String[] subjectPathTokens, SubscriptionNode current, List<SubscriptionNode> chainFromTop, boolean createPath) {
-
-        assert (current != null);
-        assert (subjectPathTokens != null);
-        assert (subjectPathTokens.length > 0);
-
-        if (chainFromTop != null)
-            chainFromTop.add(current);
 
-        SubscriptionNode next = current.getChild(subjectPathTokens[0]);
-        if (next == null) {
-            if (createPath) {
-                next = new SubscriptionNode(current, subjectPathTokens[0], null);
-                current.addChild(subjectPathTokens[0], next);
-            } else {
-                return null;
+        List<SubscriptionNode> chainFromTop = new ArrayList<SubscriptionNode>();
+        SubscriptionNode current = root;
+        chainFromTop.add(current);
+        for (String token : tokenize(subject)) {
+            current = current.getChild(token);
+            if (current == null) {
+                break;
             }
+            chainFromTop.add(current);
         }
+        return chainFromTop;
+    }
 
-        if (subjectPathTokens.length > 1) {
-            return locate(Arrays.copyOfRange(subjectPathTokens, 1, subjectPathTokens.length), next, chainFromTop, createPath);
-        } else {
-            return next;
+    private static String[] tokenize(String subject) {
+        // "/" is special name for root node
+        if (subject.equals("/")) {
+            return new String[0];
         }
+        return subject.split("\\.");
     }
 
     private boolean noDbTxn() {
@@ -268,182 +224,231 @@ public class MessageBusBase implements MessageBus {
         return !txn.dbTxnStarted();
     }
 
-    //
-    // Support inner classes
-    //
-    private static enum ActionType {
-        Subscribe, Unsubscribe, ClearAll, Prune
-    }
-
-    private static class ActionRecord {
-        private final ActionType _type;
-        private final String _subject;
-        private final MessageSubscriber _subscriber;
-
-        public ActionRecord(ActionType type, String subject, MessageSubscriber subscriber) {
-            _type = type;
-            _subject = subject;
-            _subscriber = subscriber;
+    private MessageBusTopicStatsMBeanImpl getTopicStats(String subject) {
+        MessageBusTopicStatsMBeanImpl stats = _topicStats.get(subject);
+        if (stats != null) {
+            return stats;
         }
 
-        public ActionType getType() {
-            return _type;
+        // subjects may carry ids, keep the number of MBeans bounded
+        String topic = _topicStats.size() < MAX_TRACKED_TOPICS ? subject : OTHER_TOPICS;
+        stats = new MessageBusTopicStatsMBeanImpl(topic);
+        MessageBusTopicStatsMBeanImpl existing = _topicStats.putIfAbsent(topic, stats);
+        if (existing != null) {
+            return existing;
         }
 
-        public String getSubject() {
-            return _subject;
+        try {
+            JmxUtil.registerMBean("MessageBus", "Topic " + topic, stats);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register message bus stats of topic " + topic + " to JMX monitoring", e);
         }
+        return stats;
+    }
+
+    private Mailbox getMailbox(MessageSubscriber subscriber) {
+        return _mailboxes.computeIfAbsent(subscriber, s -> new Mailbox(s, _mailboxCapacity));
+    }
 
-        public MessageSubscriber getSubscriber() {
-            return _subscriber;
+    private ExecutorService getDeliveryExecutor() {
+        if (_deliveryExecutor == null) {
+            synchronized (this) {
+                if (_deliveryExecutor == null) {
+                    _deliveryExecutor = Executors.newFixedThreadPool(_deliveryThreads, new NamedThreadFactory("MessageBus-Delivery"));
+                }
+            }
         }
+        return _deliveryExecutor;
     }
 
-    private class Gate {
-        private int _reentranceCount;
-        private Thread _gateOwner;
+    //
+    // Support inner classes
+    //
+    private static class Delivery {
+        private final String _senderAddress;
+        private final String _subject;
+        private final Object _args;
+        private final long _publishedAt;
+        private final MessageBusTopicStatsMBeanImpl _stats;
 
-        public Gate() {
-            _reentranceCount = 0;
-            _gateOwner = null;
+        public Delivery(String senderAddress, String subject, Object args, long publishedAt, MessageBusTopicStatsMBeanImpl stats) {
+            _senderAddress = senderAddress;
+            _subject = subject;
+            _args = args;
+            _publishedAt = publishedAt;
+            _stats = stats;
         }
+    }
 
-        public boolean enter() {
-            return enter(false);
-        }
+    /**
+     * Messages of one subscriber, delivered in order by at most one delivery thread at a time.
+     */
+    private class Mailbox extends ManagedContextRunnable {
+        private final MessageSubscriber _subscriber;
+        private final BlockingQueue<Delivery> _queue;
+        private final AtomicBoolean _scheduled = new AtomicBoolean(false);
 
-        public boolean enter(boolean wait) {
-            while (true) {
-                synchronized (this) {
-                    if (_reentranceCount == 0) {
-                        assert (_gateOwner == null);
+        public Mailbox(MessageSubscriber subscriber, int capacity) {
+            _subscriber = subscriber;
+            _queue = new LinkedBlockingQueue<Delivery>(capacity);
+        }
 
-                        _reentranceCount++;
-                        _gateOwner = Thread.currentThread();
-                        return true;
-                    } else {
-                        if (wait) {
-                            try {
-                                wait();
-                            } catch (InterruptedException e) {
-                                s_logger.debug("[ignored] interupted while guarding re-entrance on message bus.");
-                            }
-                        } else {
-                            break;
-                        }
-                    }
+        public void post(Delivery delivery) {
+            boolean queued;
+            try {
+                if (_overflowPolicy == OverflowPolicy.BackPressure) {
+                    queued = _queue.offer(delivery, _backPressureTimeoutMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    queued = _queue.offer(delivery);
                 }
+            } catch (InterruptedException e) {
+                queued = false;
             }
 
-            return false;
+            if (!queued) {
+                delivery._stats.recordDrop();
+                s_logger.warn("Mailbox of message bus subscriber " + _subscriber.getClass().getName() + " is full, dropped message of subject " + delivery._subject);
+            }
+            schedule();
         }
 
-        public void leave() {
-            synchronized (this) {
-                if (_reentranceCount > 0) {
+        private void schedule() {
+            if (_scheduled.compareAndSet(false, true)) {
+                getDeliveryExecutor().execute(this);
+            }
+        }
+
+        @Override
+        protected void runInContext() {
+            try {
+                Delivery delivery;
+                int delivered = 0;
+                while (delivered++ < MAX_MESSAGES_PER_DRAIN && (delivery = _queue.poll()) != null) {
                     try {
-                        assert (_gateOwner == Thread.currentThread());
-
-                        onGateOpen();
-                    } finally {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Open gate of message bus");
-                        }
-                        _reentranceCount--;
-                        assert (_reentranceCount == 0);
-                        _gateOwner = null;
-
-                        notifyAll();
+                        _subscriber.onPublishMessage(delivery._senderAddress, delivery._subject, delivery._args);
+                    } catch (Throwable e) {
+                        s_logger.warn("Message bus subscriber " + _subscriber.getClass().getName() + " failed to handle message of subject " + delivery._subject, e);
                     }
+                    delivery._stats.recordDelivery(System.nanoTime() - delivery._publishedAt);
                 }
+            } finally {
+                _scheduled.set(false);
+            }
+
+            // messages posted after the last poll, or left for fairness with the other mailboxes
+            if (!_queue.isEmpty()) {
+                schedule();
             }
         }
     }
 
+    /**
+     * Immutable trie node, every change returns a copy of the nodes on the changed path.
+     */
     private static class SubscriptionNode {
-        private final String _nodeKey;
-        private final List<MessageSubscriber> _subscribers;
-        private final Map<String, SubscriptionNode> _children;
-        private final SubscriptionNode _parent;
+        private static final MessageSubscriber[] NO_SUBSCRIBERS = new MessageSubscriber[0];
+        static final SubscriptionNode EMPTY = new SubscriptionNode(NO_SUBSCRIBERS, Collections.<String, SubscriptionNode> emptyMap());
 
-        public SubscriptionNode(SubscriptionNode parent, String nodeKey, MessageSubscriber subscriber) {
-            assert (nodeKey != null);
-            _parent = parent;
-            _nodeKey = nodeKey;
-            _subscribers = new ArrayList<MessageSubscriber>();
-
-            if (subscriber != null)
-                _subscribers.add(subscriber);
+        private final MessageSubscriber[] _subscribers;
+        private final Map<String, SubscriptionNode> _children;
 
-            _children = new HashMap<String, SubscriptionNode>();
+        private SubscriptionNode(MessageSubscriber[] subscribers, Map<String, SubscriptionNode> children) {
+            _subscribers = subscribers;
+            _children = children;
         }
 
-        public SubscriptionNode getParent() {
-            return _parent;
+        public List<MessageSubscriber> getSubscribers() {
+            return Arrays.asList(_subscribers);
         }
 
-        public String getNodeKey() {
-            return _nodeKey;
+        public SubscriptionNode getChild(String key) {
+            return _children.get(key);
         }
 
-        @SuppressWarnings("unused")
-        public List<MessageSubscriber> getSubscriber() {
-            return _subscribers;
+        public boolean isTrimmable() {
+            return _children.isEmpty() && _subscribers.length == 0;
         }
 
-        public void addSubscriber(MessageSubscriber subscriber) {
-            if (!_subscribers.contains(subscriber))
-                _subscribers.add(subscriber);
+        public boolean contains(MessageSubscriber subscriber) {
+            if (Arrays.asList(_subscribers).contains(subscriber)) {
+                return true;
+            }
+            for (SubscriptionNode child : _children.values()) {
+                if (child.contains(subscriber)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        public void removeSubscriber(MessageSubscriber subscriber, boolean recursively) {
-            if (recursively) {
-                for (Map.Entry<String, SubscriptionNode> entry : _children.entrySet()) {
-                    entry.getValue().removeSubscriber(subscriber, true);
+        public SubscriptionNode withSubscriber(String[] path, int depth, MessageSubscriber subscriber) {
+            if (depth == path.length) {
+                if (Arrays.asList(_subscribers).contains(subscriber)) {
+                    return this;
                 }
+                MessageSubscriber[] subscribers = Arrays.copyOf(_subscribers, _subscribers.length + 1);
+                subscribers[_subscribers.length] = subscriber;
+                return new SubscriptionNode(subscribers, _children);
             }
-            _subscribers.remove(subscriber);
-        }
 
-        public SubscriptionNode getChild(String key) {
-            return _children.get(key);
+            SubscriptionNode child = _children.get(path[depth]);
+            if (child == null) {
+                child = EMPTY;
+            }
+            return withChild(path[depth], child.withSubscriber(path, depth + 1, subscriber));
         }
 
-        public void addChild(String key, SubscriptionNode childNode) {
-            _children.put(key, childNode);
-        }
+        public SubscriptionNode withoutSubscriber(String[] path, int depth, MessageSubscriber subscriber) {
+            if (depth == path.length) {
+                return withoutOwnSubscriber(subscriber);
+            }
 
-        public void removeChild(String key) {
-            _children.remove(key);
+            SubscriptionNode child = _children.get(path[depth]);
+            if (child == null) {
+                return this;
+            }
+            return withChild(path[depth], child.withoutSubscriber(path, depth + 1, subscriber));
         }
 
-        public void clearAll() {
-            // depth-first
+        public SubscriptionNode withoutSubscriberRecursively(MessageSubscriber subscriber) {
+            SubscriptionNode result = withoutOwnSubscriber(subscriber);
             for (Map.Entry<String, SubscriptionNode> entry : _children.entrySet()) {
-                entry.getValue().clearAll();
+                result = result.withChild(entry.getKey(), entry.getValue().withoutSubscriberRecursively(subscriber));
             }
-            _subscribers.clear();
+            return result;
         }
 
-        public void prune(List<SubscriptionNode> trimNodes) {
-            assert (trimNodes != null);
-
+        public SubscriptionNode pruned() {
+            SubscriptionNode result = this;
             for (Map.Entry<String, SubscriptionNode> entry : _children.entrySet()) {
-                entry.getValue().prune(trimNodes);
+                result = result.withChild(entry.getKey(), entry.getValue().pruned());
             }
-
-            if (isTrimmable())
-                trimNodes.add(this);
+            return result;
         }
 
-        public void notifySubscribers(String senderAddress, String subject, Object args) {
-            for (MessageSubscriber subscriber : _subscribers) {
-                subscriber.onPublishMessage(senderAddress, subject, args);
+        private SubscriptionNode withoutOwnSubscriber(MessageSubscriber subscriber) {
+            List<MessageSubscriber> subscribers = new ArrayList<MessageSubscriber>(Arrays.asList(_subscribers));
+            if (!subscribers.remove(subscriber)) {
+                return this;
             }
+            return new SubscriptionNode(subscribers.toArray(NO_SUBSCRIBERS), _children);
         }
 
-        public boolean isTrimmable() {
-            return _children.size() == 0 && _subscribers.size() == 0;
+        /**
+         * Replaces the child, children left without subscribers anywhere below them are removed.
+         */
+        private SubscriptionNode withChild(String key, SubscriptionNode child) {
+            if (_children.get(key) == child) {
+                return this;
+            }
+
+            Map<String, SubscriptionNode> children = new HashMap<String, SubscriptionNode>(_children);
+            if (child.isTrimmable()) {
+                children.remove(key);
+            } else {
+                children.put(key, child);
+            }
+            return new SubscriptionNode(_subscribers, Collections.unmodifiableMap(children));
         }
     }
 }
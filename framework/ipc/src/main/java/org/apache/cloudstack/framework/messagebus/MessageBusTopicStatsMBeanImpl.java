@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cloudstack.framework.messagebus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+/**
+ * Publish and delivery latency of one message bus topic. Publish latency is the time a publisher
+ * spends in publish(), delivery latency is the time from publish() until a subscriber is done
+ * with the message, including the time it waited in the subscriber's mailbox in async mode.
+ */
+public class MessageBusTopicStatsMBeanImpl extends StandardMBean implements MessageBusTopicStatsMBean {
+    private final String _topic;
+    private final AtomicLong _published = new AtomicLong();
+    private final AtomicLong _totalPublishNanos = new AtomicLong();
+    private final AtomicLong _maxPublishNanos = new AtomicLong();
+    private final AtomicLong _delivered = new AtomicLong();
+    private final AtomicLong _totalDeliveryNanos = new AtomicLong();
+    private final AtomicLong _maxDeliveryNanos = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+
+    public MessageBusTopicStatsMBeanImpl(String topic) {
+        super(MessageBusTopicStatsMBean.class, false);
+
+        _topic = topic;
+    }
+
+    public void recordPublish(long nanos) {
+        _published.incrementAndGet();
+        _totalPublishNanos.addAndGet(nanos);
+        updateMax(_maxPublishNanos, nanos);
+    }
+
+    public void recordDelivery(long nanos) {
+        _delivered.incrementAndGet();
+        _totalDeliveryNanos.addAndGet(nanos);
+        updateMax(_maxDeliveryNanos, nanos);
+    }
+
+    public void recordDrop() {
+        _dropped.incrementAndGet();
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static long averageMicros(AtomicLong totalNanos, AtomicLong count) {
+        long n = count.get();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / n);
+    }
+
+    @Override
+    public String getTopic() {
+        return _topic;
+    }
+
+    @Override
+    public long getPublishCount() {
+        return _published.get();
+    }
+
+    @Override
+    public long getAveragePublishMicros() {
+        return averageMicros(_totalPublishNanos, _published);
+    }
+
+    @Override
+    public long getMaxPublishMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(_maxPublishNanos.get());
+    }
+
+    @Override
+    public long getDeliveryCount() {
+        return _delivered.get();
+    }
+
+    @Override
+    public long getAverageDeliveryMicros() {
+        return averageMicros(_totalDeliveryNanos, _delivered);
+    }
+
+    @Override
+    public long getMaxDeliveryMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(_maxDeliveryNanos.get());
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return _dropped.get();
+    }
+
+    @Override
+    public void resetStats() {
+        _published.set(0);
+        _totalPublishNanos.set(0);
+        _maxPublishNanos.set(0);
+        _delivered.set(0);
+        _totalDeliveryNanos.set(0);
+        _maxDeliveryNanos.set(0);
+        _dropped.set(0);
+    }
+}
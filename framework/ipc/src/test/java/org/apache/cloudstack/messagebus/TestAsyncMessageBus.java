@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cloudstack.messagebus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cloudstack.framework.messagebus.MessageBusBase;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAsyncMessageBus {
+
+    @Test
+    public void testNestedPublishAndSubscribe() {
+        final MessageBusBase messageBus = new MessageBusBase();
+        final List<String> received = new ArrayList<String>();
+
+        final MessageSubscriber vmSubscriber = new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                received.add(subject);
+            }
+        };
+        messageBus.subscribe("Host", new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                received.add(subject);
+                messageBus.subscribe("VM", vmSubscriber);
+                messageBus.publish(null, "VM", PublishScope.LOCAL, null);
+                messageBus.unsubscribe("VM", vmSubscriber);
+            }
+        });
+
+        messageBus.publish(null, "Host", PublishScope.LOCAL, null);
+        messageBus.publish(null, "VM", PublishScope.LOCAL, null);
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals("Host", received.get(0));
+        Assert.assertEquals("VM", received.get(1));
+    }
+
+    @Test
+    public void testAsyncDeliveryKeepsOrder() throws InterruptedException {
+        MessageBusBase messageBus = new MessageBusBase();
+        messageBus.setAsyncDelivery(true);
+
+        final int count = 500;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+        messageBus.subscribe("Host", new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                received.add(args);
+                latch.countDown();
+            }
+        });
+
+        for (int i = 0; i < count; i++) {
+            messageBus.publish(null, "Host.Up", PublishScope.LOCAL, i);
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, received.get(i));
+        }
+        messageBus.clearAll();
+    }
+
+    @Test
+    public void testAsyncDeliveryDropsWhenMailboxIsFull() throws InterruptedException {
+        MessageBusBase messageBus = new MessageBusBase();
+        messageBus.setAsyncDelivery(true);
+        messageBus.setMailboxCapacity(1);
+        messageBus.setOverflowPolicy("Drop");
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+        messageBus.subscribe("Host", new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                received.add(args);
+                blocked.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        messageBus.publish(null, "Host", PublishScope.LOCAL, 0);
+        Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        // the subscriber is busy with the first message, the mailbox holds one more
+        messageBus.publish(null, "Host", PublishScope.LOCAL, 1);
+        messageBus.publish(null, "Host", PublishScope.LOCAL, 2);
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        Assert.assertEquals(2, received.size());
+        Assert.assertEquals(1, received.get(1));
+        messageBus.clearAll();
+    }
+}
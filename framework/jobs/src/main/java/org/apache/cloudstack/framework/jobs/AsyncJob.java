@@ -31,6 +31,10 @@ public interface AsyncJob extends JobInfo {
         public static final String JOB_HEARTBEAT = "job.heartbeat";
         public static final String JOB_STATE = "job.state";
         public static final String JOB_EVENT_PUBLISH = "job.eventpublish";
+        // published with the sync queue id when an item is queued into or purged from it
+        public static final String SYNC_QUEUE_ITEM = "job.syncqueue.item";
+        // published with a Pair of the owning management server id and the queue id when the queue is owned by another node
+        public static final String SYNC_QUEUE_REMOTE_ITEM = "job.syncqueue.remoteitem";
     }
 
     public static interface Constants {
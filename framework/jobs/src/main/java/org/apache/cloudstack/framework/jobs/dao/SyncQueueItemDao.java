@@ -28,6 +28,11 @@ public interface SyncQueueItemDao extends GenericDao<SyncQueueItemVO, Long> {
 
     public List<SyncQueueItemVO> getNextQueueItems(int maxItems);
 
+    /**
+     * Same as {@link #getNextQueueItems(int)}, limited to the queues whose id modulo shardCount is shardIndex.
+     */
+    public List<SyncQueueItemVO> getNextQueueItems(int maxItems, int shardCount, int shardIndex);
+
     public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive);
 
     public List<SyncQueueItemVO> getBlockedQueueItems(long thresholdMs, boolean exclusive);
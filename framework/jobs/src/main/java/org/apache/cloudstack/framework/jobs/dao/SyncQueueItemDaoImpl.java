@@ -91,11 +91,17 @@ public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long>
 
     @Override
     public List<SyncQueueItemVO> getNextQueueItems(int maxItems) {
+        return getNextQueueItems(maxItems, 1, 0);
+    }
+
+    @Override
+    public List<SyncQueueItemVO> getNextQueueItems(int maxItems, int shardCount, int shardIndex) {
         List<SyncQueueItemVO> l = new ArrayList<SyncQueueItemVO>();
 
         String sql = "SELECT i.id, i.queue_id, i.content_type, i.content_id, i.created " +
                 " FROM sync_queue AS q JOIN sync_queue_item AS i ON q.id = i.queue_id " +
                      " WHERE i.queue_proc_number IS NULL " +
+                (shardCount > 1 ? " AND MOD(q.id, ?) = ? " : "") +
                 " GROUP BY q.id " +
                 " ORDER BY i.id " +
                 " LIMIT 0, ?";
@@ -104,7 +110,12 @@ public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long>
         PreparedStatement pstmt = null;
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
-            pstmt.setInt(1, maxItems);
+            int i = 1;
+            if (shardCount > 1) {
+                pstmt.setInt(i++, shardCount);
+                pstmt.setInt(i++, shardIndex);
+            }
+            pstmt.setInt(i, maxItems);
             ResultSet rs = pstmt.executeQuery();
             while(rs.next()) {
                 SyncQueueItemVO item = new SyncQueueItemVO();
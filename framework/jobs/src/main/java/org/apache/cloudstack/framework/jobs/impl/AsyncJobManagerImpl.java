@@ -24,6 +24,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -55,6 +57,7 @@ import org.apache.cloudstack.framework.jobs.dao.AsyncJobJournalDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.MessageDetector;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.jobs.JobInfo.Status;
@@ -76,6 +79,7 @@ import com.cloud.utils.StringUtils;
 import com.cloud.utils.component.ComponentLifecycle;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.concurrency.SemaphoreBoundedExecutor;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.DbProperties;
 import com.cloud.utils.db.GenericDao;
@@ -88,6 +92,7 @@ import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
@@ -107,6 +112,16 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
     private static final ConfigKey<Boolean> HidePassword = new ConfigKey<Boolean>("Advanced", Boolean.class, "log.hide.password", "true", "If set to true, the password is hidden", true, ConfigKey.Scope.Global);
+    private static final ConfigKey<Integer> QueueScanInterval = new ConfigKey<Integer>("Advanced", Integer.class, "job.queue.scan.interval", "30000",
+            "Interval (in milliseconds) of the database scan for sync queue items that were not dispatched when queued or released", false);
+    private static final ConfigKey<Boolean> ElasticJobExecutor = new ConfigKey<Boolean>("Advanced", Boolean.class, "job.executor.elastic", "false",
+            "If set to true, API and work jobs run on threads created on demand and bounded by job.executor.api.concurrency and job.executor.work.concurrency "
+            + "instead of fixed size thread pools. Jobs waiting on an agent answer or on other jobs outside a database transaction do not count against "
+            + "these limits", false);
+    private static final ConfigKey<Integer> ApiJobConcurrency = new ConfigKey<Integer>("Advanced", Integer.class, "job.executor.api.concurrency", "0",
+            "Maximum number of API jobs running at the same time when job.executor.elastic is true, 0 to derive it from db.cloud.maxActive", false);
+    private static final ConfigKey<Integer> WorkJobConcurrency = new ConfigKey<Integer>("Advanced", Integer.class, "job.executor.work.concurrency", "0",
+            "Maximum number of work jobs running at the same time when job.executor.elastic is true, 0 to derive it from db.cloud.maxActive", false);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
 
@@ -152,6 +167,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private volatile long _executionRunNumber = 1;
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
+    private final ExecutorService _queueDispatcher = Executors.newSingleThreadExecutor(new NamedThreadFactory("AsyncJobMgr-QueueDispatcher"));
+    private final Set<Long> _signalledQueues = ConcurrentHashMap.newKeySet();
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
 
@@ -162,7 +179,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, HidePassword};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, HidePassword, QueueScanInterval, ElasticJobExecutor, ApiJobConcurrency,
+            WorkJobConcurrency};
     }
 
     @Override
@@ -733,8 +751,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                     "-" + executionContext.getSyncSource().getContentId());
             }
 
+            // purging signals the queue, the next item is dispatched from there
             _queueMgr.purgeItem(executionContext.getSyncSource().getId());
-            checkQueue(executionContext.getSyncSource().getQueueId());
         }
     }
 
@@ -749,7 +767,13 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         try {
             long startTick = System.currentTimeMillis();
             while (timeoutInMiliseconds < 0 || System.currentTimeMillis() - startTick < timeoutInMiliseconds) {
-                msgDetector.waitAny(checkIntervalInMilliSeconds);
+                // the wait does not count against the limit of an elastic job executor, unless a connection is held
+                final SemaphoreBoundedExecutor executor = TransactionLegacy.inDbTxn() ? null : SemaphoreBoundedExecutor.beginBlocking();
+                try {
+                    msgDetector.waitAny(checkIntervalInMilliSeconds);
+                } finally {
+                    SemaphoreBoundedExecutor.endBlocking(executor);
+                }
                 job = _jobDao.findById(job.getId());
                 if (job != null && job.getStatus().done()) {
                     return true;
@@ -801,12 +825,35 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         }
     }
 
-    private Runnable getHeartbeatTask() {
+    /**
+     * Dispatches the next items of a queue that was signalled through {@link AsyncJob.Topics#SYNC_QUEUE_ITEM}.
+     * A queue signalled again before its dispatch has started is only checked once.
+     */
+    private void dispatchQueue(final long queueId) {
+        if (!_signalledQueues.add(queueId)) {
+            return;
+        }
+
+        try {
+            _queueDispatcher.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    _signalledQueues.remove(queueId);
+                    checkQueue(queueId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down, the items are left for the queue scan
+            _signalledQueues.remove(queueId);
+        }
+    }
+
+    private Runnable getQueueScanTask() {
         return new ManagedContextRunnable() {
 
             @Override
             protected void runInContext() {
-                GlobalLock scanLock = GlobalLock.getInternLock("AsyncJobManagerHeartbeat");
+                GlobalLock scanLock = GlobalLock.getInternLock("AsyncJobManagerQueueScan");
                 try {
                     if (scanLock.lock(ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION)) {
                         try {
@@ -831,7 +878,35 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             executeQueueItem(item, false);
                         }
                     }
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                }
+            }
+        };
+    }
 
+    private Runnable getHeartbeatTask() {
+        return new ManagedContextRunnable() {
+
+            @Override
+            protected void runInContext() {
+                GlobalLock scanLock = GlobalLock.getInternLock("AsyncJobManagerHeartbeat");
+                try {
+                    if (scanLock.lock(ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION)) {
+                        try {
+                            reallyRun();
+                        } finally {
+                            scanLock.unlock();
+                        }
+                    }
+                } finally {
+                    scanLock.releaseRef();
+                }
+            }
+
+            protected void reallyRun() {
+                try {
+                    // jobs parked on a join or wakeup timeout are only woken up by this scan
                     List<Long> standaloneWakeupJobs = wakeupScan();
                     for (Long jobId : standaloneWakeupJobs) {
                         // TODO, we assume that all jobs in this category is API job only
@@ -840,7 +915,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             scheduleExecution(job, false);
                     }
                 } catch (Throwable e) {
-                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                    s_logger.error("Unexpected exception when trying to wake up jobs, ", e);
                 }
             }
         };
@@ -1014,11 +1089,26 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             int apiPoolSize = cloudMaxActive / 2;
             int workPoolSize = (cloudMaxActive * 2) / 3;
 
-            s_logger.info("Start AsyncJobManager API executor thread pool in size " + apiPoolSize);
-            _apiJobExecutor = Executors.newFixedThreadPool(apiPoolSize, new NamedThreadFactory(AsyncJobManager.API_JOB_POOL_THREAD_PREFIX));
+            if (ElasticJobExecutor.value()) {
+                if (ApiJobConcurrency.value() > 0) {
+                    apiPoolSize = ApiJobConcurrency.value();
+                }
+                if (WorkJobConcurrency.value() > 0) {
+                    workPoolSize = WorkJobConcurrency.value();
+                }
+
+                s_logger.info("Start AsyncJobManager elastic API executor with concurrency " + apiPoolSize);
+                _apiJobExecutor = new SemaphoreBoundedExecutor(apiPoolSize, new NamedThreadFactory(AsyncJobManager.API_JOB_POOL_THREAD_PREFIX));
 
-            s_logger.info("Start AsyncJobManager Work executor thread pool in size " + workPoolSize);
-            _workerJobExecutor = Executors.newFixedThreadPool(workPoolSize, new NamedThreadFactory(AsyncJobManager.WORK_JOB_POOL_THREAD_PREFIX));
+                s_logger.info("Start AsyncJobManager elastic Work executor with concurrency " + workPoolSize);
+                _workerJobExecutor = new SemaphoreBoundedExecutor(workPoolSize, new NamedThreadFactory(AsyncJobManager.WORK_JOB_POOL_THREAD_PREFIX));
+            } else {
+                s_logger.info("Start AsyncJobManager API executor thread pool in size " + apiPoolSize);
+                _apiJobExecutor = Executors.newFixedThreadPool(apiPoolSize, new NamedThreadFactory(AsyncJobManager.API_JOB_POOL_THREAD_PREFIX));
+
+                s_logger.info("Start AsyncJobManager Work executor thread pool in size " + workPoolSize);
+                _workerJobExecutor = Executors.newFixedThreadPool(workPoolSize, new NamedThreadFactory(AsyncJobManager.WORK_JOB_POOL_THREAD_PREFIX));
+            }
         } catch (final Exception e) {
             throw new ConfigurationException("Unable to load db.properties to configure AsyncJobManagerImpl");
         }
@@ -1121,6 +1211,17 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     public boolean start() {
         cleanupLeftOverJobs(getMsid());
 
+        _messageBus.subscribe(AsyncJob.Topics.SYNC_QUEUE_ITEM, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                dispatchQueue((Long)args);
+            }
+        });
+
+        // queues are dispatched as soon as they are signalled, scanning only picks up what was missed,
+        // e.g. items left behind by a management server that went away
+        final int queueScanInterval = QueueScanInterval.value();
+        _heartbeatScheduler.scheduleAtFixedRate(getQueueScanTask(), queueScanInterval, queueScanInterval, TimeUnit.MILLISECONDS);
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
         _heartbeatScheduler.scheduleAtFixedRate(getGCTask(), GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
 
@@ -1130,6 +1231,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     public boolean stop() {
         _heartbeatScheduler.shutdown();
+        _queueDispatcher.shutdown();
         _apiJobExecutor.shutdown();
         _workerJobExecutor.shutdown();
         return true;
@@ -17,31 +17,95 @@
 package org.apache.cloudstack.framework.jobs.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 
 import org.apache.log4j.Logger;
 
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.jobs.AsyncJob;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.apache.cloudstack.management.ManagementServerHost;
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.ClusterManagerListener;
+import com.cloud.cluster.ManagementServerHostVO;
+import com.cloud.cluster.dao.ManagementServerHostDao;
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
-public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManager {
+public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManager, Configurable {
     public static final Logger s_logger = Logger.getLogger(SyncQueueManagerImpl.class.getName());
 
+    public static final ConfigKey<Boolean> QueueSharding = new ConfigKey<Boolean>("Advanced", Boolean.class, "job.queue.sharding.enabled", "false",
+            "If true, sync queues are partitioned over the management servers by queue id, and each management server only dequeues from its own partition", true);
+
     @Inject
     private SyncQueueDao _syncQueueDao;
     @Inject
     private SyncQueueItemDao _syncQueueItemDao;
+    @Inject
+    private MessageBus _messageBus;
+    @Inject
+    private ClusterManager _clusterMgr;
+    @Inject
+    private ManagementServerHostDao _mshostDao;
+
+    // sorted msids of the active management servers, the queue id modulo their count picks the owner of a queue
+    private volatile long[] _shardOwners = new long[0];
+
+    private final ConcurrentMap<String, SyncQueueStatsMBeanImpl> _waitStats = new ConcurrentHashMap<String, SyncQueueStatsMBeanImpl>();
+
+    @Override
+    public String getConfigComponentName() {
+        return SyncQueueManager.class.getSimpleName();
+    }
+
+    @Override
+    public ConfigKey<?>[] getConfigKeys() {
+        return new ConfigKey<?>[] {QueueSharding};
+    }
+
+    @Override
+    public boolean start() {
+        refreshShardOwners(Collections.<ManagementServerHost>emptyList());
+        _clusterMgr.registerListener(new ClusterManagerListener() {
+            @Override
+            public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
+                refreshShardOwners(Collections.<ManagementServerHost>emptyList());
+            }
+
+            @Override
+            public void onManagementNodeLeft(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
+                refreshShardOwners(nodeList);
+            }
+
+            @Override
+            public void onManagementNodeIsolated() {
+            }
+        });
+        return true;
+    }
 
     @Override
     @DB
@@ -66,6 +130,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                     item.setCreated(dt);
 
                     _syncQueueItemDao.persist(item);
+                    signalQueue(queueVO.getId());
                     return queueVO;
                 }
             });
@@ -82,7 +147,15 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
             return Transaction.execute(new TransactionCallback<SyncQueueItemVO>() {
                 @Override
                 public SyncQueueItemVO doInTransaction(TransactionStatus status) {
-                    SyncQueueVO queueVO = _syncQueueDao.findById(queueId);
+                    Long owner = getShardOwner(queueId);
+                    if (owner != null && owner != ManagementServerNode.getManagementServerId()) {
+                        if (s_logger.isDebugEnabled())
+                            s_logger.debug("Sync queue (" + queueId + ") is dispatched by its owner " + owner);
+                        return null;
+                    }
+
+                    // serialize dequeuing from the same queue, it is kicked from every node that queues or purges its items
+                    SyncQueueVO queueVO = _syncQueueDao.lockRow(queueId, true);
                     if(queueVO == null) {
                         s_logger.error("Sync queue(id: " + queueId + ") does not exist");
                         return null;
@@ -106,6 +179,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                             itemVO.setLastProcessNumber(processNumber);
                             itemVO.setLastProcessTime(dt);
                             _syncQueueItemDao.update(itemVO.getId(), itemVO);
+                            recordQueueWait(queueVO, itemVO, dt);
 
                             return itemVO;
                         } else {
@@ -137,7 +211,14 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
             Transaction.execute(new TransactionCallbackNoReturn() {
                 @Override
                 public void doInTransactionWithoutResult(TransactionStatus status) {
-                    List<SyncQueueItemVO> l = _syncQueueItemDao.getNextQueueItems(maxItems);
+                    List<SyncQueueItemVO> l;
+                    long[] owners = _shardOwners;
+                    int shard = QueueSharding.value() ? Arrays.binarySearch(owners, ManagementServerNode.getManagementServerId()) : -1;
+                    if (owners.length > 1 && shard >= 0) {
+                        l = _syncQueueItemDao.getNextQueueItems(maxItems, owners.length, shard);
+                    } else {
+                        l = _syncQueueItemDao.getNextQueueItems(maxItems);
+                    }
                     if(l != null && l.size() > 0) {
                         for(SyncQueueItemVO item : l) {
                             SyncQueueVO queueVO = _syncQueueDao.findById(item.getQueueId());
@@ -159,6 +240,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                                 itemVO.setLastProcessNumber(processNumber);
                                 itemVO.setLastProcessTime(dt);
                                 _syncQueueItemDao.update(item.getId(), itemVO);
+                                recordQueueWait(queueVO, itemVO, dt);
 
                                 resultList.add(itemVO);
                             }
@@ -196,6 +278,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                             queueVO.setQueueSize(queueVO.getQueueSize() - 1);
                             _syncQueueDao.update(queueVO.getId(), queueVO);
                         }
+                        signalQueue(itemVO.getQueueId());
                     }
                 }
             });
@@ -224,6 +307,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                         queueVO.setQueueSize(queueVO.getQueueSize() - 1);
                         queueVO.setLastUpdated(DateUtil.currentGMTTime());
                         _syncQueueDao.update(queueVO.getId(), queueVO);
+                        signalQueue(queueVO.getId());
                     }
                 }
             });
@@ -242,6 +326,88 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
         return _syncQueueItemDao.getBlockedQueueItems(thresholdMs, exclusive);
     }
 
+    /**
+     * Tells the local dispatcher that the queue may have an item ready to run, once the current transaction is done.
+     * Whichever node queues or purges an item is the one that dispatches the next item of that queue.
+     */
+    private void signalQueue(final long queueId) {
+        TransactionLegacy.currentTxn().runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                Long owner = getShardOwner(queueId);
+                if (owner == null || owner == ManagementServerNode.getManagementServerId()) {
+                    _messageBus.publish(null, AsyncJob.Topics.SYNC_QUEUE_ITEM, PublishScope.LOCAL, queueId);
+                } else {
+                    _messageBus.publish(null, AsyncJob.Topics.SYNC_QUEUE_REMOTE_ITEM, PublishScope.LOCAL, new Pair<Long, Long>(owner, queueId));
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the management server that dequeues from the queue, or null if queues aren't sharded or this server doesn't own a shard yet.
+     */
+    private Long getShardOwner(long queueId) {
+        if (!QueueSharding.value()) {
+            return null;
+        }
+
+        long[] owners = _shardOwners;
+        if (owners.length <= 1 || Arrays.binarySearch(owners, ManagementServerNode.getManagementServerId()) < 0) {
+            return null;
+        }
+        return owners[(int)(queueId % owners.length)];
+    }
+
+    private void refreshShardOwners(List<? extends ManagementServerHost> leftNodes) {
+        try {
+            Date cutTime = new Date(DateUtil.currentGMTTime().getTime() - ClusterManager.HeartbeatThreshold.value());
+            List<Long> msids = new ArrayList<Long>();
+            for (ManagementServerHostVO host : _mshostDao.getActiveList(cutTime)) {
+                msids.add(host.getMsid());
+            }
+            for (ManagementServerHost host : leftNodes) {
+                msids.remove(Long.valueOf(host.getMsid()));
+            }
+
+            long[] owners = new long[msids.size()];
+            for (int i = 0; i < owners.length; i++) {
+                owners[i] = msids.get(i);
+            }
+            Arrays.sort(owners);
+            _shardOwners = owners;
+
+            if (s_logger.isInfoEnabled()) {
+                s_logger.info("Sync queue shards are owned by management servers " + Arrays.toString(owners));
+            }
+        } catch (Exception e) {
+            s_logger.warn("Unable to rebalance sync queue shards, keeping owners " + Arrays.toString(_shardOwners), e);
+        }
+    }
+
+    private void recordQueueWait(SyncQueueVO queueVO, SyncQueueItemVO itemVO, Date dequeued) {
+        if (itemVO.getCreated() == null) {
+            return;
+        }
+
+        String syncObjType = queueVO.getSyncObjType();
+        SyncQueueStatsMBeanImpl stats = _waitStats.get(syncObjType);
+        if (stats == null) {
+            stats = new SyncQueueStatsMBeanImpl(syncObjType);
+            SyncQueueStatsMBeanImpl existing = _waitStats.putIfAbsent(syncObjType, stats);
+            if (existing != null) {
+                stats = existing;
+            } else {
+                try {
+                    JmxUtil.registerMBean("SyncQueueManager", "Queue Wait " + syncObjType, stats);
+                } catch (Exception e) {
+                    s_logger.warn("Unable to register sync queue wait stats of " + syncObjType + " to JMX monitoring", e);
+                }
+            }
+        }
+        stats.recordWait(dequeued.getTime() - itemVO.getCreated().getTime());
+    }
+
     private boolean queueReadyToProcess(SyncQueueVO queueVO) {
         int nActiveItems = _syncQueueItemDao.getActiveQueueItemCount(queueVO.getId());
         if (nActiveItems < queueVO.getQueueSizeLimit())
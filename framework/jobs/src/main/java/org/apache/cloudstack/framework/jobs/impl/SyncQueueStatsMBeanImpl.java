@@ -0,0 +1,88 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.SyncQueueStatsMBean;
+
+/**
+ * Time queue items of one sync object type spent waiting between being queued and being dequeued for execution.
+ */
+public class SyncQueueStatsMBeanImpl extends StandardMBean implements SyncQueueStatsMBean {
+    private final String _syncObjType;
+    private final AtomicLong _dequeued = new AtomicLong();
+    private final AtomicLong _totalWait = new AtomicLong();
+    private final AtomicLong _maxWait = new AtomicLong();
+    private volatile long _lastWait;
+
+    public SyncQueueStatsMBeanImpl(String syncObjType) {
+        super(SyncQueueStatsMBean.class, false);
+
+        _syncObjType = syncObjType;
+    }
+
+    public void recordWait(long waitMillis) {
+        if (waitMillis < 0) {
+            waitMillis = 0;
+        }
+        _dequeued.incrementAndGet();
+        _totalWait.addAndGet(waitMillis);
+        _lastWait = waitMillis;
+
+        long max = _maxWait.get();
+        while (waitMillis > max && !_maxWait.compareAndSet(max, waitMillis)) {
+            max = _maxWait.get();
+        }
+    }
+
+    @Override
+    public String getSyncObjType() {
+        return _syncObjType;
+    }
+
+    @Override
+    public long getDequeuedCount() {
+        return _dequeued.get();
+    }
+
+    @Override
+    public long getAverageWaitMillis() {
+        long dequeued = _dequeued.get();
+        return dequeued == 0 ? 0 : _totalWait.get() / dequeued;
+    }
+
+    @Override
+    public long getMaxWaitMillis() {
+        return _maxWait.get();
+    }
+
+    @Override
+    public long getLastWaitMillis() {
+        return _lastWait;
+    }
+
+    @Override
+    public void resetStats() {
+        _dequeued.set(0);
+        _totalWait.set(0);
+        _maxWait.set(0);
+        _lastWait = 0;
+    }
+}
@@ -16,19 +16,27 @@
 // under the License.
 package org.apache.cloudstack.acl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.log4j.Logger;
 import org.apache.cloudstack.acl.RolePermissionEntity.Permission;
 
+import com.cloud.agent.api.RolePermissionsChangedCommand;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.exception.UnavailableCommandException;
 import com.cloud.user.Account;
@@ -38,15 +46,25 @@ import com.cloud.utils.component.AdapterBase;
 import com.cloud.utils.component.PluggableService;
 import com.google.common.base.Strings;
 
-public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements APIAclChecker {
+public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements APIAclChecker, Configurable {
+
+    static final ConfigKey<Integer> RolePermissionsCacheTtl = new ConfigKey<Integer>("Advanced", Integer.class, "role.permissions.cache.ttl", "60",
+            "Seconds a management server uses the compiled permissions of a role before reloading them. Changes are applied right away through "
+            + "cluster notifications, this only bounds how long a lost notification leaves them stale. 0 reloads them on every API call.", true);
 
     @Inject
     private AccountService accountService;
     @Inject
     private RoleService roleService;
+    @Inject
+    private MessageBus messageBus;
 
     private List<PluggableService> services;
     private Map<RoleType, Set<String>> annotationRoleBasedApisMap = new HashMap<RoleType, Set<String>>();
+    private Set<String> apiNames = new HashSet<String>();
+
+    private final Map<Long, RolePermissionIndex> rolePermissionIndexes = new ConcurrentHashMap<Long, RolePermissionIndex>();
+    private final AtomicLong rolePermissionIndexesVersion = new AtomicLong();
 
     private static final Logger logger = Logger.getLogger(DynamicRoleBasedAPIAccessChecker.class.getName());
 
@@ -85,27 +103,82 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
             return true;
         }
 
-        // Check against current list of permissions
-        for (final RolePermission permission : roleService.findAllPermissionsBy(accountRole.getId())) {
-            if (permission.getRule().matches(commandName)) {
-                if (Permission.ALLOW.equals(permission.getPermission())) {
-                    return true;
-                } else {
-                    denyApiAccess(commandName);
-                }
-            }
-        }
-
-        // Check annotations
-        if (annotationRoleBasedApisMap.get(accountRole.getRoleType()) != null
-                && annotationRoleBasedApisMap.get(accountRole.getRoleType()).contains(commandName)) {
+        final Permission permission = getRolePermissionIndex(accountRole).getPermission(commandName);
+        if (permission == Permission.ALLOW) {
             return true;
+        } else if (permission == Permission.DENY) {
+            denyApiAccess(commandName);
         }
 
         // Default deny all
         throw new UnavailableCommandException("The API " + commandName + " does not exist or is not available for this account.");
     }
 
+    @Override
+    public List<String> getApisAllowedToUser(User user, List<String> apiNames) throws PermissionDeniedException {
+        if (isDisabled()) {
+            return apiNames;
+        }
+        Account account = accountService.getAccount(user.getAccountId());
+        if (account == null) {
+            throw new PermissionDeniedException("The account id=" + user.getAccountId() + "for user id=" + user.getId() + "is null");
+        }
+
+        final Role accountRole = roleService.findRole(account.getRoleId());
+        if (accountRole == null || accountRole.getId() < 1L) {
+            return new ArrayList<String>();
+        }
+        if (accountRole.getRoleType() == RoleType.Admin && accountRole.getId() == RoleType.Admin.getId()) {
+            return apiNames;
+        }
+
+        final RolePermissionIndex index = getRolePermissionIndex(accountRole);
+        final List<String> allowedApis = new ArrayList<String>();
+        for (final String apiName : apiNames) {
+            if (index.getPermission(apiName) == Permission.ALLOW) {
+                allowedApis.add(apiName);
+            }
+        }
+        return allowedApis;
+    }
+
+    /**
+     * Returns the compiled permissions of the role, compiling them if they changed since last time.
+     */
+    private RolePermissionIndex getRolePermissionIndex(final Role role) {
+        RolePermissionIndex index = rolePermissionIndexes.get(role.getId());
+        if (index != null && index.getRoleType() == role.getRoleType()
+                && System.currentTimeMillis() - index.getCreatedMillis() < getRolePermissionsCacheTtl() * 1000L) {
+            return index;
+        }
+
+        final long version = rolePermissionIndexesVersion.get();
+        index = new RolePermissionIndex(role.getRoleType(), roleService.findAllPermissionsBy(role.getId()),
+                annotationRoleBasedApisMap.get(role.getRoleType()), apiNames);
+        rolePermissionIndexes.put(role.getId(), index);
+        if (rolePermissionIndexesVersion.get() != version) {
+            // the permissions changed while they were compiled, they may be stale
+            rolePermissionIndexes.remove(role.getId(), index);
+        }
+        return index;
+    }
+
+    protected int getRolePermissionsCacheTtl() {
+        return RolePermissionsCacheTtl.value();
+    }
+
+    /**
+     * Drops the compiled permissions of the role, or of all roles if roleId is null.
+     */
+    public void invalidateRolePermissions(final Long roleId) {
+        rolePermissionIndexesVersion.incrementAndGet();
+        if (roleId == null) {
+            rolePermissionIndexes.clear();
+        } else {
+            rolePermissionIndexes.remove(roleId);
+        }
+    }
+
     public void addApiToRoleBasedAnnotationsMap(final RoleType roleType, final String commandName) {
         if (roleType == null || Strings.isNullOrEmpty(commandName)) {
             return;
@@ -113,12 +186,22 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         final Set<String> commands = annotationRoleBasedApisMap.get(roleType);
         if (commands != null && !commands.contains(commandName)) {
             commands.add(commandName);
+            apiNames.add(commandName);
+            invalidateRolePermissions(null);
         }
     }
 
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         super.configure(name, params);
+        if (messageBus != null) {
+            messageBus.subscribe(RolePermissionsChangedCommand.TOPIC, new MessageSubscriber() {
+                @Override
+                public void onPublishMessage(String senderAddress, String subject, Object args) {
+                    invalidateRolePermissions((Long)args);
+                }
+            });
+        }
         return true;
     }
 
@@ -127,6 +210,7 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         for (PluggableService service : services) {
             for (Class<?> clz : service.getCommands()) {
                 APICommand command = clz.getAnnotation(APICommand.class);
+                apiNames.add(command.name());
                 for (RoleType role : command.authorized()) {
                     addApiToRoleBasedAnnotationsMap(role, command.name());
                 }
@@ -135,6 +219,16 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         return super.start();
     }
 
+    @Override
+    public String getConfigComponentName() {
+        return DynamicRoleBasedAPIAccessChecker.class.getSimpleName();
+    }
+
+    @Override
+    public ConfigKey<?>[] getConfigKeys() {
+        return new ConfigKey<?>[] {RolePermissionsCacheTtl};
+    }
+
     public List<PluggableService> getServices() {
         return services;
     }
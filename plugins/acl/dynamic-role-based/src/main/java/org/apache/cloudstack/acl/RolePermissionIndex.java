@@ -0,0 +1,164 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.acl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cloudstack.acl.RolePermissionEntity.Permission;
+
+/**
+ * The permission rules of a role compiled into a trie over the lower case rule characters, a
+ * wildcard being a child of its own. The first rule, in the role's order, matching an API name
+ * decides whether the role may call it; when none matches the API annotations do.
+ * <p>
+ * The decisions for the APIs known when the index is built are computed upfront, any other name
+ * is matched against the trie. Neither allocates.
+ */
+final class RolePermissionIndex {
+    private static final int NO_RULE = Integer.MAX_VALUE;
+
+    private final RoleType roleType;
+    private final Node root = new Node();
+    private final Permission[] rulePermissions;
+    private final Set<String> annotatedApis;
+    private final Map<String, Permission> decisions = new HashMap<String, Permission>();
+    private final long createdMillis = System.currentTimeMillis();
+
+    RolePermissionIndex(final RoleType roleType, final List<RolePermission> permissions, final Set<String> annotatedApis, final Collection<String> apiNames) {
+        this.roleType = roleType;
+        this.annotatedApis = annotatedApis;
+        rulePermissions = new Permission[permissions.size()];
+        for (int i = 0; i < rulePermissions.length; i++) {
+            final RolePermission permission = permissions.get(i);
+            rulePermissions[i] = permission.getPermission();
+            add(permission.getRule().getRuleString(), i);
+        }
+        for (final String apiName : apiNames) {
+            decisions.put(apiName, evaluate(apiName));
+        }
+    }
+
+    RoleType getRoleType() {
+        return roleType;
+    }
+
+    long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * @return ALLOW or DENY as decided by the rules or the annotations, or null if the API is not available to the role
+     */
+    Permission getPermission(final String apiName) {
+        final Permission permission = decisions.get(apiName);
+        if (permission != null || decisions.containsKey(apiName)) {
+            return permission;
+        }
+        return evaluate(apiName);
+    }
+
+    private Permission evaluate(final String apiName) {
+        if (apiName == null || apiName.isEmpty()) {
+            return null;
+        }
+        final int rule = match(root, apiName, 0);
+        if (rule != NO_RULE) {
+            return rulePermissions[rule];
+        }
+        return annotatedApis != null && annotatedApis.contains(apiName) ? Permission.ALLOW : null;
+    }
+
+    private void add(final String rule, final int index) {
+        Node node = root;
+        for (int i = 0; i < rule.length(); i++) {
+            final char c = rule.charAt(i);
+            node = c == '*' ? node.wildcard() : node.child(Character.toLowerCase(c), true);
+        }
+        // a rule repeated later in the order never decides
+        node.rule = Math.min(node.rule, index);
+    }
+
+    /**
+     * @return the lowest index of the rules under node matching name from pos on
+     */
+    private static int match(final Node node, final String name, final int pos) {
+        int best = NO_RULE;
+        if (pos == name.length()) {
+            best = node.rule;
+        } else {
+            final Node child = node.child(Character.toLowerCase(name.charAt(pos)), false);
+            if (child != null) {
+                best = match(child, name, pos + 1);
+            }
+        }
+        if (node.wildcard != null) {
+            // the wildcard stands for any, possibly empty, run of word characters
+            for (int end = pos; best > 0; end++) {
+                best = Math.min(best, match(node.wildcard, name, end));
+                if (end == name.length() || !isWordChar(name.charAt(end))) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean isWordChar(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private Node wildcard;
+        private int rule = NO_RULE;
+
+        Node child(final char key, final boolean create) {
+            final int i = Arrays.binarySearch(keys, key);
+            if (i >= 0) {
+                return children[i];
+            }
+            if (!create) {
+                return null;
+            }
+            final int at = -i - 1;
+            final char[] newKeys = new char[keys.length + 1];
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newKeys[at] = key;
+            newChildren[at] = new Node();
+            System.arraycopy(keys, at, newKeys, at + 1, keys.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[at];
+        }
+
+        Node wildcard() {
+            if (wildcard == null) {
+                wildcard = new Node();
+            }
+            return wildcard;
+        }
+    }
+}
@@ -17,7 +17,9 @@
 package org.apache.cloudstack.acl;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -158,6 +160,77 @@ public class DynamicRoleBasedAPIAccessCheckerTest extends TestCase {
         }
     }
 
+    @Test
+    public void testRolePermissionOrderCheckAccess() {
+        final List<RolePermission> permissions = Arrays.<RolePermission>asList(
+                new RolePermissionVO(1L, "listVirtualMachines", Permission.DENY, null),
+                new RolePermissionVO(1L, "list*", Permission.ALLOW, null));
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(permissions);
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), "listVolumes"));
+        try {
+            apiAccessChecker.checkAccess(getTestUser(), "listVirtualMachines");
+            fail("Exception was expected");
+        } catch (PermissionDeniedException ignored) {
+        }
+    }
+
+    @Test
+    public void testRolePermissionsInvalidationCheckAccess() {
+        final String apiName = "someApi";
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(
+                Collections.<RolePermission>singletonList(new RolePermissionVO(1L, apiName, Permission.ALLOW, null)));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), apiName));
+
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(
+                Collections.<RolePermission>singletonList(new RolePermissionVO(1L, apiName, Permission.DENY, null)));
+        apiAccessChecker.invalidateRolePermissions(getTestRole().getId());
+        try {
+            apiAccessChecker.checkAccess(getTestUser(), apiName);
+            fail("Exception was expected");
+        } catch (PermissionDeniedException ignored) {
+        }
+    }
+
+    @Test
+    public void testRolePermissionsCachedWithinTtl() {
+        final String apiName = "someApi";
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(
+                Collections.<RolePermission>singletonList(new RolePermissionVO(1L, apiName, Permission.ALLOW, null)));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), apiName));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), apiName));
+        Mockito.verify(roleService, Mockito.times(1)).findAllPermissionsBy(getTestRole().getId());
+    }
+
+    @Test
+    public void testRolePermissionsReloadedAfterTtl() {
+        final String apiName = "someApi";
+        Mockito.doReturn(0).when(apiAccessChecker).getRolePermissionsCacheTtl();
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(
+                Collections.<RolePermission>singletonList(new RolePermissionVO(1L, apiName, Permission.ALLOW, null)));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), apiName));
+
+        // no invalidation arrives, e.g. the cluster notification was lost
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(
+                Collections.<RolePermission>singletonList(new RolePermissionVO(1L, apiName, Permission.DENY, null)));
+        try {
+            apiAccessChecker.checkAccess(getTestUser(), apiName);
+            fail("Exception was expected");
+        } catch (PermissionDeniedException ignored) {
+        }
+    }
+
+    @Test
+    public void testGetApisAllowedToUser() {
+        Mockito.doCallRealMethod().when(apiAccessChecker).getApisAllowedToUser(Mockito.any(User.class), Mockito.anyList());
+        final List<RolePermission> permissions = Arrays.<RolePermission>asList(
+                new RolePermissionVO(1L, "*Deny*", Permission.DENY, null),
+                new RolePermissionVO(1L, "some*", Permission.ALLOW, null));
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(permissions);
+        apiAccessChecker.addApiToRoleBasedAnnotationsMap(getTestRole().getRoleType(), "annotatedApi");
+        assertEquals(Arrays.asList("someAllowedApi", "annotatedApi"), apiAccessChecker.getApisAllowedToUser(getTestUser(),
+                Arrays.asList("someAllowedApi", "someDenyApi", "annotatedApi", "otherApi")));
+    }
+
     @Test
     public void testAnnotationFallbackCheckAccess() {
         final String allowedApiName = "someApiWithAnnotations";
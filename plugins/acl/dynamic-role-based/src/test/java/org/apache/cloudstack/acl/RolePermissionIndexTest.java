@@ -0,0 +1,83 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.acl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.cloudstack.acl.RolePermissionEntity.Permission;
+
+public class RolePermissionIndexTest {
+
+    private static final List<String> API_NAMES = Arrays.asList("listVirtualMachines", "listVolumes", "deployVirtualMachine",
+            "destroyVirtualMachine", "listVMSnapshot", "createVMSnapshot", "abc", "aXbYc", "ac", "ab", "listApis", "getVMPassword");
+
+    private static RolePermission permission(String rule, Permission permission) {
+        return new RolePermissionVO(1L, rule, permission, null);
+    }
+
+    @Test
+    public void testMatchesLikeRules() {
+        List<RolePermission> permissions = Arrays.asList(permission("*VM*", Permission.DENY), permission("list*", Permission.ALLOW),
+                permission("a*b*c", Permission.ALLOW), permission("DEPLOYVirtualMachine", Permission.ALLOW), permission("*Machine", Permission.DENY),
+                permission("get**", Permission.ALLOW));
+        RolePermissionIndex index = new RolePermissionIndex(RoleType.User, permissions, Collections.<String>emptySet(), Collections.<String>emptyList());
+
+        for (String apiName : API_NAMES) {
+            Permission expected = null;
+            for (RolePermission permission : permissions) {
+                if (permission.getRule().matches(apiName)) {
+                    expected = permission.getPermission();
+                    break;
+                }
+            }
+            Assert.assertEquals(apiName, expected, index.getPermission(apiName));
+        }
+    }
+
+    @Test
+    public void testPrecomputedDecisions() {
+        List<RolePermission> permissions = Arrays.asList(permission("list*", Permission.ALLOW), permission("*", Permission.DENY));
+        RolePermissionIndex index = new RolePermissionIndex(RoleType.User, permissions, Collections.<String>emptySet(), API_NAMES);
+        List<String> allowed = new ArrayList<String>();
+        for (String apiName : API_NAMES) {
+            if (index.getPermission(apiName) == Permission.ALLOW) {
+                allowed.add(apiName);
+            }
+        }
+        Assert.assertEquals(Arrays.asList("listVirtualMachines", "listVolumes", "listVMSnapshot", "listApis"), allowed);
+        Assert.assertEquals(Permission.DENY, index.getPermission("unknownApi"));
+        Assert.assertNull(index.getPermission(""));
+    }
+
+    @Test
+    public void testAnnotationFallback() {
+        List<RolePermission> permissions = Collections.singletonList(permission("deployVirtualMachine", Permission.DENY));
+        RolePermissionIndex index = new RolePermissionIndex(RoleType.User, permissions,
+                new HashSet<String>(Arrays.asList("deployVirtualMachine", "listVolumes")), API_NAMES);
+        Assert.assertEquals(Permission.DENY, index.getPermission("deployVirtualMachine"));
+        Assert.assertEquals(Permission.ALLOW, index.getPermission("listVolumes"));
+        Assert.assertNull(index.getPermission("listApis"));
+        Assert.assertNull(index.getPermission("unknownApi"));
+    }
+}
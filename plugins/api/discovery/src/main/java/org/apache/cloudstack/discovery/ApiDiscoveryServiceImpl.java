@@ -232,17 +232,17 @@ public class ApiDiscoveryServiceImpl extends ComponentLifecycleBase implements A
             responseList.add(s_apiNameDiscoveryResponseMap.get(name));
 
         } else {
-            for (String apiName : s_apiNameDiscoveryResponseMap.keySet()) {
-                boolean isAllowed = true;
-                for (APIChecker apiChecker : _apiAccessCheckers) {
-                    try {
-                        apiChecker.checkAccess(user, apiName);
-                    } catch (Exception ex) {
-                        isAllowed = false;
-                    }
+            List<String> apiNames = new ArrayList<String>(s_apiNameDiscoveryResponseMap.keySet());
+            for (APIChecker apiChecker : _apiAccessCheckers) {
+                try {
+                    apiNames = apiChecker.getApisAllowedToUser(user, apiNames);
+                } catch (Exception ex) {
+                    s_logger.debug("API discovery access check failed for " + user + " with " + ex.getMessage());
+                    apiNames = new ArrayList<String>();
                 }
-                if (isAllowed)
-                    responseList.add(s_apiNameDiscoveryResponseMap.get(apiName));
+            }
+            for (String apiName : apiNames) {
+                responseList.add(s_apiNameDiscoveryResponseMap.get(apiName));
             }
         }
         response.setResponses(responseList);
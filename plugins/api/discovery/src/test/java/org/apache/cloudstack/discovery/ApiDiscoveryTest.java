@@ -43,6 +43,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -76,6 +77,7 @@ public class ApiDiscoveryTest {
         s_discoveryService._services = mock(List.class);
 
         when(s_apiChecker.checkAccess(any(User.class), anyString())).thenReturn(true);
+        when(s_apiChecker.getApisAllowedToUser(any(User.class), anyList())).thenAnswer(invocation -> invocation.getArgument(1));
         when(s_pluggableService.getCommands()).thenReturn(new ArrayList<Class<?>>());
         when(s_discoveryService._apiAccessCheckers.iterator()).thenReturn(Arrays.asList(s_apiChecker).iterator());
         when(s_discoveryService._services.iterator()).thenReturn(Arrays.asList(s_pluggableService).iterator());
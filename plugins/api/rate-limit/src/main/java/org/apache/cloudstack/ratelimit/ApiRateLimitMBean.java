@@ -16,17 +16,16 @@
 // under the License.
 package org.apache.cloudstack.ratelimit;
 
-/**
- * Interface for each entry in LimitStore.
- *
- */
-public interface StoreEntry {
+public interface ApiRateLimitMBean {
+    long getAcceptedRequests();
 
-    int getCounter();
+    long getThrottledRequests();
 
-    int incrementAndGet();
+    int getTrackedAccounts();
 
-    boolean isExpired();
+    long getClusterReportsSent();
 
-    long getExpireDuration(); /* seconds to reset counter */
+    long getClusterReportsReceived();
+
+    void resetStats();
 }
@@ -0,0 +1,85 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+public class ApiRateLimitMBeanImpl extends StandardMBean implements ApiRateLimitMBean {
+    private final SlidingWindowLimiter _limiter;
+
+    private final AtomicLong _accepted = new AtomicLong();
+    private final AtomicLong _throttled = new AtomicLong();
+    private final AtomicLong _reportsSent = new AtomicLong();
+    private final AtomicLong _reportsReceived = new AtomicLong();
+
+    public ApiRateLimitMBeanImpl(SlidingWindowLimiter limiter) {
+        super(ApiRateLimitMBean.class, false);
+
+        _limiter = limiter;
+    }
+
+    public void recordAccepted() {
+        _accepted.incrementAndGet();
+    }
+
+    public void recordThrottled() {
+        _throttled.incrementAndGet();
+    }
+
+    public void recordReportSent() {
+        _reportsSent.incrementAndGet();
+    }
+
+    public void recordReportReceived() {
+        _reportsReceived.incrementAndGet();
+    }
+
+    @Override
+    public long getAcceptedRequests() {
+        return _accepted.get();
+    }
+
+    @Override
+    public long getThrottledRequests() {
+        return _throttled.get();
+    }
+
+    @Override
+    public int getTrackedAccounts() {
+        return _limiter.size();
+    }
+
+    @Override
+    public long getClusterReportsSent() {
+        return _reportsSent.get();
+    }
+
+    @Override
+    public long getClusterReportsReceived() {
+        return _reportsReceived.get();
+    }
+
+    @Override
+    public void resetStats() {
+        _accepted.set(0);
+        _throttled.set(0);
+        _reportsSent.set(0);
+        _reportsReceived.set(0);
+    }
+}
@@ -17,15 +17,17 @@
 package org.apache.cloudstack.ratelimit;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
@@ -33,27 +35,51 @@ import org.apache.cloudstack.acl.APIChecker;
 import org.apache.cloudstack.api.command.admin.ratelimit.ResetApiLimitCmd;
 import org.apache.cloudstack.api.command.user.ratelimit.GetApiLimitCmd;
 import org.apache.cloudstack.api.response.ApiLimitResponse;
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.ReportApiLimitUsageCommand;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.exception.RequestLimitException;
+import com.cloud.serializer.GsonHelper;
 import com.cloud.user.Account;
 import com.cloud.user.AccountService;
 import com.cloud.user.User;
 import com.cloud.utils.component.AdapterBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.mgmt.JmxUtil;
 
 @Component
-public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker, ApiRateLimitService {
+public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker, ApiRateLimitService, Configurable {
     private static final Logger s_logger = Logger.getLogger(ApiRateLimitServiceImpl.class);
 
+    static final ConfigKey<Integer> ApiLimitListWeight = new ConfigKey<Integer>("Advanced", Integer.class, "api.throttling.list.weight", "1",
+            "Number of requests a list API call counts for in the api throttling limit, unless api.throttling.weights says otherwise", true);
+
+    static final ConfigKey<String> ApiLimitWeights = new ConfigKey<String>("Advanced", String.class, "api.throttling.weights", "",
+            "Comma separated list of api:weight pairs, the number of requests a call of these APIs counts for in the api throttling limit, "
+            + "e.g. listVirtualMachines:5,listEvents:3", true);
+
+    static final ConfigKey<Integer> ApiLimitClusterSyncInterval = new ConfigKey<Integer>("Advanced", Integer.class, "api.throttling.cluster.sync.interval", "0",
+            "Interval in seconds at which management servers exchange the api usage of the accounts, so that the api throttling limit "
+            + "applies to the whole cluster instead of each management server. 0 disables it", false);
+
+    private static final int IDLE_SCAN_INTERVAL = 60;
+
     /**
      * True if api rate limiting is enabled
      */
     private boolean enabled = false;
 
     /**
-     * Fixed time duration where api rate limit is set, in seconds
+     * Sliding time duration where api rate limit is set, in seconds
      */
     private int timeToLive = 1;
 
@@ -62,7 +88,18 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
      */
     private int maxAllowed = 30;
 
-    private LimitStore _store = null;
+    /**
+     * Number of tracked accounts above which a warning is logged. Idle accounts are only dropped by the periodic
+     * task, so that requests never scan the whole map.
+     */
+    private int maxElements = 10000;
+
+    private SlidingWindowLimiter _limiter = null;
+    private ApiRateLimitMBeanImpl _stats;
+    private ScheduledExecutorService _executor;
+
+    private String _weightsValue;
+    private Map<String, Integer> _weights = Collections.emptyMap();
 
     @Inject
     AccountService _accountService;
@@ -70,11 +107,17 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
     @Inject
     ConfigurationDao _configDao;
 
+    @Inject
+    ClusterManager _clusterMgr;
+
+    @Inject
+    MessageBus _messageBus;
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         super.configure(name, params);
 
-        if (_store == null) {
+        if (_limiter == null) {
             // get global configured duration and max values
             String isEnabled = _configDao.getValue(Config.ApiLimitEnabled.key());
             if (isEnabled != null) {
@@ -88,22 +131,52 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
             if (maxReqs != null) {
                 maxAllowed = Integer.parseInt(maxReqs);
             }
-            // create limit store
-            EhcacheLimitStore cacheStore = new EhcacheLimitStore();
-            int maxElements = 10000;
             String cachesize = _configDao.getValue(Config.ApiLimitCacheSize.key());
             if (cachesize != null) {
                 maxElements = Integer.parseInt(cachesize);
             }
-            CacheManager cm = CacheManager.create();
-            Cache cache = new Cache("api-limit-cache", maxElements, false, false, timeToLive, timeToLive);
-            cm.addCache(cache);
-            s_logger.info("Limit Cache created with timeToLive=" + timeToLive + ", maxAllowed=" + maxAllowed + ", maxElements=" + maxElements);
-            cacheStore.setCache(cache);
-            _store = cacheStore;
+            _limiter = new SlidingWindowLimiter(timeToLive);
+            _stats = new ApiRateLimitMBeanImpl(_limiter);
+            s_logger.info("Limit windows created with timeToLive=" + timeToLive + ", maxAllowed=" + maxAllowed + ", maxElements=" + maxElements);
+
+            if (_messageBus != null) {
+                _messageBus.subscribe(ReportApiLimitUsageCommand.TOPIC, new MessageSubscriber() {
+                    @Override
+                    public void onPublishMessage(String senderAddress, String subject, Object args) {
+                        onUsageReport((ReportApiLimitUsageCommand)args);
+                    }
+                });
+            }
+        }
+
+        return true;
+    }
 
+    @Override
+    public boolean start() {
+        try {
+            JmxUtil.registerMBean("ApiRateLimit", "Statistics", _stats);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register api rate limit statistics to JMX monitoring", e);
         }
 
+        int syncInterval = ApiLimitClusterSyncInterval.value();
+        int interval = syncInterval > 0 && _clusterMgr != null ? syncInterval : IDLE_SCAN_INTERVAL;
+        _executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ApiRateLimit-Sync"));
+        _executor.scheduleAtFixedRate(new SyncTask(syncInterval > 0 && _clusterMgr != null), interval, interval, TimeUnit.SECONDS);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        try {
+            JmxUtil.unregisterMBean("ApiRateLimit", "Statistics");
+        } catch (Exception e) {
+            s_logger.debug("Unable to unregister api rate limit statistics", e);
+        }
         return true;
     }
 
@@ -112,18 +185,17 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
         ApiLimitResponse response = new ApiLimitResponse();
         response.setAccountId(caller.getUuid());
         response.setAccountName(caller.getAccountName());
-        StoreEntry entry = _store.get(caller.getId());
-        if (entry == null) {
-
-            /* Populate the entry, thus unlocking any underlying mutex */
-            entry = _store.create(caller.getId(), timeToLive);
+        long now = System.currentTimeMillis();
+        int issued = _limiter.getUsage(caller.getId(), now);
+        long expireAfter = _limiter.getExpireAfter(caller.getId(), now);
+        if (expireAfter < 0) {
             response.setApiIssued(0);
             response.setApiAllowed(maxAllowed);
             response.setExpireAfter(timeToLive);
         } else {
-            response.setApiIssued(entry.getCounter());
-            response.setApiAllowed(maxAllowed - entry.getCounter());
-            response.setExpireAfter(entry.getExpireDuration());
+            response.setApiIssued(issued);
+            response.setApiAllowed(maxAllowed - issued);
+            response.setExpireAfter(expireAfter);
         }
 
         return response;
@@ -132,9 +204,9 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
     @Override
     public boolean resetApiLimit(Long accountId) {
         if (accountId != null) {
-            _store.create(accountId, timeToLive);
+            _limiter.reset(accountId);
         } else {
-            _store.resetCounters();
+            _limiter.resetAll();
         }
         return true;
     }
@@ -151,22 +223,20 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
             // no API throttling on root admin
             return true;
         }
-        StoreEntry entry = _store.get(accountId);
 
-        if (entry == null) {
+        long now = System.currentTimeMillis();
 
-            /* Populate the entry, thus unlocking any underlying mutex */
-            entry = _store.create(accountId, timeToLive);
-        }
-
-        /* Increment the client count and see whether we have hit the maximum allowed clients yet. */
-        int current = entry.incrementAndGet();
-
-        if (current <= maxAllowed) {
-            s_logger.trace("account (" + account.getAccountId() + "," + account.getAccountName() + ") has current count = " + current);
+        // a call weighing more than the limit is still allowed alone
+        int cost = Math.min(getWeight(apiCommandName), maxAllowed);
+        if (_limiter.tryAcquire(accountId, cost, maxAllowed, now)) {
+            _stats.recordAccepted();
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("account (" + account.getAccountId() + "," + account.getAccountName() + ") has current count = " + _limiter.getUsage(accountId, now));
+            }
             return true;
         } else {
-            long expireAfter = entry.getExpireDuration();
+            _stats.recordThrottled();
+            long expireAfter = Math.max(0, _limiter.getExpireAfter(accountId, now));
             // for this exception, we can just show the same message to user and admin users.
             String msg = "The given user has reached his/her account api limit, please retry after " + expireAfter + " ms.";
             s_logger.warn(msg);
@@ -174,6 +244,115 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
         }
     }
 
+    @Override
+    public List<String> getApisAllowedToUser(User user, List<String> apiNames) {
+        // listing the APIs does not spend the budget of each of them
+        return apiNames;
+    }
+
+    private int getWeight(String apiCommandName) {
+        if (apiCommandName == null) {
+            return 1;
+        }
+
+        String weightsValue = ApiLimitWeights.value();
+        if (weightsValue != null && !weightsValue.equals(_weightsValue)) {
+            _weights = parseWeights(weightsValue);
+            _weightsValue = weightsValue;
+        }
+
+        Integer weight = _weights.get(apiCommandName);
+        if (weight == null && apiCommandName.startsWith("list")) {
+            weight = ApiLimitListWeight.value();
+        }
+        return weight != null && weight > 0 ? weight : 1;
+    }
+
+    static Map<String, Integer> parseWeights(String value) {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        for (String pair : value.split(",")) {
+            String[] apiAndWeight = pair.trim().split(":");
+            if (apiAndWeight.length != 2) {
+                continue;
+            }
+            try {
+                weights.put(apiAndWeight[0].trim(), Integer.parseInt(apiAndWeight[1].trim()));
+            } catch (NumberFormatException e) {
+                s_logger.warn("Ignoring invalid api throttling weight " + pair);
+            }
+        }
+        return weights;
+    }
+
+    void onUsageReport(ReportApiLimitUsageCommand report) {
+        if (_clusterMgr != null && report.getMsId() == _clusterMgr.getManagementNodeId()) {
+            return;
+        }
+        _stats.recordReportReceived();
+
+        // the reported usage is the peer's whole window, so it only stands until the next report replaces it,
+        // a bucket later at most to absorb scheduling delays. Counting it for a whole window would count
+        // the same requests again after they left the peer's window.
+        long expiresAt = System.currentTimeMillis() + getRemoteUsageTtl(ApiLimitClusterSyncInterval.value());
+        long[] accountIds = report.getAccountIds();
+        int[] usage = report.getUsage();
+        for (int i = 0; i < accountIds.length; i++) {
+            _limiter.setRemoteUsage(accountIds[i], report.getMsId(), usage[i], expiresAt);
+        }
+    }
+
+    long getRemoteUsageTtl(int syncIntervalSeconds) {
+        long windowMillis = _limiter.getWindowMillis();
+        long syncMillis = syncIntervalSeconds * 1000L;
+        if (syncMillis <= 0) {
+            return windowMillis;
+        }
+        return Math.min(windowMillis, syncMillis + windowMillis / SlidingWindowLimiter.BUCKETS);
+    }
+
+    private void reportUsage() {
+        List<Long> accountIds = new ArrayList<Long>();
+        List<Integer> usage = new ArrayList<Integer>();
+        _limiter.collectUsage(accountIds, usage, System.currentTimeMillis());
+        if (accountIds.isEmpty()) {
+            return;
+        }
+
+        long[] ids = new long[accountIds.size()];
+        int[] counts = new int[usage.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = accountIds.get(i);
+            counts[i] = usage.get(i);
+        }
+        Command[] cmds = new Command[] {new ReportApiLimitUsageCommand(_clusterMgr.getManagementNodeId(), ids, counts)};
+        _clusterMgr.broadcast(0, GsonHelper.getGson().toJson(cmds));
+        _stats.recordReportSent();
+    }
+
+    private class SyncTask extends ManagedContextRunnable {
+        private final boolean _reportUsage;
+
+        public SyncTask(boolean reportUsage) {
+            _reportUsage = reportUsage;
+        }
+
+        @Override
+        protected void runInContext() {
+            try {
+                if (_reportUsage) {
+                    reportUsage();
+                }
+                _limiter.removeIdle(System.currentTimeMillis());
+                int tracked = _limiter.size();
+                if (tracked >= maxElements) {
+                    s_logger.warn("Api throttling tracks " + tracked + " active accounts, more than " + Config.ApiLimitCacheSize.key() + "=" + maxElements);
+                }
+            } catch (Exception e) {
+                s_logger.warn("Unable to synchronize api limit usage", e);
+            }
+        }
+    }
+
     @Override
     public List<Class<?>> getCommands() {
         List<Class<?>> cmdList = new ArrayList<Class<?>>();
@@ -185,6 +364,9 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
     @Override
     public void setTimeToLive(int timeToLive) {
         this.timeToLive = timeToLive;
+        if (_limiter != null) {
+            _limiter.setWindow(timeToLive);
+        }
     }
 
     @Override
@@ -199,4 +381,13 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
 
     }
 
+    @Override
+    public String getConfigComponentName() {
+        return ApiRateLimitServiceImpl.class.getSimpleName();
+    }
+
+    @Override
+    public ConfigKey<?>[] getConfigKeys() {
+        return new ConfigKey<?>[] {ApiLimitListWeight, ApiLimitWeights, ApiLimitClusterSyncInterval};
+    }
 }
@@ -0,0 +1,252 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cloud.utils.concurrency.StripedLongMap;
+
+/**
+ * Sliding windows of the API usage of each account. A window is split in buckets and a request is
+ * forgotten once the bucket it was counted in is a whole window old, so there is no burst at the
+ * boundary of fixed intervals.
+ *
+ * Windows are kept in a StripedLongMap and only used under the lock of their stripe, so a request
+ * neither allocates nor contends with the requests of accounts in other stripes.
+ */
+public class SlidingWindowLimiter {
+    static final int BUCKETS = 10;
+
+    private static final long[] NO_PEERS = new long[0];
+
+    private final StripedLongMap<Window> _windows = new StripedLongMap<Window>();
+    private volatile long _bucketMillis;
+
+    public SlidingWindowLimiter(int windowSeconds) {
+        setWindow(windowSeconds);
+    }
+
+    /**
+     * Changes the length of the window, which forgets the usage counted so far.
+     */
+    public void setWindow(int windowSeconds) {
+        long bucketMillis = Math.max(1, windowSeconds * 1000L / BUCKETS);
+        if (bucketMillis != _bucketMillis) {
+            _bucketMillis = bucketMillis;
+            _windows.clear();
+        }
+    }
+
+    public long getWindowMillis() {
+        return _bucketMillis * BUCKETS;
+    }
+
+    /**
+     * Counts the cost of a request of the account if its usage, including the one reported by
+     * other management servers, stays within max.
+     *
+     * @return true if the request is accepted
+     */
+    public boolean tryAcquire(long accountId, int cost, int max, long now) {
+        synchronized (_windows.lockFor(accountId)) {
+            Window window = _windows.get(accountId);
+            if (window == null) {
+                window = new Window();
+                _windows.put(accountId, window);
+            }
+            window.advance(now / _bucketMillis);
+            if (window.total + window.remoteUsage(now) + cost > max) {
+                return false;
+            }
+            window.add(cost);
+            return true;
+        }
+    }
+
+    /**
+     * @return the usage of the account in the current window, including the one reported by other management servers
+     */
+    public int getUsage(long accountId, long now) {
+        synchronized (_windows.lockFor(accountId)) {
+            Window window = _windows.get(accountId);
+            if (window == null) {
+                return 0;
+            }
+            window.advance(now / _bucketMillis);
+            return window.total + window.remoteUsage(now);
+        }
+    }
+
+    /**
+     * @return milliseconds until the oldest request counted in the window of the account is forgotten, or -1 if there is none
+     */
+    public long getExpireAfter(long accountId, long now) {
+        synchronized (_windows.lockFor(accountId)) {
+            Window window = _windows.get(accountId);
+            if (window == null) {
+                return -1;
+            }
+            window.advance(now / _bucketMillis);
+            for (long bucket = window.newest - BUCKETS + 1; bucket <= window.newest; bucket++) {
+                if (window.buckets[(int)(bucket % BUCKETS)] > 0) {
+                    return (bucket + BUCKETS) * _bucketMillis - now;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Records the usage another management server reported for the account, it is counted until expiresAt.
+     */
+    public void setRemoteUsage(long accountId, long msId, int usage, long expiresAt) {
+        synchronized (_windows.lockFor(accountId)) {
+            Window window = _windows.get(accountId);
+            if (window == null) {
+                if (usage == 0) {
+                    return;
+                }
+                window = new Window();
+                _windows.put(accountId, window);
+            }
+            window.setRemoteUsage(msId, usage, expiresAt);
+        }
+    }
+
+    /**
+     * Collects the local usage of the accounts that used the API in the current window.
+     *
+     * @param accountIds receives the account ids
+     * @param usage receives the usage of each of these accounts
+     */
+    public void collectUsage(final List<Long> accountIds, final List<Integer> usage, final long now) {
+        for (long accountId : getAccountIds()) {
+            synchronized (_windows.lockFor(accountId)) {
+                Window window = _windows.get(accountId);
+                if (window != null) {
+                    window.advance(now / _bucketMillis);
+                    if (window.total > 0) {
+                        accountIds.add(accountId);
+                        usage.add(window.total);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the windows of the accounts that did not use the API for a whole window. It visits every
+     * account, so it is meant for a periodic task rather than the request path.
+     */
+    public void removeIdle(long now) {
+        for (long accountId : getAccountIds()) {
+            synchronized (_windows.lockFor(accountId)) {
+                Window window = _windows.get(accountId);
+                if (window != null) {
+                    window.advance(now / _bucketMillis);
+                    if (window.total == 0 && window.remoteUsage(now) == 0) {
+                        _windows.remove(accountId);
+                    }
+                }
+            }
+        }
+    }
+
+    public void reset(long accountId) {
+        _windows.remove(accountId);
+    }
+
+    public void resetAll() {
+        _windows.clear();
+    }
+
+    public int size() {
+        return _windows.size();
+    }
+
+    private List<Long> getAccountIds() {
+        final List<Long> accountIds = new ArrayList<Long>(_windows.size());
+        _windows.forEach(new StripedLongMap.Visitor<Window>() {
+            @Override
+            public void visit(long key, Window value) {
+                accountIds.add(key);
+            }
+        });
+        return accountIds;
+    }
+
+    private static final class Window {
+        final int[] buckets = new int[BUCKETS];
+        long newest;
+        int total;
+
+        long[] peers = NO_PEERS;
+        int[] peerUsage;
+        long[] peerExpiresAt;
+
+        void advance(long bucket) {
+            if (bucket <= newest) {
+                return;
+            }
+            if (bucket - newest >= BUCKETS) {
+                Arrays.fill(buckets, 0);
+                total = 0;
+            } else {
+                for (long expired = newest + 1; expired <= bucket; expired++) {
+                    int index = (int)(expired % BUCKETS);
+                    total -= buckets[index];
+                    buckets[index] = 0;
+                }
+            }
+            newest = bucket;
+        }
+
+        void add(int cost) {
+            buckets[(int)(newest % BUCKETS)] += cost;
+            total += cost;
+        }
+
+        int remoteUsage(long now) {
+            int usage = 0;
+            for (int i = 0; i < peers.length; i++) {
+                if (peerExpiresAt[i] > now) {
+                    usage += peerUsage[i];
+                }
+            }
+            return usage;
+        }
+
+        void setRemoteUsage(long msId, int usage, long expiresAt) {
+            for (int i = 0; i < peers.length; i++) {
+                if (peers[i] == msId) {
+                    peerUsage[i] = usage;
+                    peerExpiresAt[i] = expiresAt;
+                    return;
+                }
+            }
+            int count = peers.length;
+            peers = Arrays.copyOf(peers, count + 1);
+            peerUsage = count == 0 ? new int[1] : Arrays.copyOf(peerUsage, count + 1);
+            peerExpiresAt = count == 0 ? new long[1] : Arrays.copyOf(peerExpiresAt, count + 1);
+            peers[count] = msId;
+            peerUsage[count] = usage;
+            peerExpiresAt[count] = expiresAt;
+        }
+    }
+}
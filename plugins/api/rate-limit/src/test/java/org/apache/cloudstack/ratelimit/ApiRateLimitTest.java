@@ -250,4 +250,16 @@ public static void setUp() throws ConfigurationException {
 
     }
 
+    @Test
+    public void remoteUsageStandsUntilNextReport() {
+        s_limitService.setTimeToLive(60);
+        try {
+            assertEquals("without cluster sync a report stands for a window", 60000, s_limitService.getRemoteUsageTtl(0));
+            assertEquals("a report stands until the next one, plus a bucket", 5000 + 6000, s_limitService.getRemoteUsageTtl(5));
+            assertEquals("never longer than the window", 60000, s_limitService.getRemoteUsageTtl(300));
+        } finally {
+            s_limitService.setTimeToLive(1);
+        }
+    }
+
 }
@@ -0,0 +1,95 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SlidingWindowLimiterTest {
+
+    @Test
+    public void testSlidingWindow() {
+        SlidingWindowLimiter limiter = new SlidingWindowLimiter(1);
+        long now = 10000;
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(1L, 1, 10, now + i * 100));
+        }
+        assertTrue(limiter.tryAcquire(1L, 5, 10, now + 500));
+        assertFalse("window is full", limiter.tryAcquire(1L, 1, 10, now + 900));
+        assertEquals(10, limiter.getUsage(1L, now + 900));
+        assertEquals(100, limiter.getExpireAfter(1L, now + 900));
+
+        // only the request of the first bucket slid out of the window
+        assertTrue(limiter.tryAcquire(1L, 1, 10, now + 1000));
+        assertFalse(limiter.tryAcquire(1L, 1, 10, now + 1000));
+        assertEquals(6, limiter.getUsage(1L, now + 1400));
+        assertEquals(1, limiter.getUsage(1L, now + 1500));
+        assertEquals(0, limiter.getUsage(1L, now + 2100));
+        assertEquals(-1, limiter.getExpireAfter(1L, now + 2100));
+    }
+
+    @Test
+    public void testWeights() {
+        SlidingWindowLimiter limiter = new SlidingWindowLimiter(1);
+        assertTrue(limiter.tryAcquire(1L, 5, 10, 0));
+        assertFalse(limiter.tryAcquire(1L, 6, 10, 0));
+        assertTrue(limiter.tryAcquire(1L, 5, 10, 0));
+        assertTrue("accounts have their own window", limiter.tryAcquire(2L, 10, 10, 0));
+    }
+
+    @Test
+    public void testRemoteUsage() {
+        SlidingWindowLimiter limiter = new SlidingWindowLimiter(1);
+        limiter.setRemoteUsage(1L, 2L, 6, 1000);
+        limiter.setRemoteUsage(1L, 3L, 3, 500);
+        assertEquals(9, limiter.getUsage(1L, 0));
+        assertTrue(limiter.tryAcquire(1L, 1, 10, 0));
+        assertFalse(limiter.tryAcquire(1L, 1, 10, 0));
+
+        // the report of 3 expired
+        assertTrue(limiter.tryAcquire(1L, 1, 10, 600));
+        assertEquals(8, limiter.getUsage(1L, 600));
+
+        // a newer report replaces the previous one of the same management server
+        limiter.setRemoteUsage(1L, 2L, 1, 1600);
+        assertEquals(3, limiter.getUsage(1L, 600));
+
+        List<Long> accountIds = new ArrayList<Long>();
+        List<Integer> usage = new ArrayList<Integer>();
+        limiter.collectUsage(accountIds, usage, 600);
+        assertEquals(1, accountIds.size());
+        assertEquals(2, usage.get(0).intValue());
+    }
+
+    @Test
+    public void testRemoveIdle() {
+        SlidingWindowLimiter limiter = new SlidingWindowLimiter(1);
+        limiter.tryAcquire(1L, 1, 10, 0);
+        limiter.tryAcquire(2L, 1, 10, 900);
+        limiter.removeIdle(1500);
+        assertEquals(1, limiter.size());
+        assertEquals(1, limiter.getUsage(2L, 1500));
+        limiter.resetAll();
+        assertEquals(0, limiter.size());
+    }
+}
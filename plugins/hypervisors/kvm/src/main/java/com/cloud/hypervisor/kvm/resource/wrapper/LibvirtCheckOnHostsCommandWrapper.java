@@ -0,0 +1,82 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.hypervisor.kvm.resource.wrapper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.CheckOnHostsAnswer;
+import com.cloud.agent.api.CheckOnHostsCommand;
+import com.cloud.agent.api.to.HostTO;
+import com.cloud.hypervisor.kvm.resource.KVMHABase.NfsStoragePool;
+import com.cloud.hypervisor.kvm.resource.KVMHAChecker;
+import com.cloud.hypervisor.kvm.resource.KVMHAMonitor;
+import com.cloud.hypervisor.kvm.resource.LibvirtComputingResource;
+import com.cloud.resource.CommandWrapper;
+import com.cloud.resource.ResourceWrapper;
+
+@ResourceWrapper(handles =  CheckOnHostsCommand.class)
+public final class LibvirtCheckOnHostsCommandWrapper extends CommandWrapper<CheckOnHostsCommand, Answer, LibvirtComputingResource> {
+    private static final Logger s_logger = Logger.getLogger(LibvirtCheckOnHostsCommandWrapper.class);
+
+    private static final int MAX_CONCURRENT_CHECKS = 8;
+
+    @Override
+    public Answer execute(final CheckOnHostsCommand command, final LibvirtComputingResource libvirtComputingResource) {
+        final List<HostTO> hosts = command.getHosts();
+        if (hosts == null || hosts.isEmpty()) {
+            return new CheckOnHostsAnswer(command, new HashMap<String, Boolean>());
+        }
+        final KVMHAMonitor monitor = libvirtComputingResource.getMonitor();
+        final List<NfsStoragePool> pools = monitor.getStoragePools();
+
+        final ExecutorService executors = Executors.newFixedThreadPool(Math.min(hosts.size(), MAX_CONCURRENT_CHECKS));
+        try {
+            final Map<String, Future<Boolean>> futures = new HashMap<String, Future<Boolean>>();
+            for (final HostTO host : hosts) {
+                futures.put(host.getGuid(), executors.submit(new KVMHAChecker(pools, host.getPrivateNetwork().getIp())));
+            }
+
+            final Map<String, Boolean> heartBeats = new HashMap<String, Boolean>();
+            for (final Map.Entry<String, Future<Boolean>> future : futures.entrySet()) {
+                try {
+                    heartBeats.put(future.getKey(), future.getValue().get());
+                } catch (final InterruptedException e) {
+                    return new CheckOnHostsAnswer(command, "CheckOnHostsCommand: can't get status of hosts: InterruptedException");
+                } catch (final ExecutionException e) {
+                    // Like a single host check, a host whose status can't be determined is not reported as down
+                    s_logger.warn("CheckOnHostsCommand: can't get status of host " + future.getKey(), e);
+                    heartBeats.put(future.getKey(), true);
+                }
+            }
+            return new CheckOnHostsAnswer(command, heartBeats);
+        } finally {
+            executors.shutdownNow();
+        }
+    }
+}
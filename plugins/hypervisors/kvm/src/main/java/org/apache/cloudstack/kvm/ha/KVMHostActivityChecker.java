@@ -20,6 +20,8 @@ package org.apache.cloudstack.kvm.ha;
 import com.cloud.agent.AgentManager;
 import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.CheckOnHostCommand;
+import com.cloud.agent.api.CheckOnHostsAnswer;
+import com.cloud.agent.api.CheckOnHostsCommand;
 import com.cloud.agent.api.CheckVMActivityOnStoragePoolCommand;
 import com.cloud.exception.StorageUnavailableException;
 import com.cloud.host.Host;
@@ -48,6 +50,8 @@ import java.util.ArrayList;
 import org.joda.time.DateTime;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class KVMHostActivityChecker extends AdapterBase implements ActivityCheckerInterface<Host>, HealthCheckerInterface<Host> {
     private final static Logger LOG = Logger.getLogger(KVMHostActivityChecker.class);
@@ -65,6 +69,33 @@ public class KVMHostActivityChecker extends AdapterBase implements ActivityCheck
     @Inject
     private ResourceManager resourceManager;
 
+    private final Map<Long, Object> clusterLocks = new ConcurrentHashMap<Long, Object>();
+    private final Map<Long, NeighbourVerdicts> neighbourVerdicts = new ConcurrentHashMap<Long, NeighbourVerdicts>();
+
+    /**
+     * What the neighbours of a cluster reported about its suspect hosts in one batched check.
+     */
+    private static final class NeighbourVerdicts {
+        private final long checkedAt = System.currentTimeMillis();
+        private final Map<Long, Status> statuses = new HashMap<Long, Status>();
+
+        private boolean covers(long hostId) {
+            return statuses.containsKey(hostId);
+        }
+
+        private Status getStatus(long hostId) {
+            final Status status = statuses.get(hostId);
+            return status == null ? Status.Unknown : status;
+        }
+
+        // One neighbour seeing the heart beat of a host is enough to consider it up
+        private void merge(long hostId, Status status) {
+            if (getStatus(hostId) != Status.Up) {
+                statuses.put(hostId, status);
+            }
+        }
+    }
+
     @Override
     public boolean isActive(Host r, DateTime suspectTime) throws HACheckerException {
         try {
@@ -88,7 +119,6 @@ public class KVMHostActivityChecker extends AdapterBase implements ActivityCheck
             throw new IllegalStateException("Calling KVM investigator for non KVM Host of type " + agent.getHypervisorType());
         }
         Status hostStatus = Status.Unknown;
-        Status neighbourStatus = Status.Unknown;
         final CheckOnHostCommand cmd = new CheckOnHostCommand(agent);
         try {
             Answer answer = agentMgr.easySend(agent.getId(), cmd);
@@ -105,23 +135,79 @@ public class KVMHostActivityChecker extends AdapterBase implements ActivityCheck
             LOG.warn("Failed to send command to host: " + agent.getId());
         }
 
-        List<HostVO> neighbors = resourceManager.listHostsInClusterByStatus(agent.getClusterId(), Status.Up);
-        for (HostVO neighbor : neighbors) {
-            if (neighbor.getId() == agent.getId() || (neighbor.getHypervisorType() != Hypervisor.HypervisorType.KVM && neighbor.getHypervisorType() != Hypervisor.HypervisorType.LXC)) {
+        final Status neighbourStatus = getStatusFromNeighbours(agent);
+        if (neighbourStatus == Status.Up && (hostStatus == Status.Disconnected || hostStatus == Status.Down)) {
+            hostStatus = Status.Disconnected;
+        }
+        if (neighbourStatus == Status.Down && (hostStatus == Status.Disconnected || hostStatus == Status.Down)) {
+            hostStatus = Status.Down;
+        }
+
+        if (LOG.isTraceEnabled()){
+            LOG.trace("Resource state = " + hostStatus.name());
+        }
+        return hostStatus == Status.Up;
+    }
+
+    /**
+     * Asks the neighbours of the host whether it is still heart beating. The other hosts of the cluster that are not up are asked
+     * about in the same round trip, and the verdicts are reused for them until the health check timeout of the cluster elapses,
+     * so investigating the suspect hosts of a cluster costs one command per neighbour instead of one per suspect and neighbour.
+     */
+    private Status getStatusFromNeighbours(Host agent) {
+        final Object clusterLock = clusterLocks.computeIfAbsent(agent.getClusterId(), clusterId -> new Object());
+        synchronized (clusterLock) {
+            NeighbourVerdicts verdicts = neighbourVerdicts.get(agent.getClusterId());
+            final long maxAge = KVMHAConfig.KvmHAHealthCheckTimeout.valueIn(agent.getClusterId()) * 1000L;
+            if (verdicts == null || !verdicts.covers(agent.getId()) || System.currentTimeMillis() - verdicts.checkedAt > maxAge) {
+                verdicts = checkOnHostsViaNeighbours(agent);
+                neighbourVerdicts.put(agent.getClusterId(), verdicts);
+            }
+            return verdicts.getStatus(agent.getId());
+        }
+    }
+
+    private NeighbourVerdicts checkOnHostsViaNeighbours(Host agent) {
+        final List<Host> suspects = new ArrayList<Host>();
+        final List<HostVO> neighbors = new ArrayList<HostVO>();
+        for (HostVO host : resourceManager.listAllHostsInCluster(agent.getClusterId())) {
+            if (host.getHypervisorType() != Hypervisor.HypervisorType.KVM && host.getHypervisorType() != Hypervisor.HypervisorType.LXC) {
                 continue;
             }
-            if (LOG.isTraceEnabled()){
-                LOG.trace("Investigating host:" + agent.getId() + " via neighbouring host:" + neighbor.getId());
+            if (host.getId() == agent.getId() || host.getStatus() != Status.Up) {
+                suspects.add(host);
+            } else {
+                neighbors.add(host);
+            }
+        }
+        if (suspects.stream().noneMatch(host -> host.getId() == agent.getId())) {
+            suspects.add(agent);
+        }
+
+        final NeighbourVerdicts verdicts = new NeighbourVerdicts();
+        final CheckOnHostsCommand cmd = new CheckOnHostsCommand(suspects);
+        for (HostVO neighbor : neighbors) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Investigating " + suspects.size() + " hosts of cluster " + agent.getClusterId() + " via neighbouring host:" + neighbor.getId());
             }
             try {
                 Answer answer = agentMgr.easySend(neighbor.getId(), cmd);
-                if (answer != null) {
-                    neighbourStatus = answer.getResult() ? Status.Down : Status.Up;
-                    if (LOG.isTraceEnabled()){
-                        LOG.trace("Neighbouring host:" + neighbor.getId() + " returned status:" + neighbourStatus + " for the investigated host:" + agent.getId());
+                if (answer instanceof CheckOnHostsAnswer && answer.getResult()) {
+                    for (Host suspect : suspects) {
+                        Boolean heartBeating = ((CheckOnHostsAnswer)answer).isHeartBeating(suspect.getGuid());
+                        if (heartBeating != null) {
+                            verdicts.merge(suspect.getId(), heartBeating ? Status.Up : Status.Down);
+                        }
                     }
-                    if (neighbourStatus == Status.Up) {
-                        break;
+                } else if (answer != null) {
+                    // The neighbour does not know the batched check yet, ask it about each host on its own
+                    for (Host suspect : suspects) {
+                        if (verdicts.getStatus(suspect.getId()) != Status.Up) {
+                            Answer hostAnswer = agentMgr.easySend(neighbor.getId(), new CheckOnHostCommand(suspect));
+                            if (hostAnswer != null) {
+                                verdicts.merge(suspect.getId(), hostAnswer.getResult() ? Status.Down : Status.Up);
+                            }
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -129,18 +215,17 @@ public class KVMHostActivityChecker extends AdapterBase implements ActivityCheck
                     LOG.trace("Failed to send command to host: " + neighbor.getId());
                 }
             }
+            if (suspects.stream().allMatch(suspect -> verdicts.getStatus(suspect.getId()) == Status.Up)) {
+                break;
+            }
         }
-        if (neighbourStatus == Status.Up && (hostStatus == Status.Disconnected || hostStatus == Status.Down)) {
-            hostStatus = Status.Disconnected;
+        for (Host suspect : suspects) {
+            verdicts.statuses.putIfAbsent(suspect.getId(), Status.Unknown);
         }
-        if (neighbourStatus == Status.Down && (hostStatus == Status.Disconnected || hostStatus == Status.Down)) {
-            hostStatus = Status.Down;
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Neighbouring hosts of cluster " + agent.getClusterId() + " returned statuses " + verdicts.statuses);
         }
-
-        if (LOG.isTraceEnabled()){
-            LOG.trace("Resource state = " + hostStatus.name());
-        }
-        return hostStatus == Status.Up;
+        return verdicts;
     }
 
     private boolean isVMActivtyOnHost(Host agent, DateTime suspectTime) throws StorageUnavailableException {
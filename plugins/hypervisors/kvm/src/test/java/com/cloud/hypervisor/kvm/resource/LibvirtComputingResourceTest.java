@@ -21,6 +21,7 @@ package com.cloud.hypervisor.kvm.resource;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.nullable;
@@ -93,6 +94,8 @@ import com.cloud.agent.api.BackupSnapshotCommand;
 import com.cloud.agent.api.CheckHealthCommand;
 import com.cloud.agent.api.CheckNetworkCommand;
 import com.cloud.agent.api.CheckOnHostCommand;
+import com.cloud.agent.api.CheckOnHostsAnswer;
+import com.cloud.agent.api.CheckOnHostsCommand;
 import com.cloud.agent.api.CheckRouterAnswer;
 import com.cloud.agent.api.CheckRouterCommand;
 import com.cloud.agent.api.CheckVirtualMachineCommand;
@@ -2745,6 +2748,33 @@ public class LibvirtComputingResourceTest {
         verify(libvirtComputingResource, times(1)).getMonitor();
     }
 
+    @Test
+    public void testCheckOnHostsCommand() {
+        final com.cloud.host.Host host1 = Mockito.mock(com.cloud.host.Host.class);
+        final com.cloud.host.Host host2 = Mockito.mock(com.cloud.host.Host.class);
+        when(host1.getGuid()).thenReturn("host-1");
+        when(host2.getGuid()).thenReturn("host-2");
+
+        final CheckOnHostsCommand command = new CheckOnHostsCommand(Arrays.asList(host1, host2));
+
+        final KVMHAMonitor monitor = Mockito.mock(KVMHAMonitor.class);
+
+        when(libvirtComputingResource.getMonitor()).thenReturn(monitor);
+
+        final LibvirtRequestWrapper wrapper = LibvirtRequestWrapper.getInstance();
+        assertNotNull(wrapper);
+
+        final Answer answer = wrapper.execute(command, libvirtComputingResource);
+        assertTrue(answer instanceof CheckOnHostsAnswer);
+        assertTrue(answer.getResult());
+        // Without any storage pool to heart beat on, neither host is beating
+        assertFalse(((CheckOnHostsAnswer)answer).isHeartBeating("host-1"));
+        assertFalse(((CheckOnHostsAnswer)answer).isHeartBeating("host-2"));
+        assertNull(((CheckOnHostsAnswer)answer).isHeartBeating("host-3"));
+
+        verify(libvirtComputingResource, times(1)).getMonitor();
+    }
+
     @Test
     public void testOvsCreateTunnelCommand() {
         final String remoteIp = "127.0.0.1";
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cloudstack.kvm.ha;
+
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.agent.AgentManager;
+import com.cloud.agent.api.CheckOnHostsAnswer;
+import com.cloud.agent.api.CheckOnHostsCommand;
+import com.cloud.host.HostVO;
+import com.cloud.host.Status;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.resource.ResourceManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KVMHostActivityCheckerTest {
+
+    @Mock
+    private AgentManager agentMgr;
+    @Mock
+    private ResourceManager resourceManager;
+    @InjectMocks
+    private KVMHostActivityChecker kvmHostActivityChecker;
+
+    private HostVO suspect1;
+    private HostVO suspect2;
+
+    private HostVO mockHost(long id, Status status) {
+        final HostVO host = Mockito.mock(HostVO.class);
+        when(host.getId()).thenReturn(id);
+        when(host.getGuid()).thenReturn("host-" + id);
+        when(host.getStatus()).thenReturn(status);
+        when(host.getHypervisorType()).thenReturn(HypervisorType.KVM);
+        return host;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        suspect1 = mockHost(1L, Status.Disconnected);
+        suspect2 = mockHost(2L, Status.Disconnected);
+        when(suspect1.getClusterId()).thenReturn(10L);
+        when(suspect2.getClusterId()).thenReturn(10L);
+        final HostVO neighbour1 = mockHost(3L, Status.Up);
+        final HostVO neighbour2 = mockHost(4L, Status.Up);
+        when(resourceManager.listAllHostsInCluster(10L)).thenReturn(Arrays.asList(suspect1, suspect2, neighbour1, neighbour2));
+
+        // Both neighbours see neither suspect heart beating
+        when(agentMgr.easySend(any(Long.class), any(CheckOnHostsCommand.class))).thenAnswer(invocation -> {
+            final Map<String, Boolean> heartBeats = new HashMap<>();
+            heartBeats.put("host-1", false);
+            heartBeats.put("host-2", false);
+            return new CheckOnHostsAnswer(invocation.getArgument(1), heartBeats);
+        });
+    }
+
+    @Test
+    public void testSuspectsOfAClusterAreCheckedInOneRoundTripPerNeighbour() {
+        assertFalse(kvmHostActivityChecker.isHealthy(suspect1));
+        assertFalse(kvmHostActivityChecker.isHealthy(suspect2));
+
+        verify(resourceManager, times(1)).listAllHostsInCluster(10L);
+        verify(agentMgr, times(1)).easySend(eq(3L), any(CheckOnHostsCommand.class));
+        verify(agentMgr, times(1)).easySend(eq(4L), any(CheckOnHostsCommand.class));
+    }
+}
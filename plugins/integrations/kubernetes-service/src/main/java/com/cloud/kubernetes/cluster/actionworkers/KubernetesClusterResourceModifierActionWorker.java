@@ -41,7 +41,11 @@ import com.cloud.dc.ClusterDetailsVO;
 import com.cloud.dc.ClusterVO;
 import com.cloud.dc.DataCenter;
 import com.cloud.dc.dao.ClusterDao;
+import com.cloud.deploy.DataCenterDeployment;
 import com.cloud.deploy.DeployDestination;
+import com.cloud.deploy.DeploymentPlanner.ExcludeList;
+import com.cloud.deploy.DeploymentPlanningManager;
+import com.cloud.exception.AffinityConflictException;
 import com.cloud.exception.InsufficientCapacityException;
 import com.cloud.exception.InsufficientServerCapacityException;
 import com.cloud.exception.ManagementServerException;
@@ -84,7 +88,10 @@ import com.cloud.utils.net.Ip;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.UserVmManager;
+import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VirtualMachineProfile;
+import com.cloud.vm.VirtualMachineProfileImpl;
 import com.cloud.vm.dao.VMInstanceDao;
 import com.google.common.base.Strings;
 
@@ -118,6 +125,8 @@ public class KubernetesClusterResourceModifierActionWorker extends KubernetesClu
     protected VMInstanceDao vmInstanceDao;
     @Inject
     protected UserVmManager userVmManager;
+    @Inject
+    protected DeploymentPlanningManager deploymentPlanningManager;
 
     protected String kubernetesClusterNodeNamePrefix;
 
@@ -289,18 +298,63 @@ public class KubernetesClusterResourceModifierActionWorker extends KubernetesClu
         }
     }
 
+    /**
+     * Plans the given node VMs in one batch, against one capacity snapshot and honouring each other's affinity groups, and records
+     * the planned host of each VM as its last host. Starting a VM tries its last host first and goes through the planners when that
+     * host no longer fits it, so the batch plan is a preference, not a constraint.
+     */
+    protected void planKubernetesClusterNodeVms(final List<UserVm> nodeVms) {
+        if (nodeVms.isEmpty()) {
+            return;
+        }
+        ServiceOffering offering = serviceOfferingDao.findById(kubernetesCluster.getServiceOfferingId());
+        List<VMInstanceVO> vms = new ArrayList<>();
+        List<VirtualMachineProfile> profiles = new ArrayList<>();
+        for (UserVm nodeVm : nodeVms) {
+            VMInstanceVO vm = vmInstanceDao.findById(nodeVm.getId());
+            vms.add(vm);
+            profiles.add(new VirtualMachineProfileImpl(vm, clusterTemplate, offering, owner, null));
+        }
+        List<DeployDestination> destinations;
+        try {
+            destinations = deploymentPlanningManager.planDeployments(profiles, new DataCenterDeployment(kubernetesCluster.getZoneId()), new ExcludeList(), null);
+        } catch (InsufficientServerCapacityException | AffinityConflictException e) {
+            LOGGER.warn(String.format("Unable to plan the node VMs of Kubernetes cluster ID: %s together, they will be placed one by one", kubernetesCluster.getUuid()), e);
+            return;
+        }
+        for (int i = 0; i < vms.size(); i++) {
+            DeployDestination dest = destinations.get(i);
+            if (dest == null || dest.getHost() == null) {
+                continue;
+            }
+            VMInstanceVO vm = vms.get(i);
+            vm.setLastHostId(dest.getHost().getId());
+            vmInstanceDao.update(vm.getId(), vm);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("Planned node VM ID: %s of Kubernetes cluster ID: %s on host ID: %s", vm.getUuid(), kubernetesCluster.getUuid(),
+                        dest.getHost().getUuid()));
+            }
+        }
+    }
+
     protected List<UserVm> provisionKubernetesClusterNodeVms(final long nodeCount, final int offset, final String publicIpAddress) throws ManagementServerException,
             ResourceUnavailableException, InsufficientCapacityException {
         List<UserVm> nodes = new ArrayList<>();
         for (int i = offset + 1; i <= nodeCount; i++) {
             UserVm vm = createKubernetesNode(publicIpAddress, i);
             addKubernetesClusterVm(kubernetesCluster.getId(), vm.getId());
+            nodes.add(vm);
+        }
+        // place the new nodes together, then start them one by one
+        planKubernetesClusterNodeVms(nodes);
+        for (int i = 0; i < nodes.size(); i++) {
+            UserVm vm = nodes.get(i);
             startKubernetesVM(vm);
             vm = userVmDao.findById(vm.getId());
             if (vm == null) {
                 throw new ManagementServerException(String.format("Failed to provision worker VM for Kubernetes cluster ID: %s" , kubernetesCluster.getUuid()));
             }
-            nodes.add(vm);
+            nodes.set(i, vm);
             if (LOGGER.isInfoEnabled()) {
                 LOGGER.info(String.format("Provisioned node VM ID: %s in to the Kubernetes cluster ID: %s", vm.getUuid(), kubernetesCluster.getUuid()));
             }
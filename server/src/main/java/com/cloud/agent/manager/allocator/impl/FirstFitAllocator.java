@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -30,6 +31,7 @@ import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import com.cloud.agent.manager.allocator.HostAllocator;
+import com.cloud.capacity.CapacityIndex;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.CapacityVO;
 import com.cloud.capacity.dao.CapacityDao;
@@ -40,7 +42,6 @@ import com.cloud.dc.dao.ClusterDao;
 import com.cloud.deploy.DeploymentPlan;
 import com.cloud.deploy.DeploymentPlanner.ExcludeList;
 import com.cloud.gpu.GPU;
-import com.cloud.host.DetailVO;
 import com.cloud.host.Host;
 import com.cloud.host.Host.Type;
 import com.cloud.host.HostVO;
@@ -58,6 +59,7 @@ import com.cloud.storage.dao.GuestOSCategoryDao;
 import com.cloud.storage.dao.GuestOSDao;
 import com.cloud.user.Account;
 import com.cloud.utils.component.AdapterBase;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachineProfile;
 import com.cloud.vm.dao.VMInstanceDao;
@@ -100,6 +102,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
     boolean _checkHvm = true;
     protected String _allocationAlgorithm = "random";
+    private HostAllocatorStatsMBeanImpl _stats;
 
 
     @Override
@@ -277,6 +280,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
     protected List<Host> allocateTo(DeploymentPlan plan, ServiceOffering offering, VMTemplateVO template, ExcludeList avoid, List<? extends Host> hosts, int returnUpTo,
         boolean considerReservedCapacity, Account account) {
+        long startTime = System.currentTimeMillis();
         if (_allocationAlgorithm.equals("random") || _allocationAlgorithm.equals("userconcentratedpod_random")) {
             // Shuffle this so that we don't check the hosts in the same order.
             Collections.shuffle(hosts);
@@ -290,9 +294,12 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             s_logger.debug("FirstFitAllocator has " + hosts.size() + " hosts to check for allocation: " + hosts);
         }
 
+        long orderedTime = System.currentTimeMillis();
+
         // We will try to reorder the host lists such that we give priority to hosts that have
         // the minimums to support a VM's requirements
         hosts = prioritizeHosts(template, offering, hosts);
+        long prioritizedTime = System.currentTimeMillis();
 
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Found " + hosts.size() + " hosts for allocation after prioritization: " + hosts);
@@ -304,21 +311,44 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
         long serviceOfferingId = offering.getId();
         List<Host> suitableHosts = new ArrayList<Host>();
-        ServiceOfferingDetailsVO offeringDetails = null;
+        // the offering is the same for all the hosts, look its details up once
+        ServiceOfferingDetailsVO offeringDetails = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.vgpuType.toString());
+        ServiceOfferingDetailsVO groupName = offeringDetails != null ? _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.pciDevice.toString()) : null;
+        int cpu_requested = offering.getCpu() * offering.getSpeed();
+        long ram_requested = offering.getRamSize() * 1024L * 1024L;
 
+        List<Host> hostsToCheck = new ArrayList<Host>();
         for (Host host : hosts) {
-            if (suitableHosts.size() == returnUpTo) {
-                break;
-            }
             if (avoid.shouldAvoid(host)) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Host name: " + host.getName() + ", hostId: " + host.getId() + " is in avoid set, skipping this and trying other available hosts");
                 }
                 continue;
             }
+            hostsToCheck.add(host);
+        }
+
+        // read the guest counts, GPU availability and capacity of all the candidates up front instead of once per host
+        List<Long> hostIdsToCheck = new ArrayList<Long>(hostsToCheck.size());
+        for (Host host : hostsToCheck) {
+            hostIdsToCheck.add(host.getId());
+        }
+        Set<Long> hostIdsAtGuestLimit = _capacityMgr.listHostIdsReachingMaxGuestLimit(hostsToCheck);
+        Set<Long> hostIdsWithGpuDevice = offeringDetails != null ?
+            _resourceMgr.listHostIdsWithAvailableGPUDevice(hostIdsToCheck, groupName.getValue(), offeringDetails.getValue()) : null;
+        Map<Long, Float[]> clusterOvercommitRatios = getClusterOvercommitRatios(hostsToCheck);
+        Set<Long> hostIdsWithCapacity = _capacityMgr.listHostIdsWithCapacity(hostsToCheck, cpu_requested, ram_requested, false, clusterOvercommitRatios,
+            considerReservedCapacity);
+
+        int hostsChecked = 0;
+        for (Host host : hostsToCheck) {
+            if (suitableHosts.size() == returnUpTo) {
+                break;
+            }
+            hostsChecked++;
 
             //find number of guest VMs occupying capacity on this host.
-            if (_capacityMgr.checkIfHostReachMaxGuestLimit(host)) {
+            if (hostIdsAtGuestLimit.contains(host.getId())) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Host name: " + host.getName() + ", hostId: " + host.getId() +
                         " already has max Running VMs(count includes system VMs), skipping this and trying other available hosts");
@@ -328,26 +358,14 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             }
 
             // Check if GPU device is required by offering and host has the availability
-            if ((offeringDetails   = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.vgpuType.toString())) != null) {
-                ServiceOfferingDetailsVO groupName = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.pciDevice.toString());
-                if(!_resourceMgr.isGPUDeviceAvailable(host.getId(), groupName.getValue(), offeringDetails.getValue())){
-                    s_logger.info("Host name: " + host.getName() + ", hostId: "+ host.getId() +" does not have required GPU devices available");
-                    avoid.addHost(host.getId());
-                    continue;
-                }
+            if (hostIdsWithGpuDevice != null && !hostIdsWithGpuDevice.contains(host.getId())) {
+                s_logger.info("Host name: " + host.getName() + ", hostId: "+ host.getId() +" does not have required GPU devices available");
+                avoid.addHost(host.getId());
+                continue;
             }
 
-            int cpu_requested = offering.getCpu() * offering.getSpeed();
-            long ram_requested = offering.getRamSize() * 1024L * 1024L;
-            Cluster cluster = _clusterDao.findById(host.getClusterId());
-            ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
-            ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
-            Float cpuOvercommitRatio = Float.parseFloat(clusterDetailsCpuOvercommit.getValue());
-            Float memoryOvercommitRatio = Float.parseFloat(clusterDetailsRamOvercommmt.getValue());
-
-            boolean hostHasCpuCapability = _capacityMgr.checkIfHostHasCpuCapability(host.getId(), offering.getCpu(), offering.getSpeed());
-            boolean hostHasCapacity = _capacityMgr.checkIfHostHasCapacity(host.getId(), cpu_requested, ram_requested, false, cpuOvercommitRatio, memoryOvercommitRatio,
-                considerReservedCapacity);
+            boolean hostHasCpuCapability = _capacityMgr.checkIfHostHasCpuCapability(host, offering.getCpu(), offering.getSpeed());
+            boolean hostHasCapacity = hostIdsWithCapacity.contains(host.getId());
 
             if (hostHasCpuCapability && hostHasCapacity) {
                 if (s_logger.isDebugEnabled()) {
@@ -362,13 +380,34 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             }
         }
 
+        long endTime = System.currentTimeMillis();
+        if (_stats != null) {
+            _stats.recordAllocation(orderedTime - startTime, prioritizedTime - orderedTime, endTime - prioritizedTime, hostsChecked, suitableHosts.size());
+        }
         if (s_logger.isDebugEnabled()) {
-            s_logger.debug("Host Allocator returning " + suitableHosts.size() + " suitable hosts");
+            s_logger.debug("Host Allocator returning " + suitableHosts.size() + " suitable hosts, ordering took " + (orderedTime - startTime) + " ms, prioritization took " +
+                (prioritizedTime - orderedTime) + " ms, checking the hosts took " + (endTime - prioritizedTime) + " ms");
         }
 
         return suitableHosts;
     }
 
+    // cluster id -> {cpu overcommit ratio, memory overcommit ratio} for the clusters of the given hosts
+    private Map<Long, Float[]> getClusterOvercommitRatios(List<? extends Host> hosts) {
+        Map<Long, Float[]> clusterOvercommitRatios = new HashMap<Long, Float[]>();
+        for (Host host : hosts) {
+            if (clusterOvercommitRatios.containsKey(host.getClusterId())) {
+                continue;
+            }
+            Cluster cluster = _clusterDao.findById(host.getClusterId());
+            ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
+            ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
+            clusterOvercommitRatios.put(host.getClusterId(),
+                new Float[] {Float.parseFloat(clusterDetailsCpuOvercommit.getValue()), Float.parseFloat(clusterDetailsRamOvercommmt.getValue())});
+        }
+        return clusterOvercommitRatios;
+    }
+
     // Reorder hosts in the decreasing order of free capacity.
     private List<? extends Host> reorderHostsByCapacity(DeploymentPlan plan, List<? extends Host> hosts) {
         Long zoneId = plan.getDataCenterId();
@@ -379,7 +418,11 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         if("RAM".equalsIgnoreCase(capacityTypeToOrder)){
             capacityType = CapacityVO.CAPACITY_TYPE_MEMORY;
         }
-        List<Long> hostIdsByFreeCapacity = _capacityDao.orderHostsByFreeCapacity(zoneId, clusterId, capacityType);
+        CapacityIndex capacityIndex = _capacityMgr.getCapacityIndex();
+        List<Long> hostIdsByFreeCapacity = capacityIndex != null ? capacityIndex.orderHostsByFreeCapacity(zoneId, clusterId, capacityType) : null;
+        if (hostIdsByFreeCapacity == null) {
+            hostIdsByFreeCapacity = _capacityDao.orderHostsByFreeCapacity(zoneId, clusterId, capacityType);
+        }
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("List of hosts in descending order of free capacity in the cluster: "+ hostIdsByFreeCapacity);
         }
@@ -472,8 +515,9 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         // If a host is tagged with a different guest OS category than the template, move it to a low priority list
         List<Host> highPriorityHosts = new ArrayList<Host>();
         List<Host> lowPriorityHosts = new ArrayList<Host>();
+        Map<Long, String> hostGuestOSCategories = getHostGuestOSCategories(hostsToCheck);
         for (Host host : hostsToCheck) {
-            String hostGuestOSCategory = getHostGuestOSCategory(host);
+            String hostGuestOSCategory = hostGuestOSCategories.get(host.getId());
             if (hostGuestOSCategory == null) {
                 continue;
             } else if (templateGuestOSCategory != null && templateGuestOSCategory.equals(hostGuestOSCategory)) {
@@ -504,10 +548,15 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         // if service offering is not GPU enabled then move all the GPU enabled hosts to the end of priority list.
         if (_serviceOfferingDetailsDao.findDetail(offering.getId(), GPU.Keys.vgpuType.toString()) == null) {
 
+            List<Long> prioritizedHostIds = new ArrayList<Long>(prioritizedHosts.size());
+            for (Host host : prioritizedHosts) {
+                prioritizedHostIds.add(host.getId());
+            }
+            Set<Long> gpuEnabledHostIds = _resourceMgr.listGpuEnabledHostIds(prioritizedHostIds);
             List<Host> gpuEnabledHosts = new ArrayList<Host>();
             // Check for GPU enabled hosts.
             for (Host host : prioritizedHosts) {
-                if (_resourceMgr.isHostGpuEnabled(host.getId())) {
+                if (gpuEnabledHostIds.contains(host.getId())) {
                     gpuEnabledHosts.add(host);
                 }
             }
@@ -539,28 +588,41 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         return false;
     }
 
-    protected String getHostGuestOSCategory(Host host) {
-        DetailVO hostDetail = _hostDetailsDao.findDetail(host.getId(), "guest.os.category.id");
-        if (hostDetail != null) {
-            String guestOSCategoryIdString = hostDetail.getValue();
-            long guestOSCategoryId;
+    /**
+     * Looks up the guest OS categories of the hosts, with one query for the details of all the hosts.
+     *
+     * @return host id -> guest OS category name, for the hosts having a valid guest OS category
+     */
+    protected Map<Long, String> getHostGuestOSCategories(List<? extends Host> hosts) {
+        List<Long> hostIds = new ArrayList<Long>(hosts.size());
+        for (Host host : hosts) {
+            hostIds.add(host.getId());
+        }
+        Map<Long, String> hostCategoryIds = _hostDetailsDao.findDetailValues(hostIds, "guest.os.category.id");
 
+        Map<Long, String> categoryNames = new HashMap<Long, String>();
+        Map<Long, String> hostCategories = new HashMap<Long, String>();
+        for (Map.Entry<Long, String> entry : hostCategoryIds.entrySet()) {
+            long guestOSCategoryId;
             try {
-                guestOSCategoryId = Long.parseLong(guestOSCategoryIdString);
+                guestOSCategoryId = Long.parseLong(entry.getValue());
             } catch (Exception e) {
-                return null;
+                continue;
             }
 
-            GuestOSCategoryVO guestOSCategory = _guestOSCategoryDao.findById(guestOSCategoryId);
-
-            if (guestOSCategory != null) {
-                return guestOSCategory.getName();
+            String categoryName;
+            if (categoryNames.containsKey(guestOSCategoryId)) {
+                categoryName = categoryNames.get(guestOSCategoryId);
             } else {
-                return null;
+                GuestOSCategoryVO guestOSCategory = _guestOSCategoryDao.findById(guestOSCategoryId);
+                categoryName = guestOSCategory != null ? guestOSCategory.getName() : null;
+                categoryNames.put(guestOSCategoryId, categoryName);
+            }
+            if (categoryName != null) {
+                hostCategories.put(entry.getKey(), categoryName);
             }
-        } else {
-            return null;
         }
+        return hostCategories;
     }
 
     protected String getTemplateGuestOSCategory(VMTemplateVO template) {
@@ -588,6 +650,13 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             String value = configs.get("xenserver.check.hvm");
             _checkHvm = value == null ? true : Boolean.parseBoolean(value);
         }
+
+        _stats = new HostAllocatorStatsMBeanImpl(name);
+        try {
+            JmxUtil.registerMBean("HostAllocator", name, _stats);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register host allocator stats of " + name + " to JMX monitoring", e);
+        }
         return true;
     }
 
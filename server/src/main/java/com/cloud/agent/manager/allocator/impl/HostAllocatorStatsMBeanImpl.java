@@ -0,0 +1,109 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager.allocator.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+/**
+ * Time a host allocator spent in each stage of its allocations: ordering the candidate hosts, prioritizing them and checking them one by one.
+ */
+public class HostAllocatorStatsMBeanImpl extends StandardMBean implements HostAllocatorStatsMBean {
+    private final String _allocatorName;
+    private final AtomicLong _allocations = new AtomicLong();
+    private final AtomicLong _totalOrdering = new AtomicLong();
+    private final AtomicLong _totalPrioritization = new AtomicLong();
+    private final AtomicLong _totalChecking = new AtomicLong();
+    private final AtomicLong _maxChecking = new AtomicLong();
+    private final AtomicLong _hostsChecked = new AtomicLong();
+    private final AtomicLong _suitableHosts = new AtomicLong();
+
+    public HostAllocatorStatsMBeanImpl(String allocatorName) {
+        super(HostAllocatorStatsMBean.class, false);
+
+        _allocatorName = allocatorName;
+    }
+
+    public void recordAllocation(long orderingMillis, long prioritizationMillis, long checkingMillis, int hostsChecked, int suitableHosts) {
+        _allocations.incrementAndGet();
+        _totalOrdering.addAndGet(orderingMillis);
+        _totalPrioritization.addAndGet(prioritizationMillis);
+        _totalChecking.addAndGet(checkingMillis);
+        _hostsChecked.addAndGet(hostsChecked);
+        _suitableHosts.addAndGet(suitableHosts);
+
+        long max = _maxChecking.get();
+        while (checkingMillis > max && !_maxChecking.compareAndSet(max, checkingMillis)) {
+            max = _maxChecking.get();
+        }
+    }
+
+    @Override
+    public String getAllocatorName() {
+        return _allocatorName;
+    }
+
+    @Override
+    public long getAllocationCount() {
+        return _allocations.get();
+    }
+
+    @Override
+    public long getAverageOrderingMillis() {
+        long allocations = _allocations.get();
+        return allocations == 0 ? 0 : _totalOrdering.get() / allocations;
+    }
+
+    @Override
+    public long getAveragePrioritizationMillis() {
+        long allocations = _allocations.get();
+        return allocations == 0 ? 0 : _totalPrioritization.get() / allocations;
+    }
+
+    @Override
+    public long getAverageCheckingMillis() {
+        long allocations = _allocations.get();
+        return allocations == 0 ? 0 : _totalChecking.get() / allocations;
+    }
+
+    @Override
+    public long getMaxCheckingMillis() {
+        return _maxChecking.get();
+    }
+
+    @Override
+    public long getHostsCheckedCount() {
+        return _hostsChecked.get();
+    }
+
+    @Override
+    public long getSuitableHostsCount() {
+        return _suitableHosts.get();
+    }
+
+    @Override
+    public void resetStats() {
+        _allocations.set(0);
+        _totalOrdering.set(0);
+        _totalPrioritization.set(0);
+        _totalChecking.set(0);
+        _maxChecking.set(0);
+        _hostsChecked.set(0);
+        _suitableHosts.set(0);
+    }
+}
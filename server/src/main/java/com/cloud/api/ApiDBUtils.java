@@ -17,6 +17,7 @@
 package com.cloud.api;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -311,6 +312,8 @@ import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.uservm.UserVm;
 import com.cloud.utils.EnumUtils;
 import com.cloud.utils.Pair;
+import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.SearchCriteria;
 import com.cloud.vm.ConsoleProxyVO;
 import com.cloud.vm.DomainRouterVO;
 import com.cloud.vm.InstanceGroup;
@@ -996,11 +999,11 @@ public class ApiDBUtils {
     // ///////////////////////////////////////////////////////////
 
     public static Account findAccountById(Long accountId) {
-        return s_accountDao.findByIdIncludingRemoved(accountId);
+        return ApiLookupCache.find(AccountVO.class, accountId, s_accountDao::findByIdIncludingRemoved);
     }
 
     public static Account findAccountByIdIncludingRemoved(Long accountId) {
-        return s_accountDao.findByIdIncludingRemoved(accountId);
+        return ApiLookupCache.find(AccountVO.class, accountId, s_accountDao::findByIdIncludingRemoved);
     }
 
     public static Account findAccountByNameDomain(String accountName, Long domainId) {
@@ -1021,7 +1024,7 @@ public class ApiDBUtils {
     }
 
     public static DiskOfferingVO findDiskOfferingById(Long diskOfferingId) {
-        DiskOfferingVO off = s_diskOfferingDao.findByIdIncludingRemoved(diskOfferingId);
+        DiskOfferingVO off = ApiLookupCache.find(DiskOfferingVO.class, diskOfferingId, s_diskOfferingDao::findByIdIncludingRemoved);
         if (off.getType() == DiskOfferingVO.Type.Disk) {
             return off;
         }
@@ -1029,7 +1032,7 @@ public class ApiDBUtils {
     }
 
     public static DomainVO findDomainById(Long domainId) {
-        return s_domainDao.findByIdIncludingRemoved(domainId);
+        return ApiLookupCache.find(DomainVO.class, domainId, s_domainDao::findByIdIncludingRemoved);
     }
 
     public static DomainJoinVO findDomainJoinVOById(Long domainId) {
@@ -1037,7 +1040,7 @@ public class ApiDBUtils {
     }
 
     public static DomainVO findDomainByIdIncludingRemoved(Long domainId) {
-        return s_domainDao.findByIdIncludingRemoved(domainId);
+        return ApiLookupCache.find(DomainVO.class, domainId, s_domainDao::findByIdIncludingRemoved);
     }
 
     public static boolean isChildDomain(long parentId, long childId) {
@@ -1108,7 +1111,7 @@ public class ApiDBUtils {
     }
 
     public static ServiceOffering findServiceOfferingById(Long serviceOfferingId) {
-        return s_serviceOfferingDao.findByIdIncludingRemoved(serviceOfferingId);
+        return ApiLookupCache.find(ServiceOfferingVO.class, serviceOfferingId, s_serviceOfferingDao::findByIdIncludingRemoved);
     }
 
     public static ServiceOfferingDetailsVO findServiceOfferingDetail(long serviceOfferingId, String key) {
@@ -1171,7 +1174,32 @@ public class ApiDBUtils {
     }
 
     public static DataCenterVO findZoneById(Long zoneId) {
-        return s_zoneDao.findById(zoneId);
+        return ApiLookupCache.find(DataCenterVO.class, zoneId, s_zoneDao::findById);
+    }
+
+    /**
+     * Loads the accounts with IN list queries into the lookup cache of the current request, if any.
+     */
+    public static void prefetchAccounts(Collection<Long> accountIds) {
+        ApiLookupCache.prefetch(AccountVO.class, accountIds, ids -> listByIdsIncludingRemoved(s_accountDao, ids), AccountVO::getId);
+    }
+
+    public static void prefetchDomains(Collection<Long> domainIds) {
+        ApiLookupCache.prefetch(DomainVO.class, domainIds, ids -> listByIdsIncludingRemoved(s_domainDao, ids), DomainVO::getId);
+    }
+
+    public static void prefetchZones(Collection<Long> zoneIds) {
+        ApiLookupCache.prefetch(DataCenterVO.class, zoneIds, ids -> {
+            SearchCriteria<DataCenterVO> sc = s_zoneDao.createSearchCriteria();
+            sc.addAnd("id", SearchCriteria.Op.IN, ids.toArray());
+            return s_zoneDao.search(sc, null);
+        }, DataCenterVO::getId);
+    }
+
+    private static <T> List<T> listByIdsIncludingRemoved(GenericDao<T, Long> dao, List<Long> ids) {
+        SearchCriteria<T> sc = dao.createSearchCriteria();
+        sc.addAnd("id", SearchCriteria.Op.IN, ids.toArray());
+        return dao.searchIncludingRemoved(sc, null, null, false);
     }
 
     public static Long getAccountIdForVlan(long vlanDbId) {
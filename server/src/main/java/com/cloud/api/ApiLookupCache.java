@@ -0,0 +1,158 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Request scoped cache of the entities ApiDBUtils looks up while a response is built, so that a page of
+ * responses referring to the same account, domain or zone loads each of them once. Lookups outside of a
+ * scope go to the DAO as before.
+ *
+ * The entities are not refreshed while the scope is open, so it is only opened around requests that do not
+ * change them, see ApiServer.
+ */
+public class ApiLookupCache {
+    private static final Logger s_logger = Logger.getLogger(ApiLookupCache.class);
+
+    private static final int PREFETCH_BATCH_SIZE = 1000;
+    private static final Object NOT_FOUND = new Object();
+
+    private static ThreadLocal<ApiLookupCache> s_currentCache = new ThreadLocal<ApiLookupCache>();
+    private static final Map<String, AtomicLong> s_queriesByApi = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final String _apiName;
+    private final Map<Class<?>, Map<Long, Object>> _entities = new HashMap<Class<?>, Map<Long, Object>>();
+    private int _queries;
+    private int _hits;
+
+    private ApiLookupCache(String apiName) {
+        _apiName = apiName;
+    }
+
+    /**
+     * Opens a scope on the current thread, or returns null if one is already open.
+     */
+    public static ApiLookupCache begin(String apiName) {
+        if (s_currentCache.get() != null) {
+            return null;
+        }
+        ApiLookupCache cache = new ApiLookupCache(apiName);
+        s_currentCache.set(cache);
+        return cache;
+    }
+
+    public static ApiLookupCache current() {
+        return s_currentCache.get();
+    }
+
+    public void end() {
+        if (s_currentCache.get() == this) {
+            s_currentCache.remove();
+        }
+
+        AtomicLong total = s_queriesByApi.computeIfAbsent(_apiName, name -> new AtomicLong());
+        long queries = total.addAndGet(_queries);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(_apiName + " issued " + _queries + " lookup queries, " + _hits + " lookups served from the request cache, " + queries + " lookup queries in total");
+        }
+    }
+
+    /**
+     * Looks the entity up in the scope of the current thread, loading it on a miss.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T find(Class<T> type, Long id, Function<Long, ? extends T> loader) {
+        ApiLookupCache cache = s_currentCache.get();
+        if (cache == null || id == null) {
+            return loader.apply(id);
+        }
+
+        Map<Long, Object> entities = cache.getEntities(type);
+        Object entity = entities.get(id);
+        if (entity != null) {
+            cache._hits++;
+            return entity == NOT_FOUND ? null : (T)entity;
+        }
+
+        cache._queries++;
+        T loaded = loader.apply(id);
+        entities.put(id, loaded == null ? NOT_FOUND : loaded);
+        return loaded;
+    }
+
+    /**
+     * Loads the entities that are not in the scope of the current thread yet with IN list queries.
+     * Ids not returned by the loader are looked up one by one when they are asked for.
+     */
+    public static <T> void prefetch(Class<T> type, Collection<Long> ids, Function<List<Long>, List<? extends T>> loader, Function<T, Long> idOf) {
+        ApiLookupCache cache = s_currentCache.get();
+        if (cache == null || ids == null || ids.isEmpty()) {
+            return;
+        }
+
+        Map<Long, Object> entities = cache.getEntities(type);
+        Set<Long> missing = new LinkedHashSet<Long>();
+        for (Long id : ids) {
+            if (id != null && !entities.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        if (missing.size() < 2) {
+            return; // a point lookup is as cheap
+        }
+
+        List<Long> batch = new ArrayList<Long>(Math.min(missing.size(), PREFETCH_BATCH_SIZE));
+        for (Long id : missing) {
+            batch.add(id);
+            if (batch.size() == PREFETCH_BATCH_SIZE) {
+                cache.load(entities, batch, loader, idOf);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            cache.load(entities, batch, loader, idOf);
+        }
+    }
+
+    private <T> void load(Map<Long, Object> entities, List<Long> ids, Function<List<Long>, List<? extends T>> loader, Function<T, Long> idOf) {
+        _queries++;
+        for (T entity : loader.apply(ids)) {
+            entities.put(idOf.apply(entity), entity);
+        }
+    }
+
+    private Map<Long, Object> getEntities(Class<?> type) {
+        Map<Long, Object> entities = _entities.get(type);
+        if (entities == null) {
+            entities = new HashMap<Long, Object>();
+            _entities.put(type, entities);
+        }
+        return entities;
+    }
+}
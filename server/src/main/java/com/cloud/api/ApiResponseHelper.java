@@ -1726,6 +1726,12 @@ public class ApiResponseHelper implements ResponseGenerator {
     public List<CapacityResponse> createCapacityResponse(List<? extends Capacity> result, DecimalFormat format) {
         List<CapacityResponse> capacityResponses = new ArrayList<CapacityResponse>();
 
+        List<Long> zoneIds = new ArrayList<Long>(result.size());
+        for (Capacity summedCapacity : result) {
+            zoneIds.add(summedCapacity.getDataCenterId());
+        }
+        ApiDBUtils.prefetchZones(zoneIds);
+
         for (Capacity summedCapacity : result) {
             CapacityResponse capacityResponse = new CapacityResponse();
             capacityResponse.setCapacityTotal(summedCapacity.getTotalCapacity());
@@ -4338,4 +4344,16 @@ public class ApiResponseHelper implements ResponseGenerator {
         response.setObjectName("rollingmaintenance");
         return response;
     }
+
+    @Override
+    public void prefetchOwners(List<? extends ControlledEntity> entities) {
+        Set<Long> accountIds = new HashSet<Long>();
+        Set<Long> domainIds = new HashSet<Long>();
+        for (ControlledEntity entity : entities) {
+            accountIds.add(entity.getAccountId());
+            domainIds.add(entity.getDomainId());
+        }
+        ApiDBUtils.prefetchAccounts(accountIds);
+        ApiDBUtils.prefetchDomains(domainIds);
+    }
 }
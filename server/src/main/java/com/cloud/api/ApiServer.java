@@ -174,6 +174,7 @@ import com.cloud.utils.component.ComponentContext;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.component.PluggableService;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.concurrency.SemaphoreBoundedExecutor;
 import com.cloud.utils.db.EntityManager;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.UUIDManager;
@@ -273,6 +274,23 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             , "Http response content type for JSON"
             , false
             , ConfigKey.Scope.Global);
+    private static final ConfigKey<Integer> IntegrationAPIConcurrency = new ConfigKey<Integer>("Advanced"
+            , Integer.class
+            , "integration.api.concurrency"
+            , "0"
+            , "Maximum number of integration API requests handled at the same time on threads created on demand. "
+            + "Set it to 0 to use a fixed pool of 10 threads."
+            , false
+            , ConfigKey.Scope.Global);
+
+    private static final ConfigKey<Integer> ApiLogResponseMaxLength = new ConfigKey<Integer>("Advanced"
+            , Integer.class
+            , "api.log.response.max.length"
+            , "0"
+            , "Maximum number of characters of an API response written to the access log, longer responses are truncated. "
+            + "0 logs whole responses."
+            , true
+            , ConfigKey.Scope.Global);
 
     private static final ConfigKey<Boolean> UseEventAccountInfo = new ConfigKey<Boolean>( "advanced"
             , Boolean.class
@@ -413,6 +431,9 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         setEncodeApiResponse(EncodeApiResponse.value());
 
         if (apiPort != null) {
+            if (IntegrationAPIConcurrency.value() > 0) {
+                s_executor = new SemaphoreBoundedExecutor(IntegrationAPIConcurrency.value(), new NamedThreadFactory("ApiServer"));
+            }
             final ListenerThread listenerThread = new ListenerThread(this, apiPort);
             listenerThread.start();
         }
@@ -533,9 +554,15 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     @SuppressWarnings("rawtypes")
     public String handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
+        final StringBuilder response = new StringBuilder();
+        return handleRequest(params, responseType, auditTrailSb, response) ? response.toString() : null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb, final Appendable out) throws ServerApiException {
         checkCharacterInkParams(params);
 
-        String response = null;
         String[] command = null;
 
         try {
@@ -554,7 +581,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             } else {
                 // Don't allow Login/Logout APIs to go past this point
                 if (authManager.getAPIAuthenticator(command[0]) != null) {
-                    return null;
+                    return false;
                 }
                 final Map<String, String> paramMap = new HashMap<String, String>();
                 final Set keys = params.keySet();
@@ -584,8 +611,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     cmdObj.setHttpMethod(paramMap.get(ApiConstants.HTTPMETHOD).toString());
 
                     // This is where the command is either serialized, or directly dispatched
-                    StringBuilder log = new StringBuilder();
-                    response = queueCommand(cmdObj, paramMap, log);
+                    final ApiResponseSerializer.BoundedLog log = new ApiResponseSerializer.BoundedLog(ApiLogResponseMaxLength.value());
+                    queueCommand(cmdObj, paramMap, log, out);
                     buildAuditTrail(auditTrailSb, command[0], log.toString());
                 } else {
                     final String errorString = "Unknown API command: " + command[0];
@@ -650,7 +677,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, errorMsg, ex);
         }
 
-        return response;
+        return true;
     }
 
     private String getBaseAsyncResponse(final long jobId, final BaseAsyncCmd cmd) {
@@ -671,7 +698,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
     }
 
-    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params, StringBuilder log) throws Exception {
+    private void queueCommand(final BaseCmd cmdObj, final Map<String, String> params, final Appendable log, final Appendable out) throws Exception {
         final CallContext ctx = CallContext.current();
         final Long callerUserId = ctx.getCallingUserId();
         final Account caller = ctx.getCallingAccount();
@@ -758,26 +785,34 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             // ApiResponseSerializer.toSerializedStringWithSecureLogs works. For now, this gets jobid's
             // in the api logs.
             log.append(response);
-            return response;
+            out.append(response);
 
         } else {
-            dispatcher.dispatch(cmdObj, params, false);
-
-            // if the command is of the listXXXCommand, we will need to also return the
-            // the job id and status if possible
-            // For those listXXXCommand which we have already created DB views, this step is not needed since async job is joined in their db views.
-            if (cmdObj instanceof BaseListCmd && !(cmdObj instanceof ListVMsCmd) && !(cmdObj instanceof ListRoutersCmd)
-                    && !(cmdObj instanceof ListSecurityGroupsCmd) &&
-                    !(cmdObj instanceof ListTagsCmd) && !(cmdObj instanceof ListEventsCmd) && !(cmdObj instanceof ListVMGroupsCmd) && !(cmdObj instanceof ListProjectsCmd) &&
-                    !(cmdObj instanceof ListProjectAccountsCmd) && !(cmdObj instanceof ListProjectInvitationsCmd) && !(cmdObj instanceof ListHostsCmd) &&
-                    !(cmdObj instanceof ListVolumesCmd) && !(cmdObj instanceof ListUsersCmd) && !(cmdObj instanceof ListAccountsCmd)
-                    && !(cmdObj instanceof ListStoragePoolsCmd) && !(cmdObj instanceof ListDiskOfferingsCmd) && !(cmdObj instanceof ListServiceOfferingsCmd) &&
-                    !(cmdObj instanceof ListZonesCmd)) {
-                buildAsyncListResponse((BaseListCmd)cmdObj, caller);
-            }
+            // list commands do not change what their responses refer to, so the lookups can be shared
+            final ApiLookupCache lookupCache = cmdObj instanceof BaseListCmd ? ApiLookupCache.begin(cmdObj.getActualCommandName()) : null;
+            try {
+                dispatcher.dispatch(cmdObj, params, false);
+
+                // if the command is of the listXXXCommand, we will need to also return the
+                // the job id and status if possible
+                // For those listXXXCommand which we have already created DB views, this step is not needed since async job is joined in their db views.
+                if (cmdObj instanceof BaseListCmd && !(cmdObj instanceof ListVMsCmd) && !(cmdObj instanceof ListRoutersCmd)
+                        && !(cmdObj instanceof ListSecurityGroupsCmd) &&
+                        !(cmdObj instanceof ListTagsCmd) && !(cmdObj instanceof ListEventsCmd) && !(cmdObj instanceof ListVMGroupsCmd) && !(cmdObj instanceof ListProjectsCmd) &&
+                        !(cmdObj instanceof ListProjectAccountsCmd) && !(cmdObj instanceof ListProjectInvitationsCmd) && !(cmdObj instanceof ListHostsCmd) &&
+                        !(cmdObj instanceof ListVolumesCmd) && !(cmdObj instanceof ListUsersCmd) && !(cmdObj instanceof ListAccountsCmd)
+                        && !(cmdObj instanceof ListStoragePoolsCmd) && !(cmdObj instanceof ListDiskOfferingsCmd) && !(cmdObj instanceof ListServiceOfferingsCmd) &&
+                        !(cmdObj instanceof ListZonesCmd)) {
+                    buildAsyncListResponse((BaseListCmd)cmdObj, caller);
+                }
 
-            SerializationContext.current().setUuidTranslation(true);
-            return ApiResponseSerializer.toSerializedStringWithSecureLogs((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType(), log);
+                SerializationContext.current().setUuidTranslation(true);
+                ApiResponseSerializer.serialize((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType(), out, log);
+            } finally {
+                if (lookupCache != null) {
+                    lookupCache.end();
+                }
+            }
         }
     }
 
@@ -1463,7 +1498,9 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 ConcurrentSnapshotsThresholdPerHost,
                 EncodeApiResponse,
                 EnableSecureSessionCookie,
-                JSONDefaultContentType
+                JSONDefaultContentType,
+                IntegrationAPIConcurrency,
+                ApiLogResponseMaxLength
         };
     }
 }
@@ -17,6 +17,7 @@
 package com.cloud.api;
 
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.URLDecoder;
 import java.net.UnknownHostException;
@@ -318,8 +319,9 @@ public class ApiServlet extends HttpServlet {
                 // Add the HTTP method (GET/POST/PUT/DELETE) as well into the params map.
                 params.put("httpmethod", new String[]{req.getMethod()});
                 setProjectContext(params);
-                final String response = apiServer.handleRequest(params, responseType, auditTrailSb);
-                HttpUtils.writeHttpResponse(resp, response != null ? response : "", HttpServletResponse.SC_OK, responseType, ApiServer.JSONcontentType.value());
+                // the response is serialized straight into the servlet writer instead of being built as one String first
+                final Writer writer = HttpUtils.prepareHttpResponse(resp, HttpServletResponse.SC_OK, responseType, ApiServer.JSONcontentType.value());
+                apiServer.handleRequest(params, responseType, auditTrailSb, writer);
             } else {
                 if (session != null) {
                     try {
@@ -336,9 +338,15 @@ public class ApiServlet extends HttpServlet {
 
             }
         } catch (final ServerApiException se) {
-            final String serializedResponseText = apiServer.getSerializedApiError(se, params, responseType);
-            resp.setHeader("X-Description", se.getDescription());
-            HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.JSONcontentType.value());
+            if (resp.isCommitted()) {
+                // part of a streamed response already reached the client, an error document can't be sent anymore
+                s_logger.error("Failed to write api response, it was partially sent: " + se.getDescription(), se);
+            } else {
+                resp.resetBuffer();
+                final String serializedResponseText = apiServer.getSerializedApiError(se, params, responseType);
+                resp.setHeader("X-Description", se.getDescription());
+                HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.JSONcontentType.value());
+            }
             auditTrailSb.append(" " + se.getErrorCode() + " " + se.getDescription());
         } catch (final Exception ex) {
             s_logger.error("unknown exception writing api response", ex);
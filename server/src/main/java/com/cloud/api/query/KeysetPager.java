@@ -0,0 +1,178 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package com.cloud.api.query;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Keyset (seek) pagination for the list APIs. Instead of an OFFSET, the next page is selected with a
+ * condition on the sort key and id of the last row returned, so late pages cost the same as the first one
+ * and no total count is needed. The position is handed to the client as an opaque page token.
+ *
+ * The sort field must not be nullable; id is always used as the tie-breaker.
+ */
+public class KeysetPager<T> {
+    private static final String ID_FIELD = "id";
+    private static final String SEPARATOR = ":";
+
+    private final GenericDao<T, ?> _dao;
+    private final Class<T> _clazz;
+    private final String _sortField;
+    private final boolean _ascending;
+    private final Long _pageSize;
+    private final Attribute _sortAttr;
+    private final Attribute _idAttr;
+
+    private Long _afterId;
+    private Object _afterValue;
+    private String _nextPageToken;
+
+    public KeysetPager(GenericDao<T, ?> dao, Class<T> clazz, String sortField, boolean ascending, String pageToken, Long pageSize) {
+        _dao = dao;
+        _clazz = clazz;
+        _sortField = sortField;
+        _ascending = ascending;
+        _pageSize = pageSize;
+        _sortAttr = dao.getAllAttributes().get(sortField);
+        _idAttr = dao.getAllAttributes().get(ID_FIELD);
+        assert _sortAttr != null && _idAttr != null : "Can't find " + sortField + " or id in " + clazz.getName();
+
+        if (pageToken != null) {
+            decodeToken(pageToken);
+        }
+    }
+
+    /**
+     * @return the filter to search with; it fetches one extra row to find out whether there is a next page.
+     */
+    public Filter createFilter() {
+        Filter filter = new Filter(_clazz, _sortField, _ascending, _pageSize == null ? null : 0L, _pageSize == null ? null : _pageSize + 1);
+        if (!isSortedById()) {
+            filter.addOrderBy(_clazz, ID_FIELD, _ascending);
+        }
+        return filter;
+    }
+
+    /**
+     * Restricts the search to the rows following the page token, if there is one.
+     */
+    public void addCondition(SearchCriteria<T> sc) {
+        if (_afterId == null) {
+            return;
+        }
+
+        SearchCriteria.Op after = _ascending ? SearchCriteria.Op.GT : SearchCriteria.Op.LT;
+        if (isSortedById()) {
+            sc.addAnd(ID_FIELD, after, _afterId);
+            return;
+        }
+
+        SearchCriteria<T> tieSc = _dao.createSearchCriteria();
+        tieSc.addAnd(_sortField, SearchCriteria.Op.EQ, _afterValue);
+        tieSc.addAnd(ID_FIELD, after, _afterId);
+
+        SearchCriteria<T> seekSc = _dao.createSearchCriteria();
+        seekSc.addOr(_sortField, after, _afterValue);
+        seekSc.addOr(_sortField, SearchCriteria.Op.SC, tieSc);
+
+        sc.addAnd(_sortField, SearchCriteria.Op.SC, seekSc);
+    }
+
+    /**
+     * Trims the rows searched with {@link #createFilter()} to the page size and computes the next page token.
+     */
+    public List<T> getPage(List<T> rows) {
+        _nextPageToken = null;
+        if (_pageSize == null || rows.size() <= _pageSize) {
+            return rows;
+        }
+
+        List<T> page = rows.subList(0, _pageSize.intValue());
+        _nextPageToken = encodeToken(page.get(page.size() - 1));
+        return page;
+    }
+
+    /**
+     * @return the token for the page following the one returned by {@link #getPage(List)}, or null if it was the last one.
+     */
+    public String getNextPageToken() {
+        return _nextPageToken;
+    }
+
+    private boolean isSortedById() {
+        return ID_FIELD.equals(_sortField);
+    }
+
+    protected String encodeToken(T row) {
+        StringBuilder token = new StringBuilder(_sortField).append(SEPARATOR).append(getValue(_idAttr, row));
+        if (!isSortedById()) {
+            Object value = getValue(_sortAttr, row);
+            token.append(SEPARATOR).append(value instanceof Date ? ((Date)value).getTime() : value);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected void decodeToken(String pageToken) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8).split(SEPARATOR, 3);
+            if (!_sortField.equals(parts[0]) || parts.length != (isSortedById() ? 2 : 3)) {
+                throw new InvalidParameterValueException("Invalid page token");
+            }
+            _afterId = Long.parseLong(parts[1]);
+            if (!isSortedById()) {
+                _afterValue = parseValue(_sortAttr.getField().getType(), parts[2]);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterValueException("Invalid page token");
+        }
+    }
+
+    private static Object parseValue(Class<?> type, String value) {
+        if (type == Date.class) {
+            return new Date(Long.parseLong(value));
+        } else if (type == Long.class || type == long.class) {
+            return Long.parseLong(value);
+        } else if (type == Integer.class || type == int.class) {
+            return Integer.parseInt(value);
+        }
+        // strings, and enums which are bound by name
+        return value;
+    }
+
+    private Object getValue(Attribute attr, T row) {
+        Field field = attr.getField();
+        try {
+            field.setAccessible(true);
+            return field.get(row);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to read " + field.getName() + " of " + _clazz.getName(), e);
+        }
+    }
+}
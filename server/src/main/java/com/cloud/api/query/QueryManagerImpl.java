@@ -580,14 +580,22 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
     @Override
     public ListResponse<EventResponse> searchForEvents(ListEventsCmd cmd) {
-        Pair<List<EventJoinVO>, Integer> result = searchForEventsInternal(cmd);
+        KeysetPager<EventJoinVO> pager = null;
+        if (cmd.isPageTokenRequested()) {
+            pager = new KeysetPager<EventJoinVO>(_eventJoinDao, EventJoinVO.class, "createDate", false, cmd.getPageToken(), cmd.getPageSizeVal());
+        }
+        Pair<List<EventJoinVO>, Integer> result = searchForEventsInternal(cmd, pager);
         ListResponse<EventResponse> response = new ListResponse<EventResponse>();
         List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(new EventJoinVO[result.first().size()]));
-        response.setResponses(eventResponses, result.second());
+        if (pager != null) {
+            response.setResponsePage(eventResponses, pager.getNextPageToken());
+        } else {
+            response.setResponses(eventResponses, result.second());
+        }
         return response;
     }
 
-    private Pair<List<EventJoinVO>, Integer> searchForEventsInternal(ListEventsCmd cmd) {
+    private Pair<List<EventJoinVO>, Integer> searchForEventsInternal(ListEventsCmd cmd, KeysetPager<EventJoinVO> pager) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
 
@@ -607,7 +615,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
-        Filter searchFilter = new Filter(EventJoinVO.class, "createDate", false, cmd.getStartIndex(), cmd.getPageSizeVal());
+        Filter searchFilter = pager != null ? pager.createFilter() : new Filter(EventJoinVO.class, "createDate", false, cmd.getStartIndex(), cmd.getPageSizeVal());
         SearchBuilder<EventJoinVO> sb = _eventJoinDao.createSearchBuilder();
         _accountMgr.buildACLViewSearchBuilder(sb, domainId, isRecursive, permittedAccounts, listProjectResourcesCriteria);
 
@@ -694,6 +702,10 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
              * _eventDao.findCompletedEvent(event.getId()); if (completedEvent
              * == null) { pendingEvents.add(event); } } return pendingEvents;
              */
+        } else if (pager != null) {
+            // no total count when seeking, the client follows nextpagetoken instead
+            pager.addCondition(sc);
+            eventPair = new Pair<List<EventJoinVO>, Integer>(pager.getPage(_eventJoinDao.search(sc, searchFilter)), null);
         } else {
             eventPair = _eventJoinDao.searchAndCount(sc, searchFilter);
         }
@@ -703,14 +715,22 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
     @Override
     public ListResponse<ResourceTagResponse> listTags(ListTagsCmd cmd) {
-        Pair<List<ResourceTagJoinVO>, Integer> tags = listTagsInternal(cmd);
+        KeysetPager<ResourceTagJoinVO> pager = null;
+        if (cmd.isPageTokenRequested()) {
+            pager = new KeysetPager<ResourceTagJoinVO>(_resourceTagJoinDao, ResourceTagJoinVO.class, "resourceType", false, cmd.getPageToken(), cmd.getPageSizeVal());
+        }
+        Pair<List<ResourceTagJoinVO>, Integer> tags = listTagsInternal(cmd, pager);
         ListResponse<ResourceTagResponse> response = new ListResponse<ResourceTagResponse>();
         List<ResourceTagResponse> tagResponses = ViewResponseHelper.createResourceTagResponse(false, tags.first().toArray(new ResourceTagJoinVO[tags.first().size()]));
-        response.setResponses(tagResponses, tags.second());
+        if (pager != null) {
+            response.setResponsePage(tagResponses, pager.getNextPageToken());
+        } else {
+            response.setResponses(tagResponses, tags.second());
+        }
         return response;
     }
 
-    private Pair<List<ResourceTagJoinVO>, Integer> listTagsInternal(ListTagsCmd cmd) {
+    private Pair<List<ResourceTagJoinVO>, Integer> listTagsInternal(ListTagsCmd cmd, KeysetPager<ResourceTagJoinVO> pager) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
         String key = cmd.getKey();
@@ -738,7 +758,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Long domainId = domainIdRecursiveListProject.first();
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
-        Filter searchFilter = new Filter(ResourceTagJoinVO.class, "resourceType", false, cmd.getStartIndex(), cmd.getPageSizeVal());
+        Filter searchFilter = pager != null ? pager.createFilter() : new Filter(ResourceTagJoinVO.class, "resourceType", false, cmd.getStartIndex(), cmd.getPageSizeVal());
 
         SearchBuilder<ResourceTagJoinVO> sb = _resourceTagJoinDao.createSearchBuilder();
         _accountMgr.buildACLViewSearchBuilder(sb, domainId, isRecursive, permittedAccounts, listProjectResourcesCriteria);
@@ -784,6 +804,11 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             sc.setParameters("customer", customerName);
         }
 
+        if (pager != null) {
+            pager.addCondition(sc);
+            return new Pair<List<ResourceTagJoinVO>, Integer>(pager.getPage(_resourceTagJoinDao.search(sc, searchFilter)), null);
+        }
+
         Pair<List<ResourceTagJoinVO>, Integer> result = _resourceTagJoinDao.searchAndCount(sc, searchFilter);
         return result;
     }
@@ -841,7 +866,11 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
     @Override
     public ListResponse<UserVmResponse> searchForUserVMs(ListVMsCmd cmd) {
-        Pair<List<UserVmJoinVO>, Integer> result = searchForUserVMsInternal(cmd);
+        KeysetPager<UserVmJoinVO> pager = null;
+        if (cmd.isPageTokenRequested()) {
+            pager = new KeysetPager<UserVmJoinVO>(_userVmJoinDao, UserVmJoinVO.class, "id", true, cmd.getPageToken(), cmd.getPageSizeVal());
+        }
+        Pair<List<UserVmJoinVO>, Integer> result = searchForUserVMsInternal(cmd, pager);
         ListResponse<UserVmResponse> response = new ListResponse<UserVmResponse>();
         ResponseView respView = ResponseView.Restricted;
         Account caller = CallContext.current().getCallingAccount();
@@ -850,11 +879,15 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         }
         List<UserVmResponse> vmResponses = ViewResponseHelper.createUserVmResponse(respView, "virtualmachine", cmd.getDetails(), result.first().toArray(new UserVmJoinVO[result.first().size()]));
 
-        response.setResponses(vmResponses, result.second());
+        if (pager != null) {
+            response.setResponsePage(vmResponses, pager.getNextPageToken());
+        } else {
+            response.setResponses(vmResponses, result.second());
+        }
         return response;
     }
 
-    private Pair<List<UserVmJoinVO>, Integer> searchForUserVMsInternal(ListVMsCmd cmd) {
+    private Pair<List<UserVmJoinVO>, Integer> searchForUserVMsInternal(ListVMsCmd cmd, KeysetPager<UserVmJoinVO> pager) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
 
@@ -869,7 +902,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
-        Filter searchFilter = new Filter(UserVmJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
+        Filter searchFilter = pager != null ? pager.createFilter() : new Filter(UserVmJoinVO.class, "id", true, cmd.getStartIndex(), cmd.getPageSizeVal());
 
         List<Long> ids = null;
         if (cmd.getId() != null) {
@@ -1094,13 +1127,24 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             sc.setParameters("displayVm", 1);
         }
         // search vm details by ids
-        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
-        Integer count = uniqueVmPair.second();
-        if (count.intValue() == 0) {
-            // handle empty result cases
-            return uniqueVmPair;
+        Integer count = null;
+        List<UserVmJoinVO> uniqueVms;
+        if (pager != null) {
+            // seek past the last vm of the previous page and skip the distinct count
+            pager.addCondition(sc);
+            uniqueVms = pager.getPage(_userVmJoinDao.search(sc, searchFilter));
+            if (uniqueVms.isEmpty()) {
+                return new Pair<List<UserVmJoinVO>, Integer>(uniqueVms, null);
+            }
+        } else {
+            Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
+            count = uniqueVmPair.second();
+            if (count.intValue() == 0) {
+                // handle empty result cases
+                return uniqueVmPair;
+            }
+            uniqueVms = uniqueVmPair.first();
         }
-        List<UserVmJoinVO> uniqueVms = uniqueVmPair.first();
         Long[] vmIds = new Long[uniqueVms.size()];
         int i = 0;
         for (UserVmJoinVO v : uniqueVms) {
@@ -1828,7 +1872,12 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
     @Override
     public ListResponse<VolumeResponse> searchForVolumes(ListVolumesCmd cmd) {
-        Pair<List<VolumeJoinVO>, Integer> result = searchForVolumesInternal(cmd);
+        KeysetPager<VolumeJoinVO> pager = null;
+        if (cmd.isPageTokenRequested()) {
+            // only the distinct ids are selected, so seek on id which follows the creation order
+            pager = new KeysetPager<VolumeJoinVO>(_volumeJoinDao, VolumeJoinVO.class, "id", false, cmd.getPageToken(), cmd.getPageSizeVal());
+        }
+        Pair<List<VolumeJoinVO>, Integer> result = searchForVolumesInternal(cmd, pager);
         ListResponse<VolumeResponse> response = new ListResponse<VolumeResponse>();
 
         ResponseView respView = cmd.getResponseView();
@@ -1861,11 +1910,15 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
                 vr.setNeedQuiescevm(quiescevm);
             }
         }
-        response.setResponses(volumeResponses, result.second());
+        if (pager != null) {
+            response.setResponsePage(volumeResponses, pager.getNextPageToken());
+        } else {
+            response.setResponses(volumeResponses, result.second());
+        }
         return response;
     }
 
-    private Pair<List<VolumeJoinVO>, Integer> searchForVolumesInternal(ListVolumesCmd cmd) {
+    private Pair<List<VolumeJoinVO>, Integer> searchForVolumesInternal(ListVolumesCmd cmd, KeysetPager<VolumeJoinVO> pager) {
 
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
@@ -1892,7 +1945,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         Long domainId = domainIdRecursiveListProject.first();
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
-        Filter searchFilter = new Filter(VolumeJoinVO.class, "created", false, cmd.getStartIndex(), cmd.getPageSizeVal());
+        Filter searchFilter = pager != null ? pager.createFilter() : new Filter(VolumeJoinVO.class, "created", false, cmd.getStartIndex(), cmd.getPageSizeVal());
 
         // hack for now, this should be done better but due to needing a join I
         // opted to
@@ -1998,13 +2051,23 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         }
 
         // search Volume details by ids
-        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
-        Integer count = uniqueVolPair.second();
-        if (count.intValue() == 0) {
-            // empty result
-            return uniqueVolPair;
+        Integer count = null;
+        List<VolumeJoinVO> uniqueVols;
+        if (pager != null) {
+            pager.addCondition(sc);
+            uniqueVols = pager.getPage(_volumeJoinDao.search(sc, searchFilter));
+            if (uniqueVols.isEmpty()) {
+                return new Pair<List<VolumeJoinVO>, Integer>(uniqueVols, null);
+            }
+        } else {
+            Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
+            count = uniqueVolPair.second();
+            if (count.intValue() == 0) {
+                // empty result
+                return uniqueVolPair;
+            }
+            uniqueVols = uniqueVolPair.first();
         }
-        List<VolumeJoinVO> uniqueVols = uniqueVolPair.first();
         Long[] vrIds = new Long[uniqueVols.size()];
         int i = 0;
         for (VolumeJoinVO v : uniqueVols) {
@@ -26,6 +26,7 @@ import com.cloud.utils.encoding.URLEncoder;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.SerializedName;
 
 import org.apache.cloudstack.acl.RoleType;
@@ -41,6 +42,7 @@ import org.apache.cloudstack.api.response.SuccessResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -48,12 +50,23 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ApiResponseSerializer {
     private static final Logger s_logger = Logger.getLogger(ApiResponseSerializer.class.getName());
 
+    /**
+     * Gson resolves the exclusion strategies once per type and caches the result, and those strategies hide
+     * fields based on the role of the caller, so the instances are shared per caller account type only.
+     */
+    private static final Map<Short, Gson> s_responseGsons = new ConcurrentHashMap<Short, Gson>();
+    private static final Map<Short, Gson> s_logGsons = new ConcurrentHashMap<Short, Gson>();
+
+    private static final Map<Class<?>, ResponseField[]> s_responseFields = new ConcurrentHashMap<Class<?>, ResponseField[]>();
+
     public static String toSerializedString(ResponseObject result, String responseType) {
         s_logger.trace("===Serializing Response===");
         if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
@@ -72,137 +85,262 @@ public class ApiResponseSerializer {
         }
     }
 
+    /**
+     * Writes the serialized response to out as it is produced instead of building it in memory first,
+     * the output is the same as the one of toSerializedStringWithSecureLogs.  Pass a BoundedLog as log
+     * to keep the copy for the access log from growing with the response.
+     */
+    public static void serialize(ResponseObject result, String responseType, Appendable out, Appendable log) throws IOException {
+        if (result == null || log == null) {
+            return;
+        }
+        s_logger.trace("===Serializing Response===");
+        if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            serializeJSON(result, out, log);
+        } else {
+            serializeXML(result, out, log);
+        }
+    }
+
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
     public static String unescape(String escaped) {
-        String str = escaped;
-        Matcher matcher = s_unicodeEscapePattern.matcher(str);
-        while (matcher.find()) {
-            str = str.replaceAll("\\" + matcher.group(0), Character.toString((char)Integer.parseInt(matcher.group(1), 16)));
+        Matcher matcher = s_unicodeEscapePattern.matcher(escaped);
+        if (!matcher.find()) {
+            return escaped;
         }
-        return str;
+
+        StringBuilder str = new StringBuilder(escaped.length());
+        int last = 0;
+        do {
+            str.append(escaped, last, matcher.start()).append((char)Integer.parseInt(matcher.group(1), 16));
+            last = matcher.end();
+        } while (matcher.find());
+        str.append(escaped, last, escaped.length());
+        return str.toString();
     }
 
     public static String toJSONSerializedString(ResponseObject result, StringBuilder log) {
         if (result != null && log != null) {
-            Gson responseBuilder = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-            Gson logBuilder = ApiResponseGsonHelper.getLogBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-
             StringBuilder sb = new StringBuilder();
+            try {
+                serializeJSON(result, sb, log);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to serialize response " + result.getResponseName(), e);
+            }
+            return sb.toString();
+        }
+        return null;
+    }
 
-            sb.append("{\"").append(result.getResponseName()).append("\":");
-            log.append("{\"").append(result.getResponseName()).append("\":");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                Integer count = ((ListResponse)result).getCount();
-                boolean nonZeroCount = (count != null && count.longValue() != 0);
-                if (nonZeroCount) {
-                    sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                    log.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                }
-
-                if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = responseBuilder.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
-                    String logStr = logBuilder.toJson(responses.get(0));
-                    logStr = unescape(logStr);
+    private static void serializeJSON(ResponseObject result, Appendable sb, Appendable log) throws IOException {
+        Short callerType = getCallerType();
+        Gson responseBuilder = getGson(s_responseGsons, ApiResponseGsonHelper.getBuilder(), callerType);
+        Gson logBuilder = getGson(s_logGsons, ApiResponseGsonHelper.getLogBuilder(), callerType);
+
+        sb.append("{\"").append(result.getResponseName()).append("\":");
+        log.append("{\"").append(result.getResponseName()).append("\":");
+        if (result instanceof ListResponse) {
+            ListResponse listResponse = (ListResponse)result;
+            List<? extends ResponseObject> responses = listResponse.getResponses();
+            Integer count = listResponse.getCount();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            // a token paged list has no count, its entries are followed by the token of the next page
+            boolean hasEntries = (responses != null) && !responses.isEmpty() && (nonZeroCount || listResponse.isPagedByToken());
+            sb.append("{");
+            log.append("{");
+            if (nonZeroCount) {
+                sb.append("\"").append(ApiConstants.COUNT).append("\":").append(String.valueOf(count));
+                log.append("\"").append(ApiConstants.COUNT).append("\":").append(String.valueOf(count));
+            }
 
-                    if (nonZeroCount) {
-                        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
-                        log.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(logStr);
-                    }
+            if (hasEntries) {
+                String separator = nonZeroCount ? "," : "";
+                String jsonStr = responseBuilder.toJson(responses.get(0));
+                jsonStr = unescape(jsonStr);
+                String logStr = isFull(log) ? "" : unescape(logBuilder.toJson(responses.get(0)));
 
-                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
-                        jsonStr = responseBuilder.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        logStr = logBuilder.toJson(responses.get(i));
-                        logStr = unescape(logStr);
-                        sb.append(",").append(jsonStr);
-                        log.append(",").append(logStr);
-                    }
-                    sb.append("]}");
-                    log.append("]}");
-                } else  {
-                    if (!nonZeroCount) {
-                        sb.append("{");
-                        log.append("{");
-                    }
+                sb.append(separator).append("\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
+                log.append(separator).append("\"").append(responses.get(0).getObjectName()).append("\":[").append(logStr);
 
-                    sb.append("}");
-                    log.append("}");
-                }
-            } else if (result instanceof SuccessResponse || result instanceof ExceptionResponse) {
-                final String jsonErrorText = unescape(responseBuilder.toJson(result));
-                sb.append(jsonErrorText);
-                log.append(jsonErrorText);
-            } else {
-                String jsonStr = responseBuilder.toJson(result);
-                if (jsonStr != null && !jsonStr.isEmpty()) {
+                for (int i = 1; i < responses.size(); i++) {
+                    jsonStr = responseBuilder.toJson(responses.get(i));
                     jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
+                    sb.append(",").append(jsonStr);
+                    if (!isFull(log)) {
+                        log.append(",").append(unescape(logBuilder.toJson(responses.get(i))));
                     }
-                } else {
-                    sb.append("{}");
                 }
-                String logStr = logBuilder.toJson(result);
-                if (logStr != null && !logStr.isEmpty()) {
-                    logStr = unescape(logStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        log.append(logStr);
-                    } else {
-                        log.append("{\"").append(result.getObjectName()).append("\":").append(logStr).append("}");
-                    }
-                } else {
-                    log.append("{}");
+                sb.append("]");
+                log.append("]");
+                String nextPageToken = listResponse.getNextPageToken();
+                if (nextPageToken != null) {
+                    sb.append(",\"").append(ApiConstants.NEXT_PAGE_TOKEN).append("\":\"").append(nextPageToken).append("\"");
+                    log.append(",\"").append(ApiConstants.NEXT_PAGE_TOKEN).append("\":\"").append(nextPageToken).append("\"");
                 }
             }
             sb.append("}");
             log.append("}");
-            return sb.toString();
+        } else if (result instanceof SuccessResponse || result instanceof ExceptionResponse) {
+            final String jsonErrorText = unescape(responseBuilder.toJson(result));
+            sb.append(jsonErrorText);
+            log.append(jsonErrorText);
+        } else {
+            String jsonStr = responseBuilder.toJson(result);
+            if (jsonStr != null && !jsonStr.isEmpty()) {
+                jsonStr = unescape(jsonStr);
+                if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                    sb.append(jsonStr);
+                } else {
+                    sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
+                }
+            } else {
+                sb.append("{}");
+            }
+            String logStr = logBuilder.toJson(result);
+            if (logStr != null && !logStr.isEmpty()) {
+                logStr = unescape(logStr);
+                if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                    log.append(logStr);
+                } else {
+                    log.append("{\"").append(result.getObjectName()).append("\":").append(logStr).append("}");
+                }
+            } else {
+                log.append("{}");
+            }
+        }
+        sb.append("}");
+        log.append("}");
+    }
+
+    private static boolean isFull(Appendable log) {
+        return log instanceof BoundedLog && ((BoundedLog)log).isFull();
+    }
+
+    /**
+     * Copy of a response for the access log that keeps at most maxLength characters, so that logging a large
+     * streamed response does not hold a second full copy of it in memory.
+     */
+    public static class BoundedLog implements Appendable {
+        private final StringBuilder _log = new StringBuilder();
+        private final int _maxLength;
+        private boolean _truncated;
+
+        /**
+         * @param maxLength characters to keep, 0 or less keeps everything
+         */
+        public BoundedLog(int maxLength) {
+            _maxLength = maxLength;
+        }
+
+        public boolean isFull() {
+            return _truncated;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return append(csq, 0, csq == null ? 4 : csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            if (_truncated) {
+                return this;
+            }
+            if (csq == null) {
+                csq = "null";
+            }
+            if (_maxLength > 0 && _log.length() + end - start > _maxLength) {
+                _log.append(csq, start, start + _maxLength - _log.length());
+                _truncated = true;
+            } else {
+                _log.append(csq, start, end);
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            return append(String.valueOf(c));
+        }
+
+        @Override
+        public String toString() {
+            return _truncated ? _log.toString() + "...(truncated)" : _log.toString();
         }
-        return null;
+    }
+
+    private static Short getCallerType() {
+        CallContext context = CallContext.current();
+        if (context == null || context.getCallingAccount() == null) {
+            return null;
+        }
+        return context.getCallingAccount().getType();
+    }
+
+    private static Gson getGson(Map<Short, Gson> gsons, GsonBuilder builder, Short callerType) {
+        if (callerType == null) {
+            return builder.excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+        }
+
+        Gson gson = gsons.get(callerType);
+        if (gson == null) {
+            gson = builder.excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            gsons.put(callerType, gson);
+        }
+        return gson;
     }
 
     private static String toXMLSerializedString(ResponseObject result, StringBuilder log) {
         if (result != null && log != null) {
             StringBuilder sb = new StringBuilder();
-            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
-            log.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-            log.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+            try {
+                serializeXML(result, sb, log);
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Unable to serialize response " + result.getResponseName(), e);
+            }
+            return sb.toString();
+        }
+        return null;
+    }
 
-            if (result instanceof ListResponse) {
-                Integer count = ((ListResponse)result).getCount();
+    private static void serializeXML(ResponseObject result, Appendable sb, Appendable log) throws IOException {
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+        log.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        log.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
 
-                if (count != null && count != 0) {
-                    sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
-                    log.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
-                }
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                if ((responses != null) && !responses.isEmpty()) {
-                    for (ResponseObject obj : responses) {
-                        serializeResponseObjXML(sb, log, obj);
-                    }
+        if (result instanceof ListResponse) {
+            Integer count = ((ListResponse)result).getCount();
+
+            if (count != null && count != 0) {
+                sb.append("<").append(ApiConstants.COUNT).append(">").append(String.valueOf(count)).append("</").append(ApiConstants.COUNT).append(">");
+                log.append("<").append(ApiConstants.COUNT).append(">").append(String.valueOf(count)).append("</").append(ApiConstants.COUNT).append(">");
+            }
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            if ((responses != null) && !responses.isEmpty()) {
+                for (ResponseObject obj : responses) {
+                    serializeResponseObjXML(sb, log, obj);
                 }
+            }
+            String nextPageToken = ((ListResponse)result).getNextPageToken();
+            if (nextPageToken != null) {
+                sb.append("<").append(ApiConstants.NEXT_PAGE_TOKEN).append(">").append(nextPageToken).append("</").append(ApiConstants.NEXT_PAGE_TOKEN).append(">");
+                log.append("<").append(ApiConstants.NEXT_PAGE_TOKEN).append(">").append(nextPageToken).append("</").append(ApiConstants.NEXT_PAGE_TOKEN).append(">");
+            }
+        } else {
+            if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
+                serializeResponseObjFieldsXML(sb, log, result);
             } else {
-                if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
-                    serializeResponseObjFieldsXML(sb, log, result);
-                } else {
-                    serializeResponseObjXML(sb, log, result);
-                }
+                serializeResponseObjXML(sb, log, result);
             }
-
-            sb.append("</").append(result.getResponseName()).append(">");
-            log.append("</").append(result.getResponseName()).append(">");
-            return sb.toString();
         }
-        return null;
+
+        sb.append("</").append(result.getResponseName()).append(">");
+        log.append("</").append(result.getResponseName()).append(">");
     }
 
-    private static void serializeResponseObjXML(StringBuilder sb, StringBuilder log, ResponseObject obj) {
+    private static void serializeResponseObjXML(Appendable sb, Appendable log, ResponseObject obj) throws IOException {
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
             sb.append("<").append(obj.getObjectName()).append(">");
             log.append("<").append(obj.getObjectName()).append(">");
@@ -223,13 +361,17 @@ public class ApiResponseSerializer {
         return fields.toArray(new Field[] {});
     }
 
-    private static void serializeResponseObjFieldsXML(StringBuilder sb, StringBuilder log, ResponseObject obj) {
-        boolean isAsync = false;
-        if (obj instanceof AsyncJobResponse)
-            isAsync = true;
+    /**
+     * @return the serializable fields of the response class, in the order getFlattenFields returns them
+     */
+    private static ResponseField[] getResponseFields(Class<?> clz) {
+        ResponseField[] responseFields = s_responseFields.get(clz);
+        if (responseFields != null) {
+            return responseFields;
+        }
 
-        Field[] fields = getFlattenFields(obj.getClass());
-        for (Field field : fields) {
+        List<ResponseField> fields = new ArrayList<ResponseField>();
+        for (Field field : getFlattenFields(clz)) {
             if ((field.getModifiers() & Modifier.TRANSIENT) != 0) {
                 continue; // skip transient fields
             }
@@ -239,8 +381,24 @@ public class ApiResponseSerializer {
                 continue; // skip fields w/o serialized name
             }
 
+            field.setAccessible(true);
+            fields.add(new ResponseField(field, serializedName.value(), field.getAnnotation(Param.class)));
+        }
+        responseFields = fields.toArray(new ResponseField[fields.size()]);
+        s_responseFields.put(clz, responseFields);
+        return responseFields;
+    }
+
+    private static void serializeResponseObjFieldsXML(Appendable sb, Appendable log, ResponseObject obj) throws IOException {
+        boolean isAsync = false;
+        if (obj instanceof AsyncJobResponse)
+            isAsync = true;
+
+        for (ResponseField field : getResponseFields(obj.getClass())) {
+            String serializedName = field.getName();
+
             boolean logField = true;
-            Param param = field.getAnnotation(Param.class);
+            Param param = field.getParam();
             if (param != null) {
                 RoleType[] allowedRoles = param.authorized();
                 if (allowedRoles.length > 0) {
@@ -262,15 +420,7 @@ public class ApiResponseSerializer {
                 }
             }
 
-            field.setAccessible(true);
-            Object fieldValue = null;
-            try {
-                fieldValue = field.get(obj);
-            } catch (IllegalArgumentException e) {
-                throw new CloudRuntimeException("how illegal is it?", e);
-            } catch (IllegalAccessException e) {
-                throw new CloudRuntimeException("come on...we set accessible already", e);
-            }
+            Object fieldValue = field.get(obj);
             if (fieldValue != null) {
                 if (fieldValue instanceof ResponseObject) {
                     ResponseObject subObj = (ResponseObject)fieldValue;
@@ -289,9 +439,7 @@ public class ApiResponseSerializer {
                     for (Object value : subResponseList) {
                         if (value instanceof ResponseObject) {
                             ResponseObject subObj = (ResponseObject)value;
-                            if (serializedName != null) {
-                                subObj.setObjectName(serializedName.value());
-                            }
+                            subObj.setObjectName(serializedName);
                             serializeResponseObjXML(sb, log, subObj);
                         } else if (value instanceof ExceptionProxyObject) {
                             // Only exception reponses carry a list of
@@ -300,8 +448,8 @@ public class ApiResponseSerializer {
                             // If this is the first IdentityProxy field
                             // encountered, put in a uuidList tag.
                             if (!usedUuidList) {
-                                sb.append("<" + serializedName.value() + ">");
-                                log.append("<" + serializedName.value() + ">");
+                                sb.append("<" + serializedName + ">");
+                                log.append("<" + serializedName + ">");
                                 usedUuidList = true;
                             }
                             sb.append("<" + "uuid" + ">" + idProxy.getUuid() + "</" + "uuid" + ">");
@@ -313,29 +461,29 @@ public class ApiResponseSerializer {
                                 log.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
                             }
                         } else if (value instanceof String) {
-                            sb.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
+                            sb.append("<").append(serializedName).append(">").append((String)value).append("</").append(serializedName).append(">");
                             if (logField) {
-                                log.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
+                                log.append("<").append(serializedName).append(">").append((String)value).append("</").append(serializedName).append(">");
                             }
                         }
                     }
                     if (usedUuidList) {
                         // close the uuidList.
-                        sb.append("</").append(serializedName.value()).append(">");
-                        log.append("</").append(serializedName.value()).append(">");
+                        sb.append("</").append(serializedName).append(">");
+                        log.append("</").append(serializedName).append(">");
                     }
                 } else if (fieldValue instanceof Date) {
-                    sb.append("<").append(serializedName.value()).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName.value()).append(">");
-                    log.append("<").append(serializedName.value()).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName.value()).append(">");
+                    sb.append("<").append(serializedName).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName).append(">");
+                    log.append("<").append(serializedName).append(">").append(BaseCmd.getDateString((Date)fieldValue)).append("</").append(serializedName).append(">");
                 } else {
                     String resultString = escapeSpecialXmlChars(fieldValue.toString());
                     if (!(obj instanceof ExceptionResponse)) {
                         resultString = encodeParam(resultString);
                     }
 
-                    sb.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
+                    sb.append("<").append(serializedName).append(">").append(resultString).append("</").append(serializedName).append(">");
                     if (logField) {
-                        log.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
+                        log.append("<").append(serializedName).append(">").append(resultString).append("</").append(serializedName).append(">");
                     }
                 }
             }
@@ -377,4 +525,36 @@ public class ApiResponseSerializer {
         return value;
     }
 
+    /**
+     * Field of a response class carrying a serialized name, resolved once per class.
+     */
+    private static class ResponseField {
+        private final Field _field;
+        private final String _name;
+        private final Param _param;
+
+        public ResponseField(Field field, String name, Param param) {
+            _field = field;
+            _name = name;
+            _param = param;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public Param getParam() {
+            return _param;
+        }
+
+        public Object get(Object obj) {
+            try {
+                return _field.get(obj);
+            } catch (IllegalArgumentException e) {
+                throw new CloudRuntimeException("how illegal is it?", e);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("come on...we set accessible already", e);
+            }
+        }
+    }
 }
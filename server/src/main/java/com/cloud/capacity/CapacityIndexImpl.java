@@ -0,0 +1,375 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterDetailsVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.SearchCriteria;
+
+/**
+ * CapacityIndex kept by CapacityManagerImpl. Each host has an immutable entry that is replaced
+ * atomically whenever its capacity rows are written, so queries iterate the entries without locking.
+ * The overcommit ratios of the clusters are loaded when a cluster is first seen and on reconcile().
+ */
+public class CapacityIndexImpl implements CapacityIndex {
+    private static final Logger s_logger = Logger.getLogger(CapacityIndexImpl.class);
+
+    private final CapacityDao _capacityDao;
+    private final ClusterDetailsDao _clusterDetailsDao;
+
+    private final Map<Long, HostCapacity> _hosts = new ConcurrentHashMap<Long, HostCapacity>();
+    // cluster id -> {cpu overcommit ratio, memory overcommit ratio}
+    private final Map<Long, float[]> _overcommitRatios = new ConcurrentHashMap<Long, float[]>();
+
+    public CapacityIndexImpl(CapacityDao capacityDao, ClusterDetailsDao clusterDetailsDao) {
+        _capacityDao = capacityDao;
+        _clusterDetailsDao = clusterDetailsDao;
+    }
+
+    /**
+     * Records capacity rows that were just written, rows of other types than CPU and memory are ignored.
+     */
+    public void update(final Capacity... capacities) {
+        for (final Capacity capacity : capacities) {
+            if (capacity == null || capacity.getHostOrPoolId() == null || !isIndexed(capacity.getCapacityType())) {
+                continue;
+            }
+            _hosts.compute(capacity.getHostOrPoolId(), (hostId, entry) -> HostCapacity.with(entry, capacity));
+        }
+    }
+
+    /**
+     * Reloads the capacity rows of the host, for the writes that do not go through update().
+     */
+    public void refreshHost(final long hostId) {
+        final CapacityVO cpu = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_CPU);
+        final CapacityVO memory = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_MEMORY);
+        HostCapacity entry = null;
+        if (cpu != null) {
+            entry = HostCapacity.with(entry, cpu);
+        }
+        if (memory != null) {
+            entry = HostCapacity.with(entry, memory);
+        }
+        if (entry == null) {
+            _hosts.remove(hostId);
+        } else {
+            _hosts.put(hostId, entry);
+        }
+    }
+
+    public void removeHost(final long hostId) {
+        _hosts.remove(hostId);
+    }
+
+    /**
+     * Reloads all the host capacities and overcommit ratios, dropping the hosts that no longer have capacity rows.
+     */
+    public void reconcile() {
+        final SearchCriteria<CapacityVO> sc = _capacityDao.createSearchCriteria();
+        sc.addAnd("capacityType", SearchCriteria.Op.IN, Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY);
+        final List<CapacityVO> capacities = _capacityDao.search(sc, null);
+
+        final Map<Long, HostCapacity> hosts = new HashMap<Long, HostCapacity>();
+        final Set<Long> clusterIds = new HashSet<Long>();
+        for (final CapacityVO capacity : capacities) {
+            if (capacity.getHostOrPoolId() == null) {
+                continue;
+            }
+            hosts.put(capacity.getHostOrPoolId(), HostCapacity.with(hosts.get(capacity.getHostOrPoolId()), capacity));
+            if (capacity.getClusterId() != null) {
+                clusterIds.add(capacity.getClusterId());
+            }
+        }
+
+        _overcommitRatios.keySet().retainAll(clusterIds);
+        for (final Long clusterId : clusterIds) {
+            _overcommitRatios.put(clusterId, loadOvercommitRatios(clusterId));
+        }
+        _hosts.keySet().retainAll(hosts.keySet());
+        _hosts.putAll(hosts);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Reconciled the capacity index with the database, " + hosts.size() + " hosts in " + clusterIds.size() + " clusters");
+        }
+    }
+
+    public int size() {
+        return _hosts.size();
+    }
+
+    @Override
+    public Boolean checkIfHostHasCapacity(long hostId, int cpu, long ram, boolean checkFromReservedCapacity, float cpuOvercommitRatio, float memoryOvercommitRatio,
+        boolean considerReservedCapacity) {
+        final HostCapacity host = _hosts.get(hostId);
+        if (host == null || !host.hasCpu || !host.hasMemory) {
+            return null;
+        }
+
+        if (checkFromReservedCapacity) {
+            return host.cpuReserved >= cpu && host.memoryReserved >= ram;
+        }
+        final long totalCpu = (long)(host.cpuTotal * cpuOvercommitRatio);
+        final long totalMemory = (long)(host.memoryTotal * memoryOvercommitRatio);
+        final long reservedCpu = considerReservedCapacity ? host.cpuReserved : 0;
+        final long reservedMemory = considerReservedCapacity ? host.memoryReserved : 0;
+        return reservedCpu + host.cpuUsed + cpu <= totalCpu && reservedMemory + host.memoryUsed + ram <= totalMemory;
+    }
+
+    @Override
+    public List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, boolean isZone) {
+        final Set<Long> withCpu = new HashSet<Long>();
+        final Set<Long> withMemory = new HashSet<Long>();
+        for (final HostCapacity host : _hosts.values()) {
+            if (host.clusterId == null || !(isZone ? host.zoneId == id : host.podId != null && host.podId == id)) {
+                continue;
+            }
+            addIfEnoughCapacity(host, host.clusterId, requiredCpu, requiredRam, withCpu, withMemory);
+        }
+        withCpu.retainAll(withMemory);
+        return new ArrayList<Long>(withCpu);
+    }
+
+    @Override
+    public Pair<List<Long>, Map<Long, Double>> orderClustersByAggregateCapacity(long id, short capacityTypeForOrdering, boolean isZone) {
+        if (!isIndexed(capacityTypeForOrdering)) {
+            return null;
+        }
+        final Map<Long, double[]> sums = new HashMap<Long, double[]>();
+        for (final HostCapacity host : _hosts.values()) {
+            if (host.clusterId == null || !(isZone ? host.zoneId == id : host.podId != null && host.podId == id)) {
+                continue;
+            }
+            addAllocated(host, host.clusterId, capacityTypeForOrdering, sums);
+        }
+        return orderByAllocated(sums);
+    }
+
+    @Override
+    public List<Long> listPodsByHostCapacities(long zoneId, int requiredCpu, long requiredRam) {
+        final Set<Long> withCpu = new HashSet<Long>();
+        final Set<Long> withMemory = new HashSet<Long>();
+        for (final HostCapacity host : _hosts.values()) {
+            if (host.zoneId != zoneId || host.podId == null || host.clusterId == null) {
+                continue;
+            }
+            addIfEnoughCapacity(host, host.podId, requiredCpu, requiredRam, withCpu, withMemory);
+        }
+        withCpu.retainAll(withMemory);
+        return new ArrayList<Long>(withCpu);
+    }
+
+    @Override
+    public Pair<List<Long>, Map<Long, Double>> orderPodsByAggregateCapacity(long zoneId, short capacityTypeForOrdering) {
+        if (!isIndexed(capacityTypeForOrdering)) {
+            return null;
+        }
+        final Map<Long, double[]> sums = new HashMap<Long, double[]>();
+        for (final HostCapacity host : _hosts.values()) {
+            if (host.zoneId != zoneId || host.podId == null || host.clusterId == null) {
+                continue;
+            }
+            addAllocated(host, host.podId, capacityTypeForOrdering, sums);
+        }
+        return orderByAllocated(sums);
+    }
+
+    @Override
+    public List<Long> listHostsWithEnoughCapacity(int requiredCpu, long requiredRam, long clusterId) {
+        final List<Long> hostIds = new ArrayList<Long>();
+        for (final Map.Entry<Long, HostCapacity> entry : _hosts.entrySet()) {
+            final HostCapacity host = entry.getValue();
+            if (host.clusterId == null || host.clusterId != clusterId || !host.hasCpu || !host.hasMemory) {
+                continue;
+            }
+            final float[] ratios = getOvercommitRatios(clusterId);
+            if (host.cpuTotal * (double)ratios[0] - host.cpuUsed >= requiredCpu && host.memoryTotal * (double)ratios[1] - host.memoryUsed >= requiredRam) {
+                hostIds.add(entry.getKey());
+            }
+        }
+        return hostIds;
+    }
+
+    @Override
+    public List<Long> orderHostsByFreeCapacity(Long zoneId, Long clusterId, short capacityTypeForOrdering) {
+        if (!isIndexed(capacityTypeForOrdering)) {
+            return null;
+        }
+        final Map<Long, Double> free = new HashMap<Long, Double>();
+        for (final Map.Entry<Long, HostCapacity> entry : _hosts.entrySet()) {
+            final HostCapacity host = entry.getValue();
+            if (zoneId != null && host.zoneId != zoneId || clusterId != null && (host.clusterId == null || !host.clusterId.equals(clusterId))) {
+                continue;
+            }
+            if (capacityTypeForOrdering == Capacity.CAPACITY_TYPE_CPU && host.hasCpu && host.cpuTotal > 0) {
+                free.put(entry.getKey(), (host.cpuTotal - (host.cpuUsed + host.cpuReserved)) / (double)host.cpuTotal);
+            } else if (capacityTypeForOrdering == Capacity.CAPACITY_TYPE_MEMORY && host.hasMemory && host.memoryTotal > 0) {
+                free.put(entry.getKey(), (host.memoryTotal - (host.memoryUsed + host.memoryReserved)) / (double)host.memoryTotal);
+            }
+        }
+        final List<Long> hostIds = new ArrayList<Long>(free.keySet());
+        Collections.sort(hostIds, new Comparator<Long>() {
+            @Override
+            public int compare(Long h1, Long h2) {
+                return Double.compare(free.get(h2), free.get(h1));
+            }
+        });
+        return hostIds;
+    }
+
+    private static boolean isIndexed(short capacityType) {
+        return capacityType == Capacity.CAPACITY_TYPE_CPU || capacityType == Capacity.CAPACITY_TYPE_MEMORY;
+    }
+
+    /**
+     * Same condition as the CapacityDao queries: (total * overcommit ratio) - used + reserved >= required
+     */
+    private void addIfEnoughCapacity(final HostCapacity host, final Long key, final int requiredCpu, final long requiredRam, final Set<Long> withCpu,
+        final Set<Long> withMemory) {
+        final float[] ratios = getOvercommitRatios(host.clusterId);
+        if (host.hasCpu && host.cpuTotal * (double)ratios[0] - host.cpuUsed + host.cpuReserved >= requiredCpu) {
+            withCpu.add(key);
+        }
+        if (host.hasMemory && host.memoryTotal * (double)ratios[1] - host.memoryUsed + host.memoryReserved >= requiredRam) {
+            withMemory.add(key);
+        }
+    }
+
+    private void addAllocated(final HostCapacity host, final Long key, final short capacityType, final Map<Long, double[]> sums) {
+        final boolean cpu = capacityType == Capacity.CAPACITY_TYPE_CPU;
+        if (cpu ? !host.hasCpu : !host.hasMemory) {
+            return;
+        }
+        final float[] ratios = getOvercommitRatios(host.clusterId);
+        double[] sum = sums.get(key);
+        if (sum == null) {
+            sum = new double[2];
+            sums.put(key, sum);
+        }
+        if (cpu) {
+            sum[0] += host.cpuUsed + host.cpuReserved;
+            sum[1] += host.cpuTotal * (double)ratios[0];
+        } else {
+            sum[0] += host.memoryUsed + host.memoryReserved;
+            sum[1] += host.memoryTotal * (double)ratios[1];
+        }
+    }
+
+    /**
+     * Orders the keys by allocated / total capacity, ascending.
+     */
+    private static Pair<List<Long>, Map<Long, Double>> orderByAllocated(final Map<Long, double[]> sums) {
+        final Map<Long, Double> allocated = new HashMap<Long, Double>();
+        for (final Map.Entry<Long, double[]> entry : sums.entrySet()) {
+            final double[] sum = entry.getValue();
+            allocated.put(entry.getKey(), sum[1] > 0 ? sum[0] / sum[1] : 0d);
+        }
+        final List<Long> ids = new ArrayList<Long>(allocated.keySet());
+        Collections.sort(ids, new Comparator<Long>() {
+            @Override
+            public int compare(Long id1, Long id2) {
+                return Double.compare(allocated.get(id1), allocated.get(id2));
+            }
+        });
+        return new Pair<List<Long>, Map<Long, Double>>(ids, allocated);
+    }
+
+    private float[] getOvercommitRatios(final long clusterId) {
+        float[] ratios = _overcommitRatios.get(clusterId);
+        if (ratios == null) {
+            ratios = loadOvercommitRatios(clusterId);
+            _overcommitRatios.put(clusterId, ratios);
+        }
+        return ratios;
+    }
+
+    private float[] loadOvercommitRatios(final long clusterId) {
+        return new float[] {loadOvercommitRatio(clusterId, "cpuOvercommitRatio"), loadOvercommitRatio(clusterId, "memoryOvercommitRatio")};
+    }
+
+    private float loadOvercommitRatio(final long clusterId, final String name) {
+        final ClusterDetailsVO detail = _clusterDetailsDao.findDetail(clusterId, name);
+        if (detail == null || detail.getValue() == null) {
+            return 1f;
+        }
+        try {
+            return Float.parseFloat(detail.getValue());
+        } catch (NumberFormatException e) {
+            s_logger.warn("Invalid " + name + " for cluster " + clusterId + ": " + detail.getValue());
+            return 1f;
+        }
+    }
+
+    private static final class HostCapacity {
+        final long zoneId;
+        final Long podId;
+        final Long clusterId;
+
+        final boolean hasCpu;
+        final long cpuTotal;
+        final long cpuUsed;
+        final long cpuReserved;
+
+        final boolean hasMemory;
+        final long memoryTotal;
+        final long memoryUsed;
+        final long memoryReserved;
+
+        private HostCapacity(long zoneId, Long podId, Long clusterId, boolean hasCpu, long cpuTotal, long cpuUsed, long cpuReserved, boolean hasMemory,
+            long memoryTotal, long memoryUsed, long memoryReserved) {
+            this.zoneId = zoneId;
+            this.podId = podId;
+            this.clusterId = clusterId;
+            this.hasCpu = hasCpu;
+            this.cpuTotal = cpuTotal;
+            this.cpuUsed = cpuUsed;
+            this.cpuReserved = cpuReserved;
+            this.hasMemory = hasMemory;
+            this.memoryTotal = memoryTotal;
+            this.memoryUsed = memoryUsed;
+            this.memoryReserved = memoryReserved;
+        }
+
+        /**
+         * @return a copy of entry, possibly null, with the values of the capacity row
+         */
+        static HostCapacity with(final HostCapacity entry, final Capacity capacity) {
+            final long zoneId = capacity.getDataCenterId() != null ? capacity.getDataCenterId() : 0;
+            if (capacity.getCapacityType() == Capacity.CAPACITY_TYPE_CPU) {
+                return new HostCapacity(zoneId, capacity.getPodId(), capacity.getClusterId(), true, capacity.getTotalCapacity(), capacity.getUsedCapacity(),
+                        capacity.getReservedCapacity(), entry != null && entry.hasMemory, entry != null ? entry.memoryTotal : 0, entry != null ? entry.memoryUsed : 0,
+                        entry != null ? entry.memoryReserved : 0);
+            }
+            return new HostCapacity(zoneId, capacity.getPodId(), capacity.getClusterId(), entry != null && entry.hasCpu, entry != null ? entry.cpuTotal : 0,
+                    entry != null ? entry.cpuUsed : 0, entry != null ? entry.cpuReserved : 0, true, capacity.getTotalCapacity(), capacity.getUsedCapacity(),
+                    capacity.getReservedCapacity());
+        }
+    }
+}
@@ -17,9 +17,16 @@
 package com.cloud.capacity;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -33,6 +40,7 @@ import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 import org.apache.log4j.Logger;
 
@@ -75,6 +83,7 @@ import com.cloud.utils.DateUtil;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
@@ -141,6 +150,9 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Inject
     MessageBus _messageBus;
 
+    private CapacityIndexImpl _capacityIndex;
+    private ScheduledExecutorService _capacityIndexExecutor;
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         _vmCapacityReleaseInterval = NumbersUtil.parseInt(_configDao.getValue(Config.CapacitySkipcountingHours.key()), 3600);
@@ -156,14 +168,41 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     public boolean start() {
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_PREPARE_MAINTENANCE_AFTER, this);
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_CANCEL_MAINTENANCE_AFTER, this);
+
+        if (CapacityIndexEnabled.value()) {
+            _capacityIndex = new CapacityIndexImpl(_capacityDao, _clusterDetailsDao);
+            _capacityIndex.reconcile();
+            int interval = CapacityIndexReconcileInterval.value();
+            _capacityIndexExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CapacityIndex-Reconciler"));
+            _capacityIndexExecutor.scheduleWithFixedDelay(new CapacityIndexReconcileTask(), interval, interval, TimeUnit.SECONDS);
+        }
         return true;
     }
 
     @Override
     public boolean stop() {
+        if (_capacityIndexExecutor != null) {
+            _capacityIndexExecutor.shutdownNow();
+        }
         return true;
     }
 
+    @Override
+    public CapacityIndex getCapacityIndex() {
+        return _capacityIndex;
+    }
+
+    protected class CapacityIndexReconcileTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            try {
+                _capacityIndex.reconcile();
+            } catch (Exception e) {
+                s_logger.warn("Unable to reconcile the capacity index with the database", e);
+            }
+        }
+    }
+
     @DB
     @Override
     public boolean releaseVmCapacity(VirtualMachine vm, final boolean moveFromReserved, final boolean moveToReservered, final Long hostId) {
@@ -194,6 +233,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             final long capacityCpuId = capacityCpu.getId();
             final long capacityMemoryId = capacityMemory.getId();
             final long capacityCpuCoreId = capacityCpuCore.getId();
+            final List<CapacityVO> updatedCapacities = new ArrayList<CapacityVO>();
 
             Transaction.execute(new TransactionCallbackNoReturn() {
                 @Override
@@ -266,8 +306,11 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMemory.getId(), capacityMemory);
                     _capacityDao.update(capacityCpuCore.getId(), capacityCpuCore);
+                    updatedCapacities.add(capacityCpu);
+                    updatedCapacities.add(capacityMemory);
                 }
             });
+            updateCapacityIndex(updatedCapacities);
 
             return true;
         } catch (Exception e) {
@@ -306,6 +349,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
             final long capacityCpuId = capacityCpu.getId();
             final long capacityMemId = capacityMem.getId();
             final long capacityCpuCoreId = capacityCpuCore.getId();
+            final List<CapacityVO> updatedCapacities = new ArrayList<CapacityVO>();
 
             Transaction.execute(new TransactionCallbackNoReturn() {
                 @Override
@@ -381,11 +425,11 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
                     if (hostHasCpuCapability) {
                         // first check from reserved capacity
-                        hostHasCapacity = checkIfHostHasCapacity(host.getId(), cpu, ram, true, cpuOvercommitRatio, memoryOvercommitRatio, true);
+                        hostHasCapacity = checkIfHostHasCapacityInDb(host.getId(), cpu, ram, true, cpuOvercommitRatio, memoryOvercommitRatio, true);
 
                         // if not reserved, check the free capacity
                         if (!hostHasCapacity)
-                            hostHasCapacity = checkIfHostHasCapacity(host.getId(), cpu, ram, false, cpuOvercommitRatio, memoryOvercommitRatio, true);
+                            hostHasCapacity = checkIfHostHasCapacityInDb(host.getId(), cpu, ram, false, cpuOvercommitRatio, memoryOvercommitRatio, true);
                     }
 
                     if (!hostHasCapacity || !hostHasCpuCapability) {
@@ -395,8 +439,11 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     _capacityDao.update(capacityCpu.getId(), capacityCpu);
                     _capacityDao.update(capacityMem.getId(), capacityMem);
                     _capacityDao.update(capacityCpuCore.getId(), capacityCpuCore);
+                    updatedCapacities.add(capacityCpu);
+                    updatedCapacities.add(capacityMem);
                 }
             });
+            updateCapacityIndex(updatedCapacities);
         } catch (Exception e) {
             s_logger.error("Exception allocating VM capacity", e);
             if (e instanceof CloudRuntimeException) {
@@ -408,9 +455,14 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Override
     public boolean checkIfHostHasCpuCapability(long hostId, Integer cpuNum, Integer cpuSpeed) {
+        return checkIfHostHasCpuCapability(_hostDao.findById(hostId), cpuNum, cpuSpeed);
+    }
+
+    @Override
+    public boolean checkIfHostHasCpuCapability(Host host, Integer cpuNum, Integer cpuSpeed) {
 
         // Check host can support the Cpu Number and Speed.
-        Host host = _hostDao.findById(hostId);
+        long hostId = host.getId();
         boolean isCpuNumGood = host.getCpus().intValue() >= cpuNum;
         boolean isCpuSpeedGood = host.getSpeed().intValue() >= cpuSpeed;
         if (isCpuNumGood && isCpuSpeedGood) {
@@ -431,6 +483,78 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public boolean checkIfHostHasCapacity(long hostId, Integer cpu, long ram, boolean checkFromReservedCapacity, float cpuOvercommitRatio, float memoryOvercommitRatio,
         boolean considerReservedCapacity) {
+        if (_capacityIndex != null) {
+            Boolean hasCapacity = _capacityIndex.checkIfHostHasCapacity(hostId, cpu, ram, checkFromReservedCapacity, cpuOvercommitRatio, memoryOvercommitRatio,
+                    considerReservedCapacity);
+            if (hasCapacity != null) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Capacity index says host: " + hostId + (hasCapacity ? " has" : " does not have") + " enough capacity for requested CPU: " + cpu +
+                        " and requested RAM: " + toHumanReadableSize(ram) + ", alloc_from_last_host?: " + checkFromReservedCapacity + ", considerReservedCapacity?: " +
+                        considerReservedCapacity);
+                }
+                return hasCapacity;
+            }
+        }
+        return checkIfHostHasCapacityInDb(hostId, cpu, ram, checkFromReservedCapacity, cpuOvercommitRatio, memoryOvercommitRatio, considerReservedCapacity);
+    }
+
+    @Override
+    public Set<Long> listHostIdsWithCapacity(List<? extends Host> hosts, Integer cpu, long ram, boolean checkFromReservedCapacity,
+        Map<Long, Float[]> clusterOvercommitRatios, boolean considerReservedCapacity) {
+        Set<Long> hostIdsWithCapacity = new HashSet<Long>();
+        List<Host> hostsNotIndexed = new ArrayList<Host>();
+        for (Host host : hosts) {
+            Float[] overcommitRatios = clusterOvercommitRatios.get(host.getClusterId());
+            Boolean hasCapacity = null;
+            if (_capacityIndex != null) {
+                hasCapacity = _capacityIndex.checkIfHostHasCapacity(host.getId(), cpu, ram, checkFromReservedCapacity, overcommitRatios[0], overcommitRatios[1],
+                    considerReservedCapacity);
+            }
+            if (hasCapacity == null) {
+                hostsNotIndexed.add(host);
+            } else if (hasCapacity) {
+                hostIdsWithCapacity.add(host.getId());
+            }
+        }
+        if (hostsNotIndexed.isEmpty()) {
+            return hostIdsWithCapacity;
+        }
+
+        // hosts the index can't answer for are checked against the capacity rows, loaded in one go
+        List<Long> hostIds = new ArrayList<Long>(hostsNotIndexed.size());
+        for (Host host : hostsNotIndexed) {
+            hostIds.add(host.getId());
+        }
+        Map<Long, CapacityVO> cpuCapacities = new HashMap<Long, CapacityVO>();
+        Map<Long, CapacityVO> memCapacities = new HashMap<Long, CapacityVO>();
+        for (CapacityVO capacity : _capacityDao.listByHostIdsAndTypes(hostIds, Arrays.asList(Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY))) {
+            if (capacity.getCapacityType() == Capacity.CAPACITY_TYPE_CPU) {
+                cpuCapacities.put(capacity.getHostOrPoolId(), capacity);
+            } else {
+                memCapacities.put(capacity.getHostOrPoolId(), capacity);
+            }
+        }
+        for (Host host : hostsNotIndexed) {
+            Float[] overcommitRatios = clusterOvercommitRatios.get(host.getClusterId());
+            if (checkIfHostHasCapacity(host.getId(), cpuCapacities.get(host.getId()), memCapacities.get(host.getId()), cpu, ram, checkFromReservedCapacity,
+                    overcommitRatios[0], overcommitRatios[1], considerReservedCapacity)) {
+                hostIdsWithCapacity.add(host.getId());
+            }
+        }
+        return hostIdsWithCapacity;
+    }
+
+    private boolean checkIfHostHasCapacityInDb(long hostId, Integer cpu, long ram, boolean checkFromReservedCapacity, float cpuOvercommitRatio, float memoryOvercommitRatio,
+        boolean considerReservedCapacity) {
+        CapacityVO capacityCpu = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_CPU);
+        CapacityVO capacityMem = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_MEMORY);
+
+        return checkIfHostHasCapacity(hostId, capacityCpu, capacityMem, cpu, ram, checkFromReservedCapacity, cpuOvercommitRatio, memoryOvercommitRatio,
+            considerReservedCapacity);
+    }
+
+    private boolean checkIfHostHasCapacity(long hostId, CapacityVO capacityCpu, CapacityVO capacityMem, Integer cpu, long ram, boolean checkFromReservedCapacity,
+        float cpuOvercommitRatio, float memoryOvercommitRatio, boolean considerReservedCapacity) {
         boolean hasCapacity = false;
 
         if (s_logger.isDebugEnabled()) {
@@ -438,9 +562,6 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                 " , cpuOverprovisioningFactor: " + cpuOvercommitRatio);
         }
 
-        CapacityVO capacityCpu = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_CPU);
-        CapacityVO capacityMem = _capacityDao.findByHostIdType(hostId, Capacity.CAPACITY_TYPE_MEMORY);
-
         if (capacityCpu == null || capacityMem == null) {
             if (capacityCpu == null) {
                 if (s_logger.isDebugEnabled()) {
@@ -887,6 +1008,18 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
         }
 
+        if (_capacityIndex != null) {
+            _capacityIndex.refreshHost(host.getId());
+        }
+    }
+
+    /**
+     * Records in the capacity index the capacity rows that were just updated.
+     */
+    private void updateCapacityIndex(List<CapacityVO> capacities) {
+        if (_capacityIndex != null) {
+            _capacityIndex.update(capacities.toArray(new Capacity[capacities.size()]));
+        }
     }
 
     @Override
@@ -1034,6 +1167,10 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                         Capacity.CAPACITY_TYPE_MEMORY);
                 _capacityDao.persist(capacity);
             }
+
+            if (_capacityIndex != null) {
+                _capacityIndex.refreshHost(server.getId());
+            }
         }
 
     }
@@ -1122,6 +1259,9 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Override
     public void processHostRemoved(long hostId, long clusterId) {
+        if (_capacityIndex != null) {
+            _capacityIndex.removeHost(hostId);
+        }
     }
 
     @Override
@@ -1155,8 +1295,9 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Override
     public void processDeletHostEventAfter(Host host) {
-        // TODO Auto-generated method stub
-
+        if (_capacityIndex != null) {
+            _capacityIndex.removeHost(host.getId());
+        }
     }
 
     @Override
@@ -1203,6 +1344,39 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         return false;
     }
 
+    @Override
+    public Set<Long> listHostIdsReachingMaxGuestLimit(List<? extends Host> hosts) {
+        Set<Long> hostIdsAtLimit = new HashSet<Long>();
+        if (hosts.isEmpty()) {
+            return hostIdsAtLimit;
+        }
+        List<Long> hostIds = new ArrayList<Long>(hosts.size());
+        for (Host host : hosts) {
+            hostIds.add(host.getId());
+        }
+        Map<Long, Long> vmCounts = _vmDao.countActiveByHostIds(hostIds);
+        // hosts of a cluster usually share the hypervisor version, look each limit up once
+        Map<String, Long> maxGuestLimits = new HashMap<String, Long>();
+        for (Host host : hosts) {
+            Long vmCount = vmCounts.get(host.getId());
+            if (vmCount == null) {
+                vmCount = 0L;
+            }
+            String limitKey = host.getHypervisorType() + ":" + host.getHypervisorVersion();
+            Long maxGuestLimit = maxGuestLimits.get(limitKey);
+            if (maxGuestLimit == null) {
+                maxGuestLimit = _hypervisorCapabilitiesDao.getMaxGuestsLimit(host.getHypervisorType(), host.getHypervisorVersion());
+                maxGuestLimits.put(limitKey, maxGuestLimit);
+            }
+            if (vmCount.longValue() >= maxGuestLimit.longValue()) {
+                s_logger.info("Host name: " + host.getName() + ", hostId: " + host.getId() + " already reached max Running VMs(count includes system VMs), limit: " +
+                    maxGuestLimit + ", Running VM count: " + vmCount.longValue());
+                hostIdsAtLimit.add(host.getId());
+            }
+        }
+        return hostIdsAtLimit;
+    }
+
     @Override
     public String getConfigComponentName() {
         return CapacityManager.class.getSimpleName();
@@ -1211,6 +1385,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] {CpuOverprovisioningFactor, MemOverprovisioningFactor, StorageCapacityDisableThreshold, StorageOverprovisioningFactor,
-            StorageAllocatedCapacityDisableThreshold, StorageOperationsExcludeCluster, VmwareCreateCloneFull, ImageStoreNFSVersion};
+            StorageAllocatedCapacityDisableThreshold, StorageOperationsExcludeCluster, VmwareCreateCloneFull, ImageStoreNFSVersion, CapacityIndexEnabled,
+            CapacityIndexReconcileInterval};
     }
 }
@@ -18,6 +18,7 @@ package com.cloud.deploy;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -67,7 +68,9 @@ import com.cloud.agent.api.Command;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.api.StartupRoutingCommand;
 import com.cloud.agent.manager.allocator.HostAllocator;
+import com.cloud.capacity.Capacity;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.CapacityVO;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.ConfigurationManagerImpl;
@@ -142,6 +145,8 @@ public class DeploymentPlanningManagerImpl extends ManagerBase implements Deploy
 StateListener<State, VirtualMachine.Event, VirtualMachine> {
 
     private static final Logger s_logger = Logger.getLogger(DeploymentPlanningManagerImpl.class);
+    private static final String HOST_AFFINITY_TYPE = "host affinity";
+    private static final String HOST_ANTI_AFFINITY_TYPE = "host anti-affinity";
     @Inject
     AgentManager _agentMgr;
     @Inject
@@ -254,6 +259,14 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
     @Override
     public DeployDestination planDeployment(VirtualMachineProfile vmProfile, DeploymentPlan plan, ExcludeList avoids, DeploymentPlanner planner)
             throws InsufficientServerCapacityException, AffinityConflictException {
+        return planDeployment(vmProfile, plan, avoids, planner, null);
+    }
+
+    /**
+     * @param batch the state shared by the vms of a planDeployments call, null when a single vm is planned
+     */
+    public DeployDestination planDeployment(VirtualMachineProfile vmProfile, DeploymentPlan plan, ExcludeList avoids, DeploymentPlanner planner,
+            BatchPlanningContext batch) throws InsufficientServerCapacityException, AffinityConflictException {
 
         ServiceOffering offering = vmProfile.getServiceOffering();
         int cpu_requested = offering.getCpu() * offering.getSpeed();
@@ -263,7 +276,7 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
 
 
         if (vm.getType() == VirtualMachine.Type.User || vm.getType() == VirtualMachine.Type.DomainRouter) {
-            checkForNonDedicatedResources(vmProfile, dc, avoids);
+            checkForNonDedicatedResources(vmProfile, dc, avoids, batch);
         }
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("DeploymentPlanner allocation algorithm: " + planner);
@@ -513,7 +526,7 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
                             new ExcludeList(avoids.getDataCentersToAvoid(), avoids.getPodsToAvoid(), avoids.getClustersToAvoid(), avoids.getHostsToAvoid(),
                                     avoids.getPoolsToAvoid());
 
-                    clusterList = ((DeploymentClusterPlanner)planner).orderClusters(vmProfile, plan, avoids);
+                    clusterList = orderClusters((DeploymentClusterPlanner)planner, vmProfile, plan, avoids, batch);
 
                     if (clusterList != null && !clusterList.isEmpty()) {
                         // planner refactoring. call allocators to list hosts
@@ -558,6 +571,192 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
         return dest;
     }
 
+    /**
+     * State shared by the vms of one planDeployments call, so that the work that does not depend on the individual vm is done once
+     * per batch instead of once per vm.
+     */
+    public static class BatchPlanningContext {
+        // host id -> {cpu, memory} capacity rows of the hosts of the zone, read once when the batch starts
+        final Map<Long, CapacityVO[]> hostCapacities;
+        // host id -> {cpu, ram} planned for the vms of this batch, not yet in op_host_capacity
+        final Map<Long, long[]> plannedUsage = new HashMap<Long, long[]>();
+        // cluster id -> {cpu overcommit ratio, memory overcommit ratio}
+        final Map<Long, float[]> overcommitRatios = new HashMap<Long, float[]>();
+        // affinity group id -> hosts picked for the batch members of the group
+        final Map<Long, Set<Long>> groupHosts = new HashMap<Long, Set<Long>>();
+        // vms of the same kind and avoid set -> cluster ordering of the planner and the clusters it put in the avoid set
+        final Map<String, Pair<List<Long>, Set<Long>>> clusterOrderings = new HashMap<String, Pair<List<Long>, Set<Long>>>();
+        // zone id -> {pods, clusters, hosts} of the zone that are dedicated
+        final Map<Long, List<List<Long>>> dedicatedResources = new HashMap<Long, List<List<Long>>>();
+
+        BatchPlanningContext(Map<Long, CapacityVO[]> hostCapacities) {
+            this.hostCapacities = hostCapacities;
+        }
+    }
+
+    @Override
+    public List<DeployDestination> planDeployments(List<VirtualMachineProfile> vmProfiles, DeploymentPlan plan, ExcludeList avoids, DeploymentPlanner planner)
+            throws InsufficientServerCapacityException, AffinityConflictException {
+        List<DeployDestination> destinations = new ArrayList<DeployDestination>(vmProfiles.size());
+        BatchPlanningContext batch = new BatchPlanningContext(loadHostCapacities(plan.getDataCenterId()));
+
+        for (VirtualMachineProfile vmProfile : vmProfiles) {
+            VirtualMachine vm = vmProfile.getVirtualMachine();
+            ServiceOffering offering = vmProfile.getServiceOffering();
+            long cpuRequested = offering.getCpu() * offering.getSpeed();
+            long ramRequested = offering.getRamSize() * 1024L * 1024L;
+
+            // each vm gets its own copies, planDeployment and the affinity processors update them
+            ExcludeList vmAvoids = new ExcludeList(avoids.getDataCentersToAvoid(), avoids.getPodsToAvoid(), avoids.getClustersToAvoid(), avoids.getHostsToAvoid(),
+                    avoids.getPoolsToAvoid());
+            DeploymentPlan vmPlan = copyPlan(plan, plan.getPodId(), plan.getClusterId(), plan.getHostId());
+
+            List<AffinityGroupVMMapVO> antiAffinityGroups = _affinityGroupVMMapDao.findByVmIdType(vm.getId(), HOST_ANTI_AFFINITY_TYPE);
+            for (AffinityGroupVMMapVO groupMapping : antiAffinityGroups) {
+                Set<Long> groupHosts = batch.groupHosts.get(groupMapping.getAffinityGroupId());
+                if (groupHosts != null) {
+                    for (Long hostId : groupHosts) {
+                        vmAvoids.addHost(hostId);
+                    }
+                }
+            }
+            List<AffinityGroupVMMapVO> affinityGroups = _affinityGroupVMMapDao.findByVmIdType(vm.getId(), HOST_AFFINITY_TYPE);
+            for (AffinityGroupVMMapVO groupMapping : affinityGroups) {
+                Set<Long> groupHosts = batch.groupHosts.get(groupMapping.getAffinityGroupId());
+                if (groupHosts != null && !groupHosts.isEmpty() && vmPlan.getHostId() == null) {
+                    // the group members of this batch have to follow the first one
+                    vmPlan = copyPlan(plan, null, null, groupHosts.iterator().next());
+                    break;
+                }
+            }
+
+            DeployDestination dest = null;
+            while (true) {
+                dest = planDeployment(vmProfile, vmPlan, vmAvoids, planner, batch);
+                if (dest == null || dest.getHost() == null || vm.getHypervisorType() == HypervisorType.BareMetal) {
+                    break;
+                }
+                long hostId = dest.getHost().getId();
+                long[] usage = batch.plannedUsage.get(hostId);
+                if (usage == null || hostFitsBatchUsage(batch, dest.getHost(), cpuRequested + usage[0], ramRequested + usage[1])) {
+                    break;
+                }
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Host " + hostId + " does not have enough capacity left for VM " + vm.getId() + " after the VMs already planned on it in this batch");
+                }
+                vmAvoids.addHost(hostId);
+            }
+
+            destinations.add(dest);
+            if (dest == null || dest.getHost() == null) {
+                continue;
+            }
+            long hostId = dest.getHost().getId();
+            long[] usage = batch.plannedUsage.get(hostId);
+            if (usage == null) {
+                usage = new long[2];
+                batch.plannedUsage.put(hostId, usage);
+            }
+            usage[0] += cpuRequested;
+            usage[1] += ramRequested;
+            for (AffinityGroupVMMapVO groupMapping : antiAffinityGroups) {
+                addBatchGroupHost(batch.groupHosts, groupMapping.getAffinityGroupId(), hostId);
+            }
+            for (AffinityGroupVMMapVO groupMapping : affinityGroups) {
+                addBatchGroupHost(batch.groupHosts, groupMapping.getAffinityGroupId(), hostId);
+            }
+        }
+        return destinations;
+    }
+
+    /**
+     * Copies the plan for one vm of a batch, keeping everything but the pod, cluster and host to deploy to.
+     */
+    private static DeploymentPlan copyPlan(DeploymentPlan plan, Long podId, Long clusterId, Long hostId) {
+        DataCenterDeployment copy = new DataCenterDeployment(plan.getDataCenterId(), podId, clusterId, hostId, plan.getPoolId(), plan.getPhysicalNetworkId(),
+                plan.getReservationContext());
+        copy.setAvoids(plan.getAvoids());
+        copy.setPreferredHosts(plan.getPreferredHosts());
+        copy.setMigrationPlan(plan.isMigrationPlan());
+        return copy;
+    }
+
+    private Map<Long, CapacityVO[]> loadHostCapacities(long dcId) {
+        Map<Long, CapacityVO[]> hostCapacities = new HashMap<Long, CapacityVO[]>();
+        List<Long> hostIds = _hostDao.listAllHosts(dcId);
+        for (CapacityVO capacity : _capacityDao.listByHostIdsAndTypes(hostIds, Arrays.asList(Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY))) {
+            CapacityVO[] capacities = hostCapacities.get(capacity.getHostOrPoolId());
+            if (capacities == null) {
+                capacities = new CapacityVO[2];
+                hostCapacities.put(capacity.getHostOrPoolId(), capacities);
+            }
+            capacities[capacity.getCapacityType() == Capacity.CAPACITY_TYPE_CPU ? 0 : 1] = capacity;
+        }
+        return hostCapacities;
+    }
+
+    /**
+     * Checks the cpu and ram planned on the host by the batch against the capacity of the host when the batch started. Hosts the
+     * snapshot does not cover are checked against their current capacity.
+     */
+    private boolean hostFitsBatchUsage(BatchPlanningContext batch, Host host, long cpu, long ram) {
+        float[] overcommitRatios = batch.overcommitRatios.get(host.getClusterId());
+        if (overcommitRatios == null) {
+            overcommitRatios = new float[] {_capacityMgr.getClusterOverProvisioningFactor(host.getClusterId(), Capacity.CAPACITY_TYPE_CPU),
+                    _capacityMgr.getClusterOverProvisioningFactor(host.getClusterId(), Capacity.CAPACITY_TYPE_MEMORY)};
+            batch.overcommitRatios.put(host.getClusterId(), overcommitRatios);
+        }
+        CapacityVO[] capacities = batch.hostCapacities.get(host.getId());
+        if (capacities == null || capacities[0] == null || capacities[1] == null) {
+            return _capacityMgr.checkIfHostHasCapacity(host.getId(), (int)cpu, ram, false, overcommitRatios[0], overcommitRatios[1], true);
+        }
+        CapacityVO cpuCapacity = capacities[0];
+        CapacityVO memCapacity = capacities[1];
+        return cpuCapacity.getUsedCapacity() + cpuCapacity.getReservedCapacity() + cpu <= (long)(cpuCapacity.getTotalCapacity() * overcommitRatios[0])
+                && memCapacity.getUsedCapacity() + memCapacity.getReservedCapacity() + ram <= (long)(memCapacity.getTotalCapacity() * overcommitRatios[1]);
+    }
+
+    /**
+     * Orders the clusters once for all the vms of a batch that are of the same kind and have the same pods and clusters to avoid.
+     */
+    private List<Long> orderClusters(DeploymentClusterPlanner planner, VirtualMachineProfile vmProfile, DeploymentPlan plan, ExcludeList avoids,
+            BatchPlanningContext batch) throws InsufficientServerCapacityException {
+        if (batch == null) {
+            return planner.orderClusters(vmProfile, plan, avoids);
+        }
+        VirtualMachine vm = vmProfile.getVirtualMachine();
+        String orderingKey = planner.getName() + "/" + vmProfile.getServiceOffering().getId() + "/" + vm.getTemplateId() + "/" + vm.getAccountId() + "/" +
+                vm.getHypervisorType() + "/" + plan.getPodId() + "/" + plan.getClusterId() + "/" + new TreeSet<Long>(nullToEmpty(avoids.getPodsToAvoid())) + "/" +
+                new TreeSet<Long>(nullToEmpty(avoids.getClustersToAvoid()));
+        Pair<List<Long>, Set<Long>> ordering = batch.clusterOrderings.get(orderingKey);
+        if (ordering == null) {
+            Set<Long> avoidedBefore = new HashSet<Long>(nullToEmpty(avoids.getClustersToAvoid()));
+            List<Long> clusterList = planner.orderClusters(vmProfile, plan, avoids);
+            Set<Long> avoidedByPlanner = new HashSet<Long>(nullToEmpty(avoids.getClustersToAvoid()));
+            avoidedByPlanner.removeAll(avoidedBefore);
+            batch.clusterOrderings.put(orderingKey, new Pair<List<Long>, Set<Long>>(clusterList == null ? null : new ArrayList<Long>(clusterList), avoidedByPlanner));
+            return clusterList;
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Reusing the cluster ordering of this batch for VM " + vm.getId() + ": " + ordering.first());
+        }
+        avoids.addClusterList(ordering.second());
+        return ordering.first() == null ? null : new ArrayList<Long>(ordering.first());
+    }
+
+    private static Set<Long> nullToEmpty(Set<Long> ids) {
+        return ids == null ? Collections.<Long>emptySet() : ids;
+    }
+
+    private static void addBatchGroupHost(Map<Long, Set<Long>> batchGroupHosts, Long groupId, long hostId) {
+        Set<Long> groupHosts = batchGroupHosts.get(groupId);
+        if (groupHosts == null) {
+            groupHosts = new HashSet<Long>();
+            batchGroupHosts.put(groupId, groupHosts);
+        }
+        groupHosts.add(hostId);
+    }
+
     @Override
     public DeploymentPlanner getDeploymentPlannerByName(String plannerName) {
         if (plannerName != null) {
@@ -573,6 +772,10 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
 
     @Override
     public void checkForNonDedicatedResources(VirtualMachineProfile vmProfile, DataCenter dc, ExcludeList avoids) {
+        checkForNonDedicatedResources(vmProfile, dc, avoids, null);
+    }
+
+    private void checkForNonDedicatedResources(VirtualMachineProfile vmProfile, DataCenter dc, ExcludeList avoids, BatchPlanningContext batch) {
         boolean isExplicit = false;
         VirtualMachine vm = vmProfile.getVirtualMachine();
 
@@ -611,17 +814,33 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
             isExplicit = true;
         }
 
-        List<Long> allPodsInDc = _podDao.listAllPods(dc.getId());
-        List<Long> allDedicatedPods = _dedicatedDao.listAllPods();
-        allPodsInDc.retainAll(allDedicatedPods);
+        List<Long> allPodsInDc;
+        List<Long> allClustersInDc;
+        List<Long> allHostsInDc;
+        List<List<Long>> dedicatedInDc = batch != null ? batch.dedicatedResources.get(dc.getId()) : null;
+        if (dedicatedInDc != null) {
+            // the lists below are changed per vm, work on copies of the ones of the batch
+            allPodsInDc = new ArrayList<Long>(dedicatedInDc.get(0));
+            allClustersInDc = new ArrayList<Long>(dedicatedInDc.get(1));
+            allHostsInDc = new ArrayList<Long>(dedicatedInDc.get(2));
+        } else {
+            allPodsInDc = _podDao.listAllPods(dc.getId());
+            List<Long> allDedicatedPods = _dedicatedDao.listAllPods();
+            allPodsInDc.retainAll(allDedicatedPods);
 
-        List<Long> allClustersInDc = _clusterDao.listAllClusters(dc.getId());
-        List<Long> allDedicatedClusters = _dedicatedDao.listAllClusters();
-        allClustersInDc.retainAll(allDedicatedClusters);
+            allClustersInDc = _clusterDao.listAllClusters(dc.getId());
+            List<Long> allDedicatedClusters = _dedicatedDao.listAllClusters();
+            allClustersInDc.retainAll(allDedicatedClusters);
 
-        List<Long> allHostsInDc = _hostDao.listAllHosts(dc.getId());
-        List<Long> allDedicatedHosts = _dedicatedDao.listAllHosts();
-        allHostsInDc.retainAll(allDedicatedHosts);
+            allHostsInDc = _hostDao.listAllHosts(dc.getId());
+            List<Long> allDedicatedHosts = _dedicatedDao.listAllHosts();
+            allHostsInDc.retainAll(allDedicatedHosts);
+
+            if (batch != null) {
+                batch.dedicatedResources.put(dc.getId(), Arrays.asList(new ArrayList<Long>(allPodsInDc), new ArrayList<Long>(allClustersInDc),
+                        new ArrayList<Long>(allHostsInDc)));
+            }
+        }
 
         //Only when the type is instance VM and not explicitly dedicated.
         if (vm.getType() == VirtualMachine.Type.User && !isExplicit) {
@@ -1567,46 +1786,91 @@ StateListener<State, VirtualMachine.Event, VirtualMachine> {
         return Transaction.execute(new TransactionCallback<String>() {
             @Override
             public String doInTransaction(TransactionStatus status) {
-                boolean saveReservation = true;
-
                 if (vmGroupCount > 0) {
-                    List<Long> groupIds = _affinityGroupVMMapDao.listAffinityGroupIdsByVmId(vm.getId());
-                    SearchCriteria<AffinityGroupVO> criteria = _affinityGroupDao.createSearchCriteria();
-                    criteria.addAnd("id", SearchCriteria.Op.IN, groupIds.toArray(new Object[groupIds.size()]));
-                    _affinityGroupDao.lockRows(criteria, null, true);
-
-                    for (AffinityGroupProcessor processor : _affinityProcessors) {
-                        if (!processor.check(vmProfile, plannedDestination)) {
-                            saveReservation = false;
-                            break;
-                        }
-                    }
+                    lockAffinityGroups(_affinityGroupVMMapDao.listAffinityGroupIdsByVmId(vm.getId()));
                 }
+                return saveReservation(plannedDestination, vmProfile, planner, vmGroupCount > 0);
+            }
+        });
+    }
 
-                if (saveReservation) {
-                    VMReservationVO vmReservation =
-                            new VMReservationVO(vm.getId(), plannedDestination.getDataCenter().getId(), plannedDestination.getPod().getId(), plannedDestination.getCluster()
-                                    .getId(), plannedDestination.getHost().getId());
-                    if (planner != null) {
-                        vmReservation.setDeploymentPlanner(planner.getName());
-                    }
-                    Map<Long, Long> volumeReservationMap = new HashMap<Long, Long>();
+    @DB
+    @Override
+    public List<String> finalizeReservations(final List<DeployDestination> plannedDestinations, final List<VirtualMachineProfile> vmProfiles,
+            final DeploymentPlanner planner) throws AffinityConflictException {
+        final Set<Long> groupIds = new TreeSet<Long>();
+        final Set<Long> vmIdsInGroups = new HashSet<Long>();
+        for (VirtualMachineProfile vmProfile : vmProfiles) {
+            List<Long> vmGroupIds = _affinityGroupVMMapDao.listAffinityGroupIdsByVmId(vmProfile.getId());
+            if (!vmGroupIds.isEmpty()) {
+                groupIds.addAll(vmGroupIds);
+                vmIdsInGroups.add(vmProfile.getId());
+            }
+        }
 
-                    if (vm.getHypervisorType() != HypervisorType.BareMetal) {
-                        for (Volume vo : plannedDestination.getStorageForDisks().keySet()) {
-                            volumeReservationMap.put(vo.getId(), plannedDestination.getStorageForDisks().get(vo).getId());
-                        }
-                        vmReservation.setVolumeReservation(volumeReservationMap);
+        return Transaction.execute(new TransactionCallback<List<String>>() {
+            @Override
+            public List<String> doInTransaction(TransactionStatus status) {
+                if (!groupIds.isEmpty()) {
+                    lockAffinityGroups(new ArrayList<Long>(groupIds));
+                }
+                // the reservations are saved one after the other, so the affinity processors
+                // check each vm against the reservations of the batch members before it
+                List<String> reservationIds = new ArrayList<String>(vmProfiles.size());
+                for (int i = 0; i < vmProfiles.size(); i++) {
+                    VirtualMachineProfile vmProfile = vmProfiles.get(i);
+                    DeployDestination plannedDestination = plannedDestinations.get(i);
+                    if (plannedDestination == null) {
+                        reservationIds.add(null);
+                        continue;
                     }
-                    _reservationDao.persist(vmReservation);
-                    return vmReservation.getUuid();
+                    reservationIds.add(saveReservation(plannedDestination, vmProfile, planner, vmIdsInGroups.contains(vmProfile.getId())));
                 }
-
-                return null;
+                return reservationIds;
             }
         });
     }
 
+    private void lockAffinityGroups(List<Long> groupIds) {
+        SearchCriteria<AffinityGroupVO> criteria = _affinityGroupDao.createSearchCriteria();
+        criteria.addAnd("id", SearchCriteria.Op.IN, groupIds.toArray(new Object[groupIds.size()]));
+        _affinityGroupDao.lockRows(criteria, null, true);
+    }
+
+    /**
+     * Saves the reservation of the vm on its planned destination, to be called within a transaction
+     * holding the locks of the affinity groups of the vm.
+     *
+     * @return the reservation id, or null if the destination fails the check of an affinity group processor
+     */
+    private String saveReservation(DeployDestination plannedDestination, VirtualMachineProfile vmProfile, DeploymentPlanner planner, boolean checkAffinity) {
+        VirtualMachine vm = vmProfile.getVirtualMachine();
+        if (checkAffinity) {
+            for (AffinityGroupProcessor processor : _affinityProcessors) {
+                if (!processor.check(vmProfile, plannedDestination)) {
+                    return null;
+                }
+            }
+        }
+
+        VMReservationVO vmReservation =
+                new VMReservationVO(vm.getId(), plannedDestination.getDataCenter().getId(), plannedDestination.getPod().getId(), plannedDestination.getCluster()
+                        .getId(), plannedDestination.getHost().getId());
+        if (planner != null) {
+            vmReservation.setDeploymentPlanner(planner.getName());
+        }
+        Map<Long, Long> volumeReservationMap = new HashMap<Long, Long>();
+
+        if (vm.getHypervisorType() != HypervisorType.BareMetal) {
+            for (Volume vo : plannedDestination.getStorageForDisks().keySet()) {
+                volumeReservationMap.put(vo.getId(), plannedDestination.getStorageForDisks().get(vo).getId());
+            }
+            vmReservation.setVolumeReservation(volumeReservationMap);
+        }
+        _reservationDao.persist(vmReservation);
+        return vmReservation.getUuid();
+    }
+
     @Override
     public boolean preStateTransitionEvent(State oldState, Event event, State newState, VirtualMachine vo, boolean status, Object opaque) {
         return true;
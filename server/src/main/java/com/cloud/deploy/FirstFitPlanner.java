@@ -34,6 +34,7 @@ import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.log4j.Logger;
 
 import com.cloud.capacity.Capacity;
+import com.cloud.capacity.CapacityIndex;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.configuration.Config;
@@ -213,7 +214,9 @@ public class FirstFitPlanner extends AdapterBase implements DeploymentClusterPla
             Long uniqueTags;
             for (Long clusterId : clusterList) {
                 uniqueTags = (long) 0;
-            List<Long> hostList = capacityDao.listHostsWithEnoughCapacity(requiredCpu, requiredRam, clusterId, Host.Type.Routing.toString());
+            CapacityIndex capacityIndex = capacityMgr.getCapacityIndex();
+            List<Long> hostList = capacityIndex != null ? capacityIndex.listHostsWithEnoughCapacity(requiredCpu, requiredRam, clusterId)
+                    : capacityDao.listHostsWithEnoughCapacity(requiredCpu, requiredRam, clusterId, Host.Type.Routing.toString());
             if (!hostList.isEmpty() && implicitHostTags.length > 0) {
                 uniqueTags = new Long(hostTagsDao.getDistinctImplicitHostTags(hostList, implicitHostTags).size());
                 uniqueTags = uniqueTags + getHostsByCapability(hostList, Host.HOST_UEFI_ENABLE);
@@ -495,11 +498,19 @@ public class FirstFitPlanner extends AdapterBase implements DeploymentClusterPla
             capacityType = Capacity.CAPACITY_TYPE_MEMORY;
         }
 
-        List<Long> clusterIdswithEnoughCapacity = capacityDao.listClustersInZoneOrPodByHostCapacities(id, requiredCpu, requiredRam, capacityType, isZone);
+        CapacityIndex capacityIndex = capacityMgr.getCapacityIndex();
+        List<Long> clusterIdswithEnoughCapacity;
+        Pair<List<Long>, Map<Long, Double>> result;
+        if (capacityIndex != null) {
+            clusterIdswithEnoughCapacity = capacityIndex.listClustersInZoneOrPodByHostCapacities(id, requiredCpu, requiredRam, isZone);
+            result = capacityIndex.orderClustersByAggregateCapacity(id, capacityType, isZone);
+        } else {
+            clusterIdswithEnoughCapacity = capacityDao.listClustersInZoneOrPodByHostCapacities(id, requiredCpu, requiredRam, capacityType, isZone);
+            result = capacityDao.orderClustersByAggregateCapacity(id, capacityType, isZone);
+        }
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("ClusterId List having enough CPU and RAM capacity: " + clusterIdswithEnoughCapacity);
         }
-        Pair<List<Long>, Map<Long, Double>> result = capacityDao.orderClustersByAggregateCapacity(id, capacityType, isZone);
         List<Long> clusterIdsOrderedByAggregateCapacity = result.first();
         //only keep the clusters that have enough capacity to host this VM
         if (s_logger.isTraceEnabled()) {
@@ -529,11 +540,19 @@ public class FirstFitPlanner extends AdapterBase implements DeploymentClusterPla
             capacityType = Capacity.CAPACITY_TYPE_MEMORY;
         }
 
-        List<Long> podIdswithEnoughCapacity = capacityDao.listPodsByHostCapacities(zoneId, requiredCpu, requiredRam, capacityType);
+        CapacityIndex capacityIndex = capacityMgr.getCapacityIndex();
+        List<Long> podIdswithEnoughCapacity;
+        Pair<List<Long>, Map<Long, Double>> result;
+        if (capacityIndex != null) {
+            podIdswithEnoughCapacity = capacityIndex.listPodsByHostCapacities(zoneId, requiredCpu, requiredRam);
+            result = capacityIndex.orderPodsByAggregateCapacity(zoneId, capacityType);
+        } else {
+            podIdswithEnoughCapacity = capacityDao.listPodsByHostCapacities(zoneId, requiredCpu, requiredRam, capacityType);
+            result = capacityDao.orderPodsByAggregateCapacity(zoneId, capacityType);
+        }
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("PodId List having enough CPU and RAM capacity: " + podIdswithEnoughCapacity);
         }
-        Pair<List<Long>, Map<Long, Double>> result = capacityDao.orderPodsByAggregateCapacity(zoneId, capacityType);
         List<Long> podIdsOrderedByAggregateCapacity = result.first();
         //only keep the clusters that have enough capacity to host this VM
         if (s_logger.isTraceEnabled()) {
@@ -0,0 +1,65 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the time from scheduling to completion of the last HA restarts, to report percentiles of it.
+ */
+final class HaRestartTimes {
+    private final long[] _samples;
+    private int _count;
+    private int _next;
+
+    HaRestartTimes(int capacity) {
+        _samples = new long[capacity];
+    }
+
+    public synchronized void record(long millis) {
+        _samples[_next] = millis;
+        _next = (_next + 1) % _samples.length;
+        if (_count < _samples.length) {
+            _count++;
+        }
+    }
+
+    public synchronized int size() {
+        return _count;
+    }
+
+    /**
+     * @param percentiles between 0 and 100
+     * @return the restart times in milliseconds at the given percentiles (nearest rank), or null if no restart was recorded
+     */
+    public long[] getPercentiles(double... percentiles) {
+        long[] sorted;
+        synchronized (this) {
+            if (_count == 0) {
+                return null;
+            }
+            sorted = Arrays.copyOf(_samples, _count);
+        }
+        Arrays.sort(sorted);
+        long[] values = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int)Math.ceil(percentiles[i] / 100 * sorted.length);
+            values[i] = sorted[Math.min(Math.max(rank, 1), sorted.length) - 1];
+        }
+        return values;
+    }
+}
@@ -0,0 +1,153 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.cloud.ha.HighAvailabilityManager.WorkType;
+
+/**
+ * In-memory queue of the HA work items scheduled or rescheduled by this management server, so the
+ * HA workers pick them up as soon as they are due instead of on their next poll of op_ha_work.
+ * It only holds ids; the work itself is still claimed from the database with
+ * HighAvailabilityDao.take(serverId, workId), so an item another server took first is skipped.
+ * Among the due items, HA restarts are handed out before stops, destroys and migrations.
+ */
+final class HaWorkQueue {
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _changed = _lock.newCondition();
+
+    // items not due yet, by time to try
+    private final PriorityQueue<Item> _pending = new PriorityQueue<Item>(11, new Comparator<Item>() {
+        @Override
+        public int compare(Item i1, Item i2) {
+            int result = Long.compare(i1.timeToTry, i2.timeToTry);
+            return result != 0 ? result : Long.compare(i1.workId, i2.workId);
+        }
+    });
+    // due items, by priority of the work type
+    private final PriorityQueue<Item> _ready = new PriorityQueue<Item>(11, new Comparator<Item>() {
+        @Override
+        public int compare(Item i1, Item i2) {
+            int result = Integer.compare(i1.priority, i2.priority);
+            return result != 0 ? result : Long.compare(i1.workId, i2.workId);
+        }
+    });
+    private final Set<Long> _queued = new HashSet<Long>();
+    private int _wakeups;
+
+    /**
+     * @param timeToTry time to try the work, in the units of HaWorkVO.getTimeToTry(): milliseconds >> 10
+     */
+    public void offer(long workId, WorkType workType, long timeToTry) {
+        _lock.lock();
+        try {
+            if (!_queued.add(workId)) {
+                return;
+            }
+            _pending.add(new Item(workId, priorityOf(workType), timeToTry));
+            _changed.signal();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to timeout milliseconds for a work item to be due.
+     *
+     * @return the id of the due work item with the highest priority, or null on timeout or wakeup()
+     */
+    public Long poll(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        _lock.lock();
+        try {
+            int wakeups = _wakeups;
+            while (true) {
+                long now = System.currentTimeMillis();
+                while (!_pending.isEmpty() && _pending.peek().timeToTry <= now >> 10) {
+                    _ready.add(_pending.poll());
+                }
+                if (!_ready.isEmpty()) {
+                    Item item = _ready.poll();
+                    _queued.remove(item.workId);
+                    return item.workId;
+                }
+                if (wakeups != _wakeups || now >= deadline) {
+                    return null;
+                }
+                long wait = deadline - now;
+                if (!_pending.isEmpty()) {
+                    wait = Math.min(wait, Math.max(1, (_pending.peek().timeToTry << 10) - now));
+                }
+                _changed.await(wait, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the threads waiting in poll() return.
+     */
+    public void wakeup() {
+        _lock.lock();
+        try {
+            _wakeups++;
+            _changed.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public int size() {
+        _lock.lock();
+        try {
+            return _queued.size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private static int priorityOf(WorkType workType) {
+        if (workType == WorkType.HA) {
+            return 0;
+        } else if (workType == WorkType.Stop || workType == WorkType.CheckStop || workType == WorkType.ForceStop) {
+            return 1;
+        } else if (workType == WorkType.Destroy) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static final class Item {
+        final long workId;
+        final int priority;
+        final long timeToTry;
+
+        Item(long workId, int priority, long timeToTry) {
+            this.workId = workId;
+            this.priority = priority;
+            this.timeToTry = timeToTry;
+        }
+    }
+}
@@ -113,6 +113,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
     WorkerThread[] _workers;
     boolean _stopped;
     long _timeToSleep;
+    final HaWorkQueue _workQueue = new HaWorkQueue();
+    final HaRestartTimes _restartTimes = new HaRestartTimes(1000);
     @Inject
     HighAvailabilityDao _haDao;
     @Inject
@@ -302,14 +304,23 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
         }
 
         HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), type, Step.Scheduled, hostId, vm.getState(), 0, vm.getUpdated());
-        _haDao.persist(work);
+        queueWork(_haDao.persist(work));
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled " + work);
         }
-        wakeupWorkers();
+    }
+
+    /**
+     * Hands the work that was just persisted or rescheduled to the workers of this server.
+     */
+    protected void queueWork(HaWorkVO work) {
+        if (work != null) {
+            _workQueue.offer(work.getId(), work.getWorkType(), work.getTimeToTry());
+        }
     }
 
     protected void wakeupWorkers() {
+        _workQueue.wakeup();
         for (WorkerThread worker : _workers) {
             worker.wakup();
         }
@@ -319,9 +330,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
     public boolean scheduleMigration(final VMInstanceVO vm) {
         if (vm.getHostId() != null) {
             final HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), WorkType.Migration, Step.Scheduled, vm.getHostId(), vm.getState(), 0, vm.getUpdated());
-            _haDao.persist(work);
+            queueWork(_haDao.persist(work));
             s_logger.info("Scheduled migration work of VM " + vm.getUuid() + " from host " + _hostDao.findById(vm.getHostId()) + " with HAWork " + work);
-            wakeupWorkers();
         }
         return true;
     }
@@ -410,14 +420,12 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
 
         HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), WorkType.HA, investigate ? Step.Investigating : Step.Scheduled,
                 hostId != null ? hostId : 0L, vm.getState(), timesTried, vm.getUpdated());
-        _haDao.persist(work);
+        queueWork(_haDao.persist(work));
 
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Schedule vm for HA:  " + vm);
         }
 
-        wakeupWorkers();
-
     }
 
     protected Long restart(final HaWorkVO work) {
@@ -668,11 +676,10 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
     @Override
     public void scheduleDestroy(VMInstanceVO vm, long hostId) {
         final HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), WorkType.Destroy, Step.Scheduled, hostId, vm.getState(), 0, vm.getUpdated());
-        _haDao.persist(work);
+        queueWork(_haDao.persist(work));
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled " + work.toString());
         }
-        wakeupWorkers();
     }
 
     @Override
@@ -820,6 +827,9 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
             if (nextTime == null) {
                 s_logger.info("Completed work " + work + ". Took " + (work.getTimesTried() + 1) + "/" + _maxRetries + " attempts.");
                 work.setStep(Step.Done);
+                if (wt == WorkType.HA && work.getCreated() != null) {
+                    _restartTimes.record(System.currentTimeMillis() - work.getCreated().getTime());
+                }
             } else {
                 rescheduleWork(work, nextTime.longValue());
             }
@@ -845,6 +855,9 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
                 }
             }
             _haDao.update(work.getId(), work);
+            if (!Step.Done.equals(work.getStep())) {
+                queueWork(work);
+            }
         }
     }
 
@@ -921,6 +934,12 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
             } catch (Exception e) {
                 s_logger.warn("Error while cleaning up", e);
             }
+
+            long[] restartTimes = _restartTimes.getPercentiles(50, 90, 99);
+            if (restartTimes != null) {
+                s_logger.info("HA restart times over the last " + _restartTimes.size() + " restarts: 50th percentile " + restartTimes[0] + " ms, 90th percentile " +
+                    restartTimes[1] + " ms, 99th percentile " + restartTimes[2] + " ms; " + _workQueue.size() + " work items queued");
+            }
         }
     }
 
@@ -946,18 +965,25 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
         private void runWithContext() {
             HaWorkVO work = null;
             try {
-                s_logger.trace("Checking the database for work");
-                work = _haDao.take(_serverId);
+                Long workId;
+                try {
+                    workId = _workQueue.poll(_timeToSleep);
+                } catch (final InterruptedException e) {
+                    s_logger.info("Interrupted");
+                    return;
+                }
+                if (_stopped) {
+                    return;
+                }
+                if (workId != null) {
+                    work = _haDao.take(_serverId, workId);
+                } else {
+                    // work scheduled by other servers, or released when they left, is only in the database
+                    s_logger.trace("Checking the database for work");
+                    work = _haDao.take(_serverId);
+                }
                 if (work == null) {
-                    try {
-                        synchronized (this) {
-                            wait(_timeToSleep);
-                        }
-                        return;
-                    } catch (final InterruptedException e) {
-                        s_logger.info("Interrupted");
-                        return;
-                    }
+                    return;
                 }
 
                 NDC.push("work-" + work.getId());
@@ -986,6 +1012,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements Configur
         for (ManagementServerHost node : nodeList) {
             _haDao.releaseWorkItems(node.getMsid());
         }
+        // the released work is only in the database
+        wakeupWorkers();
     }
 
     @Override
@@ -32,6 +32,15 @@ public interface HighAvailabilityDao extends GenericDao<HaWorkVO, Long> {
      */
     HaWorkVO take(long serverId);
 
+    /**
+     * Takes the given HA work item if it is due and no server has taken it yet.
+     *
+     * @param serverId server that is taking this.
+     * @param workId id of the work item.
+     * @return WorkVO if it could be taken; null otherwise.
+     */
+    HaWorkVO take(long serverId, long workId);
+
     /**
      * Finds all the work items related to this instance.
      *
@@ -193,6 +193,32 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         }
     }
 
+    @Override
+    public HaWorkVO take(final long serverId, final long workId) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            txn.start();
+            final HaWorkVO work = lockRow(workId, true);
+            if (work == null || work.getServerId() != null || work.getDateTaken() != null || work.getTimeToTry() > (System.currentTimeMillis() >> 10) ||
+                work.getStep() == Step.Done || work.getStep() == Step.Cancelled) {
+                txn.commit();
+                return null;
+            }
+
+            work.setServerId(serverId);
+            work.setDateTaken(new Date());
+
+            update(work.getId(), work);
+
+            txn.commit();
+
+            return work;
+
+        } catch (final Throwable e) {
+            throw new CloudRuntimeException("Unable to execute take", e);
+        }
+    }
+
     @Override
     public List<HaWorkVO> findPreviousHA(final long instanceId) {
         final SearchCriteria<HaWorkVO> sc = PreviousInstanceSearch.create();
@@ -44,6 +44,7 @@ import com.cloud.network.dao.NetworkDao;
 import com.cloud.network.dao.NetworkVO;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.EntityCacheManager;
 import com.cloud.utils.db.QueryBuilder;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
@@ -126,6 +127,8 @@ public class StorageNetworkManagerImpl extends ManagerBase implements StorageNet
                 stmt_update.executeUpdate();
             }
         }
+        // mac_address is updated behind DataCenterDao, drop the cached zone
+        EntityCacheManager.invalidateAfterCompletion("data_center", zoneId);
     }
 
     @Override
@@ -22,10 +22,12 @@ import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -273,6 +275,7 @@ public class ResourceManagerImpl extends ManagerBase implements ResourceManager,
     private GenericSearchBuilder<HostVO, String> _hypervisorsInDC;
 
     private SearchBuilder<HostGpuGroupsVO> _gpuAvailability;
+    private SearchBuilder<HostGpuGroupsVO> _gpuAvailabilityByHosts;
 
     private void insertListener(final Integer event, final ResourceListener listener) {
         List<ResourceListener> lst = _lifeCycleListeners.get(event);
@@ -1592,6 +1595,15 @@ public class ResourceManagerImpl extends ManagerBase implements ResourceManager,
         _gpuAvailability.join("groupId", join1, _gpuAvailability.entity().getId(), join1.entity().getGpuGroupId(), JoinBuilder.JoinType.INNER);
         _gpuAvailability.done();
 
+        _gpuAvailabilityByHosts = _hostGpuGroupsDao.createSearchBuilder();
+        _gpuAvailabilityByHosts.and("hostIds", _gpuAvailabilityByHosts.entity().getHostId(), Op.IN);
+        _gpuAvailabilityByHosts.and("groupName", _gpuAvailabilityByHosts.entity().getGroupName(), Op.EQ);
+        final SearchBuilder<VGPUTypesVO> join2 = _vgpuTypesDao.createSearchBuilder();
+        join2.and("vgpuType", join2.entity().getVgpuType(), Op.EQ);
+        join2.and("remainingCapacity", join2.entity().getRemainingCapacity(), Op.GT);
+        _gpuAvailabilityByHosts.join("groupId", join2, _gpuAvailabilityByHosts.entity().getId(), join2.entity().getGpuGroupId(), JoinBuilder.JoinType.INNER);
+        _gpuAvailabilityByHosts.done();
+
         return true;
     }
 
@@ -2950,6 +2962,37 @@ public class ResourceManagerImpl extends ManagerBase implements ResourceManager,
         return _hostGpuGroupsDao.customSearch(sc, null).size() > 0 ? true : false;
     }
 
+    @Override
+    public Set<Long> listGpuEnabledHostIds(final List<Long> hostIds) {
+        final Set<Long> gpuEnabledHostIds = new HashSet<Long>();
+        if (CollectionUtils.isEmpty(hostIds)) {
+            return gpuEnabledHostIds;
+        }
+        final SearchCriteria<HostGpuGroupsVO> sc = _gpuAvailabilityByHosts.create();
+        sc.setParameters("hostIds", hostIds.toArray());
+        for (final HostGpuGroupsVO gpuGroup : _hostGpuGroupsDao.customSearch(sc, null)) {
+            gpuEnabledHostIds.add(gpuGroup.getHostId());
+        }
+        return gpuEnabledHostIds;
+    }
+
+    @Override
+    public Set<Long> listHostIdsWithAvailableGPUDevice(final List<Long> hostIds, final String groupName, final String vgpuType) {
+        final Set<Long> availableHostIds = new HashSet<Long>();
+        if (CollectionUtils.isEmpty(hostIds)) {
+            return availableHostIds;
+        }
+        final SearchCriteria<HostGpuGroupsVO> sc = _gpuAvailabilityByHosts.create();
+        sc.setParameters("hostIds", hostIds.toArray());
+        sc.setParameters("groupName", groupName);
+        sc.setJoinParameters("groupId", "vgpuType", vgpuType);
+        sc.setJoinParameters("groupId", "remainingCapacity", 0);
+        for (final HostGpuGroupsVO gpuGroup : _hostGpuGroupsDao.customSearch(sc, null)) {
+            availableHostIds.add(gpuGroup.getHostId());
+        }
+        return availableHostIds;
+    }
+
     @Override
     public List<HostGpuGroupsVO> listAvailableGPUDevice(final long hostId, final String groupName, final String vgpuType) {
         final Filter searchFilter = new Filter(VGPUTypesVO.class, "remainingCapacity", false, null, null);
@@ -648,15 +648,15 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                             public void doInTransactionWithoutResult(TransactionStatus status) {
                                 //get all stats with delta > 0
                                 List<VmDiskStatisticsVO> updatedVmNetStats = _vmDiskStatsDao.listUpdatedStats();
-                                for (VmDiskStatisticsVO stat : updatedVmNetStats) {
-                                    if (_dailyOrHourly) {
+                                if (_dailyOrHourly) {
+                                    for (VmDiskStatisticsVO stat : updatedVmNetStats) {
                                         //update agg bytes
                                         stat.setAggBytesRead(stat.getCurrentBytesRead() + stat.getNetBytesRead());
                                         stat.setAggBytesWrite(stat.getCurrentBytesWrite() + stat.getNetBytesWrite());
                                         stat.setAggIORead(stat.getCurrentIORead() + stat.getNetIORead());
                                         stat.setAggIOWrite(stat.getCurrentIOWrite() + stat.getNetIOWrite());
-                                        _vmDiskStatsDao.update(stat.getId(), stat);
                                     }
+                                    _vmDiskStatsDao.updateBatch(updatedVmNetStats);
                                 }
                                 s_logger.debug("Successfully updated aggregate vm disk stats");
                             }
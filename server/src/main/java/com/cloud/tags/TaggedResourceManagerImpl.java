@@ -297,6 +297,7 @@ public class TaggedResourceManagerImpl extends ManagerBase implements TaggedReso
         Transaction.execute(new TransactionCallbackNoReturn() {
             @Override
             public void doInTransactionWithoutResult(TransactionStatus status) {
+                final List<ResourceTagVO> tagsToPersist = new ArrayList<>(tags.size() * resourceIds.size());
                 for (String key : tags.keySet()) {
                     for (String resourceId : resourceIds) {
                         if (!resourceType.resourceTagsSupport()) {
@@ -319,15 +320,15 @@ public class TaggedResourceManagerImpl extends ManagerBase implements TaggedReso
                             throw new InvalidParameterValueException("Value for the key " + key + " is either null or empty");
                         }
 
-                        ResourceTagVO resourceTag = new ResourceTagVO(key, value, accountDomainPair.first(), accountDomainPair.second(), id, resourceType, customer, resourceUuid);
-                        try {
-                            resourceTag = _resourceTagDao.persist(resourceTag);
-                        } catch (EntityExistsException e) {
-                            throw new CloudRuntimeException(String.format("tag %s already on %s with id %s", resourceTag.getKey(), resourceType.toString(), resourceId),e);
-                        }
-                        resourceTags.add(resourceTag);
+                        tagsToPersist.add(new ResourceTagVO(key, value, accountDomainPair.first(), accountDomainPair.second(), id, resourceType, customer, resourceUuid));
                     }
                 }
+                try {
+                    _resourceTagDao.persistBatch(tagsToPersist);
+                } catch (EntityExistsException e) {
+                    throw new CloudRuntimeException(String.format("tags %s already on %s with ids %s", tags.keySet(), resourceType.toString(), resourceIds), e);
+                }
+                resourceTags.addAll(tagsToPersist);
             }
         });
 
@@ -42,13 +42,19 @@ import org.apache.cloudstack.acl.RolePermissionEntity.Permission;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.RolePermissionsChangedCommand;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.event.ActionEvent;
 import com.cloud.event.EventTypes;
 import com.cloud.exception.PermissionDeniedException;
+import com.cloud.serializer.GsonHelper;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.dao.AccountDao;
@@ -75,6 +81,28 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
     private RolePermissionsDao rolePermissionsDao;
     @Inject
     private AccountManager accountManager;
+    @Inject
+    private MessageBus messageBus;
+    @Inject
+    private ClusterManager clusterManager;
+
+    /**
+     * Tells the API access checkers of this and of the other management servers that the permissions
+     * or the type of a role changed, so that they stop using what they compiled from them.
+     */
+    protected void notifyRolePermissionsChanged(final Long roleId) {
+        if (messageBus != null) {
+            messageBus.publish(null, RolePermissionsChangedCommand.TOPIC, PublishScope.LOCAL, roleId);
+        }
+        if (clusterManager != null) {
+            try {
+                Command[] cmds = new Command[] {new RolePermissionsChangedCommand(roleId)};
+                clusterManager.broadcast(0, GsonHelper.getGson().toJson(cmds));
+            } catch (Exception e) {
+                logger.warn("Unable to notify the management servers that the permissions of role " + roleId + " changed", e);
+            }
+        }
+    }
 
     public void checkCallerAccess() {
         if (!isEnabled()) {
@@ -194,7 +222,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
             throw new CloudRuntimeException("Role already exists");
         }
 
-        return Transaction.execute(new TransactionCallback<RoleVO>() {
+        RoleVO importedRole = Transaction.execute(new TransactionCallback<RoleVO>() {
             @Override
             public RoleVO doInTransaction(TransactionStatus status) {
                 RoleVO newRole = null;
@@ -238,6 +266,8 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
                 return newRole;
             }
         });
+        notifyRolePermissionsChanged(importedRole.getId());
+        return importedRole;
     }
 
     @Override
@@ -268,6 +298,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         }
 
         roleDao.update(role.getId(), roleVO);
+        notifyRolePermissionsChanged(role.getId());
         return role;
     }
 
@@ -283,7 +314,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         }
         List<? extends Account> accounts = accountDao.findAccountsByRole(role.getId());
         if (accounts == null || accounts.size() == 0) {
-            return Transaction.execute(new TransactionCallback<Boolean>() {
+            boolean deleted = Transaction.execute(new TransactionCallback<Boolean>() {
                 @Override
                 public Boolean doInTransaction(TransactionStatus status) {
                     List<? extends RolePermission> rolePermissions = rolePermissionsDao.findAllByRoleIdSorted(role.getId());
@@ -300,6 +331,10 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
                     return false;
                 }
             });
+            if (deleted) {
+                notifyRolePermissionsChanged(role.getId());
+            }
+            return deleted;
         }
         throw new PermissionDeniedException("Found accounts that have role in use, won't allow to delete role");
     }
@@ -316,12 +351,14 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
             throw new PermissionDeniedException("Rule already exists for the role: " + role.getName());
         }
 
-        return Transaction.execute(new TransactionCallback<RolePermissionVO>() {
+        RolePermissionVO rolePermission = Transaction.execute(new TransactionCallback<RolePermissionVO>() {
             @Override
             public RolePermissionVO doInTransaction(TransactionStatus status) {
                 return rolePermissionsDao.persist(new RolePermissionVO(role.getId(), rule.toString(), permission, description));
             }
         });
+        notifyRolePermissionsChanged(role.getId());
+        return rolePermission;
     }
 
     @Override
@@ -331,7 +368,11 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         if (role.isDefault()) {
             throw new PermissionDeniedException("Role permission cannot be updated for Default roles");
         }
-        return role != null && newOrder != null && rolePermissionsDao.update(role, newOrder);
+        if (role != null && newOrder != null && rolePermissionsDao.update(role, newOrder)) {
+            notifyRolePermissionsChanged(role.getId());
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -340,7 +381,11 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         if (role.isDefault()) {
             throw new PermissionDeniedException("Role permission cannot be updated for Default roles");
         }
-        return role != null && rolePermissionsDao.update(role, rolePermission, permission);
+        if (role != null && rolePermissionsDao.update(role, rolePermission, permission)) {
+            notifyRolePermissionsChanged(role.getId());
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -351,7 +396,11 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         if (role.isDefault()) {
             throw new PermissionDeniedException("Role permission cannot be deleted for Default roles");
         }
-        return rolePermission != null && rolePermissionsDao.remove(rolePermission.getId());
+        if (rolePermission != null && rolePermissionsDao.remove(rolePermission.getId())) {
+            notifyRolePermissionsChanged(role.getId());
+            return true;
+        }
+        return false;
     }
 
     @Override
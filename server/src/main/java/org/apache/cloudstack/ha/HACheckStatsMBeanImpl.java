@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.ha;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+/**
+ * Health and activity checks the HA manager submitted, skipped and deferred, and how long the resources of each cluster waited for
+ * a health check as of the last poll.
+ */
+public class HACheckStatsMBeanImpl extends StandardMBean implements HACheckStatsMBean {
+    private final AtomicLong _healthChecks = new AtomicLong();
+    private final AtomicLong _skippedHealthChecks = new AtomicLong();
+    private final AtomicLong _deferredHealthChecks = new AtomicLong();
+    private final AtomicLong _activityChecks = new AtomicLong();
+    private final AtomicLong _deferredActivityChecks = new AtomicLong();
+    private volatile Map<Long, Long> _clusterHealthCheckLag = Collections.emptyMap();
+
+    public HACheckStatsMBeanImpl() {
+        super(HACheckStatsMBean.class, false);
+    }
+
+    public void recordHealthCheckPoll(int submitted, int skipped, int deferred, Map<Long, Long> clusterHealthCheckLag) {
+        _healthChecks.addAndGet(submitted);
+        _skippedHealthChecks.addAndGet(skipped);
+        _deferredHealthChecks.addAndGet(deferred);
+        _clusterHealthCheckLag = Collections.unmodifiableMap(new HashMap<>(clusterHealthCheckLag));
+    }
+
+    public void recordActivityCheck() {
+        _activityChecks.incrementAndGet();
+    }
+
+    public void recordDeferredActivityCheck() {
+        _deferredActivityChecks.incrementAndGet();
+    }
+
+    @Override
+    public long getHealthCheckCount() {
+        return _healthChecks.get();
+    }
+
+    @Override
+    public long getSkippedHealthCheckCount() {
+        return _skippedHealthChecks.get();
+    }
+
+    @Override
+    public long getDeferredHealthCheckCount() {
+        return _deferredHealthChecks.get();
+    }
+
+    @Override
+    public long getActivityCheckCount() {
+        return _activityChecks.get();
+    }
+
+    @Override
+    public long getDeferredActivityCheckCount() {
+        return _deferredActivityChecks.get();
+    }
+
+    @Override
+    public long getMaxHealthCheckLagMillis() {
+        long max = 0;
+        for (Long lag : _clusterHealthCheckLag.values()) {
+            max = Math.max(max, lag);
+        }
+        return max;
+    }
+
+    @Override
+    public Map<Long, Long> getHealthCheckLagMillisByCluster() {
+        return _clusterHealthCheckLag;
+    }
+
+    @Override
+    public void resetStats() {
+        _healthChecks.set(0);
+        _skippedHealthChecks.set(0);
+        _deferredHealthChecks.set(0);
+        _activityChecks.set(0);
+        _deferredActivityChecks.set(0);
+        _clusterHealthCheckLag = Collections.emptyMap();
+    }
+}
@@ -18,13 +18,17 @@
 package org.apache.cloudstack.ha;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -78,6 +82,7 @@ import com.cloud.org.Cluster;
 import com.cloud.utils.component.ComponentContext;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.component.PluggableService;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionStatus;
@@ -85,6 +90,7 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.fsm.StateListener;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 
@@ -113,6 +119,9 @@ public final class HAManagerImpl extends ManagerBase implements HAManager, Clust
     private static ExecutorService activityCheckExecutor;
     private static ExecutorService recoveryExecutor;
     private static ExecutorService fenceExecutor;
+    private static ScheduledExecutorService checkDeadlineScheduler;
+
+    private HACheckStatsMBeanImpl checkStats;
 
     private static final String HA_ENABLED_DETAIL = "resourceHAEnabled";
 
@@ -502,9 +511,19 @@ public final class HAManagerImpl extends ManagerBase implements HAManager, Clust
 
         // Perform activity checks
         if (newState == HAConfig.HAState.Checking) {
+            if (((ThreadPoolExecutor) activityCheckExecutor).getQueue().remainingCapacity() == 0) {
+                // Go back to Suspect without a sample, so the next poll asks again, instead of running the check on this thread
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Deferring activity check of resource id=" + haConfig.getResourceId() + ", the activity check queue is full");
+                }
+                checkStats.recordDeferredActivityCheck();
+                transitionHAState(HAConfig.Event.TooFewActivityCheckSamples, haConfig);
+                return false;
+            }
             final ActivityCheckTask job = ComponentContext.inject(new ActivityCheckTask(resource, haProvider, haConfig,
                     HAProviderConfig.ActivityCheckTimeout, activityCheckExecutor, counter.getSuspectTimeStamp()));
-            activityCheckExecutor.submit(job);
+            job.submit(checkDeadlineScheduler);
+            checkStats.recordActivityCheck();
         }
 
         // Attempt recovery
@@ -569,6 +588,9 @@ public final class HAManagerImpl extends ManagerBase implements HAManager, Clust
     @Override
     public boolean stop() {
         haConfigDao.expireServerOwnership(ManagementServerNode.getManagementServerId());
+        if (checkDeadlineScheduler != null) {
+            checkDeadlineScheduler.shutdownNow();
+        }
         return true;
     }
 
@@ -602,6 +624,16 @@ public final class HAManagerImpl extends ManagerBase implements HAManager, Clust
                 0L, TimeUnit.MILLISECONDS,
                 new ArrayBlockingQueue<Runnable>(fenceOperationQueueSize, true), new ThreadPoolExecutor.CallerRunsPolicy());
 
+        // Health and activity checks complete asynchronously, their timeouts are enforced by this scheduler
+        checkDeadlineScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("HA-Check-Deadlines"));
+
+        checkStats = new HACheckStatsMBeanImpl();
+        try {
+            JmxUtil.registerMBean("HAManager", "HACheckStats", checkStats);
+        } catch (Exception e) {
+            LOG.warn("Unable to register HA check stats to JMX monitoring", e);
+        }
+
         pollManager.submitTask(new HAManagerBgPollTask());
         HAConfig.HAState.getStateMachine().registerListener(this);
 
@@ -644,10 +676,21 @@ public final class HAManagerImpl extends ManagerBase implements HAManager, Clust
                     LOG.trace("HA health check task is running...");
                 }
                 final List<HAConfig> haConfigList = new ArrayList<HAConfig>(haConfigDao.listAll());
+                haConfigList.removeIf(haConfig -> haConfig == null);
+                // Resources that have waited the longest for a health check go first
+                final Map<Long, Long> lastHealthChecks = new HashMap<>();
+                for (final HAConfig haConfig : haConfigList) {
+                    final Long lastHealthCheck = getHACounter(haConfig.getResourceId(), haConfig.getResourceType()).getLastHealthCheckTimestamp();
+                    lastHealthChecks.put(haConfig.getId(), lastHealthCheck == null ? 0L : lastHealthCheck);
+                }
+                Collections.sort(haConfigList, Comparator.comparing((HAConfig haConfig) -> lastHealthChecks.get(haConfig.getId())));
+
+                final long now = System.currentTimeMillis();
+                final Map<Long, Long> clusterHealthCheckLag = new HashMap<>();
+                int submittedHealthChecks = 0;
+                int skippedHealthChecks = 0;
+                int deferredHealthChecks = 0;
                 for (final HAConfig haConfig : haConfigList) {
-                    if (haConfig == null) {
-                        continue;
-                    }
 
                     if (!checkHAOwnership(haConfig)) {
                         continue;
@@ -663,21 +706,36 @@ public final class HAManagerImpl extends ManagerBase implements HAManager, Clust
                         continue;
                     }
 
+                    final HAResourceCounter counter = getHACounter(haConfig.getResourceId(), haConfig.getResourceType());
+
                     switch (haConfig.getState()) {
                         case Available:
                         case Suspect:
                         case Degraded:
                         case Fenced:
+                            final Long lastHealthCheck = lastHealthChecks.get(haConfig.getId());
+                            if (lastHealthCheck > 0 && resource.getClusterId() != null) {
+                                clusterHealthCheckLag.merge(resource.getClusterId(), now - lastHealthCheck, Long::max);
+                            }
+                            if (!counter.canPerformHealthCheck()) {
+                                // Previous check is still running, do not pile up another one behind it
+                                skippedHealthChecks++;
+                                break;
+                            }
+                            if (((ThreadPoolExecutor) healthCheckExecutor).getQueue().remainingCapacity() == 0) {
+                                // Defer to the next poll instead of running the check on the poll thread
+                                deferredHealthChecks++;
+                                break;
+                            }
                             final HealthCheckTask task = ComponentContext.inject(new HealthCheckTask(resource, haProvider, haConfig,
                                     HAProviderConfig.HealthCheckTimeout, healthCheckExecutor));
-                            healthCheckExecutor.submit(task);
+                            counter.setHealthCheckFuture(task.submit(checkDeadlineScheduler));
+                            submittedHealthChecks++;
                             break;
                     default:
                         break;
                     }
 
-                    final HAResourceCounter counter = getHACounter(haConfig.getResourceId(), haConfig.getResourceType());
-
                     if (haConfig.getState() == HAConfig.HAState.Suspect) {
                         if (counter.canPerformActivityCheck((Long)(haProvider.getConfigValue(HAProviderConfig.MaxActivityCheckInterval, resource)))) {
                             transitionHAState(HAConfig.Event.PerformActivityCheck, haConfig);
@@ -711,6 +769,16 @@ public final class HAManagerImpl extends ManagerBase implements HAManager, Clust
                         transitionHAState(HAConfig.Event.RetryFencing, haConfig);
                     }
                 }
+
+                checkStats.recordHealthCheckPoll(submittedHealthChecks, skippedHealthChecks, deferredHealthChecks, clusterHealthCheckLag);
+                if (LOG.isDebugEnabled()) {
+                    if (deferredHealthChecks > 0) {
+                        LOG.debug("Deferred " + deferredHealthChecks + " HA health checks to the next poll as the health check queue is full");
+                    }
+                    for (final Map.Entry<Long, Long> lag : clusterHealthCheckLag.entrySet()) {
+                        LOG.debug("HA health check lag for cluster id " + lag.getKey() + " is " + lag.getValue() + " ms");
+                    }
+                }
             } catch (Throwable t) {
                 LOG.error("Error trying to perform health checks in HA manager", t);
             }
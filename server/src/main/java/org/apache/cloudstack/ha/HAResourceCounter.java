@@ -29,8 +29,10 @@ public final class HAResourceCounter {
     private Long lastActivityCheckTimestamp;
     private Long degradedTimestamp;
     private Long recoverTimestamp;
+    private Long lastHealthCheckTimestamp;
     private Future<Boolean> recoveryFuture;
     private Future<Boolean> fenceFuture;
+    private Future<Boolean> healthCheckFuture;
 
     public long getActivityCheckCounter() {
         return activityCheckCounter.get();
@@ -120,6 +122,25 @@ public final class HAResourceCounter {
         return recoveryFuture == null || recoveryFuture.isDone();
     }
 
+    public synchronized void markHealthChecked() {
+        lastHealthCheckTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the time of the last completed health check, or null if the resource has not been checked yet
+     */
+    public Long getLastHealthCheckTimestamp() {
+        return lastHealthCheckTimestamp;
+    }
+
+    public void setHealthCheckFuture(final Future<Boolean> future) {
+        healthCheckFuture = future;
+    }
+
+    public boolean canPerformHealthCheck() {
+        return healthCheckFuture == null || healthCheckFuture.isDone();
+    }
+
     public void setFenceFuture(final Future<Boolean> future) {
         fenceFuture = future;
     }
@@ -18,11 +18,14 @@
 package org.apache.cloudstack.ha.task;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.cloudstack.ha.HAConfig;
 import org.apache.cloudstack.ha.HAResource;
@@ -105,6 +108,59 @@ public abstract class BaseHATask implements Callable<Boolean> {
         return result;
     }
 
+    /**
+     * Runs the action on the executor without a second thread waiting for it, unlike call(). The result
+     * is processed when the action completes, or as a failure when the timeout, scheduled on
+     * deadlineScheduler, expires first.
+     *
+     * @return a future that is done once the result has been processed
+     */
+    public Future<Boolean> submit(final ScheduledExecutorService deadlineScheduler) {
+        final CompletableFuture<Boolean> processed = new CompletableFuture<Boolean>();
+        if (new DateTime().minusHours(1).isAfter(getCreated())) {
+            processed.complete(false);
+            return processed;
+        }
+        final AtomicBoolean completed = new AtomicBoolean(false);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                boolean result = false;
+                Throwable throwable = null;
+                try {
+                    result = performAction();
+                } catch (Throwable e) {
+                    LOG.warn("Exception occurred while running " + getTaskType() + " on a resource: " + e.getMessage(), e);
+                    throwable = e;
+                }
+                complete(completed, processed, result, throwable);
+            }
+        });
+        if (timeout != null && !processed.isDone()) {
+            deadlineScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!completed.get()) {
+                        LOG.trace(getTaskType() + " operation timed out for resource id:" + resource.getId());
+                    }
+                    complete(completed, processed, false, null);
+                }
+            }, timeout, TimeUnit.SECONDS);
+        }
+        return processed;
+    }
+
+    private void complete(final AtomicBoolean completed, final CompletableFuture<Boolean> processed, final boolean result, final Throwable throwable) {
+        if (!completed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            processResult(result, throwable);
+        } finally {
+            processed.complete(result);
+        }
+    }
+
     public DateTime getCreated() {
         return created;
     }
@@ -47,6 +47,7 @@ public class HealthCheckTask extends BaseHATask {
     public void processResult(boolean result, Throwable e) {
         final HAConfig haConfig = getHaConfig();
         final HAResourceCounter counter = haManager.getHACounter(haConfig.getResourceId(), haConfig.getResourceType());
+        counter.markHealthChecked();
         if (result) {
             haManager.transitionHAState(HAConfig.Event.HealthCheckPassed, haConfig);
             if (haConfig.getState() == HAConfig.HAState.Fenced) {
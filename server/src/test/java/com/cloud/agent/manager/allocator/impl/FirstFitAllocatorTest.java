@@ -0,0 +1,151 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager.allocator.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.cloud.capacity.CapacityManager;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterDetailsVO;
+import com.cloud.dc.ClusterVO;
+import com.cloud.dc.dao.ClusterDao;
+import com.cloud.deploy.DeploymentPlan;
+import com.cloud.deploy.DeploymentPlanner.ExcludeList;
+import com.cloud.host.Host;
+import com.cloud.host.dao.HostDetailsDao;
+import com.cloud.offering.ServiceOffering;
+import com.cloud.resource.ResourceManager;
+import com.cloud.service.dao.ServiceOfferingDetailsDao;
+import com.cloud.storage.GuestOSCategoryVO;
+import com.cloud.storage.dao.GuestOSCategoryDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FirstFitAllocatorTest {
+
+    @Mock
+    HostDetailsDao _hostDetailsDao;
+    @Mock
+    GuestOSCategoryDao _guestOSCategoryDao;
+    @Mock
+    ServiceOfferingDetailsDao _serviceOfferingDetailsDao;
+    @Mock
+    CapacityManager _capacityMgr;
+    @Mock
+    ResourceManager _resourceMgr;
+    @Mock
+    ClusterDao _clusterDao;
+    @Mock
+    ClusterDetailsDao _clusterDetailsDao;
+
+    @InjectMocks
+    FirstFitAllocator allocator = new FirstFitAllocator();
+
+    private List<Host> hosts;
+
+    @Before
+    public void setUp() {
+        hosts = Arrays.asList(mockHost(1L), mockHost(2L), mockHost(3L), mockHost(4L), mockHost(5L));
+    }
+
+    private Host mockHost(long id) {
+        Host host = Mockito.mock(Host.class);
+        Mockito.when(host.getId()).thenReturn(id);
+        return host;
+    }
+
+    @Test
+    public void testGetHostGuestOSCategoriesSkipsInvalidCategories() {
+        Map<Long, String> categoryIds = new HashMap<>();
+        categoryIds.put(1L, "5");
+        categoryIds.put(2L, "not-a-number");
+        categoryIds.put(3L, "7");
+        categoryIds.put(4L, "5");
+        Mockito.when(_hostDetailsDao.findDetailValues(Arrays.asList(1L, 2L, 3L, 4L, 5L), "guest.os.category.id")).thenReturn(categoryIds);
+        GuestOSCategoryVO linux = Mockito.mock(GuestOSCategoryVO.class);
+        Mockito.when(linux.getName()).thenReturn("Linux");
+        Mockito.when(_guestOSCategoryDao.findById(5L)).thenReturn(linux);
+        Mockito.when(_guestOSCategoryDao.findById(7L)).thenReturn(null);
+
+        Map<Long, String> categories = allocator.getHostGuestOSCategories(hosts);
+
+        // host 2 has an unparsable id, host 3 an unknown category and host 5 no category at all
+        Assert.assertEquals(2, categories.size());
+        Assert.assertEquals("Linux", categories.get(1L));
+        Assert.assertEquals("Linux", categories.get(4L));
+        // each category is looked up once, including the unknown one
+        Mockito.verify(_guestOSCategoryDao).findById(5L);
+        Mockito.verify(_guestOSCategoryDao).findById(7L);
+        Mockito.verifyNoMoreInteractions(_guestOSCategoryDao);
+    }
+
+    @Test
+    public void testGetHostGuestOSCategoriesWithoutDetails() {
+        Mockito.when(_hostDetailsDao.findDetailValues(Mockito.anyList(), Mockito.eq("guest.os.category.id"))).thenReturn(new HashMap<Long, String>());
+
+        Assert.assertTrue(allocator.getHostGuestOSCategories(hosts).isEmpty());
+        Mockito.verifyZeroInteractions(_guestOSCategoryDao);
+    }
+
+    @Test
+    public void testAllocateToChecksHostsInBulk() {
+        for (Host host : Arrays.asList(hosts.get(0), hosts.get(1), hosts.get(2), hosts.get(4))) {
+            Mockito.when(host.getClusterId()).thenReturn(10L);
+        }
+        ServiceOffering offering = Mockito.mock(ServiceOffering.class);
+        Mockito.when(offering.getId()).thenReturn(100L);
+        Mockito.when(offering.getCpu()).thenReturn(2);
+        Mockito.when(offering.getSpeed()).thenReturn(1000);
+        Mockito.when(offering.getRamSize()).thenReturn(512);
+        ClusterVO cluster = Mockito.mock(ClusterVO.class);
+        Mockito.when(cluster.getId()).thenReturn(10L);
+        Mockito.when(_clusterDao.findById(10L)).thenReturn(cluster);
+        Mockito.when(_clusterDetailsDao.findDetail(10L, "cpuOvercommitRatio")).thenReturn(new ClusterDetailsVO(10L, "cpuOvercommitRatio", "2.0"));
+        Mockito.when(_clusterDetailsDao.findDetail(10L, "memoryOvercommitRatio")).thenReturn(new ClusterDetailsVO(10L, "memoryOvercommitRatio", "1.0"));
+        Mockito.when(_capacityMgr.listHostIdsReachingMaxGuestLimit(Mockito.anyList())).thenReturn(Collections.singleton(1L));
+        Mockito.when(_capacityMgr.listHostIdsWithCapacity(Mockito.anyList(), Mockito.eq(2000), Mockito.eq(512L * 1024L * 1024L), Mockito.eq(false), Mockito.anyMap(),
+            Mockito.eq(true))).thenReturn(new HashSet<Long>(Arrays.asList(1L, 3L, 5L)));
+        Mockito.when(_capacityMgr.checkIfHostHasCpuCapability(Mockito.any(Host.class), Mockito.eq(2), Mockito.eq(1000))).thenReturn(true);
+        ExcludeList avoid = new ExcludeList();
+        avoid.addHost(4L);
+
+        List<Host> suitableHosts = allocator.allocateTo(Mockito.mock(DeploymentPlan.class), offering, null, avoid, new ArrayList<Host>(hosts), -1, true, null);
+
+        // host 1 is at its guest limit, host 2 has no capacity left and host 4 was already avoided
+        Assert.assertEquals(new HashSet<Host>(Arrays.asList(hosts.get(2), hosts.get(4))), new HashSet<Host>(suitableHosts));
+        Assert.assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 4L)), avoid.getHostsToAvoid());
+        // the hosts are checked with bulk reads, not one lookup per host
+        Mockito.verify(_capacityMgr, Mockito.never()).checkIfHostReachMaxGuestLimit(Mockito.any(Host.class));
+        Mockito.verify(_capacityMgr, Mockito.never()).checkIfHostHasCapacity(Mockito.anyLong(), Mockito.anyInt(), Mockito.anyLong(), Mockito.anyBoolean(),
+            Mockito.anyFloat(), Mockito.anyFloat(), Mockito.anyBoolean());
+        Mockito.verify(_clusterDao).findById(10L);
+    }
+}
@@ -0,0 +1,91 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApiLookupCacheTest {
+
+    private final AtomicInteger _loads = new AtomicInteger();
+
+    private final Function<Long, String> _loader = id -> {
+        _loads.incrementAndGet();
+        return id < 100 ? "entity-" + id : null;
+    };
+
+    @Test
+    public void testFindOutsideOfScopeAlwaysLoads() {
+        Assert.assertEquals("entity-1", ApiLookupCache.find(String.class, 1L, _loader));
+        Assert.assertEquals("entity-1", ApiLookupCache.find(String.class, 1L, _loader));
+        Assert.assertEquals(2, _loads.get());
+    }
+
+    @Test
+    public void testFindInScopeLoadsOnce() {
+        ApiLookupCache cache = ApiLookupCache.begin("listThings");
+        try {
+            Assert.assertNull(ApiLookupCache.begin("nested"));
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals("entity-1", ApiLookupCache.find(String.class, 1L, _loader));
+                Assert.assertNull(ApiLookupCache.find(String.class, 200L, _loader));
+            }
+            Assert.assertEquals(2, _loads.get());
+        } finally {
+            cache.end();
+        }
+
+        Assert.assertNull(ApiLookupCache.current());
+        ApiLookupCache.find(String.class, 1L, _loader);
+        Assert.assertEquals(3, _loads.get());
+    }
+
+    @Test
+    public void testPrefetch() {
+        final List<List<Long>> batches = new ArrayList<List<Long>>();
+        ApiLookupCache cache = ApiLookupCache.begin("listThings");
+        try {
+            ApiLookupCache.prefetch(String.class, Arrays.asList(1L, 2L, 2L, 300L, null), ids -> {
+                batches.add(new ArrayList<Long>(ids));
+                List<String> entities = new ArrayList<String>();
+                for (Long id : ids) {
+                    if (id < 100) {
+                        entities.add(String.valueOf(id));
+                    }
+                }
+                return entities;
+            }, Long::valueOf);
+
+            Assert.assertEquals(1, batches.size());
+            Assert.assertEquals(Arrays.asList(1L, 2L, 300L), batches.get(0));
+            Assert.assertEquals("2", ApiLookupCache.find(String.class, 2L, _loader));
+            Assert.assertEquals(0, _loads.get());
+
+            // not returned by the bulk load, looked up on its own
+            Assert.assertNull(ApiLookupCache.find(String.class, 300L, _loader));
+            Assert.assertEquals(1, _loads.get());
+        } finally {
+            cache.end();
+        }
+    }
+}
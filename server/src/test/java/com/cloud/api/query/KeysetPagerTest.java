@@ -0,0 +1,133 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package com.cloud.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.SearchCriteria;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KeysetPagerTest {
+
+    static class Row {
+        long id;
+        Date created;
+
+        Row(long id, Date created) {
+            this.id = id;
+            this.created = created;
+        }
+    }
+
+    @Mock
+    GenericDao<Row, Long> dao;
+
+    @Mock
+    SearchCriteria<Row> sc;
+
+    @Mock
+    SearchCriteria<Row> nestedSc;
+
+    private List<Row> rows;
+
+    @Before
+    public void setup() throws Exception {
+        Map<String, Attribute> attrs = new HashMap<String, Attribute>();
+        for (String name : new String[] {"id", "created"}) {
+            Attribute attr = Mockito.mock(Attribute.class);
+            Mockito.when(attr.getField()).thenReturn(Row.class.getDeclaredField(name));
+            attrs.put(name, attr);
+        }
+        Mockito.when(dao.getAllAttributes()).thenReturn(attrs);
+        Mockito.when(dao.createSearchCriteria()).thenReturn(nestedSc);
+
+        rows = Arrays.asList(new Row(3L, new Date(3000L)), new Row(2L, new Date(2000L)), new Row(1L, new Date(2000L)));
+    }
+
+    @Test
+    public void testGetPageSetsTokenOnlyWhenMoreRows() {
+        KeysetPager<Row> pager = new KeysetPager<Row>(dao, Row.class, "created", false, null, 2L);
+        assertEquals(2, pager.getPage(rows).size());
+        assertNotNull(pager.getNextPageToken());
+
+        pager = new KeysetPager<Row>(dao, Row.class, "created", false, null, 3L);
+        assertEquals(3, pager.getPage(rows).size());
+        assertNull(pager.getNextPageToken());
+    }
+
+    @Test
+    public void testNoConditionWithoutToken() {
+        KeysetPager<Row> pager = new KeysetPager<Row>(dao, Row.class, "id", true, null, 2L);
+        pager.addCondition(sc);
+        Mockito.verifyZeroInteractions(sc);
+    }
+
+    @Test
+    public void testTokenRoundTripById() {
+        KeysetPager<Row> pager = new KeysetPager<Row>(dao, Row.class, "id", false, null, 1L);
+        pager.getPage(rows);
+
+        KeysetPager<Row> next = new KeysetPager<Row>(dao, Row.class, "id", false, pager.getNextPageToken(), 1L);
+        next.addCondition(sc);
+        Mockito.verify(sc).addAnd("id", SearchCriteria.Op.LT, 3L);
+    }
+
+    @Test
+    public void testTokenRoundTripBySortKeyUsesIdTieBreaker() {
+        KeysetPager<Row> pager = new KeysetPager<Row>(dao, Row.class, "created", false, null, 2L);
+        pager.getPage(rows);
+
+        KeysetPager<Row> next = new KeysetPager<Row>(dao, Row.class, "created", false, pager.getNextPageToken(), 2L);
+        next.addCondition(sc);
+        Mockito.verify(nestedSc).addOr("created", SearchCriteria.Op.LT, new Date(2000L));
+        Mockito.verify(nestedSc).addAnd("created", SearchCriteria.Op.EQ, new Date(2000L));
+        Mockito.verify(nestedSc).addAnd("id", SearchCriteria.Op.LT, 2L);
+        Mockito.verify(sc).addAnd("created", SearchCriteria.Op.SC, nestedSc);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testGarbageTokenIsRejected() {
+        new KeysetPager<Row>(dao, Row.class, "created", false, "not a token!", 2L);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void testTokenForOtherSortKeyIsRejected() {
+        KeysetPager<Row> pager = new KeysetPager<Row>(dao, Row.class, "id", false, null, 1L);
+        pager.getPage(rows);
+        new KeysetPager<Row>(dao, Row.class, "created", false, pager.getNextPageToken(), 1L);
+    }
+}
@@ -0,0 +1,111 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.HttpUtils;
+
+public class ApiResponseSerializerTest {
+
+    @Test
+    public void testUnescape() {
+        Assert.assertEquals("plain", ApiResponseSerializer.unescape("plain"));
+        Assert.assertEquals("a<b>&c='d'", ApiResponseSerializer.unescape("a\\u003cb\\u003E\\u0026c\\u003d\\u0027d\\u0027"));
+    }
+
+    @Test
+    public void testSerializeMatchesSerializedString() throws Exception {
+        SuccessResponse first = new SuccessResponse();
+        first.setDisplayText("<first>");
+        first.setObjectName("result");
+        SuccessResponse second = new SuccessResponse();
+        second.setSuccess(false);
+        second.setObjectName("result");
+
+        ListResponse<SuccessResponse> response = new ListResponse<SuccessResponse>();
+        response.setResponses(Arrays.asList(first, second), 2);
+        response.setResponseName("listresultsresponse");
+
+        StringBuilder expectedLog = new StringBuilder();
+        String expected = ApiResponseSerializer.toSerializedStringWithSecureLogs(response, HttpUtils.RESPONSE_TYPE_JSON, expectedLog);
+
+        StringWriter out = new StringWriter();
+        StringBuilder log = new StringBuilder();
+        ApiResponseSerializer.serialize(response, HttpUtils.RESPONSE_TYPE_JSON, out, log);
+
+        Assert.assertEquals("{\"listresultsresponse\":{\"count\":2,\"result\":[{\"success\":true,\"displaytext\":\"<first>\"},{\"success\":false}]}}", expected);
+        Assert.assertEquals(expected, out.toString());
+        Assert.assertEquals(expectedLog.toString(), log.toString());
+    }
+
+    @Test
+    public void testTokenPagedListHasNoCount() throws Exception {
+        SuccessResponse first = new SuccessResponse();
+        first.setObjectName("result");
+
+        ListResponse<SuccessResponse> response = new ListResponse<SuccessResponse>();
+        response.setResponsePage(Arrays.asList(first, first), "bmV4dA");
+        response.setResponseName("listresultsresponse");
+
+        StringWriter out = new StringWriter();
+        ApiResponseSerializer.serialize(response, HttpUtils.RESPONSE_TYPE_JSON, out, new StringBuilder());
+        Assert.assertNull(response.getCount());
+        Assert.assertEquals("{\"listresultsresponse\":{\"result\":[{\"success\":true},{\"success\":true}],\"nextpagetoken\":\"bmV4dA\"}}", out.toString());
+
+        response.setResponsePage(Collections.<SuccessResponse>emptyList(), null);
+        out = new StringWriter();
+        ApiResponseSerializer.serialize(response, HttpUtils.RESPONSE_TYPE_JSON, out, new StringBuilder());
+        Assert.assertEquals("{\"listresultsresponse\":{}}", out.toString());
+    }
+
+    @Test
+    public void testBoundedLogTruncates() throws Exception {
+        SuccessResponse first = new SuccessResponse();
+        first.setDisplayText("a long enough display text");
+        first.setObjectName("result");
+
+        ListResponse<SuccessResponse> response = new ListResponse<SuccessResponse>();
+        response.setResponses(Arrays.asList(first, first, first), 3);
+        response.setResponseName("listresultsresponse");
+
+        StringWriter out = new StringWriter();
+        ApiResponseSerializer.BoundedLog log = new ApiResponseSerializer.BoundedLog(20);
+        ApiResponseSerializer.serialize(response, HttpUtils.RESPONSE_TYPE_JSON, out, log);
+
+        StringBuilder fullLog = new StringBuilder();
+        ApiResponseSerializer.serialize(response, HttpUtils.RESPONSE_TYPE_JSON, new StringWriter(), fullLog);
+
+        Assert.assertTrue(log.isFull());
+        Assert.assertEquals(fullLog.substring(0, 20) + "...(truncated)", log.toString());
+    }
+
+    @Test
+    public void testBoundedLogUnlimited() throws Exception {
+        ApiResponseSerializer.BoundedLog log = new ApiResponseSerializer.BoundedLog(0);
+        log.append("abc").append('d').append("xdefx", 1, 4);
+        Assert.assertFalse(log.isFull());
+        Assert.assertEquals("abcddef", log.toString());
+    }
+}
@@ -0,0 +1,86 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.cloud.capacity;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.dc.ClusterDetailsVO;
+
+public class CapacityIndexImplTest {
+    CapacityDao capacityDao = mock(CapacityDao.class);
+    ClusterDetailsDao clusterDetailsDao = mock(ClusterDetailsDao.class);
+    CapacityIndexImpl index;
+
+    @Before
+    public void setUp() {
+        when(clusterDetailsDao.findDetail(anyLong(), anyString())).thenReturn(null);
+        when(clusterDetailsDao.findDetail(2L, "cpuOvercommitRatio")).thenReturn(new ClusterDetailsVO(2L, "cpuOvercommitRatio", "2"));
+        index = new CapacityIndexImpl(capacityDao, clusterDetailsDao);
+        // host 10 in cluster 1 is half used, host 20 in cluster 2 is nearly full before the cpu overcommit
+        index.update(new CapacityVO(10L, 1L, 1L, 1L, 1000L, 2000L, Capacity.CAPACITY_TYPE_CPU),
+                new CapacityVO(10L, 1L, 1L, 1L, 1024L, 4096L, Capacity.CAPACITY_TYPE_MEMORY),
+                new CapacityVO(20L, 1L, 1L, 2L, 1900L, 2000L, Capacity.CAPACITY_TYPE_CPU),
+                new CapacityVO(20L, 1L, 1L, 2L, 3072L, 4096L, Capacity.CAPACITY_TYPE_MEMORY));
+    }
+
+    @Test
+    public void checkIfHostHasCapacityTest() {
+        Assert.assertTrue(index.checkIfHostHasCapacity(10L, 1000, 3072L, false, 1f, 1f, true));
+        Assert.assertFalse(index.checkIfHostHasCapacity(10L, 1001, 3072L, false, 1f, 1f, true));
+        Assert.assertTrue(index.checkIfHostHasCapacity(10L, 2000, 3072L, false, 1.5f, 1f, true));
+        Assert.assertNull(index.checkIfHostHasCapacity(30L, 1, 1L, false, 1f, 1f, true));
+    }
+
+    @Test
+    public void listHostsWithEnoughCapacityAppliesOvercommitTest() {
+        Assert.assertEquals(Arrays.asList(20L), index.listHostsWithEnoughCapacity(1500, 1024L, 2L));
+        Assert.assertTrue(index.listHostsWithEnoughCapacity(1500, 1024L, 1L).isEmpty());
+        List<Long> clusters = index.listClustersInZoneOrPodByHostCapacities(1L, 1500, 1024L, true);
+        Assert.assertEquals(Arrays.asList(2L), clusters);
+    }
+
+    @Test
+    public void updateReordersHostsTest() {
+        Assert.assertEquals(Arrays.asList(10L, 20L), index.orderHostsByFreeCapacity(1L, null, Capacity.CAPACITY_TYPE_CPU));
+        index.update(new CapacityVO(10L, 1L, 1L, 1L, 2000L, 2000L, Capacity.CAPACITY_TYPE_CPU));
+        Assert.assertEquals(Arrays.asList(20L, 10L), index.orderHostsByFreeCapacity(1L, null, Capacity.CAPACITY_TYPE_CPU));
+        Assert.assertNull(index.orderHostsByFreeCapacity(1L, null, Capacity.CAPACITY_TYPE_STORAGE));
+    }
+
+    @Test
+    public void refreshHostDropsHostWithoutCapacityRowsTest() {
+        when(capacityDao.findByHostIdType(eq(10L), eq(Capacity.CAPACITY_TYPE_CPU))).thenReturn(null);
+        when(capacityDao.findByHostIdType(eq(10L), eq(Capacity.CAPACITY_TYPE_MEMORY))).thenReturn(null);
+        index.refreshHost(10L);
+        Assert.assertEquals(1, index.size());
+        Assert.assertNull(index.checkIfHostHasCapacity(10L, 1, 1L, false, 1f, 1f, true));
+    }
+}
@@ -0,0 +1,87 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.ha.HighAvailabilityManager.WorkType;
+
+public class HaWorkQueueTest {
+
+    private static long now() {
+        return System.currentTimeMillis() >> 10;
+    }
+
+    @Test
+    public void testDueWorkByPriority() throws InterruptedException {
+        HaWorkQueue queue = new HaWorkQueue();
+        queue.offer(1L, WorkType.Migration, now());
+        queue.offer(2L, WorkType.Stop, now());
+        queue.offer(3L, WorkType.HA, now());
+        queue.offer(3L, WorkType.HA, now());
+        Assert.assertEquals(3, queue.size());
+
+        Assert.assertEquals(Long.valueOf(3L), queue.poll(0));
+        Assert.assertEquals(Long.valueOf(2L), queue.poll(0));
+        Assert.assertEquals(Long.valueOf(1L), queue.poll(0));
+        Assert.assertNull(queue.poll(0));
+    }
+
+    @Test
+    public void testFutureWorkIsNotHandedOut() throws InterruptedException {
+        HaWorkQueue queue = new HaWorkQueue();
+        queue.offer(1L, WorkType.HA, now() + 60);
+        Assert.assertNull(queue.poll(10));
+        Assert.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testOfferWakesUpPoll() throws InterruptedException {
+        final HaWorkQueue queue = new HaWorkQueue();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.offer(7L, WorkType.HA, now());
+            }
+        };
+        producer.start();
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(Long.valueOf(7L), queue.poll(10000));
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        producer.join();
+    }
+
+    @Test
+    public void testRestartTimePercentiles() {
+        HaRestartTimes times = new HaRestartTimes(100);
+        Assert.assertNull(times.getPercentiles(50));
+        for (long i = 1; i <= 200; i++) {
+            times.record(i);
+        }
+        Assert.assertEquals(100, times.size());
+        long[] percentiles = times.getPercentiles(50, 90, 100);
+        Assert.assertEquals(150L, percentiles[0]);
+        Assert.assertEquals(190L, percentiles[1]);
+        Assert.assertEquals(200L, percentiles[2]);
+    }
+}
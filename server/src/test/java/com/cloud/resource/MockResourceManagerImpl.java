@@ -20,6 +20,7 @@ package com.cloud.resource;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.naming.ConfigurationException;
 
@@ -633,6 +634,18 @@ public class MockResourceManagerImpl extends ManagerBase implements ResourceMana
         return false;
     }
 
+    @Override
+    public Set<Long> listGpuEnabledHostIds(final List<Long> hostIds) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public Set<Long> listHostIdsWithAvailableGPUDevice(final List<Long> hostIds, final String groupName, final String vgpuType) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public String getConfigComponentName() {
         return null;
@@ -191,6 +191,17 @@ public class MockUsageEventDao implements UsageEventDao{
         return entity;
     }
 
+    @Override
+    public List<Long> persistBatch(List<UsageEventVO> entities) {
+        persistedItems.addAll(entities);
+        return null;
+    }
+
+    @Override
+    public int updateBatch(List<UsageEventVO> entities) {
+        return 0;
+    }
+
     @Override
     public boolean remove(Long id) {
         return false;
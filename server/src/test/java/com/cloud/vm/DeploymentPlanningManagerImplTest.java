@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -23,7 +24,10 @@ import static org.junit.Assert.assertTrue;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -34,6 +38,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -52,8 +57,10 @@ import org.springframework.test.context.support.AnnotationConfigContextLoader;
 
 import org.apache.cloudstack.affinity.AffinityGroupProcessor;
 import org.apache.cloudstack.affinity.AffinityGroupService;
+import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.engine.cloud.entity.api.db.VMReservationVO;
 import org.apache.cloudstack.engine.cloud.entity.api.db.dao.VMReservationDao;
 import org.apache.cloudstack.engine.subsystem.api.storage.DataStoreManager;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
@@ -62,7 +69,9 @@ import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.test.utils.SpringUtils;
 
 import com.cloud.agent.AgentManager;
+import com.cloud.capacity.Capacity;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.CapacityVO;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.ClusterVO;
@@ -71,13 +80,16 @@ import com.cloud.dc.dao.ClusterDao;
 import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.dc.dao.DedicatedResourceDao;
 import com.cloud.dc.dao.HostPodDao;
+import com.cloud.dc.HostPodVO;
 import com.cloud.deploy.DataCenterDeployment;
 import com.cloud.deploy.DeployDestination;
+import com.cloud.deploy.DeploymentPlan;
 import com.cloud.deploy.DeploymentClusterPlanner;
 import com.cloud.deploy.DeploymentPlanner;
 import com.cloud.deploy.DeploymentPlanner.ExcludeList;
 import com.cloud.deploy.DeploymentPlanner.PlannerResourceUsage;
 import com.cloud.deploy.DeploymentPlanningManagerImpl;
+import com.cloud.deploy.DeploymentPlanningManagerImpl.BatchPlanningContext;
 import com.cloud.deploy.FirstFitPlanner;
 import com.cloud.deploy.PlannerHostReservationVO;
 import com.cloud.deploy.dao.PlannerHostReservationDao;
@@ -92,6 +104,8 @@ import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDetailsDao;
 import com.cloud.storage.Storage.ProvisioningType;
 import com.cloud.storage.StorageManager;
+import com.cloud.storage.StoragePool;
+import com.cloud.storage.Volume;
 import com.cloud.storage.dao.DiskOfferingDao;
 import com.cloud.storage.dao.GuestOSCategoryDao;
 import com.cloud.storage.dao.GuestOSDao;
@@ -99,6 +113,7 @@ import com.cloud.storage.dao.StoragePoolHostDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.user.AccountManager;
 import com.cloud.utils.component.ComponentContext;
+import com.cloud.utils.db.SearchCriteria;
 import com.cloud.vm.dao.UserVmDao;
 import com.cloud.vm.dao.UserVmDetailsDao;
 import com.cloud.vm.dao.VMInstanceDao;
@@ -141,6 +156,24 @@ public class DeploymentPlanningManagerImplTest {
     @Inject
     UserVmDetailsDao vmDetailsDao;
 
+    @Inject
+    CapacityManager _capacityMgr;
+
+    @Inject
+    HostDao _hostDao;
+
+    @Inject
+    CapacityDao _capacityDao;
+
+    @Inject
+    VMReservationDao _reservationDao;
+
+    @Inject
+    AffinityGroupDao _affinityGroupDao;
+
+    @Inject
+    AffinityGroupProcessor _affinityProcessor;
+
     @Mock
     Host host;
 
@@ -230,6 +263,212 @@ public class DeploymentPlanningManagerImplTest {
         assertNull("Planner cannot handle, destination should be null! ", dest);
     }
 
+    @Test
+    public void planDeploymentsDataCenterAvoidTest() throws InsufficientServerCapacityException, AffinityConflictException {
+        ServiceOfferingVO svcOffering =
+            new ServiceOfferingVO("testOffering", 1, 512, 500, 1, 1, false, false, false, "test dpm",
+                ProvisioningType.THIN, false, false, null, false, VirtualMachine.Type.User,
+                    null, "FirstFitPlanner");
+        Mockito.when(vmProfile.getServiceOffering()).thenReturn(svcOffering);
+
+        DataCenterDeployment plan = new DataCenterDeployment(dataCenterId);
+        ExcludeList batchAvoids = new ExcludeList();
+        batchAvoids.addDataCenter(dataCenterId);
+        List<DeployDestination> dests = _dpm.planDeployments(Arrays.asList(vmProfile, vmProfile), plan, batchAvoids, null);
+        assertEquals(2, dests.size());
+        assertNull("DataCenter is in avoid set, destinations should be null! ", dests.get(0));
+        assertNull("DataCenter is in avoid set, destinations should be null! ", dests.get(1));
+        assertTrue("The batch avoid set should not be changed", batchAvoids.getHostsToAvoid() == null || batchAvoids.getHostsToAvoid().isEmpty());
+    }
+
+    private VirtualMachineProfile batchVmProfile(long vmId) {
+        ServiceOfferingVO svcOffering =
+            new ServiceOfferingVO("testOffering", 1, 512, 500, 1, 1, false, false, false, "test dpm",
+                ProvisioningType.THIN, false, false, null, false, VirtualMachine.Type.User,
+                    null, "FirstFitPlanner");
+        VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+        Mockito.when(vm.getId()).thenReturn(vmId);
+        Mockito.when(vm.getHypervisorType()).thenReturn(HypervisorType.KVM);
+        VirtualMachineProfile profile = Mockito.mock(VirtualMachineProfile.class);
+        Mockito.when(profile.getId()).thenReturn(vmId);
+        Mockito.when(profile.getVirtualMachine()).thenReturn(vm);
+        Mockito.when(profile.getServiceOffering()).thenReturn(svcOffering);
+        return profile;
+    }
+
+    private DeployDestination batchDestination(long destHostId) {
+        Host destHost = Mockito.mock(Host.class);
+        Mockito.when(destHost.getId()).thenReturn(destHostId);
+        Mockito.when(destHost.getClusterId()).thenReturn(1L);
+        HostPodVO pod = Mockito.mock(HostPodVO.class);
+        ClusterVO cluster = Mockito.mock(ClusterVO.class);
+        Map<Volume, StoragePool> storage = new HashMap<Volume, StoragePool>();
+        return new DeployDestination(dc, pod, cluster, destHost, storage);
+    }
+
+    /**
+     * A spy whose planDeployment places each vm on the host of the plan if it has one, otherwise on the
+     * first host of its preference list that is not avoided.
+     */
+    private DeploymentPlanningManagerImpl batchPlanner(final Map<Long, List<Long>> preferredHosts, final List<DeploymentPlan> plans)
+            throws InsufficientServerCapacityException, AffinityConflictException {
+        DeploymentPlanningManagerImpl dpm = Mockito.spy(_dpm);
+        Mockito.doAnswer(invocation -> {
+            VirtualMachineProfile profile = invocation.getArgument(0);
+            DeploymentPlan plan = invocation.getArgument(1);
+            ExcludeList avoid = invocation.getArgument(2);
+            plans.add(plan);
+            if (plan.getHostId() != null) {
+                return batchDestination(plan.getHostId());
+            }
+            for (Long preferred : preferredHosts.get(profile.getId())) {
+                if (avoid.getHostsToAvoid() == null || !avoid.getHostsToAvoid().contains(preferred)) {
+                    return batchDestination(preferred);
+                }
+            }
+            return null;
+        }).when(dpm).planDeployment(Mockito.any(VirtualMachineProfile.class), Mockito.any(DeploymentPlan.class), Mockito.any(ExcludeList.class),
+                Mockito.nullable(DeploymentPlanner.class), Mockito.any(BatchPlanningContext.class));
+        return dpm;
+    }
+
+    private void stubHostCapacity(long capacityHostId, boolean hasCapacity) {
+        Mockito.when(_capacityMgr.checkIfHostHasCapacity(Mockito.eq(capacityHostId), Mockito.anyInt(), Mockito.anyLong(), Mockito.eq(false), Mockito.anyFloat(),
+                Mockito.anyFloat(), Mockito.eq(true))).thenReturn(hasCapacity);
+    }
+
+    private CapacityVO hostCapacity(long capacityHostId, short capacityType, long total) {
+        return new CapacityVO(capacityHostId, dataCenterId, null, 1L, 0L, total, capacityType);
+    }
+
+    @Test
+    public void planDeploymentsCountsBatchCapacityTest() throws InsufficientServerCapacityException, AffinityConflictException {
+        Mockito.reset(_capacityMgr, _affinityGroupVMMapDao, _hostDao, _capacityDao);
+        Mockito.when(_capacityMgr.getClusterOverProvisioningFactor(Mockito.anyLong(), Mockito.anyShort())).thenReturn(1.0f);
+        Mockito.when(_hostDao.listAllHosts(dataCenterId)).thenReturn(Arrays.asList(1L, 2L));
+        // host 1 has room for one vm of the batch only: 900 MHz for 2 x 500 MHz
+        Mockito.when(_capacityDao.listByHostIdsAndTypes(Arrays.asList(1L, 2L), Arrays.asList(Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY)))
+                .thenReturn(Arrays.asList(hostCapacity(1L, Capacity.CAPACITY_TYPE_CPU, 900L), hostCapacity(1L, Capacity.CAPACITY_TYPE_MEMORY, 4096L * 1024L * 1024L),
+                        hostCapacity(2L, Capacity.CAPACITY_TYPE_CPU, 4000L), hostCapacity(2L, Capacity.CAPACITY_TYPE_MEMORY, 4096L * 1024L * 1024L)));
+        Map<Long, List<Long>> preferredHosts = new HashMap<Long, List<Long>>();
+        preferredHosts.put(101L, Arrays.asList(1L, 2L));
+        preferredHosts.put(102L, Arrays.asList(1L, 2L));
+        List<DeploymentPlan> plans = new ArrayList<DeploymentPlan>();
+        DeploymentPlanningManagerImpl dpm = batchPlanner(preferredHosts, plans);
+
+        ExcludeList batchAvoids = new ExcludeList();
+        List<DeployDestination> dests = dpm.planDeployments(Arrays.asList(batchVmProfile(101L), batchVmProfile(102L)),
+                new DataCenterDeployment(dataCenterId), batchAvoids, null);
+
+        assertEquals(1L, dests.get(0).getHost().getId());
+        assertEquals("The second vm does not fit next to the first one and has to be re-planned", 2L, dests.get(1).getHost().getId());
+        assertEquals(3, plans.size());
+        // the re-check reads the capacity snapshot taken once for the batch, not the capacity of each host
+        Mockito.verify(_capacityDao, Mockito.times(1)).listByHostIdsAndTypes(Mockito.anyList(), Mockito.anyList());
+        Mockito.verify(_capacityMgr, Mockito.never()).checkIfHostHasCapacity(Mockito.anyLong(), Mockito.anyInt(), Mockito.anyLong(), Mockito.anyBoolean(),
+                Mockito.anyFloat(), Mockito.anyFloat(), Mockito.anyBoolean());
+        assertTrue("The batch avoid set should not be changed", batchAvoids.getHostsToAvoid() == null || batchAvoids.getHostsToAvoid().isEmpty());
+    }
+
+    @Test
+    public void planDeploymentsAntiAffinityTest() throws InsufficientServerCapacityException, AffinityConflictException {
+        Mockito.reset(_capacityMgr, _affinityGroupVMMapDao, _hostDao, _capacityDao);
+        stubHostCapacity(1L, true);
+        stubHostCapacity(2L, true);
+        Mockito.when(_affinityGroupVMMapDao.findByVmIdType(Mockito.anyLong(), Mockito.eq("host anti-affinity"))).thenAnswer(invocation ->
+                Collections.singletonList(new AffinityGroupVMMapVO(10L, invocation.getArgument(0))));
+        Map<Long, List<Long>> preferredHosts = new HashMap<Long, List<Long>>();
+        preferredHosts.put(101L, Arrays.asList(1L, 2L));
+        preferredHosts.put(102L, Arrays.asList(1L, 2L));
+        DeploymentPlanningManagerImpl dpm = batchPlanner(preferredHosts, new ArrayList<DeploymentPlan>());
+
+        List<DeployDestination> dests = dpm.planDeployments(Arrays.asList(batchVmProfile(101L), batchVmProfile(102L)),
+                new DataCenterDeployment(dataCenterId), new ExcludeList(), null);
+
+        assertEquals(1L, dests.get(0).getHost().getId());
+        assertEquals("Anti-affinity group members of the batch must avoid each other's hosts", 2L, dests.get(1).getHost().getId());
+    }
+
+    @Test
+    public void planDeploymentsAffinityTest() throws InsufficientServerCapacityException, AffinityConflictException {
+        Mockito.reset(_capacityMgr, _affinityGroupVMMapDao, _hostDao, _capacityDao);
+        stubHostCapacity(1L, true);
+        stubHostCapacity(2L, true);
+        Mockito.when(_affinityGroupVMMapDao.findByVmIdType(Mockito.anyLong(), Mockito.eq("host affinity"))).thenAnswer(invocation ->
+                Collections.singletonList(new AffinityGroupVMMapVO(20L, invocation.getArgument(0))));
+        Map<Long, List<Long>> preferredHosts = new HashMap<Long, List<Long>>();
+        preferredHosts.put(101L, Arrays.asList(1L, 2L));
+        preferredHosts.put(102L, Arrays.asList(2L, 1L));
+        List<DeploymentPlan> plans = new ArrayList<DeploymentPlan>();
+        DeploymentPlanningManagerImpl dpm = batchPlanner(preferredHosts, plans);
+        DataCenterDeployment plan = new DataCenterDeployment(dataCenterId);
+        plan.setPreferredHosts(Arrays.asList(1L));
+        plan.setMigrationPlan(true);
+
+        List<DeployDestination> dests = dpm.planDeployments(Arrays.asList(batchVmProfile(101L), batchVmProfile(102L)), plan, new ExcludeList(), null);
+
+        assertEquals(1L, dests.get(0).getHost().getId());
+        assertEquals("Affinity group members of the batch must follow the first one", 1L, dests.get(1).getHost().getId());
+        assertNull(plans.get(0).getHostId());
+        assertEquals(Long.valueOf(1L), plans.get(1).getHostId());
+        // the per vm plans keep what the batch plan asked for
+        for (DeploymentPlan vmPlan : plans) {
+            assertEquals(Arrays.asList(1L), vmPlan.getPreferredHosts());
+            assertTrue(vmPlan.isMigrationPlan());
+        }
+    }
+
+    @Test
+    public void planDeploymentsOrdersClustersOnceTest() throws InsufficientServerCapacityException, AffinityConflictException {
+        ServiceOfferingVO svcOffering =
+            new ServiceOfferingVO("testOffering", 1, 512, 500, 1, 1, false, false, false, "test dpm",
+                ProvisioningType.THIN, false, false, null, false, VirtualMachine.Type.User,
+                    null, "FirstFitPlanner");
+        Mockito.when(vmProfile.getServiceOffering()).thenReturn(svcOffering);
+        Mockito.when(_planner.canHandle(Mockito.any(VirtualMachineProfile.class), Mockito.any(DeploymentPlan.class), Mockito.any(ExcludeList.class))).thenReturn(true);
+        Mockito.when(_planner.orderClusters(Mockito.any(VirtualMachineProfile.class), Mockito.any(DeploymentPlan.class), Mockito.any(ExcludeList.class)))
+                .thenReturn(null);
+
+        List<DeployDestination> dests = _dpm.planDeployments(Arrays.asList(vmProfile, vmProfile, vmProfile), new DataCenterDeployment(dataCenterId),
+                new ExcludeList(), null);
+
+        assertEquals(Arrays.asList(null, null, null), dests);
+        // vms of the same kind share the cluster ordering of the batch
+        Mockito.verify(_planner, Mockito.times(1)).orderClusters(Mockito.any(VirtualMachineProfile.class), Mockito.any(DeploymentPlan.class),
+                Mockito.any(ExcludeList.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void finalizeReservationsSavesInOrderTest() throws AffinityConflictException {
+        Mockito.reset(_affinityGroupVMMapDao, _reservationDao, _affinityGroupDao, _affinityProcessor);
+        Mockito.when(_affinityGroupVMMapDao.listAffinityGroupIdsByVmId(Mockito.anyLong())).thenReturn(Collections.<Long>emptyList());
+        Mockito.when(_affinityGroupVMMapDao.listAffinityGroupIdsByVmId(103L)).thenReturn(Arrays.asList(30L));
+        Mockito.when(_affinityGroupDao.createSearchCriteria()).thenReturn(Mockito.mock(SearchCriteria.class));
+        Mockito.when(_affinityProcessor.check(Mockito.any(VirtualMachineProfile.class), Mockito.any(DeployDestination.class))).thenReturn(true);
+        _dpm.setAffinityGroupProcessors(Arrays.asList(_affinityProcessor));
+
+        List<VirtualMachineProfile> profiles = Arrays.asList(batchVmProfile(101L), batchVmProfile(102L), batchVmProfile(103L));
+        List<String> reservationIds = _dpm.finalizeReservations(Arrays.asList(batchDestination(1L), null, batchDestination(2L)), profiles, null);
+
+        assertEquals(3, reservationIds.size());
+        assertTrue(reservationIds.get(0) != null);
+        assertNull("A vm without a destination gets no reservation", reservationIds.get(1));
+        assertTrue(reservationIds.get(2) != null);
+
+        ArgumentCaptor<VMReservationVO> saved = ArgumentCaptor.forClass(VMReservationVO.class);
+        Mockito.verify(_reservationDao, Mockito.times(2)).persist(saved.capture());
+        assertEquals(101L, saved.getAllValues().get(0).getVmId());
+        assertEquals(Long.valueOf(1L), saved.getAllValues().get(0).getHostId());
+        assertEquals(103L, saved.getAllValues().get(1).getVmId());
+        assertEquals(Long.valueOf(2L), saved.getAllValues().get(1).getHostId());
+        assertEquals(reservationIds.get(2), saved.getAllValues().get(1).getUuid());
+
+        // the groups of the batch are locked once, and only the vm in a group is checked against them
+        Mockito.verify(_affinityGroupDao, Mockito.times(1)).lockRows(Mockito.any(SearchCriteria.class), Mockito.isNull(), Mockito.eq(true));
+        Mockito.verify(_affinityProcessor, Mockito.times(1)).check(Mockito.eq(profiles.get(2)), Mockito.any(DeployDestination.class));
+    }
+
     @Test
     public void testCheckAffinityEmptyPreferredHosts() {
         assertTrue(_dpm.checkAffinity(host, new ArrayList<>()));
@@ -0,0 +1,133 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.ha.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cloudstack.ha.HAConfig;
+import org.apache.cloudstack.ha.HAResource;
+import org.apache.cloudstack.ha.provider.HAProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class BaseHATaskTest {
+
+    private ExecutorService executor;
+    private ScheduledExecutorService deadlineScheduler;
+    private HAProvider<HAResource> haProvider;
+    private HAResource resource;
+
+    private static class TestTask extends BaseHATask {
+        private final CountDownLatch proceed;
+        private final boolean actionResult;
+        private final List<Boolean> results = new ArrayList<>();
+
+        TestTask(final HAResource resource, final HAProvider<HAResource> haProvider, final ExecutorService executor, final CountDownLatch proceed, final boolean actionResult) {
+            super(resource, haProvider, Mockito.mock(HAConfig.class), HAProvider.HAProviderConfig.HealthCheckTimeout, executor);
+            this.proceed = proceed;
+            this.actionResult = actionResult;
+        }
+
+        @Override
+        public boolean performAction() {
+            try {
+                proceed.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return actionResult;
+        }
+
+        @Override
+        public synchronized void processResult(final boolean result, final Throwable e) {
+            results.add(result);
+        }
+
+        synchronized List<Boolean> getResults() {
+            return new ArrayList<>(results);
+        }
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        deadlineScheduler = Mockito.mock(ScheduledExecutorService.class);
+        haProvider = Mockito.mock(HAProvider.class);
+        resource = Mockito.mock(HAResource.class);
+        Mockito.when(haProvider.getConfigValue(Mockito.eq(HAProvider.HAProviderConfig.HealthCheckTimeout), Mockito.any(HAResource.class))).thenReturn(10L);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Runnable captureDeadline() {
+        final ArgumentCaptor<Runnable> deadline = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(deadlineScheduler).schedule(deadline.capture(), Mockito.eq(10L), Mockito.eq(TimeUnit.SECONDS));
+        return deadline.getValue();
+    }
+
+    @Test
+    public void testSubmitCompletesBeforeTimeout() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final TestTask task = new TestTask(resource, haProvider, executor, proceed, true);
+
+        final Future<Boolean> processed = task.submit(deadlineScheduler);
+        final Runnable deadline = captureDeadline();
+        proceed.countDown();
+        Assert.assertTrue(processed.get(10, TimeUnit.SECONDS));
+
+        // the deadline firing afterwards must not process the result again
+        deadline.run();
+        Assert.assertEquals(1, task.getResults().size());
+        Assert.assertTrue(task.getResults().get(0));
+    }
+
+    @Test
+    public void testSubmitTimeoutFiresFirst() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final TestTask task = new TestTask(resource, haProvider, executor, proceed, true);
+
+        final Future<Boolean> processed = task.submit(deadlineScheduler);
+        Assert.assertFalse(processed.isDone());
+
+        captureDeadline().run();
+        Assert.assertTrue(processed.isDone());
+        Assert.assertFalse(processed.get());
+
+        // the action completing late must not process the result again
+        proceed.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, task.getResults().size());
+        Assert.assertFalse(task.getResults().get(0));
+    }
+}
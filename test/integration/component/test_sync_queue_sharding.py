@@ -0,0 +1,147 @@
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+#   http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+""" Load test comparing VM work job throughput with and without sync queue
+    sharding (job.queue.sharding.enabled). Runs on the simulator only, and
+    is most meaningful with two or more management servers.
+"""
+import time
+from threading import Thread
+
+from nose.plugins.attrib import attr
+from marvin.cloudstackTestCase import cloudstackTestCase
+from marvin.lib.utils import cleanup_resources
+from marvin.lib.base import (Account,
+                             ServiceOffering,
+                             VirtualMachine,
+                             Configurations)
+from marvin.lib.common import (get_domain,
+                               get_zone,
+                               get_template)
+from marvin.codes import FAILED
+
+SHARDING_CONFIG = "job.queue.sharding.enabled"
+
+
+class TestSyncQueueSharding(cloudstackTestCase):
+
+    # number of VMs deployed concurrently in each round
+    VM_COUNT = 50
+    # number of stop/start cycles run concurrently on every VM
+    CYCLES = 2
+
+    @classmethod
+    def setUpClass(cls):
+        testClient = super(TestSyncQueueSharding, cls).getClsTestClient()
+        cls.apiclient = testClient.getApiClient()
+        cls.testdata = testClient.getParsedTestDataConfig()
+        cls.hypervisor = testClient.getHypervisorInfo()
+        cls._cleanup = []
+
+        if cls.hypervisor.lower() != 'simulator':
+            return
+
+        cls.domain = get_domain(cls.apiclient)
+        cls.zone = get_zone(cls.apiclient, testClient.getZoneForTests())
+        cls.template = get_template(cls.apiclient, cls.zone.id, cls.testdata["ostype"])
+        if cls.template == FAILED:
+            assert False, "get_template() failed to return template with description %s" % cls.testdata["ostype"]
+
+        cls.service_offering = ServiceOffering.create(cls.apiclient, cls.testdata["service_offering"])
+        cls._cleanup.append(cls.service_offering)
+
+        cls.sharding = Configurations.list(cls.apiclient, name=SHARDING_CONFIG)[0].value
+
+    @classmethod
+    def tearDownClass(cls):
+        try:
+            cleanup_resources(cls.apiclient, cls._cleanup)
+            if cls.hypervisor.lower() == 'simulator':
+                Configurations.update(cls.apiclient, SHARDING_CONFIG, value=cls.sharding)
+        except Exception as e:
+            raise Exception("Warning: Exception during cleanup : %s" % e)
+
+    def setUp(self):
+        self.apiclient = self.testClient.getApiClient()
+        if self.hypervisor.lower() != 'simulator':
+            raise self.skipTest("Skipping load test which must only run for Simulator")
+        self.cleanup = []
+        self.errors = []
+
+    def tearDown(self):
+        try:
+            cleanup_resources(self.apiclient, self.cleanup)
+        except Exception as e:
+            raise Exception("Warning: Exception during cleanup : %s" % e)
+
+    def deploy(self, account, vms):
+        try:
+            vms.append(VirtualMachine.create(
+                self.apiclient,
+                self.testdata["small"],
+                templateid=self.template.id,
+                accountid=account.name,
+                domainid=account.domainid,
+                serviceofferingid=self.service_offering.id,
+                zoneid=self.zone.id))
+        except Exception as e:
+            self.errors.append("deploy: %s" % e)
+
+    def cycle(self, vm):
+        try:
+            for _ in range(self.CYCLES):
+                vm.stop(self.apiclient)
+                vm.start(self.apiclient)
+        except Exception as e:
+            self.errors.append("stop/start %s: %s" % (vm.id, e))
+
+    def run_concurrently(self, target, args_list):
+        threads = [Thread(target=target, args=args) for args in args_list]
+        start = time.time()
+        for thread in threads:
+            thread.start()
+        for thread in threads:
+            thread.join()
+        return time.time() - start
+
+    def run_round(self, sharding):
+        Configurations.update(self.apiclient, SHARDING_CONFIG, value=sharding)
+
+        account = Account.create(self.apiclient, self.testdata["account"], domainid=self.domain.id)
+        self.cleanup.append(account)
+
+        vms = []
+        deploy_time = self.run_concurrently(self.deploy, [(account, vms)] * self.VM_COUNT)
+        cycle_time = self.run_concurrently(self.cycle, [(vm,) for vm in vms])
+
+        self.assertEqual(self.errors, [], "VM work jobs failed with %s=%s" % (SHARDING_CONFIG, sharding))
+        self.assertEqual(len(vms), self.VM_COUNT, "Not all VMs were deployed with %s=%s" % (SHARDING_CONFIG, sharding))
+        return deploy_time, cycle_time
+
+    @attr(tags=["advanced", "basic", "simulator"], required_hardware="false")
+    def test_01_vm_work_job_throughput_with_sharded_queues(self):
+        """ Deploy VMs and run stop/start cycles on them concurrently, first
+            with unsharded then with sharded sync queues, and report the times
+        # 1. Disable sync queue sharding, deploy VM_COUNT VMs concurrently and
+             stop/start each of them CYCLES times concurrently
+        # 2. Enable sync queue sharding and repeat with a new account
+        # 3. Verify every job succeeded in both rounds and report the timings
+        """
+        unsharded = self.run_round("false")
+        sharded = self.run_round("true")
+
+        self.debug("Sync queue load test with %d VMs: deploy %.1fs -> %.1fs, %d stop/start cycles %.1fs -> %.1fs (unsharded -> sharded)"
+                   % (self.VM_COUNT, unsharded[0], sharded[0], self.CYCLES, unsharded[1], sharded[1]))
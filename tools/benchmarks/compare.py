@@ -0,0 +1,58 @@
+#!/usr/bin/env python3
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+#   http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on an
+# "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied.  See the License for the
+# specific language governing permissions and limitations
+# under the License.
+
+"""Compare two JMH JSON result files produced with -rf json."""
+
+import json
+import sys
+
+
+def load(path):
+    results = {}
+    with open(path) as f:
+        for entry in json.load(f):
+            params = entry.get("params") or {}
+            key = entry["benchmark"]
+            if params:
+                key += "(" + ", ".join("%s=%s" % kv for kv in sorted(params.items())) + ")"
+            metric = entry["primaryMetric"]
+            results[key] = (metric["score"], metric.get("scoreError") or 0.0, metric["scoreUnit"])
+    return results
+
+
+def main(baseline_path, candidate_path):
+    baseline = load(baseline_path)
+    candidate = load(candidate_path)
+    print("%-90s %17s %17s %9s" % ("Benchmark", "Baseline", "Candidate", "Change"))
+    for key in sorted(set(baseline) | set(candidate)):
+        if key not in baseline or key not in candidate:
+            print("%-90s %s" % (key, "only in " + ("candidate" if key in candidate else "baseline")))
+            continue
+        base_score, base_error, unit = baseline[key]
+        cand_score, cand_error, _ = candidate[key]
+        change = (cand_score - base_score) / base_score * 100.0 if base_score else 0.0
+        significant = abs(cand_score - base_score) > (base_error + cand_error)
+        print("%-90s %10.3f %-6s %10.3f %-6s %+8.1f%%%s" % (key, base_score, unit, cand_score, unit, change,
+                                                            " *" if significant else ""))
+
+
+if __name__ == "__main__":
+    if len(sys.argv) != 3:
+        print("usage: compare.py <baseline.json> <candidate.json>")
+        sys.exit(1)
+    main(sys.argv[1], sys.argv[2])
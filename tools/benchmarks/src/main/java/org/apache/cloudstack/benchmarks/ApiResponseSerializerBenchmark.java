@@ -0,0 +1,91 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package org.apache.cloudstack.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.UserVmResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.api.response.ApiResponseSerializer;
+import com.cloud.utils.HttpUtils;
+
+/**
+ * Serializes a listVirtualMachines page to JSON and XML through the same entry
+ * point ApiServer uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiResponseSerializerBenchmark {
+
+    @Param({"20", "500"})
+    public int pageSize;
+
+    private ListResponse<UserVmResponse> response;
+
+    @Setup
+    public void setup() {
+        final List<UserVmResponse> vms = new ArrayList<UserVmResponse>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            final UserVmResponse vm = new UserVmResponse();
+            vm.setId("8c5e0b2e-0000-4000-8000-" + String.format("%012d", i));
+            vm.setName("vm-" + i);
+            vm.setDisplayName("Benchmark VM " + i);
+            vm.setState("Running");
+            vm.setZoneName("zone1");
+            vm.setCpuNumber(2);
+            vm.setMemory(2048);
+            vm.setCreated(new Date(1600000000000L + i));
+            vm.setObjectName("virtualmachine");
+            vms.add(vm);
+        }
+        response = new ListResponse<UserVmResponse>();
+        response.setResponses(vms, pageSize);
+        response.setResponseName("listvirtualmachinesresponse");
+    }
+
+    @Benchmark
+    public String json() {
+        return ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON);
+    }
+
+    @Benchmark
+    public String xml() {
+        return ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_XML);
+    }
+}
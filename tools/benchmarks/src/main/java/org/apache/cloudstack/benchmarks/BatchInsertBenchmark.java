@@ -0,0 +1,159 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package org.apache.cloudstack.benchmarks;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.TransactionLegacy;
+
+/**
+ * Inserts detail rows through GenericDaoBase.persist(), one row at a time, and through
+ * GenericDaoBase.persistBatch(), each in one transaction. Unlike the other benchmarks it needs a
+ * MySQL server: it connects with the db.properties a management server would use and creates, then
+ * drops, a bench_details table in that schema.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchInsertBenchmark {
+    private static final int ROWS = 500;
+
+    @Entity
+    @Table(name = "bench_details")
+    public static class BenchDetailVO {
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        @Column(name = "id")
+        private long id;
+
+        @Column(name = "resource_id")
+        private long resourceId;
+
+        @Column(name = "name")
+        private String name;
+
+        @Column(name = "value", length = 1024)
+        private String value;
+
+        @Column(name = "display")
+        private boolean display = true;
+
+        public BenchDetailVO() {
+        }
+
+        public BenchDetailVO(long resourceId, String name, String value) {
+            this.resourceId = resourceId;
+            this.name = name;
+            this.value = value;
+        }
+
+        public long getId() {
+            return id;
+        }
+    }
+
+    public static class BenchDetailDao extends GenericDaoBase<BenchDetailVO, Long> {
+    }
+
+    private BenchDetailDao dao;
+    private long resourceId;
+
+    @Setup
+    public void setup() throws SQLException {
+        try (Connection conn = TransactionLegacy.getStandaloneConnectionWithException(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS bench_details (id bigint unsigned NOT NULL AUTO_INCREMENT, resource_id bigint unsigned NOT NULL, "
+                    + "name varchar(255) NOT NULL, value varchar(1024) NOT NULL, display tinyint(1) NOT NULL DEFAULT 1, PRIMARY KEY (id))");
+        }
+        dao = new BenchDetailDao();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Connection conn = TransactionLegacy.getStandaloneConnectionWithException(); Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS bench_details");
+        }
+    }
+
+    private List<BenchDetailVO> createRows() {
+        resourceId++;
+        final List<BenchDetailVO> rows = new ArrayList<BenchDetailVO>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new BenchDetailVO(resourceId, "key-" + i, "value-" + i));
+        }
+        return rows;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long persistOneByOne() {
+        final List<BenchDetailVO> rows = createRows();
+        long lastId = 0;
+        try (TransactionLegacy txn = TransactionLegacy.open("BatchInsertBenchmark")) {
+            txn.start();
+            for (final BenchDetailVO row : rows) {
+                lastId = dao.persist(row).getId();
+            }
+            txn.commit();
+        }
+        return lastId;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long persistBatch() {
+        final List<BenchDetailVO> rows = createRows();
+        List<Long> ids;
+        try (TransactionLegacy txn = TransactionLegacy.open("BatchInsertBenchmark")) {
+            txn.start();
+            ids = dao.persistBatch(rows);
+            txn.commit();
+        }
+        return ids.get(ids.size() - 1);
+    }
+}
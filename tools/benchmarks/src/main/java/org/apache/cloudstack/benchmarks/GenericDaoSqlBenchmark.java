@@ -0,0 +1,117 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package org.apache.cloudstack.benchmarks;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.JoinBuilder;
+import com.cloud.utils.db.SearchBuilder;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.SearchCriteria.Op;
+import com.cloud.vm.VMInstanceVO;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.dao.VMInstanceDaoImpl;
+
+/**
+ * Generates the SQL text for a typical VM list search, both from scratch and the way
+ * GenericDaoBase.searchIncludingRemoved() does with the SQL cached on the SearchBuilder,
+ * without touching a database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenericDaoSqlBenchmark {
+
+    public static class BenchmarkVMInstanceDao extends VMInstanceDaoImpl {
+        public String buildSearchSql(final SearchCriteria<VMInstanceVO> sc, final Filter filter) {
+            String clause = sc.getWhereClause();
+            if (clause != null && clause.length() == 0) {
+                clause = null;
+            }
+            final StringBuilder str = createPartialSelectSql(sc, clause != null, false);
+            if (clause != null) {
+                str.append(clause);
+            }
+            final Collection<JoinBuilder<SearchCriteria<?>>> joins = sc.getJoins();
+            if (joins != null) {
+                addJoins(str, joins);
+            }
+            addGroupBy(str, sc);
+            addFilter(str, filter);
+            return str.toString();
+        }
+
+        public String buildCachedSearchSql(final SearchCriteria<VMInstanceVO> sc, final Filter filter) {
+            final StringBuilder str = new StringBuilder(createSearchSql(sc, false));
+            addFilter(str, filter);
+            return str.toString();
+        }
+    }
+
+    private BenchmarkVMInstanceDao dao;
+    private SearchBuilder<VMInstanceVO> search;
+    private Filter filter;
+
+    @Setup
+    public void setup() {
+        dao = new BenchmarkVMInstanceDao();
+        search = dao.createSearchBuilder();
+        search.and("state", search.entity().getState(), Op.EQ);
+        search.and("hostId", search.entity().getHostId(), Op.EQ);
+        search.and("accountIds", search.entity().getAccountId(), Op.IN);
+        search.and("name", search.entity().getHostName(), Op.LIKE);
+        search.done();
+        filter = new Filter(VMInstanceVO.class, "id", true, 0L, 500L);
+    }
+
+    @Benchmark
+    public String buildSearchSql() {
+        final SearchCriteria<VMInstanceVO> sc = search.create();
+        sc.setParameters("state", VirtualMachine.State.Running);
+        sc.setParameters("hostId", 42L);
+        sc.setParameters("accountIds", 2L, 3L, 4L, 5L);
+        return dao.buildSearchSql(sc, filter);
+    }
+
+    @Benchmark
+    public String buildCachedSearchSql() {
+        final SearchCriteria<VMInstanceVO> sc = search.create();
+        sc.setParameters("state", VirtualMachine.State.Running);
+        sc.setParameters("hostId", 42L);
+        sc.setParameters("accountIds", 2L, 3L, 4L, 5L);
+        return dao.buildCachedSearchSql(sc, filter);
+    }
+}
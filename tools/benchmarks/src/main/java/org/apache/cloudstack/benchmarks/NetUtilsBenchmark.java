@@ -0,0 +1,75 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package org.apache.cloudstack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.utils.net.NetUtils;
+
+/**
+ * CIDR arithmetic used by network and IP address allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetUtilsBenchmark {
+
+    public String cidrA = "10.1.0.0/16";
+    public String cidrB = "10.1.128.0/20";
+    public String ip = "10.1.130.17";
+
+    @Benchmark
+    public boolean isNetworksOverlap() {
+        return NetUtils.isNetworksOverlap(cidrA, cidrB);
+    }
+
+    @Benchmark
+    public boolean isIpWithInCidrRange() {
+        return NetUtils.isIpWithInCidrRange(ip, cidrB);
+    }
+
+    @Benchmark
+    public Long[] cidrToLong() {
+        return NetUtils.cidrToLong(cidrA);
+    }
+
+    @Benchmark
+    public String[] getIpRangeFromCidr() {
+        return NetUtils.getIpRangeFromCidr("10.1.128.0", 20);
+    }
+
+    @Benchmark
+    public String ipRoundTrip() {
+        return NetUtils.long2Ip(NetUtils.ip2Long(ip));
+    }
+}
@@ -0,0 +1,96 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package org.apache.cloudstack.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Response;
+
+/**
+ * Measures the agent wire format: serializing a GetVmStatsAnswer the size of a
+ * busy host's stats report and parsing it back, which is what the management
+ * server does for every stats collection round. Compares v1 (gzip) with v4
+ * (UTF-8 straight from Gson, LZ4).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestSerializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int vmCount;
+
+    @Param({"v1", "v4"})
+    public String version;
+
+    private Request request;
+    private Answer[] answers;
+    private byte[] responseBytes;
+
+    @Setup
+    public void setup() {
+        final List<String> vmNames = new ArrayList<String>(vmCount);
+        final HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>(vmCount * 2);
+        for (int i = 0; i < vmCount; i++) {
+            final String name = "i-2-" + (1000 + i) + "-VM";
+            vmNames.add(name);
+            stats.put(name, new VmStatsEntry(2097152, 1048576, 2097152, 12.5 + i % 50, 1024.0 * i, 2048.0 * i, 2, "vm"));
+        }
+        final GetVmStatsCommand cmd = new GetVmStatsCommand(vmNames, "host-guid", "host-name");
+        request = new Request(1L, 2L, cmd, true);
+        request.setVersion(Request.Version.valueOf(version));
+        answers = new Answer[] {new GetVmStatsAnswer(cmd, stats)};
+        responseBytes = new Response(request, answers).getBytes();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return new Response(request, answers).getBytes();
+    }
+
+    @Benchmark
+    public Answer[] parse() throws Exception {
+        final Response parsed = (Response)Request.parse(responseBytes);
+        return parsed.getAnswers();
+    }
+}
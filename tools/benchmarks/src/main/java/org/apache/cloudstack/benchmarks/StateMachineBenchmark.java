@@ -0,0 +1,80 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package org.apache.cloudstack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.utils.fsm.NoTransitionException;
+import com.cloud.utils.fsm.StateDao;
+import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.vm.VMInstanceVO;
+import com.cloud.vm.VirtualMachine;
+
+/**
+ * Walks a VM through the production VirtualMachine state machine with a no-op
+ * DAO, so only the transition lookup and listener dispatch are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateMachineBenchmark {
+
+    private StateMachine2<VirtualMachine.State, VirtualMachine.Event, VirtualMachine> fsm;
+    private VMInstanceVO vm;
+    private StateDao<VirtualMachine.State, VirtualMachine.Event, VirtualMachine> dao;
+
+    @Setup
+    public void setup() {
+        fsm = VirtualMachine.State.getStateMachine();
+        vm = new VMInstanceVO(1L, 1L, "vm", "i-2-1-VM", VirtualMachine.Type.User, 1L, HypervisorType.Simulator, 1L, 1L, 2L, 2L, false);
+        dao = new StateDao<VirtualMachine.State, VirtualMachine.Event, VirtualMachine>() {
+            @Override
+            public boolean updateState(VirtualMachine.State currentState, VirtualMachine.Event event, VirtualMachine.State nextState, VirtualMachine vo, Object data) {
+                return true;
+            }
+        };
+    }
+
+    @Benchmark
+    public VirtualMachine.State nextState() throws NoTransitionException {
+        return fsm.getNextState(VirtualMachine.State.Running, VirtualMachine.Event.StopRequested);
+    }
+
+    @Benchmark
+    public boolean transitTo() throws NoTransitionException {
+        vm.setState(VirtualMachine.State.Stopped);
+        return fsm.transitTo(vm, VirtualMachine.Event.StartRequested, null, dao);
+    }
+}
@@ -638,7 +638,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     // - create the usage records using the parse methods below
                     for (UsageEventVO event : events) {
                         event.setProcessed(true);
-                        _usageEventDao.update(event.getId(), event);
+                    }
+                    _usageEventDao.updateBatch(events);
+                    for (UsageEventVO event : events) {
                         createHelperRecord(event);
                     }
                 }
@@ -0,0 +1,128 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+/**
+ * A concurrency limit that adapts to the latency of the work it admits.
+ *
+ * Every admitted unit of work reports how long it took when it releases its
+ * permit.  A short term moving average of those samples is compared with a
+ * slowly moving long term average; while the short term latency stays within
+ * tolerance of the long term one the limit grows by one for each window of
+ * samples taken at a busy limit, and while it exceeds it the limit is cut by a
+ * fixed factor at most once per half window (additive increase,
+ * multiplicative decrease).  Callers
+ * that fail tryAcquire() are expected to shed or defer the work.
+ */
+public class AdaptiveConcurrencyLimit {
+    private static final double SHORT_ALPHA = 0.2;
+    private static final double LONG_ALPHA = 0.01;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int _minLimit;
+    private final int _maxLimit;
+    private final double _tolerance;
+
+    private int _limit;
+    private int _inFlight;
+    private double _shortLatency = -1;
+    private double _longLatency = -1;
+    private int _samplesSinceChange;
+    private long _rejected;
+
+    public AdaptiveConcurrencyLimit(final int initialLimit, final int minLimit, final int maxLimit, final double tolerance) {
+        if (minLimit <= 0 || minLimit > maxLimit || tolerance < 1) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + "-" + maxLimit + " or tolerance " + tolerance);
+        }
+        _minLimit = minLimit;
+        _maxLimit = maxLimit;
+        _tolerance = tolerance;
+        _limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * @return true if the caller may go ahead; it must then call release() exactly once
+     */
+    public synchronized boolean tryAcquire() {
+        if (_inFlight >= _limit) {
+            _rejected++;
+            return false;
+        }
+        _inFlight++;
+        return true;
+    }
+
+    /**
+     * Returns a permit and feeds the latency of the work it covered back into the limit.
+     */
+    public synchronized void release(final long latencyMillis) {
+        if (_inFlight > 0) {
+            _inFlight--;
+        }
+        final double sample = Math.max(latencyMillis, 0);
+        if (_longLatency < 0) {
+            _shortLatency = sample;
+            _longLatency = sample;
+            return;
+        }
+        _shortLatency += SHORT_ALPHA * (sample - _shortLatency);
+        _longLatency += LONG_ALPHA * (sample - _longLatency);
+        _samplesSinceChange++;
+
+        if (_shortLatency > _longLatency * _tolerance) {
+            if (_samplesSinceChange >= _limit / 2) {
+                _limit = Math.max(_minLimit, (int)(_limit * BACKOFF_RATIO));
+                _samplesSinceChange = 0;
+            }
+        } else if (_samplesSinceChange >= _limit && _inFlight + 1 >= _limit / 2) {
+            _limit = Math.min(_maxLimit, _limit + 1);
+            _samplesSinceChange = 0;
+        }
+    }
+
+    /**
+     * Returns a permit for work that never ran, without taking a latency sample.
+     */
+    public synchronized void cancel() {
+        if (_inFlight > 0) {
+            _inFlight--;
+        }
+    }
+
+    public synchronized int getLimit() {
+        return _limit;
+    }
+
+    public synchronized int getInFlight() {
+        return _inFlight;
+    }
+
+    public synchronized long getRejectedCount() {
+        return _rejected;
+    }
+
+    public synchronized long getShortTermLatency() {
+        return Math.round(Math.max(_shortLatency, 0));
+    }
+
+    public synchronized long getLongTermLatency() {
+        return Math.round(Math.max(_longLatency, 0));
+    }
+}
@@ -0,0 +1,408 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * A hashed timing wheel for large numbers of coarse grained deadlines, such as
+ * per host ping timeouts.  Scheduling and cancelling cost O(1) regardless of
+ * how many timeouts are pending, and a timeout fires within one tick of its
+ * deadline.
+ *
+ * Deadlines are on the monotonic clock returned by currentTimeMillis(), so
+ * wall clock steps do not delay or bunch up timeouts.
+ *
+ * Tasks run on the single wheel thread and must be short; anything that may
+ * block should be handed off to an executor by the task itself.
+ */
+public class HashedTimingWheel extends StandardMBean implements HashedTimingWheelMBean {
+    private static final Logger s_logger = Logger.getLogger(HashedTimingWheel.class);
+    private static final long CLOCK_ORIGIN = System.nanoTime();
+
+    public interface Task {
+        void expired(Timeout timeout);
+    }
+
+    public interface Handle {
+        boolean cancel();
+
+        boolean isCancelled();
+    }
+
+    public final class Timeout implements Handle {
+        private static final int ST_PENDING = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final Task _task;
+        private final long _deadline;
+        private final AtomicInteger _state = new AtomicInteger(ST_PENDING);
+        private long _remainingRounds;
+
+        private Timeout(final Task task, final long deadline) {
+            _task = task;
+            _deadline = deadline;
+        }
+
+        /**
+         * @return the absolute deadline in milliseconds of currentTimeMillis().
+         */
+        public long getDeadline() {
+            return _deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (_state.compareAndSet(ST_PENDING, ST_CANCELLED)) {
+                _pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _state.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return _state.get() == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!_state.compareAndSet(ST_PENDING, ST_EXPIRED)) {
+                return;
+            }
+            _pending.decrementAndGet();
+            try {
+                _task.expired(this);
+            } catch (final Throwable th) {
+                s_logger.warn("Timer task " + _task + " of " + _name + " failed", th);
+            }
+        }
+    }
+
+    /**
+     * Handle of a task scheduled at a fixed rate; each run schedules the next one.
+     */
+    private final class Periodic implements Task, Handle {
+        private final Runnable _runnable;
+        private final long _periodMillis;
+        private final AtomicBoolean _cancelled = new AtomicBoolean(false);
+        private volatile Timeout _current;
+
+        private Periodic(final Runnable runnable, final long periodMillis) {
+            _runnable = runnable;
+            _periodMillis = periodMillis;
+        }
+
+        @Override
+        public void expired(final Timeout timeout) {
+            if (_cancelled.get()) {
+                return;
+            }
+            _current = scheduleAt(this, timeout.getDeadline() + _periodMillis);
+            _runnable.run();
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!_cancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            final Timeout current = _current;
+            if (current != null) {
+                current.cancel();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _cancelled.get();
+        }
+
+        @Override
+        public String toString() {
+            return _runnable.toString();
+        }
+    }
+
+    private final String _name;
+    private final long _tickMillis;
+    private final List<List<Timeout>> _wheel;
+    private final int _mask;
+    private final ConcurrentLinkedQueue<Timeout> _newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicLong _pending = new AtomicLong();
+    private final long _startTime;
+    private long _tick;
+
+    private volatile long _lastTickLag;
+    private volatile long _maxTickLag;
+    private volatile int _lastExpired;
+    private volatile int _maxExpired;
+    private final AtomicLong _totalExpired = new AtomicLong();
+
+    private Thread _worker;
+    private volatile boolean _running;
+
+    public HashedTimingWheel(final String name, final long tickMillis, final int wheelSize) {
+        this(name, tickMillis, wheelSize, currentTimeMillis());
+    }
+
+    /**
+     * @return milliseconds of the monotonic clock the wheel runs on.  Unrelated
+     * to wall clock time, only differences between two values are meaningful.
+     */
+    public static long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - CLOCK_ORIGIN);
+    }
+
+    public HashedTimingWheel(final String name, final long tickMillis, final int wheelSize, final long startTime) {
+        super(HashedTimingWheelMBean.class, false);
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive: " + tickMillis);
+        }
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        _name = name;
+        _tickMillis = tickMillis;
+        _mask = wheelSize - 1;
+        _wheel = new ArrayList<List<Timeout>>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            _wheel.add(new ArrayList<Timeout>());
+        }
+        _startTime = startTime;
+        _tick = 0;
+    }
+
+    public void registerMBean() {
+        try {
+            JmxUtil.registerMBean("HashedTimingWheel", _name, this);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register MBean for timing wheel " + _name, e);
+        }
+    }
+
+    public synchronized void start() {
+        if (_worker != null) {
+            return;
+        }
+        _running = true;
+        _worker = new NamedThreadFactory(_name).newThread(new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        });
+        _worker.setDaemon(true);
+        _worker.start();
+    }
+
+    public synchronized void stop() {
+        _running = false;
+        if (_worker != null) {
+            _worker.interrupt();
+            _worker = null;
+        }
+    }
+
+    private void runWorker() {
+        while (_running) {
+            final long nextTick = tickTime(_tick + 1);
+            final long sleep = nextTick - currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (final InterruptedException e) {
+                    if (!_running) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            try {
+                advanceTo(currentTimeMillis());
+            } catch (final Throwable th) {
+                s_logger.error("Unexpected exception in timing wheel " + _name, th);
+            }
+        }
+    }
+
+    public Timeout schedule(final Task task, final long delay, final TimeUnit unit) {
+        return scheduleAt(task, currentTimeMillis() + unit.toMillis(delay));
+    }
+
+    /**
+     * @param deadline in milliseconds of currentTimeMillis().
+     */
+    public Timeout scheduleAt(final Task task, final long deadline) {
+        final Timeout timeout = new Timeout(task, deadline);
+        _pending.incrementAndGet();
+        _newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Runs runnable every period, starting after initialDelay.  Runs are spaced
+     * from their deadlines, not from when the previous run finished.
+     */
+    public Handle scheduleAtFixedRate(final Runnable runnable, final long initialDelay, final long period, final TimeUnit unit) {
+        final Periodic periodic = new Periodic(runnable, Math.max(unit.toMillis(period), _tickMillis));
+        periodic._current = schedule(periodic, initialDelay, unit);
+        return periodic;
+    }
+
+    private long tickTime(final long tick) {
+        return _startTime + tick * _tickMillis;
+    }
+
+    /**
+     * Processes every tick whose time is at or before now.  Called by the wheel
+     * thread; exposed so that tests can drive the wheel without sleeping.
+     */
+    public synchronized void advanceTo(final long now) {
+        while (tickTime(_tick + 1) <= now) {
+            _tick++;
+            transferNewTimeouts();
+            final int expired = expireBucket(_wheel.get((int)(_tick & _mask)), tickTime(_tick));
+
+            final long lag = now - tickTime(_tick);
+            _lastTickLag = lag;
+            if (lag > _maxTickLag) {
+                _maxTickLag = lag;
+            }
+            _lastExpired = expired;
+            if (expired > _maxExpired) {
+                _maxExpired = expired;
+            }
+            _totalExpired.addAndGet(expired);
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = _newTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long ticks = (timeout.getDeadline() - _startTime + _tickMillis - 1) / _tickMillis;
+            if (ticks < _tick) {
+                // already due, fire it with the current tick
+                ticks = _tick;
+            }
+            timeout._remainingRounds = (ticks - _tick) / _wheel.size();
+            _wheel.get((int)(ticks & _mask)).add(timeout);
+        }
+    }
+
+    private int expireBucket(final List<Timeout> bucket, final long tickTime) {
+        int expired = 0;
+        List<Timeout> due = null;
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            final Timeout timeout = bucket.get(i);
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            if (timeout._remainingRounds <= 0 && timeout.getDeadline() <= tickTime) {
+                if (due == null) {
+                    due = new ArrayList<Timeout>();
+                }
+                due.add(timeout);
+                continue;
+            }
+            timeout._remainingRounds--;
+            bucket.set(kept++, timeout);
+        }
+        for (int i = bucket.size() - 1; i >= kept; i--) {
+            bucket.remove(i);
+        }
+        if (due != null) {
+            // run tasks after the bucket is consistent, they may schedule new timeouts
+            for (final Timeout timeout : due) {
+                timeout.expire();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public long getTickMillis() {
+        return _tickMillis;
+    }
+
+    @Override
+    public int getWheelSize() {
+        return _wheel.size();
+    }
+
+    @Override
+    public long getPendingTimeouts() {
+        return _pending.get();
+    }
+
+    @Override
+    public long getLastTickLagMillis() {
+        return _lastTickLag;
+    }
+
+    @Override
+    public long getMaxTickLagMillis() {
+        return _maxTickLag;
+    }
+
+    @Override
+    public int getLastExpiredCount() {
+        return _lastExpired;
+    }
+
+    @Override
+    public int getMaxExpiredCount() {
+        return _maxExpired;
+    }
+
+    @Override
+    public long getTotalExpired() {
+        return _totalExpired.get();
+    }
+
+    @Override
+    public String resetMaxValues() {
+        _maxTickLag = 0;
+        _maxExpired = 0;
+        return "Reset";
+    }
+}
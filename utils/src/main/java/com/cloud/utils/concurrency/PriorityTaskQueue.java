@@ -0,0 +1,355 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded work queue with one FIFO lane per priority (see Prioritized).
+ * Takers always drain the highest priority lane first.  High and normal
+ * priority work may fill the queue up to its capacity, while low priority
+ * work is only admitted while fewer than lowPriorityCapacity items are
+ * queued, so a flood of low priority work can never crowd out the rest.
+ *
+ * Elements that do not implement Prioritized are treated as NORMAL.  When
+ * used by a ThreadPoolExecutor a refused offer turns into the executor's
+ * rejection policy.
+ */
+public class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private static final int LANES = Prioritized.LOW + 1;
+
+    private final int _capacity;
+    private final int _lowPriorityCapacity;
+    private final ArrayDeque<Runnable>[] _lanes;
+    private final AtomicLong[] _rejected;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _notEmpty = _lock.newCondition();
+    private final Condition _notFull = _lock.newCondition();
+    private int _count;
+
+    public PriorityTaskQueue(final int capacity) {
+        this(capacity, capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public PriorityTaskQueue(final int capacity, final int lowPriorityCapacity) {
+        if (capacity <= 0 || lowPriorityCapacity <= 0 || lowPriorityCapacity > capacity) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " / low priority capacity " + lowPriorityCapacity);
+        }
+        _capacity = capacity;
+        _lowPriorityCapacity = lowPriorityCapacity;
+        _lanes = new ArrayDeque[LANES];
+        _rejected = new AtomicLong[LANES];
+        for (int i = 0; i < LANES; i++) {
+            _lanes[i] = new ArrayDeque<Runnable>();
+            _rejected[i] = new AtomicLong();
+        }
+    }
+
+    static int priorityOf(final Object o) {
+        return o instanceof Prioritized ? lane(((Prioritized)o).getPriority()) : Prioritized.NORMAL;
+    }
+
+    private static int lane(final int priority) {
+        return Math.max(Prioritized.HIGH, Math.min(Prioritized.LOW, priority));
+    }
+
+    private int limitFor(final int priority) {
+        return priority == Prioritized.LOW ? _lowPriorityCapacity : _capacity;
+    }
+
+    private void enqueue(final Runnable r, final int priority) {
+        _lanes[priority].addLast(r);
+        _count++;
+        _notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        for (final ArrayDeque<Runnable> lane : _lanes) {
+            final Runnable r = lane.pollFirst();
+            if (r != null) {
+                _count--;
+                _notFull.signal();
+                return r;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean offer(final Runnable r) {
+        if (r == null) {
+            throw new NullPointerException();
+        }
+        final int priority = priorityOf(r);
+        _lock.lock();
+        try {
+            if (_count >= limitFor(priority)) {
+                _rejected[priority].incrementAndGet();
+                return false;
+            }
+            enqueue(r, priority);
+            return true;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(final Runnable r, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (r == null) {
+            throw new NullPointerException();
+        }
+        final int priority = priorityOf(r);
+        final int limit = limitFor(priority);
+        long nanos = unit.toNanos(timeout);
+        _lock.lockInterruptibly();
+        try {
+            while (_count >= limit) {
+                if (nanos <= 0) {
+                    _rejected[priority].incrementAndGet();
+                    return false;
+                }
+                nanos = _notFull.awaitNanos(nanos);
+            }
+            enqueue(r, priority);
+            return true;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final Runnable r) throws InterruptedException {
+        if (r == null) {
+            throw new NullPointerException();
+        }
+        final int priority = priorityOf(r);
+        final int limit = limitFor(priority);
+        _lock.lockInterruptibly();
+        try {
+            while (_count >= limit) {
+                _notFull.await();
+            }
+            enqueue(r, priority);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        _lock.lockInterruptibly();
+        try {
+            while (_count == 0) {
+                _notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        _lock.lockInterruptibly();
+        try {
+            while (_count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = _notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        _lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        _lock.lock();
+        try {
+            for (final ArrayDeque<Runnable> lane : _lanes) {
+                final Runnable r = lane.peekFirst();
+                if (r != null) {
+                    return r;
+                }
+            }
+            return null;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        if (o == null) {
+            return false;
+        }
+        _lock.lock();
+        try {
+            for (final ArrayDeque<Runnable> lane : _lanes) {
+                if (lane.removeFirstOccurrence(o)) {
+                    _count--;
+                    _notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        _lock.lock();
+        try {
+            return _count;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public int size(final int priority) {
+        _lock.lock();
+        try {
+            return _lanes[lane(priority)].size();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        _lock.lock();
+        try {
+            return _capacity - _count;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    public int getLowPriorityCapacity() {
+        return _lowPriorityCapacity;
+    }
+
+    /**
+     * @return how many offers of the given priority were refused because the queue was full
+     */
+    public long getRejectedCount(final int priority) {
+        return _rejected[lane(priority)].get();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        _lock.lock();
+        try {
+            int n = 0;
+            Runnable r;
+            while (n < maxElements && (r = dequeue()) != null) {
+                c.add(r);
+                n++;
+            }
+            return n;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot iterator in the order elements would be taken.
+     * Removing through it removes the element from the queue.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot;
+        _lock.lock();
+        try {
+            snapshot = new ArrayList<Runnable>(_count);
+            for (final ArrayDeque<Runnable> lane : _lanes) {
+                snapshot.addAll(lane);
+            }
+        } finally {
+            _lock.unlock();
+        }
+        final Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable _last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                _last = it.next();
+                return _last;
+            }
+
+            @Override
+            public void remove() {
+                if (_last == null) {
+                    throw new IllegalStateException();
+                }
+                PriorityTaskQueue.this.remove(_last);
+                _last = null;
+            }
+        };
+    }
+}
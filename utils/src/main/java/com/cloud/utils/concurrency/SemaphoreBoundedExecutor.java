@@ -0,0 +1,222 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package com.cloud.utils.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An executor for work that mostly blocks, e.g. waiting on agents or other jobs.
+ *
+ * Threads are created on demand and reclaimed once idle, instead of being held
+ * by a fixed size pool.  The number of tasks running at the same time is bounded
+ * by a semaphore; tasks submitted while all permits are taken wait in an
+ * unbounded FIFO queue without holding a thread.
+ *
+ * A task about to block, e.g. on an agent answer, can hand its permit back
+ * with beginBlocking() so that a queued task starts meanwhile, and take it
+ * back with endBlocking() once it resumes.  The limit therefore bounds tasks
+ * doing work rather than threads, which a fixed size pool cannot do.
+ *
+ * A resuming task never waits for a permit: it may still hold locks the tasks
+ * started meanwhile are waiting on.  If all permits are taken it runs past the
+ * limit, and the next permit released is kept to pay that back.
+ */
+public class SemaphoreBoundedExecutor extends AbstractExecutorService {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final ThreadLocal<SemaphoreBoundedExecutor> s_current = new ThreadLocal<SemaphoreBoundedExecutor>();
+
+    private final ThreadPoolExecutor _threads;
+    private final Semaphore _permits;
+    private final int _limit;
+    private final Queue<Runnable> _pending = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger _blocked = new AtomicInteger();
+    private final AtomicInteger _overAdmitted = new AtomicInteger();
+    private volatile boolean _shutdown;
+
+    public SemaphoreBoundedExecutor(final int limit, final ThreadFactory threadFactory) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid concurrency limit " + limit);
+        }
+        _limit = limit;
+        _permits = new Semaphore(limit);
+        _threads = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), threadFactory);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (_shutdown) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+
+        _pending.add(command);
+        drain();
+    }
+
+    /**
+     * Starts pending tasks while permits are available.  It runs after every
+     * submit and after every task completes, so a task queued while the last
+     * permit is being released is still picked up.
+     */
+    private void drain() {
+        while (!_pending.isEmpty() && _permits.tryAcquire()) {
+            final Runnable task = _pending.poll();
+            if (task == null) {
+                _permits.release();
+                continue;
+            }
+            try {
+                _threads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        s_current.set(SemaphoreBoundedExecutor.this);
+                        try {
+                            task.run();
+                        } finally {
+                            s_current.remove();
+                            releasePermit();
+                            drain();
+                        }
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                _permits.release();
+                throw e;
+            }
+        }
+
+        if (_shutdown && _pending.isEmpty() && _blocked.get() == 0 && getActiveCount() == 0) {
+            _threads.shutdown();
+        }
+    }
+
+    /**
+     * Pays back a task that resumed past the limit, if any, before the permit becomes available again.
+     */
+    private void releasePermit() {
+        int overAdmitted;
+        while ((overAdmitted = _overAdmitted.get()) > 0) {
+            if (_overAdmitted.compareAndSet(overAdmitted, overAdmitted - 1)) {
+                return;
+            }
+        }
+        _permits.release();
+    }
+
+    /**
+     * Gives up the permit of the calling task if it runs on a SemaphoreBoundedExecutor, so that
+     * another task can start while this one blocks.
+     *
+     * @return the executor to pass to endBlocking(), null if the calling thread holds no permit
+     */
+    public static SemaphoreBoundedExecutor beginBlocking() {
+        final SemaphoreBoundedExecutor executor = s_current.get();
+        if (executor == null) {
+            return null;
+        }
+        s_current.remove();
+        executor._blocked.incrementAndGet();
+        executor.releasePermit();
+        executor.drain();
+        return executor;
+    }
+
+    /**
+     * Takes back the permit given up by beginBlocking().  If all are taken, the task resumes anyway
+     * past the limit rather than wait on tasks that may be waiting on it.
+     */
+    public static void endBlocking(final SemaphoreBoundedExecutor executor) {
+        if (executor == null) {
+            return;
+        }
+        if (!executor._permits.tryAcquire()) {
+            executor._overAdmitted.incrementAndGet();
+        }
+        executor._blocked.decrementAndGet();
+        s_current.set(executor);
+    }
+
+    public int getLimit() {
+        return _limit;
+    }
+
+    public int getActiveCount() {
+        return _limit - _permits.availablePermits() + _overAdmitted.get();
+    }
+
+    /**
+     * @return tasks that gave up their permit with beginBlocking() and have not resumed yet
+     */
+    public int getBlockedCount() {
+        return _blocked.get();
+    }
+
+    public int getQueueSize() {
+        return _pending.size();
+    }
+
+    /**
+     * Tasks already submitted still run; the threads go away once they are done.
+     */
+    @Override
+    public void shutdown() {
+        _shutdown = true;
+        drain();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        _shutdown = true;
+        final List<Runnable> notStarted = new ArrayList<Runnable>();
+        Runnable task;
+        while ((task = _pending.poll()) != null) {
+            notStarted.add(task);
+        }
+        _threads.shutdownNow();
+        return notStarted;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return _shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return _threads.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return _threads.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,330 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A concurrent map keyed by primitive longs.  The key space is split over a
+ * fixed number of stripes, each an open addressing table guarded by its own
+ * monitor, so lookups never box the key and threads working on different ids
+ * rarely contend.  Null values are not supported.
+ *
+ * Callers that need several operations on one key to be atomic can
+ * synchronize on lockFor(key); every single-key operation of this map takes
+ * that same monitor.
+ */
+public class StripedLongMap<V> {
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int MIN_STRIPE_CAPACITY = 16;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final Stripe[] _stripes;
+    private final int _stripeShift;
+
+    private static final class Stripe {
+        long[] keys;
+        Object[] values;
+        int size;
+
+        Stripe(final int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+    }
+
+    public interface Visitor<V> {
+        void visit(long key, V value);
+    }
+
+    public StripedLongMap() {
+        this(DEFAULT_STRIPES, 1024);
+    }
+
+    /**
+     * @param stripes number of independently locked stripes, rounded up to a power of two.
+     * @param expectedSize hint for the total number of entries.
+     */
+    public StripedLongMap(final int stripes, final int expectedSize) {
+        final int stripeCount = powerOfTwo(Math.max(1, stripes));
+        final int stripeCapacity = powerOfTwo(Math.max(MIN_STRIPE_CAPACITY, expectedSize * 2 / stripeCount));
+        _stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            _stripes[i] = new Stripe(stripeCapacity);
+        }
+        _stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    private static int powerOfTwo(final int value) {
+        final int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+
+    private static long hash(final long key) {
+        return key * HASH_MULTIPLIER;
+    }
+
+    private Stripe stripe(final long hash) {
+        // the top bits pick the stripe, the low bits pick the slot within it
+        return _stripeShift == 64 ? _stripes[0] : _stripes[(int)(hash >>> _stripeShift)];
+    }
+
+    private static int slot(final long hash, final int mask) {
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static int indexOf(final Stripe s, final long key, final long hash) {
+        final int mask = s.keys.length - 1;
+        int i = slot(hash, mask);
+        while (s.values[i] != null) {
+            if (s.keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1 - i;
+    }
+
+    /**
+     * @return the monitor guarding key, for compound operations.
+     */
+    public Object lockFor(final long key) {
+        return stripe(hash(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        final long h = hash(key);
+        final Stripe s = stripe(h);
+        synchronized (s) {
+            final int i = indexOf(s, key, h);
+            return i >= 0 ? (V)s.values[i] : null;
+        }
+    }
+
+    public boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value for key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        final long h = hash(key);
+        final Stripe s = stripe(h);
+        synchronized (s) {
+            final int i = indexOf(s, key, h);
+            if (i >= 0) {
+                final V old = (V)s.values[i];
+                s.values[i] = value;
+                return old;
+            }
+            insert(s, -1 - i, key, value);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        final long h = hash(key);
+        final Stripe s = stripe(h);
+        synchronized (s) {
+            final int i = indexOf(s, key, h);
+            if (i >= 0) {
+                return (V)s.values[i];
+            }
+            insert(s, -1 - i, key, value);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the value for key only if key is present.
+     * @return the previous value, or null if key was absent and nothing was stored.
+     */
+    @SuppressWarnings("unchecked")
+    public V replace(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        final long h = hash(key);
+        final Stripe s = stripe(h);
+        synchronized (s) {
+            final int i = indexOf(s, key, h);
+            if (i < 0) {
+                return null;
+            }
+            final V old = (V)s.values[i];
+            s.values[i] = value;
+            return old;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(final long key) {
+        final long h = hash(key);
+        final Stripe s = stripe(h);
+        synchronized (s) {
+            final int i = indexOf(s, key, h);
+            if (i < 0) {
+                return null;
+            }
+            final V old = (V)s.values[i];
+            removeAt(s, i);
+            return old;
+        }
+    }
+
+    /**
+     * Removes key only if it is currently mapped to value (compared by identity).
+     */
+    public boolean remove(final long key, final V value) {
+        final long h = hash(key);
+        final Stripe s = stripe(h);
+        synchronized (s) {
+            final int i = indexOf(s, key, h);
+            if (i < 0 || s.values[i] != value) {
+                return false;
+            }
+            removeAt(s, i);
+            return true;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Stripe s : _stripes) {
+            synchronized (s) {
+                size += s.size;
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return a point in time copy of the values, one stripe at a time.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        final List<V> values = new ArrayList<V>();
+        for (final Stripe s : _stripes) {
+            synchronized (s) {
+                for (final Object value : s.values) {
+                    if (value != null) {
+                        values.add((V)value);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Visits every entry while holding the lock of the stripe it lives in.  The
+     * visitor must not call back into this map for a different key.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(final Visitor<V> visitor) {
+        for (final Stripe s : _stripes) {
+            synchronized (s) {
+                for (int i = 0; i < s.values.length; i++) {
+                    if (s.values[i] != null) {
+                        visitor.visit(s.keys[i], (V)s.values[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (final Stripe s : _stripes) {
+            synchronized (s) {
+                for (int i = 0; i < s.values.length; i++) {
+                    s.values[i] = null;
+                }
+                s.size = 0;
+            }
+        }
+    }
+
+    private static void insert(final Stripe s, final int index, final long key, final Object value) {
+        s.keys[index] = key;
+        s.values[index] = value;
+        s.size++;
+        if (s.size * 4 > s.keys.length * 3) {
+            resize(s);
+        }
+    }
+
+    private static void resize(final Stripe s) {
+        final long[] oldKeys = s.keys;
+        final Object[] oldValues = s.values;
+        s.keys = new long[oldKeys.length * 2];
+        s.values = new Object[oldValues.length * 2];
+        final int mask = s.keys.length - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(hash(oldKeys[i]), mask);
+                while (s.values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                s.keys[j] = oldKeys[i];
+                s.values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Linear probing delete: shift later entries of the same probe run back
+     * into the hole so that lookups never need tombstones.
+     */
+    private static void removeAt(final Stripe s, int hole) {
+        final int mask = s.keys.length - 1;
+        int j = hole;
+        s.values[hole] = null;
+        s.size--;
+        while (true) {
+            j = (j + 1) & mask;
+            if (s.values[j] == null) {
+                return;
+            }
+            final int home = slot(hash(s.keys[j]), mask);
+            final boolean stays = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (!stays) {
+                s.keys[hole] = s.keys[j];
+                s.values[hole] = s.values[j];
+                s.values[j] = null;
+                hole = j;
+            }
+        }
+    }
+}
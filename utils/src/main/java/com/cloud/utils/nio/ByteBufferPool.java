@@ -0,0 +1,203 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * ByteBufferPool keeps a bounded free list of direct buffers per size class so
+ * that the Link read/write path does not allocate a fresh buffer for every
+ * packet.  Buffers are handed out by acquire() and must be handed back with
+ * release() once the I/O that used them has completed.  Requests larger than
+ * the biggest size class fall back to a plain heap buffer which is never pooled.
+ */
+public class ByteBufferPool extends StandardMBean implements ByteBufferPoolMBean {
+    private static final Logger s_logger = Logger.getLogger(ByteBufferPool.class);
+
+    public static final int[] DEFAULT_SIZE_CLASSES = new int[] {64, 4096, 20480, 36864, 69632};
+    public static final int DEFAULT_MAX_BUFFERS_PER_CLASS = 256;
+
+    private final int[] _sizeClasses;
+    private final int _maxBuffersPerClass;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] _freeLists;
+    private final AtomicInteger[] _freeCounts;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _oversized = new AtomicLong();
+    private final AtomicLong _releases = new AtomicLong();
+    private final AtomicLong _discards = new AtomicLong();
+
+    public ByteBufferPool() {
+        this(DEFAULT_SIZE_CLASSES, DEFAULT_MAX_BUFFERS_PER_CLASS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ByteBufferPool(final int[] sizeClasses, final int maxBuffersPerClass) {
+        super(ByteBufferPoolMBean.class, false);
+        if (sizeClasses == null || sizeClasses.length == 0) {
+            throw new IllegalArgumentException("At least one size class is required");
+        }
+        for (int i = 1; i < sizeClasses.length; i++) {
+            if (sizeClasses[i] <= sizeClasses[i - 1]) {
+                throw new IllegalArgumentException("Size classes must be in strictly ascending order");
+            }
+        }
+        _sizeClasses = sizeClasses.clone();
+        _maxBuffersPerClass = maxBuffersPerClass;
+        _freeLists = new ConcurrentLinkedQueue[_sizeClasses.length];
+        _freeCounts = new AtomicInteger[_sizeClasses.length];
+        for (int i = 0; i < _sizeClasses.length; i++) {
+            _freeLists[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            _freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    public void registerMBean(final String name) {
+        try {
+            JmxUtil.registerMBean("ByteBufferPool", name, this);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register ByteBufferPool MBean " + name, e);
+        }
+    }
+
+    /**
+     * @return a cleared buffer with at least size bytes capacity and its limit set to size.
+     */
+    public ByteBuffer acquire(final int size) {
+        final int index = sizeClassIndex(size);
+        if (index < 0) {
+            _oversized.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+
+        ByteBuffer buffer = _freeLists[index].poll();
+        if (buffer != null) {
+            _freeCounts[index].decrementAndGet();
+            _hits.incrementAndGet();
+            buffer.clear();
+        } else {
+            _misses.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(_sizeClasses[index]);
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from acquire() to the pool.  Buffers that were
+     * not handed out by this pool, or that would overflow the free list, are
+     * simply dropped and left to the garbage collector.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        final int index = exactSizeClassIndex(buffer.capacity());
+        if (index < 0) {
+            _discards.incrementAndGet();
+            return;
+        }
+        if (_freeCounts[index].incrementAndGet() > _maxBuffersPerClass) {
+            _freeCounts[index].decrementAndGet();
+            _discards.incrementAndGet();
+            return;
+        }
+        buffer.clear();
+        _freeLists[index].offer(buffer);
+        _releases.incrementAndGet();
+    }
+
+    protected int sizeClassIndex(final int size) {
+        for (int i = 0; i < _sizeClasses.length; i++) {
+            if (size <= _sizeClasses[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected int exactSizeClassIndex(final int capacity) {
+        for (int i = 0; i < _sizeClasses.length; i++) {
+            if (capacity == _sizeClasses[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long getHits() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public long getOversizedAllocations() {
+        return _oversized.get();
+    }
+
+    @Override
+    public long getReleases() {
+        return _releases.get();
+    }
+
+    @Override
+    public long getDiscards() {
+        return _discards.get();
+    }
+
+    @Override
+    public int[] getSizeClasses() {
+        return _sizeClasses.clone();
+    }
+
+    @Override
+    public int[] getPooledCounts() {
+        final int[] counts = new int[_freeCounts.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = _freeCounts[i].get();
+        }
+        return counts;
+    }
+
+    @Override
+    public String resetCounters() {
+        _hits.set(0);
+        _misses.set(0);
+        _oversized.set(0);
+        _releases.set(0);
+        _discards.set(0);
+        return "Reset";
+    }
+}
@@ -69,10 +69,12 @@ public class Link {
     private boolean _gotFollowingPacket;
 
     private SSLEngine _sslEngine;
+    private final ByteBufferPool _bufferPool;
 
     public Link(InetSocketAddress addr, NioConnection connection) {
         _addr = addr;
         _connection = connection;
+        _bufferPool = connection != null ? connection.getBufferPool() : null;
         _readBuffer = ByteBuffer.allocate(2048);
         _attach = null;
         _key = null;
@@ -103,12 +105,32 @@ public class Link {
         _sslEngine = sslEngine;
     }
 
-    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
+    private static ByteBuffer allocate(ByteBufferPool pool, int size) {
+        return pool != null ? pool.acquire(size) : ByteBuffer.allocate(size);
+    }
+
+    private static void release(ByteBufferPool pool, ByteBuffer buffer) {
+        if (pool != null) {
+            pool.release(buffer);
+        }
+    }
+
+    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine, ByteBufferPool pool) throws IOException {
         SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
-        SSLEngineResult engResult;
+        ByteBuffer pkgBuf = allocate(pool, sslSession.getPacketBufferSize() + 40);
+        ByteBuffer headBuf = allocate(pool, 4);
+        try {
+            doWrite(ch, buffers, sslEngine, pkgBuf, headBuf);
+        } finally {
+            release(pool, headBuf);
+            release(pool, pkgBuf);
+        }
+    }
 
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
+    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine, ByteBuffer pkgBuf, ByteBuffer headBuf) throws IOException {
+        SSLEngineResult engResult;
+        // header and payload are written together with a single gathering write
+        ByteBuffer[] frame = new ByteBuffer[] {headBuf, pkgBuf};
 
         int totalLen = 0;
         for (ByteBuffer buffer : buffers) {
@@ -132,7 +154,7 @@ public class Link {
 
             int dataRemaining = pkgBuf.position();
             int header = dataRemaining;
-            int headRemaining = 4;
+            long frameRemaining = 4 + dataRemaining;
             pkgBuf.flip();
             if (processedLen < totalLen) {
                 header = header | HEADER_FLAG_FOLLOWING;
@@ -140,19 +162,12 @@ public class Link {
             headBuf.putInt(header);
             headBuf.flip();
 
-            while (headRemaining > 0) {
+            while (frameRemaining > 0) {
                 if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                    s_logger.trace("Writing Header and Data " + frameRemaining);
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
-                }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
+                long count = ch.write(frame);
+                frameRemaining -= count;
             }
         }
     }
@@ -168,7 +183,7 @@ public class Link {
      */
     public static void write(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         synchronized (ch) {
-            doWrite(ch, buffers, sslEngine);
+            doWrite(ch, buffers, sslEngine, null);
         }
     }
 
@@ -202,7 +217,9 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                release(_bufferPool, _plaintextBuffer);
+                _plaintextBuffer = allocate(_bufferPool, 2000);
+                _plaintextBuffer.limit(_plaintextBuffer.capacity());
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -244,27 +261,35 @@ public class Link {
 
         while (_readBuffer.hasRemaining()) {
             remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
-            engResult = _sslEngine.unwrap(_readBuffer, appBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-            if (remaining == _readBuffer.remaining()) {
-                throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
-            }
+            appBuf = allocate(_bufferPool, sslSession.getApplicationBufferSize() + 40);
+            try {
+                engResult = _sslEngine.unwrap(_readBuffer, appBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
+                if (remaining == _readBuffer.remaining()) {
+                    throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
+                }
 
-            appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
-                // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
-                _plaintextBuffer = newBuffer;
-            }
-            _plaintextBuffer.put(appBuf);
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
+                appBuf.flip();
+                if (_plaintextBuffer.remaining() < appBuf.limit()) {
+                    // We need to expand _plaintextBuffer for more data
+                    int newSize = _bufferPool != null ? Math.max(_plaintextBuffer.capacity() * 2, _plaintextBuffer.position() + appBuf.limit())
+                            : _plaintextBuffer.capacity() + appBuf.limit() * 5;
+                    ByteBuffer newBuffer = allocate(_bufferPool, newSize);
+                    newBuffer.limit(newBuffer.capacity());
+                    _plaintextBuffer.flip();
+                    newBuffer.put(_plaintextBuffer);
+                    release(_bufferPool, _plaintextBuffer);
+                    _plaintextBuffer = newBuffer;
+                }
+                _plaintextBuffer.put(appBuf);
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Done with packet: " + appBuf.limit());
+                }
+            } finally {
+                release(_bufferPool, appBuf);
             }
         }
 
@@ -275,6 +300,8 @@ public class Link {
             _plaintextBuffer.flip();
             byte[] result = new byte[_plaintextBuffer.limit()];
             _plaintextBuffer.get(result);
+            release(_bufferPool, _plaintextBuffer);
+            _plaintextBuffer = null;
             return result;
         } else {
             if (s_logger.isTraceEnabled()) {
@@ -300,7 +327,7 @@ public class Link {
             item[i + 1] = data[i];
         }
 
-        item[0] = ByteBuffer.allocate(4);
+        item[0] = allocate(_bufferPool, 4);
         item[0].putInt(remaining);
         item[0].flip();
 
@@ -343,7 +370,12 @@ public class Link {
             ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
             System.arraycopy(data, 1, raw_data, 0, data.length - 1);
 
-            doWrite(ch, raw_data, _sslEngine);
+            try {
+                doWrite(ch, raw_data, _sslEngine, _bufferPool);
+            } finally {
+                // the length prefix is only kept for accounting, it is never put on the wire
+                release(_bufferPool, data[0]);
+            }
         }
         return false;
     }
@@ -41,6 +41,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -51,6 +52,9 @@ import org.apache.cloudstack.utils.security.SSLUtils;
 import org.apache.log4j.Logger;
 
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.concurrency.Prioritized;
+import com.cloud.utils.concurrency.PriorityTaskQueue;
+import com.cloud.utils.concurrency.PrioritizedThreadPoolExecutor;
 import com.cloud.utils.exception.NioConnectionException;
 
 /**
@@ -71,8 +75,10 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected HandlerFactory _factory;
     protected String _name;
     protected ExecutorService _executor;
+    protected ExecutorService _overflowExecutor;
     protected ExecutorService _sslHandshakeExecutor;
     protected CAService caService;
+    protected ByteBufferPool _bufferPool;
 
     public NioConnection(final String name, final int port, final int workers, final HandlerFactory factory) {
         _name = name;
@@ -88,6 +94,39 @@ public abstract class NioConnection implements Callable<Boolean> {
         this.caService = caService;
     }
 
+    /**
+     * Enables pooled direct buffers for the links created by this connection.
+     * Must be called before start() so that every link shares the same pool.
+     */
+    public void setBufferPool(final ByteBufferPool bufferPool) {
+        _bufferPool = bufferPool;
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return _bufferPool;
+    }
+
+    /**
+     * Replaces the unbounded handler queue with a bounded, priority aware one
+     * (see Task.getPriority()).  Low priority tasks are only queued while fewer
+     * than lowPriorityCapacity tasks are waiting and are rejected (see
+     * Task.rejected()) when they do not fit.  Any other task that does not fit
+     * goes to an overflow pool with a queue of the same capacity, so answers,
+     * connects and disconnects are never lost.  Once that queue is full too,
+     * the selector thread runs the task itself, which stops it from reading
+     * more until the backlog shrinks.  Must be called before start().
+     */
+    public void setHandlerQueueCapacity(final int capacity, final int lowPriorityCapacity) {
+        final ThreadPoolExecutor old = (ThreadPoolExecutor)_executor;
+        _executor = new PrioritizedThreadPoolExecutor(old.getCorePoolSize(), old.getMaximumPoolSize(), 1, TimeUnit.DAYS,
+                new PriorityTaskQueue(capacity, lowPriorityCapacity), new NamedThreadFactory(_name + "-Handler"));
+        final ThreadPoolExecutor overflow = new ThreadPoolExecutor(old.getCorePoolSize(), old.getCorePoolSize(), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(capacity), new NamedThreadFactory(_name + "-HandlerOverflow"), new ThreadPoolExecutor.CallerRunsPolicy());
+        overflow.allowCoreThreadTimeOut(true);
+        _overflowExecutor = overflow;
+        old.shutdown();
+    }
+
     public void start() throws NioConnectionException {
         _todos = new ArrayList<ChangeRequest>();
 
@@ -112,6 +151,9 @@ public abstract class NioConnection implements Callable<Boolean> {
 
     public void stop() {
         _executor.shutdown();
+        if (_overflowExecutor != null) {
+            _overflowExecutor.shutdown();
+        }
         _isRunning = false;
         if (_threadExecutor != null) {
             _futureTask.cancel(false);
@@ -222,10 +264,19 @@ public abstract class NioConnection implements Callable<Boolean> {
                         final InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
                         final Link link = new Link(saddr, nioConnection);
                         link.setSSLEngine(sslEngine);
-                        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+                        final SelectionKey linkKey = socketChannel.register(key.selector(), SelectionKey.OP_READ, link);
+                        link.setKey(linkKey);
                         final Task task = _factory.create(Task.Type.CONNECT, link, null);
                         registerLink(saddr, link);
-                        _executor.submit(task);
+                        try {
+                            submitTask(task);
+                        } catch (final RejectedExecutionException e) {
+                            s_logger.warn("Unable to hand the new connection from " + saddr + " to a handler, closing it: " + e.getMessage());
+                            unregisterLink(saddr);
+                            linkKey.cancel();
+                            closeAutoCloseable(socket, "accepting socket");
+                            closeAutoCloseable(socketChannel, "accepting socketChannel");
+                        }
                     } catch (IOException e) {
                         if (s_logger.isTraceEnabled()) {
                             s_logger.trace("Connection closed due to failure: " + e.getMessage());
@@ -257,7 +308,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             unregisterLink(link.getSocketAddress());
 
             try {
-                _executor.submit(task);
+                submitTask(task);
             } catch (final Exception e) {
                 s_logger.warn("Exception occurred when submitting the task", e);
             }
@@ -281,7 +332,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             final Task task = _factory.create(Task.Type.DATA, link, data);
 
             try {
-                _executor.submit(task);
+                submitTask(task);
             } catch (final Exception e) {
                 s_logger.warn("Exception occurred when submitting the task", e);
             }
@@ -410,7 +461,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             final Task task = _factory.create(Task.Type.CONNECT, link, null);
 
             try {
-                _executor.submit(task);
+                submitTask(task);
             } catch (final Exception e) {
                 s_logger.warn("Exception occurred when submitting the task", e);
             }
@@ -420,9 +471,36 @@ public abstract class NioConnection implements Callable<Boolean> {
         }
     }
 
-    protected void scheduleTask(final Task task) {
+    /**
+     * Hands a task to the handler pool.  When a bounded handler queue is full,
+     * low priority tasks are rejected and everything else runs on the overflow
+     * pool.  Throws RejectedExecutionException only once the connection is
+     * being stopped.
+     */
+    protected void submitTask(final Task task) {
         try {
             _executor.submit(task);
+        } catch (final RejectedExecutionException e) {
+            if (_overflowExecutor == null || _executor.isShutdown()) {
+                throw e;
+            }
+            if (task.getPriority() >= Prioritized.LOW) {
+                s_logger.warn("Handler queue is full, rejecting a " + task.getType() + " task from "
+                        + (task.getLink() != null ? task.getLink().getIpAddress() : "unknown") + " at priority " + task.getPriority());
+                try {
+                    task.rejected();
+                } catch (final Exception re) {
+                    s_logger.warn("Exception occurred when rejecting the task", re);
+                }
+                return;
+            }
+            _overflowExecutor.submit(task);
+        }
+    }
+
+    protected void scheduleTask(final Task task) {
+        try {
+            submitTask(task);
         } catch (final Exception e) {
             s_logger.warn("Exception occurred when submitting the task", e);
         }
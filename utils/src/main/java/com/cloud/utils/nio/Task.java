@@ -21,12 +21,13 @@ package com.cloud.utils.nio;
 
 import java.util.concurrent.Callable;
 
+import com.cloud.utils.concurrency.Prioritized;
 import com.cloud.utils.exception.TaskExecutionException;
 
 /**
  * Task represents one todo item for the AgentManager or the AgentManager
  */
-public abstract class Task implements Callable<Boolean> {
+public abstract class Task implements Callable<Boolean>, Prioritized {
 
     public enum Type {
         CONNECT,     // Process a new connection.
@@ -71,6 +72,26 @@ public abstract class Task implements Callable<Boolean> {
         return _data;
     }
 
+    /**
+     * Lane of the handler queue this task waits in when the connection uses a
+     * bounded handler queue; see NioConnection.setHandlerQueueCapacity().
+     */
+    @Override
+    public int getPriority() {
+        return NORMAL;
+    }
+
+    /**
+     * Called instead of running the task when a bounded handler queue has no
+     * room for it.  The link is closed so that its peer reconnects rather than
+     * wait for an answer that never comes.
+     */
+    public void rejected() {
+        if (_link != null) {
+            _link.close();
+        }
+    }
+
     @Override
     public String toString() {
         return _type.toString();
@@ -0,0 +1,78 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static void run(final AdaptiveConcurrencyLimit limit, final int n, final long latency) {
+        for (int i = 0; i < n; i++) {
+            Assert.assertTrue(limit.tryAcquire());
+            limit.release(latency);
+        }
+    }
+
+    @Test
+    public void refusesBeyondLimit() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10, 2.0);
+        Assert.assertTrue(limit.tryAcquire());
+        Assert.assertTrue(limit.tryAcquire());
+        Assert.assertFalse(limit.tryAcquire());
+        Assert.assertEquals(1, limit.getRejectedCount());
+        limit.release(10);
+        Assert.assertTrue(limit.tryAcquire());
+        Assert.assertEquals(2, limit.getInFlight());
+    }
+
+    @Test
+    public void shrinksWhenLatencyRises() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 2, 50, 2.0);
+        run(limit, 100, 10);
+        final int before = limit.getLimit();
+        run(limit, 100, 200);
+        Assert.assertTrue("limit should drop under slow work: " + limit.getLimit(), limit.getLimit() < before);
+        Assert.assertTrue(limit.getLimit() >= 2);
+    }
+
+    @Test
+    public void growsBackWhenBusyAndHealthy() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 2, 8, 2.0);
+        // keep the limit saturated so that growth is allowed
+        for (int round = 0; round < 200; round++) {
+            final int permits = limit.getLimit();
+            for (int i = 0; i < permits; i++) {
+                Assert.assertTrue(limit.tryAcquire());
+            }
+            for (int i = 0; i < permits; i++) {
+                limit.release(10);
+            }
+        }
+        Assert.assertEquals(8, limit.getLimit());
+    }
+
+    @Test
+    public void idleLimitDoesNotGrow() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 50, 2.0);
+        run(limit, 500, 10);
+        Assert.assertEquals(10, limit.getLimit());
+    }
+}
@@ -0,0 +1,153 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HashedTimingWheelTest {
+
+    private static class RecordingTask implements HashedTimingWheel.Task {
+        final List<Long> firedAt = new ArrayList<Long>();
+
+        @Override
+        public void expired(final HashedTimingWheel.Timeout timeout) {
+            firedAt.add(timeout.getDeadline());
+        }
+    }
+
+    @Test
+    public void timeoutFiresOnItsTick() {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 100, 8, 0);
+        final RecordingTask task = new RecordingTask();
+        final HashedTimingWheel.Timeout timeout = wheel.scheduleAt(task, 250);
+        Assert.assertEquals(1, wheel.getPendingTimeouts());
+
+        wheel.advanceTo(200);
+        Assert.assertTrue(task.firedAt.isEmpty());
+        wheel.advanceTo(299);
+        Assert.assertTrue(task.firedAt.isEmpty());
+        wheel.advanceTo(300);
+        Assert.assertEquals(1, task.firedAt.size());
+        Assert.assertTrue(timeout.isExpired());
+        Assert.assertEquals(0, wheel.getPendingTimeouts());
+        Assert.assertEquals(1, wheel.getTotalExpired());
+    }
+
+    @Test
+    public void deadlinesBeyondOneRotationWaitForTheirRound() {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 4, 0);
+        final RecordingTask task = new RecordingTask();
+        wheel.scheduleAt(task, 95);
+        wheel.advanceTo(90);
+        Assert.assertTrue(task.firedAt.isEmpty());
+        wheel.advanceTo(100);
+        Assert.assertEquals(1, task.firedAt.size());
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotFire() {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 4, 0);
+        final RecordingTask task = new RecordingTask();
+        final HashedTimingWheel.Timeout timeout = wheel.scheduleAt(task, 20);
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertFalse(timeout.cancel());
+        wheel.advanceTo(100);
+        Assert.assertTrue(task.firedAt.isEmpty());
+        Assert.assertEquals(0, wheel.getPendingTimeouts());
+    }
+
+    @Test
+    public void overdueTimeoutFiresOnNextTick() {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 4, 0);
+        wheel.advanceTo(1000);
+        final RecordingTask task = new RecordingTask();
+        wheel.scheduleAt(task, 500);
+        wheel.advanceTo(1010);
+        Assert.assertEquals(1, task.firedAt.size());
+    }
+
+    @Test
+    public void fixedRateTaskRepeatsUntilCancelled() {
+        final long start = HashedTimingWheel.currentTimeMillis();
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 8, start);
+        final AtomicInteger runs = new AtomicInteger();
+        final HashedTimingWheel.Handle handle = wheel.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 0, 0, TimeUnit.MILLISECONDS);
+        // the period is clamped to one tick
+        for (long now = 10; now <= 100; now += 10) {
+            wheel.advanceTo(start + now);
+        }
+        Assert.assertTrue(runs.get() >= 9);
+        Assert.assertTrue(handle.cancel());
+        final int before = runs.get();
+        wheel.advanceTo(start + 200);
+        Assert.assertEquals(before, runs.get());
+    }
+
+    @Test
+    public void lagAndExpiryMetrics() {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 8, 0);
+        final RecordingTask task = new RecordingTask();
+        for (int i = 0; i < 5; i++) {
+            wheel.scheduleAt(task, 10);
+        }
+        wheel.advanceTo(35);
+        Assert.assertEquals(5, wheel.getMaxExpiredCount());
+        Assert.assertEquals(0, wheel.getLastExpiredCount());
+        Assert.assertEquals(25, wheel.getMaxTickLagMillis());
+        Assert.assertEquals(5, wheel.getLastTickLagMillis());
+        wheel.resetMaxValues();
+        Assert.assertEquals(0, wheel.getMaxTickLagMillis());
+    }
+
+    @Test
+    public void workerThreadFiresTimeouts() throws InterruptedException {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 64);
+        final CountDownLatch latch = new CountDownLatch(1);
+        wheel.start();
+        try {
+            wheel.schedule(new HashedTimingWheel.Task() {
+                @Override
+                public void expired(final HashedTimingWheel.Timeout timeout) {
+                    latch.countDown();
+                }
+            }, 20, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wheelSizeMustBePowerOfTwo() {
+        new HashedTimingWheel("test", 10, 6);
+    }
+}
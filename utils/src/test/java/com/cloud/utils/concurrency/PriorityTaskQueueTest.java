@@ -0,0 +1,193 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PriorityTaskQueueTest {
+
+    private static class Job implements Runnable, Prioritized {
+        final String name;
+        final int priority;
+
+        Job(final String name, final int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    @Test
+    public void takesHighestPriorityFirst() throws Exception {
+        final PriorityTaskQueue queue = new PriorityTaskQueue(10);
+        final Job low = new Job("low", Prioritized.LOW);
+        final Job normal = new Job("normal", Prioritized.NORMAL);
+        final Job high1 = new Job("high1", Prioritized.HIGH);
+        final Job high2 = new Job("high2", Prioritized.HIGH);
+        Assert.assertTrue(queue.offer(low));
+        Assert.assertTrue(queue.offer(normal));
+        Assert.assertTrue(queue.offer(high1));
+        Assert.assertTrue(queue.offer(high2));
+
+        Assert.assertSame(high1, queue.peek());
+        Assert.assertSame(high1, queue.take());
+        Assert.assertSame(high2, queue.poll());
+        Assert.assertSame(normal, queue.poll(1, TimeUnit.MILLISECONDS));
+        Assert.assertSame(low, queue.take());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void plainRunnablesAreNormalPriority() {
+        final PriorityTaskQueue queue = new PriorityTaskQueue(10);
+        final Runnable plain = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        queue.offer(new Job("low", Prioritized.LOW));
+        queue.offer(plain);
+        Assert.assertSame(plain, queue.poll());
+        Assert.assertEquals(0, queue.size(Prioritized.NORMAL));
+        Assert.assertEquals(1, queue.size(Prioritized.LOW));
+    }
+
+    @Test
+    public void lowPriorityIsAdmittedOnlyBelowItsShare() {
+        final PriorityTaskQueue queue = new PriorityTaskQueue(4, 2);
+        Assert.assertTrue(queue.offer(new Job("l1", Prioritized.LOW)));
+        Assert.assertTrue(queue.offer(new Job("l2", Prioritized.LOW)));
+        Assert.assertFalse(queue.offer(new Job("l3", Prioritized.LOW)));
+        Assert.assertTrue(queue.offer(new Job("n1", Prioritized.NORMAL)));
+        Assert.assertTrue(queue.offer(new Job("h1", Prioritized.HIGH)));
+        Assert.assertFalse(queue.offer(new Job("h2", Prioritized.HIGH)));
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertEquals(1, queue.getRejectedCount(Prioritized.LOW));
+        Assert.assertEquals(1, queue.getRejectedCount(Prioritized.HIGH));
+        Assert.assertEquals(0, queue.getRejectedCount(Prioritized.NORMAL));
+    }
+
+    @Test
+    public void drainAndRemove() {
+        final PriorityTaskQueue queue = new PriorityTaskQueue(10);
+        final Job a = new Job("a", Prioritized.LOW);
+        final Job b = new Job("b", Prioritized.HIGH);
+        final Job c = new Job("c", Prioritized.NORMAL);
+        queue.offer(a);
+        queue.offer(b);
+        queue.offer(c);
+        Assert.assertTrue(queue.remove(c));
+        Assert.assertFalse(queue.remove(c));
+
+        final List<Runnable> drained = new ArrayList<Runnable>();
+        Assert.assertEquals(2, queue.drainTo(drained));
+        Assert.assertSame(b, drained.get(0));
+        Assert.assertSame(a, drained.get(1));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowPriorityCapacityCannotExceedCapacity() {
+        new PriorityTaskQueue(2, 3);
+    }
+
+    @Test
+    public void executorKeepsPriorityOfSubmittedTasks() throws Exception {
+        final PriorityTaskQueue queue = new PriorityTaskQueue(10, 1);
+        final PrioritizedThreadPoolExecutor executor = new PrioritizedThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, queue, new NamedThreadFactory("PriorityTaskQueueTest"));
+        try {
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            final List<String> order = new ArrayList<String>();
+            final Future<?> low = executor.submit(new Order("low", Prioritized.LOW, order));
+            try {
+                executor.submit(new Order("rejected", Prioritized.LOW, order));
+                Assert.fail("low priority share should be full");
+            } catch (final RejectedExecutionException e) {
+                // expected
+            }
+            final Future<?> high = executor.submit(new Order("high", Prioritized.HIGH, order));
+            release.countDown();
+            low.get(5, TimeUnit.SECONDS);
+            high.get(5, TimeUnit.SECONDS);
+            synchronized (order) {
+                Assert.assertEquals("high", order.get(0));
+                Assert.assertEquals("low", order.get(1));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Order implements Callable<Boolean>, Prioritized {
+        final String name;
+        final int priority;
+        final List<String> order;
+
+        Order(final String name, final int priority, final List<String> order) {
+            this.name = name;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public Boolean call() {
+            synchronized (order) {
+                order.add(name);
+            }
+            return true;
+        }
+    }
+}
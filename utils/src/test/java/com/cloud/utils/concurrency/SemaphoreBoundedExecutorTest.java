@@ -0,0 +1,233 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+package com.cloud.utils.concurrency;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SemaphoreBoundedExecutorTest {
+
+    private static void awaitIdle(final SemaphoreBoundedExecutor executor) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getActiveCount() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(0, executor.getActiveCount());
+    }
+
+    @Test
+    public void runsAllTasksWithinLimit() throws Exception {
+        final int limit = 4;
+        final int tasks = 100;
+        final SemaphoreBoundedExecutor executor = new SemaphoreBoundedExecutor(limit, new NamedThreadFactory("SemaphoreBoundedExecutorTest"));
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    try {
+                        Thread.sleep(2);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue("ran " + maxRunning.get() + " tasks at once", maxRunning.get() <= limit);
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executor.getActiveCount());
+        Assert.assertEquals(0, executor.getQueueSize());
+    }
+
+    @Test
+    public void queuedTasksRunAfterShutdown() throws Exception {
+        final SemaphoreBoundedExecutor executor = new SemaphoreBoundedExecutor(1, new NamedThreadFactory("SemaphoreBoundedExecutorTest"));
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch second = new CountDownLatch(1);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                second.countDown();
+            }
+        });
+        Assert.assertEquals(1, executor.getQueueSize());
+
+        executor.shutdown();
+        Assert.assertTrue(executor.isShutdown());
+        release.countDown();
+
+        Assert.assertTrue(second.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void blockedTaskLetsQueuedTaskRun() throws Exception {
+        final SemaphoreBoundedExecutor executor = new SemaphoreBoundedExecutor(1, new NamedThreadFactory("SemaphoreBoundedExecutorTest"));
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch second = new CountDownLatch(1);
+        final CountDownLatch firstDone = new CountDownLatch(1);
+        final AtomicInteger runningAfterResume = new AtomicInteger(-1);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final SemaphoreBoundedExecutor current = SemaphoreBoundedExecutor.beginBlocking();
+                try {
+                    blocked.countDown();
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    SemaphoreBoundedExecutor.endBlocking(current);
+                }
+                runningAfterResume.set(executor.getActiveCount());
+                firstDone.countDown();
+            }
+        });
+        Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                second.countDown();
+            }
+        });
+        Assert.assertTrue("a queued task must start while the running one is blocked", second.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, executor.getBlockedCount());
+        awaitIdle(executor);
+
+        release.countDown();
+        Assert.assertTrue(firstDone.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, runningAfterResume.get());
+        Assert.assertEquals(0, executor.getBlockedCount());
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void resumingTaskDoesNotWaitOnTasksStartedMeanwhile() throws Exception {
+        final SemaphoreBoundedExecutor executor = new SemaphoreBoundedExecutor(1, new NamedThreadFactory("SemaphoreBoundedExecutorTest"));
+        final ReentrantLock lock = new ReentrantLock();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch contending = new CountDownLatch(1);
+        final CountDownLatch firstDone = new CountDownLatch(1);
+        final CountDownLatch secondDone = new CountDownLatch(1);
+        final AtomicInteger runningAfterResume = new AtomicInteger(-1);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                lock.lock();
+                try {
+                    final SemaphoreBoundedExecutor current = SemaphoreBoundedExecutor.beginBlocking();
+                    try {
+                        blocked.countDown();
+                        // the task started with our permit now waits on the lock we hold
+                        contending.await();
+                        while (!lock.hasQueuedThreads()) {
+                            Thread.sleep(1);
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        SemaphoreBoundedExecutor.endBlocking(current);
+                    }
+                    runningAfterResume.set(executor.getActiveCount());
+                } finally {
+                    lock.unlock();
+                }
+                firstDone.countDown();
+            }
+        });
+        Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                contending.countDown();
+                lock.lock();
+                lock.unlock();
+                secondDone.countDown();
+            }
+        });
+
+        Assert.assertTrue("the resuming task must not wait for a permit held by a task waiting on it", firstDone.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(secondDone.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("the resuming task runs past the limit", 2, runningAfterResume.get());
+
+        // the over-admission is paid back, the limit applies again
+        awaitIdle(executor);
+        final CountDownLatch third = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                third.countDown();
+            }
+        });
+        Assert.assertTrue(third.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executor.getActiveCount());
+    }
+
+    @Test
+    public void beginBlockingOutsideExecutorIsNoop() {
+        Assert.assertNull(SemaphoreBoundedExecutor.beginBlocking());
+        SemaphoreBoundedExecutor.endBlocking(null);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsAfterShutdown() {
+        final SemaphoreBoundedExecutor executor = new SemaphoreBoundedExecutor(1, new NamedThreadFactory("SemaphoreBoundedExecutorTest"));
+        executor.shutdown();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+}
@@ -0,0 +1,111 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedLongMapTest {
+
+    @Test
+    public void putGetRemove() {
+        final StripedLongMap<String> map = new StripedLongMap<String>(4, 8);
+        Assert.assertNull(map.put(1L, "a"));
+        Assert.assertEquals("a", map.put(1L, "b"));
+        Assert.assertEquals("b", map.get(1L));
+        Assert.assertNull(map.get(2L));
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals("b", map.remove(1L));
+        Assert.assertNull(map.get(1L));
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void conditionalOperations() {
+        final StripedLongMap<String> map = new StripedLongMap<String>(4, 8);
+        Assert.assertNull(map.replace(7L, "x"));
+        Assert.assertNull(map.get(7L));
+        Assert.assertNull(map.putIfAbsent(7L, "x"));
+        Assert.assertEquals("x", map.putIfAbsent(7L, "y"));
+        Assert.assertEquals("x", map.replace(7L, "z"));
+        Assert.assertFalse(map.remove(7L, "x"));
+        Assert.assertTrue(map.remove(7L, map.get(7L)));
+        Assert.assertFalse(map.containsKey(7L));
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        final StripedLongMap<Long> map = new StripedLongMap<Long>(8, 16);
+        final Map<Long, Long> reference = new HashMap<Long, Long>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // a small key space forces long probe runs, collisions and deletes inside runs
+            final long key = random.nextInt(2000) * 1024L;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(reference.remove(key), map.remove(key));
+            } else {
+                final Long value = Long.valueOf(i);
+                Assert.assertEquals(reference.put(key, value), map.put(key, value));
+            }
+        }
+        Assert.assertEquals(reference.size(), map.size());
+        for (final Map.Entry<Long, Long> entry : reference.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        final List<Long> values = map.values();
+        Assert.assertEquals(reference.size(), values.size());
+    }
+
+    @Test
+    public void concurrentWritersOnDistinctKeys() throws InterruptedException {
+        final StripedLongMap<Long> map = new StripedLongMap<Long>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (long i = 0; i < 10000; i++) {
+                        final long key = i * threads.length + offset;
+                        map.put(key, key);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(40000, map.size());
+        for (long key = 0; key < 40000; key++) {
+            Assert.assertEquals(Long.valueOf(key), map.get(key));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullValuesAreRejected() {
+        new StripedLongMap<String>().put(1L, null);
+    }
+}
@@ -0,0 +1,82 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void acquireRoundsUpToSizeClass() {
+        final ByteBufferPool pool = new ByteBufferPool(new int[] {64, 1024}, 4);
+        final ByteBuffer buffer = pool.acquire(100);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(1024, buffer.capacity());
+        Assert.assertEquals(100, buffer.limit());
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(1, pool.getMisses());
+        Assert.assertEquals(0, pool.getHits());
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        final ByteBufferPool pool = new ByteBufferPool(new int[] {64, 1024}, 4);
+        final ByteBuffer first = pool.acquire(4);
+        first.putInt(42);
+        pool.release(first);
+        Assert.assertEquals(1, pool.getPooledCounts()[0]);
+
+        final ByteBuffer second = pool.acquire(8);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(0, second.position());
+        Assert.assertEquals(8, second.limit());
+        Assert.assertEquals(1, pool.getHits());
+        Assert.assertEquals(0, pool.getPooledCounts()[0]);
+    }
+
+    @Test
+    public void oversizedRequestIsNotPooled() {
+        final ByteBufferPool pool = new ByteBufferPool(new int[] {64}, 4);
+        final ByteBuffer buffer = pool.acquire(65);
+        Assert.assertFalse(buffer.isDirect());
+        Assert.assertEquals(1, pool.getOversizedAllocations());
+        pool.release(buffer);
+        Assert.assertEquals(0, pool.getPooledCounts()[0]);
+    }
+
+    @Test
+    public void freeListIsBounded() {
+        final ByteBufferPool pool = new ByteBufferPool(new int[] {64}, 1);
+        final ByteBuffer first = pool.acquire(10);
+        final ByteBuffer second = pool.acquire(10);
+        pool.release(first);
+        pool.release(second);
+        Assert.assertEquals(1, pool.getPooledCounts()[0]);
+        Assert.assertEquals(1, pool.getDiscards());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeClassesMustBeAscending() {
+        new ByteBufferPool(new int[] {1024, 64}, 1);
+    }
+}
@@ -0,0 +1,169 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.concurrency.Prioritized;
+
+public class NioConnectionTest {
+
+    private static class TestConnection extends NioConnection {
+        TestConnection() {
+            super("NioConnectionTest", 0, 1, null);
+        }
+
+        @Override
+        void init() throws IOException {
+        }
+
+        @Override
+        void registerLink(final InetSocketAddress saddr, final Link link) {
+        }
+
+        @Override
+        void unregisterLink(final InetSocketAddress saddr) {
+        }
+    }
+
+    private static class TestTask extends Task {
+        private final int _priority;
+        private final CountDownLatch _wait;
+        private final CountDownLatch _done;
+
+        TestTask(final Task.Type type, final int priority, final CountDownLatch wait, final CountDownLatch done) {
+            super(type, null, (byte[])null);
+            _priority = priority;
+            _wait = wait;
+            _done = done;
+        }
+
+        @Override
+        public int getPriority() {
+            return _priority;
+        }
+
+        @Override
+        protected void doTask(final Task task) {
+            try {
+                if (_wait != null) {
+                    _wait.await(10, TimeUnit.SECONDS);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (_done != null) {
+                _done.countDown();
+            }
+        }
+    }
+
+    private TestConnection connection;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        connection = new TestConnection();
+        connection.setHandlerQueueCapacity(1, 1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        connection.stop();
+    }
+
+    /**
+     * Occupies every handler thread (one core, five max) and the single queue slot.
+     */
+    private void saturate() {
+        for (int i = 0; i < 6; i++) {
+            connection.submitTask(new TestTask(Task.Type.DATA, Prioritized.NORMAL, release, null));
+        }
+    }
+
+    @Test
+    public void highPriorityTaskRunsWhenQueueIsFull() throws InterruptedException {
+        saturate();
+        final CountDownLatch done = new CountDownLatch(1);
+        connection.submitTask(new TestTask(Task.Type.DATA, Prioritized.HIGH, null, done));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void disconnectTaskRunsWhenQueueIsFull() throws InterruptedException {
+        saturate();
+        final CountDownLatch done = new CountDownLatch(1);
+        connection.submitTask(new TestTask(Task.Type.DISCONNECT, Prioritized.NORMAL, null, done));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void lowPriorityTaskIsRejectedWhenQueueIsFull() throws InterruptedException {
+        saturate();
+        final AtomicInteger ran = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        connection.submitTask(new TestTask(Task.Type.DATA, Prioritized.LOW, null, null) {
+            @Override
+            protected void doTask(final Task task) {
+                ran.incrementAndGet();
+            }
+
+            @Override
+            public void rejected() {
+                rejected.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(1, rejected.get());
+        release.countDown();
+        Thread.sleep(200);
+        Assert.assertEquals(0, ran.get());
+    }
+
+    @Test
+    public void callerRunsTaskWhenOverflowIsFull() throws InterruptedException {
+        saturate();
+        // one overflow thread and one overflow queue slot
+        connection.submitTask(new TestTask(Task.Type.DATA, Prioritized.HIGH, release, null));
+        connection.submitTask(new TestTask(Task.Type.DATA, Prioritized.HIGH, release, null));
+
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger ranOnCaller = new AtomicInteger();
+        connection.submitTask(new TestTask(Task.Type.DATA, Prioritized.HIGH, null, null) {
+            @Override
+            protected void doTask(final Task task) {
+                if (Thread.currentThread() == caller) {
+                    ranOnCaller.incrementAndGet();
+                }
+            }
+        });
+        Assert.assertEquals(1, ranOnCaller.get());
+    }
+}